@@ -0,0 +1,95 @@
+package com.gyq.ble.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gyq.ble.model.ApiResponse;
+import com.gyq.ble.service.AdmissionService;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 打分接口的准入过滤器
+ *
+ * 在读取、绑定请求体之前向 {@link AdmissionService} 申请名额，被拒绝的请求直接返回 429 / 503（带 Retry-After），
+ * 不再消耗解析和打分的 CPU。客户端按 admission.client-header 请求头区分，没有时取 deviceId 参数，再没有时取来源地址。
+ */
+@Component
+public class AdmissionFilter extends OncePerRequestFilter {
+
+    /**
+     * 受准入控制的 POST 接口（Ant 风格路径）
+     */
+    @Value("${admission.paths:/api/predict,/api/knn/predict,/api/session/**}")
+    private List<String> paths;
+
+    /**
+     * 标识客户端的请求头
+     */
+    @Value("${admission.client-header:X-Client-Id}")
+    private String clientHeader;
+
+    @Autowired
+    private AdmissionService admissionService;
+
+    private final AntPathMatcher matcher = new AntPathMatcher();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!admissionService.isEnabled() || !"POST".equals(request.getMethod())) {
+            return true;
+        }
+        String path = request.getServletPath();
+        return paths.stream().noneMatch(pattern -> matcher.match(pattern, path));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        AdmissionService.Permit permit;
+        try {
+            permit = admissionService.acquire(clientOf(request));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            reject(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "服务繁忙");
+            return;
+        }
+        if (!permit.admitted()) {
+            reject(response, permit.status(), permit.reason());
+            return;
+        }
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            admissionService.release(permit);
+        }
+    }
+
+    private String clientOf(HttpServletRequest request) {
+        String client = request.getHeader(clientHeader);
+        if (client == null || client.isEmpty()) {
+            client = request.getParameter("deviceId");
+        }
+        return client == null || client.isEmpty() ? request.getRemoteAddr() : client;
+    }
+
+    private void reject(HttpServletResponse response, int status, String reason) throws IOException {
+        response.setStatus(status);
+        response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding("UTF-8");
+        objectMapper.writeValue(response.getOutputStream(), ApiResponse.error(reason));
+    }
+}
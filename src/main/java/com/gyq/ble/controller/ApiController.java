@@ -2,18 +2,48 @@ package com.gyq.ble.controller;
 
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
+import com.gyq.ble.index.BeaconDictionary;
+import com.gyq.ble.index.BinaryScanCodec;
+import com.gyq.ble.index.FingerprintIndex;
+import com.gyq.ble.index.ScanBuffer;
 import com.gyq.ble.model.*;
+import com.gyq.ble.service.DatasetImportService;
 import com.gyq.ble.service.DatasetService;
+import com.gyq.ble.service.ExplainService;
+import com.gyq.ble.service.ExportService;
+import com.gyq.ble.service.FeatureSelectionService;
+import com.gyq.ble.service.FingerprintIndexService;
+import com.gyq.ble.service.FingerprintShardService;
 import com.gyq.ble.service.JsonStorageService;
 import com.gyq.ble.service.KnnService;
+import com.gyq.ble.service.PipelineMetrics;
+import com.gyq.ble.service.PositionStreamService;
+import com.gyq.ble.service.PredictService;
+import com.gyq.ble.service.ScanSessionService;
+import com.gyq.ble.service.TuningService;
+import com.gyq.ble.service.WarmupService;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * API控制器，提供BLE定位相关的REST接口
@@ -22,7 +52,7 @@ import java.util.stream.Collectors;
 @RestController
 @RequestMapping("/api")
 public class ApiController {
-    private final static ConcurrentHashMap<Integer, List<BeaconReading>> map = new ConcurrentHashMap<>();
+    private final static ConcurrentHashMap<Integer, ScanBuffer> map = new ConcurrentHashMap<>();
     private final static ConcurrentHashMap<String,Integer> countMap = new ConcurrentHashMap<>();
     private final static ConcurrentHashMap<String,Integer> nameMap = new ConcurrentHashMap<>();
 
@@ -30,246 +60,426 @@ public class ApiController {
     @Autowired
     private JsonStorageService jsonStorageService;
     
+    @Autowired
+    private PipelineMetrics metrics;
+    
+    @Autowired
+    private ExplainService explainService;
+    
+    @Autowired
+    private FingerprintIndexService fingerprintIndexService;
+    
+    @Autowired
+    private PredictService predictService;
+    
+    @Autowired
+    private PositionStreamService positionStreamService;
+    
+    @Autowired
+    private ScanSessionService scanSessionService;
+
+    @Autowired
+    private FingerprintShardService fingerprintShardService;
+
+    @Autowired
+    private KnnService knnService;
 
+    @Autowired
+    private DatasetService datasetService;
+
+    @Autowired
+    private DatasetImportService datasetImportService;
+
+    @Autowired
+    private ExportService exportService;
+
+    @Autowired
+    private WarmupService warmupService;
+
+    @Autowired
+    private ApplicationAvailability availability;
+
+    @Autowired
+    private TuningService tuningService;
+
+    @Autowired
+    private FeatureSelectionService featureSelectionService;
+    
+    /**
+     * 注册采集缓存大小仪表
+     */
+    @PostConstruct
+    public void registerMetrics() {
+        metrics.gauge("ble.cache.batches", "addData 已缓存的批次数", map::size);
+        metrics.gauge("ble.cache.beacon.counts", "addData 信标计数缓存大小", countMap::size);
+        metrics.gauge("ble.cache.regions", "addData 区域采集次数缓存大小", nameMap::size);
+    }
     
     /**
      * 区域预测
      * 
      * POST /api/predict
+     * 
+     * @param explain  为 true 时记录本次预测的解释轨迹（候选、对齐向量、各项指标），可通过 /api/explain 查询
+     * @param deviceId 被跟踪设备ID，携带时启用区域跟踪（邻域优先搜索），并把结果推送给 /api/stream/{deviceId} 的订阅者
+     * @param budgetMs 打分的时延预算（毫秒），超时返回已打分候选中的最好结果并标记 truncated；缺省取 search.default-budget-ms
      */
     @PostMapping("/predict")
-    public ResponseEntity<PredictResponse> predict(@RequestBody PredictPayload payload) {
-        HashMap<Object, Object> hashMap = new HashMap<>();
-        HashMap<Object, Object> result = new HashMap<>();
-        //预处理数据
-        // 1) 过滤 RSSI：(-85, 0) 区间
-        List<BeaconReading> list = payload.getBeacons();
-        List<BeaconReading> readings = list.stream()
-                .filter(item -> item.getRssi() < 0 && item.getRssi() > -85)
-                .toList();
-        readings.forEach(item -> {
-            String key = buildKey(item);
-            hashMap.put(key, item.getRssi());
-        });
-     jsonStorageService.loadAllData().forEach((key, map) -> {
-         String jsonString = JSON.toJSONString(map);
-         String jsonString1 = JSON.toJSONString(hashMap);
-         Double v = SimilarityMetricsDemo.cosDouble(jsonString1, jsonString);
-         System.out.println(key + ":" + v);
-         
-         // 只有当相似度不为 null 时才添加到结果中
-         if (v != null) {
-             result.put(key, v);
-         } else {
-             System.out.println("警告: " + key + " 的相似度计算结果为 null，跳过此结果");
-         }
-     });
-
-
-        // 转换为 List
-        List<Map.Entry<Object, Object>> listA = new ArrayList<>(result.entrySet());
-
-        // 排序（从大到小）
-        listA.sort(new Comparator<Map.Entry<Object, Object>>() {
-            @Override
-            public int compare(Map.Entry<Object, Object> o1, Map.Entry<Object, Object> o2) {
-                Double v1 = (Double) o1.getValue();
-                Double v2 = (Double) o2.getValue();
-
-                // 处理 null 值：null 值排在最后
-                if (v1 == null && v2 == null) return 0;
-                if (v1 == null) return 1;  // v1 为 null，排在后面
-                if (v2 == null) return -1; // v2 为 null，v1 排在前面
-
-                return v2.compareTo(v1); // 从大到小
-            }
-        });
-
-        // 打印排序结果
-        System.out.println("排序后：");
-        for (Map.Entry<Object, Object> entry : listA) {
-            Double value = (Double) entry.getValue();
-            if (value != null) {
-                System.out.printf("%s => %.2f%n", entry.getKey(), value);
-            } else {
-                System.out.printf("%s => null%n", entry.getKey());
-            }
+    public ResponseEntity<PredictResponse> predict(@RequestBody ScanBuffer scan,
+                                                   @RequestParam(value = "explain", defaultValue = "false") boolean explain,
+                                                   @RequestParam(value = "deviceId", required = false) String deviceId,
+                                                   @RequestParam(value = "budgetMs", required = false) Integer budgetMs) {
+        long begin = metrics.start();
+        int explainMode = explainService.decide(explain);
+        ExplainTrace trace = explainMode == 0 ? null : new ExplainTrace();
+
+        PredictResponse response = predictService.predict(scan, trace, deviceId, budgetMs);
+        if (deviceId != null && !deviceId.isEmpty()) {
+            positionStreamService.publish(deviceId, response);
         }
 
-        // 如果需要一个保持顺序的 Map
-        Map<Object, Object> sortedMap = new LinkedHashMap<>();
-        for (Map.Entry<Object, Object> entry : listA) {
-            sortedMap.put(entry.getKey(), entry.getValue());
+        ResponseEntity.BodyBuilder ok = ResponseEntity.ok();
+        if (trace != null) {
+            trace.setSampled(explainMode == 2);
+            trace.setDurationMicros((System.nanoTime() - begin) / 1000);
+            ok.header("X-Explain-Id", String.valueOf(explainService.record(trace)));
         }
-        System.out.println("\n有序 Map: " + sortedMap);
+        return ok.body(response);
+    }
 
-        // 实现 KNN 相似度匹配
-        PredictResponse response = performKnnPrediction(sortedMap);
-        
-        return ResponseEntity.ok(response);
+    /**
+     * 信标列评分（与 region_id 的互信息、覆盖率、方差），按互信息降序；selected 表示保留在 KNN 的精简列集中
+     * 
+     * GET /api/features
+     */
+    @GetMapping("/features")
+    public ResponseEntity<List<FeatureScore>> features() {
+        return ResponseEntity.ok(featureSelectionService.ranking());
+    }
+
+    /**
+     * 健康检查
+     * 
+     * GET /api/health
+     */
+    @GetMapping("/health")
+    public ResponseEntity<HealthResponse> health() {
+        return ResponseEntity.ok(new HealthResponse("UP", datasetService.getBeaconColumnCount(), datasetService.getSampleCount()));
+    }
+
+    /**
+     * 就绪检查：启动预热完成前返回 503，供负载均衡判断是否转发流量
+     * 
+     * GET /api/ready
+     */
+    @GetMapping("/ready")
+    public ResponseEntity<ReadinessResponse> ready() {
+        FingerprintIndex index = fingerprintIndexService.current();
+        boolean ready = availability.getReadinessState() == ReadinessState.ACCEPTING_TRAFFIC;
+        ReadinessResponse response = new ReadinessResponse(ready, warmupService.getState(), warmupService.getPredictions(),
+                warmupService.getMillis(), warmupService.getLastMicros(), index.size(), index.regionCount(),
+                index.getVersion(), datasetService.getSampleCount(), datasetService.getBeaconColumnCount());
+        return ready ? ResponseEntity.ok(response) : ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(response);
     }
 
     /**
-     * 执行 KNN 相似度匹配预测
+     * 重新加载 CSV 数据集、指纹库与调参配置
      * 
-     * @param sortedMap 按相似度排序的结果映射
-     * @return 预测响应
+     * GET /api/reload，新数据在旁边读取、校验、构建后整体替换；期间预测继续使用旧版本，不被阻塞。
+     * 校验失败时保留旧版本并返回 500（ok=false）
      */
-    private PredictResponse performKnnPrediction(Map<Object, Object> sortedMap) {
-        PredictResponse response = new PredictResponse();
-        
-        if (sortedMap.isEmpty()) {
-            log.warn("没有找到任何相似度数据，无法进行预测");
-            return response;
+    @GetMapping("/reload")
+    public ResponseEntity<ReloadResponse> reload() {
+        try {
+            DatasetService.Snapshot data = datasetService.load();
+            fingerprintIndexService.reload();
+            tuningService.reload();
+            return ResponseEntity.ok(new ReloadResponse(true, data.beaconColumns().size(), data.labels().size()));
+        } catch (Exception e) {
+            log.error("重新加载失败，继续使用旧版本", e);
+            return ResponseEntity.internalServerError()
+                    .body(new ReloadResponse(false, datasetService.getBeaconColumnCount(), datasetService.getSampleCount()));
         }
-        
-        // 提取区域名称和相似度
-        Map<String, Double> regionSimilarities = new HashMap<>();
-        
-        for (Map.Entry<Object, Object> entry : sortedMap.entrySet()) {
-            String key = (String) entry.getKey();
-            Double similarity = (Double) entry.getValue();
-            
-            if (similarity != null) {
-                // 从点位名称中提取区域名称（如 "1_3" -> "1"）
-                String regionName = extractRegionName(key);
-                if (regionName != null) {
-                    // 如果同一区域有多个点位，取最高相似度
-                    regionSimilarities.merge(regionName, similarity, Double::max);
-                }
-            }
+    }
+
+    /**
+     * 批量导入勘测样本
+     * 
+     * POST /api/dataset/import，Content-Type: text/csv（表头同数据集文件）或 application/x-ndjson（每行一个 SurveyRecord）。
+     * 请求体流式解析，全部行一次提交（数据集版本号只加 1）；格式错误或超过 dataset.import-max-rows 时返回 400 且不导入任何行
+     */
+    @PostMapping(value = "/dataset/import", consumes = {"text/csv", "application/x-ndjson"})
+    public ResponseEntity<ImportResult> importDataset(@RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+                                                      InputStream body) {
+        try {
+            ImportResult result = MediaType.parseMediaType(contentType).isCompatibleWith(MediaType.parseMediaType("text/csv"))
+                    ? datasetImportService.importCsv(body) : datasetImportService.importNdjson(body);
+            return ResponseEntity.ok(result);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            log.warn("批量导入被拒绝: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (IOException e) {
+            log.error("批量导入失败，数据集未修改", e);
+            return ResponseEntity.internalServerError().build();
         }
-        
-        if (regionSimilarities.isEmpty()) {
-            log.warn("没有找到有效的区域相似度数据");
-            return response;
+    }
+
+    /**
+     * 流式导出数据集
+     * 
+     * GET /api/export/dataset?format=csv|ndjson|binary&gzip=false，导出取请求时刻的快照（响应头 X-Dataset-Version），
+     * 逐行写出，不阻塞并发的预测与追加
+     */
+    @GetMapping("/export/dataset")
+    public void exportDataset(@RequestParam(value = "format", defaultValue = "csv") String format,
+                              @RequestParam(value = "gzip", defaultValue = "false") boolean gzip,
+                              HttpServletResponse response) throws IOException {
+        if (!ExportService.DATASET_FORMATS.contains(format)) {
+            response.sendError(HttpStatus.BAD_REQUEST.value(), "format 只支持 " + ExportService.DATASET_FORMATS);
+            return;
         }
-        
-        // 按相似度排序区域
-        List<Map.Entry<String, Double>> regionList = new ArrayList<>(regionSimilarities.entrySet());
-        regionList.sort((e1, e2) -> Double.compare(e2.getValue(), e1.getValue())); // 从高到低排序
-        
-        // 设置 Top-1 预测结果
-        if (!regionList.isEmpty()) {
-            String topRegion = regionList.get(0).getKey();
-            try {
-                response.setRegionTop1(Integer.parseInt(topRegion));
-                log.info("Top-1 预测区域: {}, 相似度: {}", topRegion, regionList.get(0).getValue());
-            } catch (NumberFormatException e) {
-                log.warn("区域名称无法转换为整数: {}", topRegion);
+        try (DatasetService.Snapshot data = datasetService.acquire()) {
+            response.setHeader("X-Dataset-Version", String.valueOf(data.version()));
+            try (OutputStream out = exportStream(response, "dataset-v" + data.version(), format, gzip)) {
+                exportService.writeDataset(data, format, out);
             }
         }
-        
-        // 设置 Top-3 预测结果
-        List<PredictResponse.RegionScore> top3List = new ArrayList<>();
-        int count = Math.min(3, regionList.size());
-        for (int i = 0; i < count; i++) {
-            Map.Entry<String, Double> entry = regionList.get(i);
-            try {
-                Integer regionId = Integer.parseInt(entry.getKey());
-                Double score = entry.getValue();
-                top3List.add(new PredictResponse.RegionScore(regionId, score));
-            } catch (NumberFormatException e) {
-                log.warn("区域名称无法转换为整数: {}", entry.getKey());
-            }
+    }
+
+    /**
+     * 流式导出指纹库
+     * 
+     * GET /api/export/fingerprints?format=json|ndjson|csv|binary&gzip=false，导出当前指纹索引（响应头 X-Fingerprint-Version），
+     * json 与 median_data.json 结构相同
+     */
+    @GetMapping("/export/fingerprints")
+    public void exportFingerprints(@RequestParam(value = "format", defaultValue = "json") String format,
+                                   @RequestParam(value = "gzip", defaultValue = "false") boolean gzip,
+                                   HttpServletResponse response) throws IOException {
+        if (!ExportService.FINGERPRINT_FORMATS.contains(format)) {
+            response.sendError(HttpStatus.BAD_REQUEST.value(), "format 只支持 " + ExportService.FINGERPRINT_FORMATS);
+            return;
+        }
+        FingerprintIndex index = fingerprintIndexService.current();
+        response.setHeader("X-Fingerprint-Version", String.valueOf(index.getVersion()));
+        try (OutputStream out = exportStream(response, "fingerprints-v" + index.getVersion(), format, gzip)) {
+            exportService.writeFingerprints(index, format, out);
         }
-        response.setRegionTop3(top3List);
-        
-        log.info("KNN 预测完成，Top-1: {}, Top-3: {}", 
-                response.getRegionTop1(), 
-                top3List.stream().map(rs -> rs.getRegionId() + "(" + String.format("%.3f", rs.getScore()) + ")").collect(Collectors.joining(", ")));
-        
-        return response;
     }
-    
+
+    /**
+     * 设置导出响应头并返回（可选 gzip 压缩的）输出流
+     */
+    private static OutputStream exportStream(HttpServletResponse response, String name, String format, boolean gzip)
+            throws IOException {
+        String extension = format.equals("binary") ? "bin" : format;
+        response.setContentType(gzip ? "application/gzip" : ExportService.mediaType(format));
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                "attachment; filename=\"" + name + "." + extension + (gzip ? ".gz" : "") + "\"");
+        OutputStream out = response.getOutputStream();
+        return gzip ? new GZIPOutputStream(out, 1 << 16) : new BufferedOutputStream(out, 1 << 16);
+    }
+
+    /**
+     * 基于 CSV 数据集的 KNN 区域预测
+     * 
+     * POST /api/knn/predict，可携带 device / heading / time_slot：只在元数据匹配的样本中找邻居（样本不足时回退全局），
+     * 并按设备型号的 RSSI 偏移校准扫描
+     */
+    @PostMapping("/knn/predict")
+    public ResponseEntity<PredictResponse> knnPredict(@RequestBody KnnPredictPayload payload) {
+        return ResponseEntity.ok(knnService.predict(payload));
+    }
+
     /**
-     * 从点位名称中提取区域名称
-     * 例如: "1_3" -> "1", "2_5" -> "2"
+     * 增量扫描预测（会话模式）
+     * 
+     * POST /api/session/{sessionId}，请求体只包含新增/变化（upsert）与消失（remove）的信标；
+     * 首次请求或收到 410 后携带 reset=true 发送完整扫描
      * 
-     * @param pointName 点位名称
-     * @return 区域名称，如果格式不正确则返回 null
+     * @param deviceId 被跟踪设备ID，携带时把结果推送给 /api/stream/{deviceId} 的订阅者
      */
-    private String extractRegionName(String pointName) {
-        if (pointName == null || pointName.isEmpty()) {
-            return null;
+    @PostMapping("/session/{sessionId}")
+    public ResponseEntity<PredictResponse> sessionScan(@PathVariable String sessionId,
+                                                       @RequestBody ScanDelta delta,
+                                                       @RequestParam(value = "deviceId", required = false) String deviceId) {
+        PredictResponse response = scanSessionService.apply(sessionId, delta);
+        if (response == null) {
+            return ResponseEntity.status(HttpStatus.GONE).build();
         }
-        
-        int underscoreIndex = pointName.indexOf('_');
-        if (underscoreIndex > 0) {
-            return pointName.substring(0, underscoreIndex);
+        if (deviceId != null && !deviceId.isEmpty()) {
+            positionStreamService.publish(deviceId, response);
         }
-        
-        // 如果没有下划线，返回整个字符串
-        return pointName;
+        return ResponseEntity.ok(response);
     }
 
+    /**
+     * 关闭增量扫描会话
+     */
+    @DeleteMapping("/session/{sessionId}")
+    public ResponseEntity<Void> closeSession(@PathVariable String sessionId) {
+        return scanSessionService.remove(sessionId)
+                ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * 订阅设备的位置更新（Server-Sent Events）
+     * 
+     * GET /api/stream/{deviceId}，事件名 position，数据为 PositionEvent
+     */
+    @GetMapping(value = "/stream/{deviceId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> stream(@PathVariable String deviceId) {
+        SseEmitter emitter = positionStreamService.subscribe(deviceId);
+        if (emitter == null) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        return ResponseEntity.ok(emitter);
+    }
 
+    /**
+     * 最近的解释轨迹
+     * 
+     * GET /api/explain?limit=20
+     */
+    @GetMapping("/explain")
+    public ResponseEntity<List<ExplainTrace>> explainTraces(@RequestParam(value = "limit", defaultValue = "20") int limit) {
+        return ResponseEntity.ok(explainService.recent(limit));
+    }
 
+    /**
+     * 按ID查询解释轨迹
+     * 
+     * GET /api/explain/{id}
+     */
+    @GetMapping("/explain/{id}")
+    public ResponseEntity<ExplainTrace> explainTrace(@PathVariable("id") long id) {
+        ExplainTrace trace = explainService.get(id);
+        return trace == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(trace);
+    }
 
     /**
      * 新增数据
      */
     @PostMapping("/addData")
     public ResponseEntity<Void> addData(@RequestBody BleDto bleDto) {
-        // 1) 过滤 RSSI：(-85, 0) 区间
+        long begin = metrics.start();
+        long t = begin;
+        // 1) 过滤 RSSI：(rssiMin, rssiMax) 区间，默认 (-85, 0)
+        TuningService.Settings settings = tuningService.current();
         List<BeaconReading> list = bleDto.getDto();
         List<BeaconReading> readings = list.stream()
-                .filter(item -> item.getRssi() < 0 && item.getRssi() > -85)
+                .filter(item -> settings.accepts(item.getRssi()))
                 .toList();
 
+        // 解析为信标ID，新信标追加到字典
+        BeaconDictionary dictionary = fingerprintIndexService.intern(
+                readings.stream().map(ApiController::buildKey).toList());
+        ScanBuffer scan = ScanBuffer.acquire(dictionary);
+        for (BeaconReading item : readings) {
+            scan.add(dictionary.idOf(buildKey(item)), item.getRssi());
+        }
+        scan.seal();
+        t = metrics.stage(PipelineMetrics.ADD_DATA, "filter", t);
+
+        collect(bleDto.getCount(), bleDto.getRegional(), scan, begin, t);
+        return ResponseEntity.ok().build();
+    }
+
+    /**
+     * 新增数据（二进制扫描格式）
+     * 
+     * POST /api/addData?count=1&regional=1，Content-Type: application/x-ble-scan
+     */
+    @PostMapping(value = "/addData", consumes = BinaryScanCodec.MEDIA_TYPE)
+    public ResponseEntity<Void> addDataBinary(@RequestBody byte[] body,
+                                              @RequestParam("count") Integer count,
+                                              @RequestParam("regional") String regional) {
+        long begin = metrics.start();
+        ScanBuffer scan;
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(body);
+            // 新信标追加到字典后再解码，采集数据不能丢弃未知信标
+            BeaconDictionary dictionary = fingerprintIndexService.intern(
+                    BinaryScanCodec.unknownKeys(buf, fingerprintIndexService.dictionary()));
+            scan = ScanBuffer.acquire(dictionary);
+            TuningService.Settings settings = tuningService.current();
+            BinaryScanCodec.decode(buf, scan, dictionary, settings.rssiMin(), settings.rssiMax());
+        } catch (IllegalArgumentException e) {
+            log.warn("二进制扫描数据解析失败: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+        long t = metrics.stage(PipelineMetrics.ADD_DATA, "filter", begin);
+
+        collect(count, regional, scan, begin, t);
+        return ResponseEntity.ok().build();
+    }
+
+    /**
+     * 缓存一批采集数据，累计到第 20 批时计算中位数指纹并保存
+     */
+    private void collect(Integer count, String regional, ScanBuffer scan, long begin, long t) {
         // 2) 缓存当次数据
-        map.put(bleDto.getCount(), readings);
-        System.out.println("当前数据："+bleDto.getCount());
+        map.put(count, scan.copy());
+        log.debug("当前数据：{}", count);
+        t = metrics.stage(PipelineMetrics.ADD_DATA, "cache", t);
         // 3) 当累计到第 20 批时开始统计
-        if (bleDto.getCount() == 20) {
+        if (count == 20) {
             // 3.1 统计每个 beacon（uuid_minor_major）的出现次数
-            for (Map.Entry<Integer, List<BeaconReading>> integerListEntry : map.entrySet()) {
-                integerListEntry.getValue().forEach(item -> {
-                    String key = buildKey(item);
+            for (ScanBuffer batch : map.values()) {
+                for (int i = 0; i < batch.size(); i++) {
+                    String key = batch.dictionary().keyOf(batch.id(i));
                     countMap.put(key, countMap.getOrDefault(key, 0) + 1);
-                });
+                }
             }
 
             log.info("原始的 countMap 数据是：{}", countMap);
 
-            // 3.2 过滤出现次数 <= 5 的 beacon
-            countMap.entrySet().removeIf(e -> e.getValue() <= 5);
+            // 3.2 过滤出现次数 <= minOccurrences（默认 5）的 beacon
+            int minOccurrences = tuningService.current().minOccurrences();
+            countMap.entrySet().removeIf(e -> e.getValue() <= minOccurrences);
 
             log.info("过滤后的 countMap 数据是：{}", countMap);
 
             // 3.3 针对过滤后仍存在的 key，从 map 中收集其所有 rssi，并计算中位数
-            Map<String, List<Integer>> rssiBucket = new HashMap<>();
-            for (Map.Entry<Integer, List<BeaconReading>> entry : map.entrySet()) {
-                for (BeaconReading item : entry.getValue()) {
-                    String key = buildKey(item);
+            Map<String, List<Double>> rssiBucket = new HashMap<>();
+            for (ScanBuffer batch : map.values()) {
+                for (int i = 0; i < batch.size(); i++) {
+                    String key = batch.dictionary().keyOf(batch.id(i));
                     if (countMap.containsKey(key)) { // 命中需要统计中位数的 key
-                        rssiBucket.computeIfAbsent(key, k -> new ArrayList<>()).add(item.getRssi());
+                        rssiBucket.computeIfAbsent(key, k -> new ArrayList<>()).add(batch.rssi(i));
                     }
                 }
             }
 
             // 3.4 计算中位数
             Map<String, Double> medianMap = new HashMap<>();
-            for (Map.Entry<String, List<Integer>> e : rssiBucket.entrySet()) {
+            for (Map.Entry<String, List<Double>> e : rssiBucket.entrySet()) {
                 double median = calcMedian(e.getValue());
                 medianMap.put(e.getKey(), median);
             }
 
             // 3.5 打印结果（可替换为返回前端或写库）
             log.info("各 beacon 的 RSSI 中位数结果：{}", medianMap);
+            t = metrics.stage(PipelineMetrics.ADD_DATA, "aggregate", t);
 
-            nameMap.put(bleDto.getRegional(),nameMap.getOrDefault(bleDto.getRegional(),0)+1);
-            log.info("{}号区域，第{}次",bleDto.getRegional(),nameMap.get(bleDto.getRegional()));
+            nameMap.put(regional,nameMap.getOrDefault(regional,0)+1);
+            log.info("{}号区域，第{}次",regional,nameMap.get(regional));
             // 3.6 保存 medianMap 数据到本地 JSON 文件
-            String storageKey = bleDto.getRegional() + "_" + nameMap.get(bleDto.getRegional());
-            jsonStorageService.saveMedianData(storageKey, medianMap);
+            String storageKey = regional + "_" + nameMap.get(regional);
+            if (fingerprintShardService.isEnabled()) {
+                fingerprintShardService.save(storageKey, medianMap);
+            } else {
+                jsonStorageService.saveMedianData(storageKey, medianMap);
+            }
             log.info("已保存 medianMap 数据到 JSON 文件，key: {}", storageKey);
+            metrics.stage(PipelineMetrics.ADD_DATA, "save", t);
+            metrics.increment("fingerprint.saved");
 
             // （可选）处理完成后清理缓存，防止内存涨
              map.clear();
              countMap.clear();
         }
-        return ResponseEntity.ok().build();
+        metrics.stage(PipelineMetrics.ADD_DATA, "total", begin);
     }
 
 
@@ -280,7 +490,7 @@ public class ApiController {
     }
 
     /** 计算中位数：偶数个取中间两数均值，奇数个取正中间值 */
-    private static double calcMedian(List<Integer> values) {
+    private static double calcMedian(List<Double> values) {
         if (values == null || values.isEmpty()) return Double.NaN;
         Collections.sort(values);
         int n = values.size();
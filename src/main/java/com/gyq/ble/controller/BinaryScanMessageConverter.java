@@ -0,0 +1,91 @@
+package com.gyq.ble.controller;
+
+import com.gyq.ble.index.BeaconDictionary;
+import com.gyq.ble.index.BinaryScanCodec;
+import com.gyq.ble.index.ScanBuffer;
+import com.gyq.ble.service.FingerprintIndexService;
+import com.gyq.ble.service.TuningService;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 二进制扫描格式（application/x-ble-scan）的请求体转换器
+ *
+ * 请求体读入线程复用的字节数组后直接解码进 {@link ScanBuffer}，与 JSON 绑定共用同一套预测逻辑。
+ */
+@Component
+public class BinaryScanMessageConverter extends AbstractHttpMessageConverter<ScanBuffer> {
+
+    /**
+     * 单条扫描的最大字节数
+     */
+    private static final int MAX_BODY = 64 * 1024;
+
+    private static final ThreadLocal<byte[]> BODY = ThreadLocal.withInitial(() -> new byte[1024]);
+
+    private final FingerprintIndexService fingerprintIndexService;
+
+    private final TuningService tuningService;
+
+    public BinaryScanMessageConverter(FingerprintIndexService fingerprintIndexService, TuningService tuningService) {
+        super(MediaType.parseMediaType(BinaryScanCodec.MEDIA_TYPE));
+        this.fingerprintIndexService = fingerprintIndexService;
+        this.tuningService = tuningService;
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return ScanBuffer.class == clazz;
+    }
+
+    @Override
+    protected boolean canWrite(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected ScanBuffer readInternal(Class<? extends ScanBuffer> clazz, HttpInputMessage inputMessage)
+            throws IOException, HttpMessageNotReadableException {
+        byte[] body = BODY.get();
+        int length = 0;
+        try (InputStream in = inputMessage.getBody()) {
+            int n;
+            while ((n = in.read(body, length, body.length - length)) > 0) {
+                length += n;
+                if (length == body.length) {
+                    if (length >= MAX_BODY) {
+                        throw new HttpMessageNotReadableException("二进制扫描数据过大", inputMessage);
+                    }
+                    body = Arrays.copyOf(body, Math.min(MAX_BODY, length * 2));
+                    BODY.set(body);
+                }
+            }
+        }
+        BeaconDictionary dictionary = fingerprintIndexService.dictionary();
+        ScanBuffer scan = ScanBuffer.acquire(dictionary);
+        TuningService.Settings settings = tuningService.current();
+        try {
+            BinaryScanCodec.decode(ByteBuffer.wrap(body, 0, length), scan, dictionary,
+                    settings.rssiMin(), settings.rssiMax());
+        } catch (IllegalArgumentException e) {
+            throw new HttpMessageNotReadableException(e.getMessage(), e, inputMessage);
+        }
+        return scan;
+    }
+
+    @Override
+    protected void writeInternal(ScanBuffer scan, HttpOutputMessage outputMessage)
+            throws IOException, HttpMessageNotWritableException {
+        throw new HttpMessageNotWritableException("不支持输出二进制扫描数据");
+    }
+}
@@ -0,0 +1,59 @@
+package com.gyq.ble.controller;
+
+import com.gyq.ble.service.PipelineMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.RequestBodyAdviceAdapter;
+
+import java.lang.reflect.Type;
+
+/**
+ * 记录请求体 JSON 绑定阶段的耗时（stage=bind）
+ *
+ * 绑定发生在控制器方法之前，控制器内部无法打点，这里在读取请求体前后各记一次时间。
+ * path 标签与服务内打点一致（{@link PipelineMetrics#PREDICT} 等），其他带请求体的接口不记录。
+ */
+@ControllerAdvice(assignableTypes = ApiController.class)
+public class BindTimingAdvice extends RequestBodyAdviceAdapter {
+
+    private static final ThreadLocal<long[]> START = ThreadLocal.withInitial(() -> new long[1]);
+
+    @Autowired
+    private PipelineMetrics metrics;
+
+    @Override
+    public boolean supports(MethodParameter methodParameter, Type targetType,
+                            Class<? extends HttpMessageConverter<?>> converterType) {
+        return path(methodParameter) != null;
+    }
+
+    @Override
+    public HttpInputMessage beforeBodyRead(HttpInputMessage inputMessage, MethodParameter parameter, Type targetType,
+                                           Class<? extends HttpMessageConverter<?>> converterType) {
+        START.get()[0] = metrics.start();
+        return inputMessage;
+    }
+
+    @Override
+    public Object afterBodyRead(Object body, HttpInputMessage inputMessage, MethodParameter parameter, Type targetType,
+                                Class<? extends HttpMessageConverter<?>> converterType) {
+        metrics.stage(path(parameter), "bind", START.get()[0]);
+        return body;
+    }
+
+    /**
+     * 控制器方法对应的指标路径，不计时的方法返回 null
+     */
+    private static String path(MethodParameter parameter) {
+        return switch (parameter.getExecutable().getName()) {
+            case "predict" -> PipelineMetrics.PREDICT;
+            case "knnPredict" -> PipelineMetrics.KNN;
+            case "sessionScan" -> PipelineMetrics.SESSION;
+            case "addData", "addDataBinary" -> PipelineMetrics.ADD_DATA;
+            default -> null;
+        };
+    }
+}
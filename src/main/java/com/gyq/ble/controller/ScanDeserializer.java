@@ -0,0 +1,164 @@
+package com.gyq.ble.controller;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.gyq.ble.index.BeaconDictionary;
+import com.gyq.ble.index.ScanBuffer;
+import com.gyq.ble.service.FingerprintIndexService;
+import com.gyq.ble.service.TuningService;
+import org.springframework.boot.jackson.JsonComponent;
+
+import java.io.IOException;
+
+/**
+ * 扫描数据的流式反序列化器
+ *
+ * 直接把 {"beacons":[{"uuid":..,"major":..,"minor":..,"rssi":..}]} 解析进线程复用的 {@link ScanBuffer}：
+ * UUID 从解析器的字符缓冲复制到复用数组后直接在信标字典中查找，不创建 String；
+ * RSSI 区间过滤在解析时完成（区间取 TuningService 的当前参数），不再经过 PredictPayload / BeaconReading / 中间 List。
+ */
+@JsonComponent
+public class ScanDeserializer extends JsonDeserializer<ScanBuffer> {
+
+    /**
+     * 默认 RSSI 过滤区间 (RSSI_MIN, RSSI_MAX)，与 addData 一致；线上以 TuningService 的参数为准
+     */
+    public static final int RSSI_MIN = -85;
+    public static final int RSSI_MAX = 0;
+
+    private final FingerprintIndexService fingerprintIndexService;
+
+    private final TuningService tuningService;
+
+    public ScanDeserializer(FingerprintIndexService fingerprintIndexService, TuningService tuningService) {
+        this.fingerprintIndexService = fingerprintIndexService;
+        this.tuningService = tuningService;
+    }
+
+    @Override
+    public ScanBuffer deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT) {
+            return (ScanBuffer) ctxt.handleUnexpectedToken(ScanBuffer.class, p);
+        }
+        BeaconDictionary dictionary = fingerprintIndexService.dictionary();
+        ScanBuffer scan = ScanBuffer.acquire(dictionary);
+        TuningService.Settings settings = tuningService.current();
+        parse(p, scan, dictionary, settings.rssiMin(), settings.rssiMax());
+        return scan;
+    }
+
+    /**
+     * 从当前 START_OBJECT 开始解析一次扫描（默认过滤区间）
+     */
+    public static void parse(JsonParser p, ScanBuffer scan, BeaconDictionary dictionary) throws IOException {
+        parse(p, scan, dictionary, RSSI_MIN, RSSI_MAX);
+    }
+
+    /**
+     * 从当前 START_OBJECT 开始解析一次扫描，只保留 RSSI 在 (rssiMin, rssiMax) 内的读数
+     */
+    public static void parse(JsonParser p, ScanBuffer scan, BeaconDictionary dictionary, int rssiMin, int rssiMax)
+            throws IOException {
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken value = p.nextToken();
+            if ("beacons".equals(field) && value == JsonToken.START_ARRAY) {
+                readBeacons(p, scan, dictionary, rssiMin, rssiMax);
+            } else {
+                p.skipChildren();
+            }
+        }
+        scan.seal();
+    }
+
+    private static void readBeacons(JsonParser p, ScanBuffer scan, BeaconDictionary dictionary, int rssiMin, int rssiMax)
+            throws IOException {
+        JsonToken token;
+        while ((token = p.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.START_OBJECT) {
+                p.skipChildren();
+                continue;
+            }
+            int uuidLen = -1;
+            int major = 0, minor = 0, rssi = 0;
+            boolean hasMajor = false, hasMinor = false, hasRssi = false;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                JsonToken value = p.nextToken();
+                switch (field) {
+                    case "uuid":
+                        if (value == JsonToken.VALUE_STRING) {
+                            uuidLen = p.getTextLength();
+                            System.arraycopy(p.getTextCharacters(), p.getTextOffset(), scan.chars(uuidLen), 0, uuidLen);
+                        }
+                        break;
+                    case "major":
+                        if (isNumber(p, value)) {
+                            major = p.getValueAsInt();
+                            hasMajor = true;
+                        }
+                        break;
+                    case "minor":
+                        if (isNumber(p, value)) {
+                            minor = p.getValueAsInt();
+                            hasMinor = true;
+                        }
+                        break;
+                    case "rssi":
+                        if (isNumber(p, value)) {
+                            rssi = p.getValueAsInt();
+                            hasRssi = true;
+                        }
+                        break;
+                }
+                // 未消费的数组 / 对象值（如 "uuid":[1,2]）整体跳过，标量值为空操作
+                p.skipChildren();
+            }
+            if (uuidLen < 0 || !hasMajor || !hasMinor || !hasRssi) {
+                continue;
+            }
+            // 1) 过滤 RSSI：(rssiMin, rssiMax) 区间，默认 (-85, 0)
+            if (rssi >= rssiMax || rssi <= rssiMin) {
+                scan.markFiltered();
+                continue;
+            }
+            int id = dictionary.lookup(scan.chars(uuidLen), 0, uuidLen, major, minor);
+            if (id < 0) {
+                scan.markUnknown();
+                continue;
+            }
+            scan.add(id, rssi);
+        }
+    }
+
+    /**
+     * 数值，或内容为十进制数的字符串（部分客户端把 RSSI 写成 "-70"）；
+     * 其他字符串（含空串、指数写法、超过 9 位数字可能溢出 int 的）不算数值，否则 getValueAsInt("abc") 会静默得到 0
+     */
+    private static boolean isNumber(JsonParser p, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+            return true;
+        }
+        if (token != JsonToken.VALUE_STRING) {
+            return false;
+        }
+        char[] buf = p.getTextCharacters();
+        int off = p.getTextOffset(), len = p.getTextLength();
+        int i = len > 0 && (buf[off] == '-' || buf[off] == '+') ? 1 : 0;
+        int digits = 0;
+        boolean dot = false;
+        for (; i < len; i++) {
+            char c = buf[off + i];
+            if (c >= '0' && c <= '9') {
+                digits++;
+            } else if (c == '.' && !dot) {
+                dot = true;
+            } else {
+                return false;
+            }
+        }
+        return digits > 0 && digits <= 9;
+    }
+}
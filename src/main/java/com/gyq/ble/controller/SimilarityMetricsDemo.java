@@ -8,52 +8,39 @@ import java.util.stream.Collectors;
 
 public class SimilarityMetricsDemo {
     public static Double cosDouble(String jsonA, String jsonB) {
+        // 解析 JSON 为 Map<String, Double>
+        return cosDouble(parseToMap(jsonA), parseToMap(jsonB));
+    }
 
-        // 1) 解析 JSON 为 Map<String, Double>
-        Map<String, Double> mapA = parseToMap(jsonA);
-        Map<String, Double> mapB = parseToMap(jsonB);
-
-        // 2) 取交集并排序，保证对齐
+    /**
+     * 基于共同信标的余弦相似度；共同信标少于 2 个时无法比较，返回 null
+     */
+    public static Double cosDouble(Map<String, Double> mapA, Map<String, Double> mapB) {
+        // 1) 取交集并排序，保证对齐
         List<String> commonKeys = getCommonKeysSorted(mapA, mapB);
-        if (commonKeys.isEmpty()) {
-            System.out.println("没有共同ID，无法比较。");
-            return null;
-        }
-        if ( commonKeys.size()==1) {
-            System.out.println("只有一组共同ID，不进行比较。");
+        if (commonKeys.size() < 2) {
             return null;
         }
 
+        // 2) 映射为向量（按相同顺序）并计算余弦
+        return cosine(toVector(mapA, commonKeys), toVector(mapB, commonKeys));
+    }
 
-        // 3) 映射为向量（按相同顺序）
-        double[] a = toVector(mapA, commonKeys);
-        double[] b = toVector(mapB, commonKeys);
-
-        // 打印对齐后的键值核验
-        System.out.println("共同ID数量: " + commonKeys.size());
-        System.out.println("共同ID(排序后): " + commonKeys);
-        System.out.println("\n对齐后的 (key, A, B)：");
-        for (int i = 0; i < commonKeys.size(); i++) {
-            System.out.printf("%s => A: %s, B: %s%n", commonKeys.get(i), a[i], b[i]);
-        }
-
-        // 4) 计算与打印各类指标
-        System.out.println("\n=== 指标（原始 dBm 向量）===");
-        double cosine = cosine(a, b);
-        System.out.printf("Cosine 余弦相似度           : %.6f%n",cosine);
-        System.out.printf("Mean-Centered Cosine(中心化): %.6f%n", centeredCosine(a, b));
-        System.out.printf("Pearson 皮尔逊相关          : %.6f%n", pearson(a, b));
-        System.out.printf("Spearman 秩相关             : %.6f%n", spearman(a, b));
-        System.out.printf("L2 欧氏距离                 : %.6f%n", euclidean(a, b));
-        System.out.printf("L1 曼哈顿距离               : %.6f%n", manhattan(a, b));
-        System.out.printf("MAE 平均绝对误差            : %.6f%n", mae(a, b));
-
-        // 5) 可选：将 dBm 转为线性功率（mW），再做余弦
-        double[] aMw = dbmToMilliwatt(a);
-        double[] bMw = dbmToMilliwatt(b);
-        System.out.println("\n=== 可选：转为线性功率(mW)后的相似度 ===");
-        System.out.printf("Cosine(功率mW)              : %.6f%n", cosine(aMw, bMw));
-        return cosine;
+    /**
+     * 计算全部指标，供 explain 模式记录（原先打印到控制台的内容）
+     */
+    public static Map<String, Double> allMetrics(double[] a, double[] b) {
+        Map<String, Double> metrics = new LinkedHashMap<>();
+        metrics.put("cosine", cosine(a, b));
+        metrics.put("centeredCosine", centeredCosine(a, b));
+        metrics.put("pearson", pearson(a, b));
+        metrics.put("spearman", spearman(a, b));
+        metrics.put("euclidean", euclidean(a, b));
+        metrics.put("manhattan", manhattan(a, b));
+        metrics.put("mae", mae(a, b));
+        // 可选：将 dBm 转为线性功率（mW），再做余弦
+        metrics.put("cosineMw", cosine(dbmToMilliwatt(a), dbmToMilliwatt(b)));
+        return metrics;
     }
 
     /**
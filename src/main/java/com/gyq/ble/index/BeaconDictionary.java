@@ -0,0 +1,223 @@
+package com.gyq.ble.index;
+
+import java.util.*;
+
+/**
+ * 信标字典：把 (uuid, major, minor) 映射为连续的整数ID
+ *
+ * 不可变对象，扩展时复制出新字典，已有信标的ID保持不变（只追加），
+ * 因此旧字典解析出的ID在新索引中依然有效。查找支持直接传入 char[] 片段，
+ * 解析请求时无需为 UUID 创建 String。
+ */
+public final class BeaconDictionary {
+
+    public static final BeaconDictionary EMPTY = new BeaconDictionary(new String[0], new int[0], new int[0], new int[0], 0);
+
+    /**
+     * 去重后的 UUID 文本，下标即 uuid 序号
+     */
+    private final String[] uuids;
+
+    /**
+     * 按信标ID存放的 uuid 序号、major、minor
+     */
+    private final int[] beaconUuid;
+    private final int[] beaconMajor;
+    private final int[] beaconMinor;
+
+    private final int size;
+
+    /**
+     * 开放寻址哈希表，存放信标ID，-1 表示空槽
+     */
+    private final int[] table;
+    private final int mask;
+
+    private BeaconDictionary(String[] uuids, int[] beaconUuid, int[] beaconMajor, int[] beaconMinor, int size) {
+        this.uuids = uuids;
+        this.beaconUuid = beaconUuid;
+        this.beaconMajor = beaconMajor;
+        this.beaconMinor = beaconMinor;
+        this.size = size;
+        int capacity = Integer.highestOneBit(Math.max(4, size * 2) - 1) << 1;
+        this.table = new int[capacity];
+        this.mask = capacity - 1;
+        Arrays.fill(table, -1);
+        for (int id = 0; id < size; id++) {
+            String uuid = uuids[beaconUuid[id]];
+            int slot = hash(hashUuid(uuid), beaconMajor[id], beaconMinor[id]) & mask;
+            while (table[slot] != -1) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id;
+        }
+    }
+
+    /**
+     * 由存储键（uuid_minor_major）构造字典
+     */
+    public static BeaconDictionary of(Collection<String> storageKeys) {
+        return EMPTY.extend(storageKeys);
+    }
+
+    /**
+     * 追加新的存储键，返回新字典；没有新信标时返回自身
+     */
+    public BeaconDictionary extend(Collection<String> storageKeys) {
+        Map<String, Integer> uuidIndex = new HashMap<>();
+        for (int i = 0; i < uuids.length; i++) {
+            uuidIndex.put(uuids[i], i);
+        }
+        List<String> newUuids = new ArrayList<>(Arrays.asList(uuids));
+        Set<String> seen = new HashSet<>();
+        int[] newUuid = null;
+        int[] newMajor = null;
+        int[] newMinor = null;
+        int n = size;
+
+        for (String key : storageKeys) {
+            if (key == null || !seen.add(key)) continue;
+            int minorEnd = key.lastIndexOf('_');
+            int minorStart = minorEnd > 0 ? key.lastIndexOf('_', minorEnd - 1) : -1;
+            String uuid;
+            int major;
+            int minor;
+            try {
+                if (minorStart <= 0) throw new NumberFormatException(key);
+                uuid = key.substring(0, minorStart);
+                minor = Integer.parseInt(key.substring(minorStart + 1, minorEnd));
+                major = Integer.parseInt(key.substring(minorEnd + 1));
+            } catch (NumberFormatException e) {
+                // 无法解析的键整体作为 uuid，扫描数据永远不会命中它
+                uuid = key;
+                major = Integer.MIN_VALUE;
+                minor = Integer.MIN_VALUE;
+            }
+            if (lookup(uuid, major, minor) >= 0) continue;
+
+            Integer u = uuidIndex.get(uuid);
+            if (u == null) {
+                u = newUuids.size();
+                newUuids.add(uuid);
+                uuidIndex.put(uuid, u);
+            }
+            if (newUuid == null || n == newUuid.length) {
+                int capacity = Math.max(16, n * 2);
+                newUuid = Arrays.copyOf(newUuid == null ? beaconUuid : newUuid, capacity);
+                newMajor = Arrays.copyOf(newMajor == null ? beaconMajor : newMajor, capacity);
+                newMinor = Arrays.copyOf(newMinor == null ? beaconMinor : newMinor, capacity);
+            }
+            newUuid[n] = u;
+            newMajor[n] = major;
+            newMinor[n] = minor;
+            n++;
+        }
+        if (n == size) {
+            return this;
+        }
+        return new BeaconDictionary(newUuids.toArray(new String[0]),
+                Arrays.copyOf(newUuid, n), Arrays.copyOf(newMajor, n), Arrays.copyOf(newMinor, n), n);
+    }
+
+    /**
+     * 按 char[] 片段查找信标ID，未知信标返回 -1
+     */
+    public int lookup(char[] buf, int off, int len, int major, int minor) {
+        int h = 0;
+        for (int i = off; i < off + len; i++) {
+            h = 31 * h + buf[i];
+        }
+        int slot = hash(h, major, minor) & mask;
+        int id;
+        while ((id = table[slot]) != -1) {
+            if (beaconMajor[id] == major && beaconMinor[id] == minor && sameText(uuids[beaconUuid[id]], buf, off, len)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * 按字符串查找信标ID，未知信标返回 -1
+     */
+    public int lookup(String uuid, int major, int minor) {
+        int slot = hash(hashUuid(uuid), major, minor) & mask;
+        int id;
+        while ((id = table[slot]) != -1) {
+            if (beaconMajor[id] == major && beaconMinor[id] == minor && uuids[beaconUuid[id]].equals(uuid)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * 按存储键（uuid_minor_major）查找信标ID
+     */
+    public int idOf(String storageKey) {
+        int minorEnd = storageKey.lastIndexOf('_');
+        int minorStart = minorEnd > 0 ? storageKey.lastIndexOf('_', minorEnd - 1) : -1;
+        if (minorStart > 0) {
+            try {
+                return lookup(storageKey.substring(0, minorStart),
+                        Integer.parseInt(storageKey.substring(minorEnd + 1)),
+                        Integer.parseInt(storageKey.substring(minorStart + 1, minorEnd)));
+            } catch (NumberFormatException ignore) {
+            }
+        }
+        return lookup(storageKey, Integer.MIN_VALUE, Integer.MIN_VALUE);
+    }
+
+    /**
+     * 信标ID对应的存储键（uuid_minor_major）
+     */
+    public String keyOf(int id) {
+        if (beaconMajor[id] == Integer.MIN_VALUE) {
+            return uuids[beaconUuid[id]];
+        }
+        return uuids[beaconUuid[id]] + "_" + beaconMinor[id] + "_" + beaconMajor[id];
+    }
+
+    public String uuidOf(int id) {
+        return uuids[beaconUuid[id]];
+    }
+
+    public int majorOf(int id) {
+        return beaconMajor[id];
+    }
+
+    public int minorOf(int id) {
+        return beaconMinor[id];
+    }
+
+    /**
+     * 信标数量
+     */
+    public int size() {
+        return size;
+    }
+
+    private static boolean sameText(String s, char[] buf, int off, int len) {
+        if (s.length() != len) return false;
+        for (int i = 0; i < len; i++) {
+            if (s.charAt(i) != buf[off + i]) return false;
+        }
+        return true;
+    }
+
+    private static int hashUuid(String uuid) {
+        // 与 lookup(char[]) 中的计算方式一致（即 String.hashCode）
+        return uuid.hashCode();
+    }
+
+    private static int hash(int uuidHash, int major, int minor) {
+        int h = uuidHash * 31 + major;
+        h = h * 31 + minor;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+}
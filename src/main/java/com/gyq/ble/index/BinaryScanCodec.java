@@ -0,0 +1,193 @@
+package com.gyq.ble.index;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * 紧凑二进制扫描格式（Content-Type: application/x-ble-scan）
+ *
+ * <pre>
+ * magic      2 字节 'B' 'S'
+ * version    1 字节，当前为 1
+ * uuidCount  varint
+ * uuids      uuidCount x 16 字节（UUID 高 64 位 + 低 64 位，大端）
+ * count      varint
+ * readings   count x { uuidIndex varint, major varint, minor varint, rssi 1 字节有符号 }
+ * </pre>
+ *
+ * 网关一次扫描约 20 个读数，通常只有 1~2 个 UUID，UUID 表在一条消息内只出现一次，
+ * 每个读数约 5~7 字节（JSON 约 90 字节）。解码直接写入 {@link ScanBuffer}，
+ * UUID 按大写规范格式展开到复用的字符缓冲后在信标字典中查找，不创建 String。
+ */
+public final class BinaryScanCodec {
+
+    public static final String MEDIA_TYPE = "application/x-ble-scan";
+
+    private static final byte MAGIC_0 = 'B';
+    private static final byte MAGIC_1 = 'S';
+    private static final byte VERSION = 1;
+
+    /**
+     * 规范 UUID 文本长度：8-4-4-4-12
+     */
+    private static final int UUID_CHARS = 36;
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private BinaryScanCodec() {
+    }
+
+    /**
+     * 解码到扫描缓冲，RSSI 不在 (rssiMin, rssiMax) 区间的读数被过滤，未知信标计入 unknown
+     */
+    public static void decode(ByteBuffer in, ScanBuffer scan, BeaconDictionary dictionary, int rssiMin, int rssiMax) {
+        try {
+            int uuidCount = readHeader(in);
+            char[] chars = scan.chars(uuidCount * UUID_CHARS);
+            for (int u = 0; u < uuidCount; u++) {
+                formatUuid(in.getLong(), in.getLong(), chars, u * UUID_CHARS);
+            }
+            int count = readVarint(in);
+            for (int i = 0; i < count; i++) {
+                int u = readVarint(in);
+                int major = readVarint(in);
+                int minor = readVarint(in);
+                int rssi = in.get();
+                if (u >= uuidCount) {
+                    throw new IllegalArgumentException("UUID 下标越界: " + u);
+                }
+                if (rssi >= rssiMax || rssi <= rssiMin) {
+                    scan.markFiltered();
+                    continue;
+                }
+                int id = dictionary.lookup(chars, u * UUID_CHARS, UUID_CHARS, major, minor);
+                if (id < 0) {
+                    scan.markUnknown();
+                    continue;
+                }
+                scan.add(id, rssi);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("二进制扫描数据不完整", e);
+        }
+        scan.seal();
+    }
+
+    /**
+     * 列出消息中字典尚未收录的信标存储键（uuid_minor_major），用于采集时扩展字典
+     */
+    public static List<String> unknownKeys(ByteBuffer in, BeaconDictionary dictionary) {
+        ByteBuffer buf = in.duplicate();
+        List<String> keys = new ArrayList<>();
+        try {
+            int uuidCount = readHeader(buf);
+            char[] chars = new char[uuidCount * UUID_CHARS];
+            for (int u = 0; u < uuidCount; u++) {
+                formatUuid(buf.getLong(), buf.getLong(), chars, u * UUID_CHARS);
+            }
+            int count = readVarint(buf);
+            for (int i = 0; i < count; i++) {
+                int u = readVarint(buf);
+                int major = readVarint(buf);
+                int minor = readVarint(buf);
+                buf.get();
+                if (u < uuidCount && dictionary.lookup(chars, u * UUID_CHARS, UUID_CHARS, major, minor) < 0) {
+                    keys.add(new String(chars, u * UUID_CHARS, UUID_CHARS) + "_" + minor + "_" + major);
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("二进制扫描数据不完整", e);
+        }
+        return keys;
+    }
+
+    /**
+     * 编码一次扫描（客户端 / 压测使用）
+     *
+     * @param uuids  每个读数的 UUID
+     * @param majors 每个读数的 major
+     * @param minors 每个读数的 minor
+     * @param rssis  每个读数的 RSSI
+     */
+    public static byte[] encode(List<String> uuids, int[] majors, int[] minors, int[] rssis) {
+        Map<String, Integer> table = new LinkedHashMap<>();
+        for (String uuid : uuids) {
+            table.putIfAbsent(uuid.toUpperCase(Locale.ROOT), table.size());
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8 + table.size() * 16 + uuids.size() * 7);
+        out.write(MAGIC_0);
+        out.write(MAGIC_1);
+        out.write(VERSION);
+        writeVarint(out, table.size());
+        ByteBuffer uuidBytes = ByteBuffer.allocate(16);
+        for (String uuid : table.keySet()) {
+            UUID parsed = UUID.fromString(uuid);
+            uuidBytes.clear();
+            uuidBytes.putLong(parsed.getMostSignificantBits()).putLong(parsed.getLeastSignificantBits());
+            out.write(uuidBytes.array(), 0, 16);
+        }
+        writeVarint(out, uuids.size());
+        for (int i = 0; i < uuids.size(); i++) {
+            writeVarint(out, table.get(uuids.get(i).toUpperCase(Locale.ROOT)));
+            writeVarint(out, majors[i]);
+            writeVarint(out, minors[i]);
+            out.write(Math.max(-128, Math.min(127, rssis[i])));
+        }
+        return out.toByteArray();
+    }
+
+    private static int readHeader(ByteBuffer in) {
+        if (in.get() != MAGIC_0 || in.get() != MAGIC_1) {
+            throw new IllegalArgumentException("不是二进制扫描数据");
+        }
+        byte version = in.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("不支持的二进制扫描版本: " + version);
+        }
+        int uuidCount = readVarint(in);
+        if (uuidCount < 0 || uuidCount * 16L > in.remaining()) {
+            throw new IllegalArgumentException("UUID 表长度非法: " + uuidCount);
+        }
+        return uuidCount;
+    }
+
+    /**
+     * 无符号 LEB128 变长整数
+     */
+    static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("varint 过长");
+    }
+
+    static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * 按 8-4-4-4-12 大写格式写入字符缓冲
+     */
+    private static void formatUuid(long msb, long lsb, char[] out, int off) {
+        int p = off;
+        for (int i = 0; i < 32; i++) {
+            long word = i < 16 ? msb : lsb;
+            int shift = 60 - (i % 16) * 4;
+            if (i == 8 || i == 12 || i == 16 || i == 20) {
+                out[p++] = '-';
+            }
+            out[p++] = HEX[(int) (word >>> shift) & 0xF];
+        }
+    }
+}
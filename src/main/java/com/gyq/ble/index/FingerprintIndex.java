@@ -0,0 +1,399 @@
+package com.gyq.ble.index;
+
+import java.util.*;
+
+/**
+ * 指纹索引：把 median_data.json 中的指纹转为按信标ID升序排列的原始数组
+ *
+ * 不可变快照，构建完成后可被任意线程并发读取。余弦相似度只在共同信标上计算，
+ * 两边都已按ID排序，用一次归并即可完成对齐，不再需要字符串键与 Map 查找。
+ */
+public final class FingerprintIndex {
+
+    /**
+     * 共同信标少于该值时不比较（与 SimilarityMetricsDemo.cosDouble 一致）
+     */
+    public static final int MIN_COMMON = 2;
+
+    private final long version;
+    private final BeaconDictionary dictionary;
+    private final String[] names;
+    private final int[][] ids;
+    private final double[][] values;
+
+    /**
+     * 倒排表（CSR）：信标ID b 的 posting 位于 [postingStart[b], postingStart[b + 1])
+     */
+    private final int[] postingStart;
+    private final int[] postingFingerprint;
+    private final double[] postingValue;
+
+    /**
+     * 区域分组：区域名（点位名 "1_3" 下划线前的部分）、每个指纹所属区域下标、每个区域的指纹下标
+     */
+    private final String[] regionNames;
+    private final int[] regionOf;
+    private final int[][] regionMembers;
+    private final Map<String, Integer> regionSlots;
+
+    /**
+     * 区域ID（加载时解析一次，区域名不是整数时为 null）
+     */
+    private final Integer[] regionIds;
+
+    /**
+     * 区域质心指纹：区域内各点位信标的平均 RSSI，按信标ID升序
+     */
+    private final int[][] centroidIds;
+    private final double[][] centroidValues;
+
+    /**
+     * 最强信标签名预筛，未启用时为 null
+     */
+    private final SignatureIndex signature;
+
+    private FingerprintIndex(long version, BeaconDictionary dictionary, String[] names, int[][] ids, double[][] values,
+                             int[] postingStart, int[] postingFingerprint, double[] postingValue,
+                             String[] regionNames, int[] regionOf, int[][] regionMembers, Map<String, Integer> regionSlots,
+                             Integer[] regionIds, int[][] centroidIds, double[][] centroidValues,
+                             SignatureIndex signature) {
+        this.version = version;
+        this.dictionary = dictionary;
+        this.names = names;
+        this.ids = ids;
+        this.values = values;
+        this.postingStart = postingStart;
+        this.postingFingerprint = postingFingerprint;
+        this.postingValue = postingValue;
+        this.regionNames = regionNames;
+        this.regionOf = regionOf;
+        this.regionMembers = regionMembers;
+        this.regionSlots = regionSlots;
+        this.regionIds = regionIds;
+        this.centroidIds = centroidIds;
+        this.centroidValues = centroidValues;
+        this.signature = signature;
+    }
+
+    /**
+     * 由存储数据构建索引（不建签名预筛），字典在 base 基础上追加（保持已有ID不变）
+     */
+    public static FingerprintIndex build(long version, Map<String, Map<String, Double>> data, BeaconDictionary base) {
+        return build(version, data, base, 0);
+    }
+
+    /**
+     * 由存储数据构建索引，字典在 base 基础上追加（保持已有ID不变）
+     *
+     * @param signatureTopN 签名预筛使用的最强信标数，0 表示不建
+     */
+    public static FingerprintIndex build(long version, Map<String, Map<String, Double>> data, BeaconDictionary base,
+                                         int signatureTopN) {
+        Set<String> keys = new LinkedHashSet<>();
+        for (Map<String, Double> fingerprint : data.values()) {
+            keys.addAll(fingerprint.keySet());
+        }
+        BeaconDictionary dictionary = base.extend(keys);
+
+        int n = data.size();
+        String[] names = new String[n];
+        int[][] ids = new int[n][];
+        double[][] values = new double[n][];
+        int i = 0;
+        for (Map.Entry<String, Map<String, Double>> e : data.entrySet()) {
+            names[i] = e.getKey();
+            int m = 0;
+            long[] packed = new long[e.getValue().size()];
+            double[] raw = new double[packed.length];
+            for (Map.Entry<String, Double> b : e.getValue().entrySet()) {
+                if (b.getValue() == null) continue;
+                raw[m] = b.getValue();
+                // 高 32 位存信标ID，低 32 位存原下标，排序后按ID升序
+                packed[m] = ((long) dictionary.idOf(b.getKey()) << 32) | m;
+                m++;
+            }
+            Arrays.sort(packed, 0, m);
+            ids[i] = new int[m];
+            values[i] = new double[m];
+            for (int j = 0; j < m; j++) {
+                ids[i][j] = (int) (packed[j] >>> 32);
+                values[i][j] = raw[(int) packed[j]];
+            }
+            i++;
+        }
+
+        // 倒排表：按信标ID计数后填充，同一信标下的指纹按下标升序
+        int[] start = new int[dictionary.size() + 1];
+        for (int[] fid : ids) {
+            for (int id : fid) {
+                start[id + 1]++;
+            }
+        }
+        for (int b = 0; b < dictionary.size(); b++) {
+            start[b + 1] += start[b];
+        }
+        int[] fill = Arrays.copyOf(start, dictionary.size());
+        int[] postingFingerprint = new int[start[dictionary.size()]];
+        double[] postingValue = new double[postingFingerprint.length];
+        for (int f = 0; f < n; f++) {
+            for (int j = 0; j < ids[f].length; j++) {
+                int p = fill[ids[f][j]]++;
+                postingFingerprint[p] = f;
+                postingValue[p] = values[f][j];
+            }
+        }
+
+        // 区域分组
+        Map<String, Integer> regionSlots = new LinkedHashMap<>();
+        int[] regionOf = new int[n];
+        for (int f = 0; f < n; f++) {
+            regionOf[f] = regionSlots.computeIfAbsent(regionName(names[f]), k -> regionSlots.size());
+        }
+        String[] regionNames = regionSlots.keySet().toArray(new String[0]);
+        int[] memberCount = new int[regionNames.length];
+        for (int r : regionOf) {
+            memberCount[r]++;
+        }
+        int[][] regionMembers = new int[regionNames.length][];
+        for (int r = 0; r < regionNames.length; r++) {
+            regionMembers[r] = new int[memberCount[r]];
+            memberCount[r] = 0;
+        }
+        for (int f = 0; f < n; f++) {
+            regionMembers[regionOf[f]][memberCount[regionOf[f]]++] = f;
+        }
+
+        Integer[] regionIds = new Integer[regionNames.length];
+        int[][] centroidIds = new int[regionNames.length][];
+        double[][] centroidValues = new double[regionNames.length][];
+        for (int r = 0; r < regionNames.length; r++) {
+            try {
+                regionIds[r] = Integer.parseInt(regionNames[r]);
+            } catch (NumberFormatException e) {
+                regionIds[r] = null;
+            }
+            // 质心：各信标在区域内出现过的点位上的平均值
+            TreeMap<Integer, double[]> sums = new TreeMap<>();
+            for (int f : regionMembers[r]) {
+                for (int j = 0; j < ids[f].length; j++) {
+                    double[] acc = sums.computeIfAbsent(ids[f][j], k -> new double[2]);
+                    acc[0] += values[f][j];
+                    acc[1]++;
+                }
+            }
+            centroidIds[r] = new int[sums.size()];
+            centroidValues[r] = new double[sums.size()];
+            int j = 0;
+            for (Map.Entry<Integer, double[]> e : sums.entrySet()) {
+                centroidIds[r][j] = e.getKey();
+                centroidValues[r][j] = e.getValue()[0] / e.getValue()[1];
+                j++;
+            }
+        }
+        return new FingerprintIndex(version, dictionary, names, ids, values, start, postingFingerprint, postingValue,
+                regionNames, regionOf, regionMembers, regionSlots, regionIds, centroidIds, centroidValues,
+                signatureTopN > 0 ? SignatureIndex.build(signatureTopN, ids, values) : null);
+    }
+
+    /**
+     * 从点位名称中提取区域名称，例如 "1_3" -> "1"；没有下划线时返回整个名称
+     */
+    public static String regionName(String pointName) {
+        int underscoreIndex = pointName.indexOf('_');
+        return underscoreIndex > 0 ? pointName.substring(0, underscoreIndex) : pointName;
+    }
+
+    /**
+     * 替换为扩展后的字典（只追加，已有ID不变），指纹数据共享
+     */
+    public FingerprintIndex withDictionary(BeaconDictionary extended) {
+        return new FingerprintIndex(version, extended, names, ids, values,
+                postingStart, postingFingerprint, postingValue, regionNames, regionOf, regionMembers, regionSlots,
+                regionIds, centroidIds, centroidValues, signature);
+    }
+
+    /**
+     * 是否与另一快照共享同一份指纹数据（两者之间只有字典扩展）
+     */
+    public boolean sameData(FingerprintIndex other) {
+        return other != null && other.names == names;
+    }
+
+    /**
+     * 包含信标 id 的 posting 起始位置；字典扩展后新增的信标没有 posting
+     */
+    public int postingStart(int id) {
+        return id + 1 < postingStart.length ? postingStart[id] : 0;
+    }
+
+    public int postingEnd(int id) {
+        return id + 1 < postingStart.length ? postingStart[id + 1] : 0;
+    }
+
+    /**
+     * 第 p 个 posting 所属的指纹下标
+     */
+    public int postingFingerprint(int p) {
+        return postingFingerprint[p];
+    }
+
+    /**
+     * 第 p 个 posting 的指纹 RSSI
+     */
+    public double postingValue(int p) {
+        return postingValue[p];
+    }
+
+    /**
+     * 第 i 个指纹与扫描在共同信标上的余弦相似度；共同信标少于 {@link #MIN_COMMON} 时返回 NaN
+     */
+    public double cosine(int i, ScanBuffer scan) {
+        return cosine(ids[i], values[i], scan, MIN_COMMON);
+    }
+
+    /**
+     * 第 i 个指纹与扫描在共同信标上的得分（越大越相似）；共同信标少于 minCommon 时返回 NaN
+     */
+    public double score(int i, ScanBuffer scan, SimilarityMetric metric, int minCommon) {
+        if (metric == SimilarityMetric.COSINE) {
+            return cosine(ids[i], values[i], scan, minCommon);
+        }
+        int[] fid = ids[i];
+        double[] fv = values[i];
+        int n = Math.min(scan.size(), fid.length);
+        double[] x = new double[n];
+        double[] y = new double[n];
+        int a = 0, b = 0, common = 0;
+        while (a < scan.size() && b < fid.length) {
+            int ia = scan.id(a);
+            int ib = fid[b];
+            if (ia == ib) {
+                x[common] = scan.rssi(a);
+                y[common] = fv[b];
+                common++;
+                a++;
+                b++;
+            } else if (ia < ib) {
+                a++;
+            } else {
+                b++;
+            }
+        }
+        if (common < minCommon || common == 0) return Double.NaN;
+        double score = metric.score(Arrays.copyOf(x, common), Arrays.copyOf(y, common));
+        return Double.isFinite(score) ? score : Double.NaN;
+    }
+
+    /**
+     * 区域 r 的质心与扫描的余弦相似度（粗筛用）；共同信标少于 {@link #MIN_COMMON} 时返回 NaN
+     */
+    public double centroidCosine(int r, ScanBuffer scan) {
+        return cosine(centroidIds[r], centroidValues[r], scan, MIN_COMMON);
+    }
+
+    private static double cosine(int[] fid, double[] fv, ScanBuffer scan, int minCommon) {
+        int a = 0, b = 0, common = 0;
+        int na = scan.size(), nb = fid.length;
+        double dot = 0, nx = 0, ny = 0;
+        while (a < na && b < nb) {
+            int ia = scan.id(a);
+            int ib = fid[b];
+            if (ia == ib) {
+                double x = scan.rssi(a);
+                double y = fv[b];
+                dot += x * y;
+                nx += x * x;
+                ny += y * y;
+                common++;
+                a++;
+                b++;
+            } else if (ia < ib) {
+                a++;
+            } else {
+                b++;
+            }
+        }
+        if (common < minCommon || common == 0) return Double.NaN;
+        if (nx == 0 || ny == 0) return 0.0;
+        return dot / (Math.sqrt(nx) * Math.sqrt(ny));
+    }
+
+    /**
+     * 第 i 个指纹转为 存储键 -> RSSI（仅供 explain 等非热路径使用）
+     */
+    public Map<String, Double> fingerprintMap(int i) {
+        Map<String, Double> map = new HashMap<>();
+        for (int j = 0; j < ids[i].length; j++) {
+            map.put(dictionary.keyOf(ids[i][j]), values[i][j]);
+        }
+        return map;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public BeaconDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String name(int i) {
+        return names[i];
+    }
+
+    /**
+     * 签名预筛，未启用时为 null
+     */
+    public SignatureIndex signature() {
+        return signature;
+    }
+
+    public int regionCount() {
+        return regionNames.length;
+    }
+
+    public String regionName(int r) {
+        return regionNames[r];
+    }
+
+    /**
+     * 区域 r 的整数ID，区域名不是整数时为 null
+     */
+    public Integer regionId(int r) {
+        return regionIds[r];
+    }
+
+    /**
+     * 第 i 个指纹所属的区域下标
+     */
+    public int regionOf(int i) {
+        return regionOf[i];
+    }
+
+    /**
+     * 区域 r 内的指纹下标
+     */
+    public int[] regionMembers(int r) {
+        return regionMembers[r];
+    }
+
+    /**
+     * 区域名对应的区域下标，不存在时返回 -1
+     */
+    public int regionSlot(String regionName) {
+        Integer slot = regionSlots.get(regionName);
+        return slot == null ? -1 : slot;
+    }
+
+    public int[] ids(int i) {
+        return ids[i];
+    }
+
+    public double[] values(int i) {
+        return values[i];
+    }
+}
@@ -0,0 +1,414 @@
+package com.gyq.ble.index;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 堆外样本矩阵：样本向量（行优先 float64）、区域标签与样本权重保存在直接内存中，不计入堆，也不参与 GC 标记与复制
+ *
+ * 按行分段，每段是一块独立的直接内存（行数为 2 的幂，单段约 16 MB），第 i 行位于第 i >> shift 段；
+ * 追加构建时只分配新段，不搬动已有数据。构建完成后只读，可被任意线程并发读取。
+ *
+ * 生命周期靠引用计数：构建完成时计数为 1（属于创建者），读方 {@link #retain()} 后读取、用完 {@link #release()}，
+ * 计数归零时释放本矩阵对各段的引用。写满的段不再修改，列数相同的新矩阵直接共享旧矩阵的整段（段上另有引用计数），
+ * 追加样本时只复制最后一个未写满的段；段的最后一个引用释放时从统计中扣除，清空段引用后由 GC 回收直接内存。
+ * 不主动归还（Unsafe.invokeCleaner）：未 retain 的读方可能仍拿着段的 ByteBuffer，只要它还可达，内存就不会被回收，
+ * 误用只会读到旧数据而不会访问已归还的内存。释放后的读取尽量抛出 IllegalStateException（检查 freed 与段引用），
+ * 但这只是尽早暴露误用的检查，与释放并发的读取仍可能成功，读方必须先 retain。
+ */
+public final class OffHeapMatrix {
+
+    /**
+     * 单段的目标字节数
+     */
+    private static final int SEGMENT_BYTES = 16 << 20;
+
+    private static final AtomicLong ALLOCATED = new AtomicLong();
+    private static final AtomicInteger LIVE = new AtomicInteger();
+
+    private final int rows;
+    private final int columns;
+    private final int shift;
+    private final int mask;
+    private final Segment[] segments;
+    private final DoubleBuffer[] vectors;
+    private final IntBuffer[] labels;
+    private final DoubleBuffer[] weights;
+    private final long bytes;
+    private final AtomicInteger refs = new AtomicInteger(1);
+    private volatile boolean freed;
+
+    private OffHeapMatrix(int rows, int columns, int shift, List<Segment> segments) {
+        this.rows = rows;
+        this.columns = columns;
+        this.shift = shift;
+        this.mask = (1 << shift) - 1;
+        int n = segments.size();
+        this.segments = segments.toArray(new Segment[0]);
+        this.vectors = new DoubleBuffer[n];
+        this.labels = new IntBuffer[n];
+        this.weights = new DoubleBuffer[n];
+        long total = 0;
+        for (int s = 0; s < n; s++) {
+            Segment segment = segments.get(s);
+            vectors[s] = segment.vectors;
+            labels[s] = segment.labels;
+            weights[s] = segment.weights;
+            total += segment.raw.capacity();
+        }
+        this.bytes = total;
+        LIVE.incrementAndGet();
+    }
+
+    /**
+     * 当前所有未释放的段占用的直接内存字节数（共享的段只计一次）
+     */
+    public static long allocatedBytes() {
+        return ALLOCATED.get();
+    }
+
+    /**
+     * 当前未释放的矩阵数
+     */
+    public static int liveCount() {
+        return LIVE.get();
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int columns() {
+        return columns;
+    }
+
+    /**
+     * 本矩阵引用的直接内存字节数（含与其他矩阵共享的段）
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+    /**
+     * 增加一个引用；矩阵已释放时返回 false
+     */
+    public boolean retain() {
+        while (true) {
+            int n = refs.get();
+            if (n <= 0) {
+                return false;
+            }
+            if (refs.compareAndSet(n, n + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 释放一个引用，最后一个引用释放时放开各段（直接内存随后由 GC 回收）
+     */
+    public void release() {
+        int n = refs.decrementAndGet();
+        if (n == 0) {
+            free();
+        } else if (n < 0) {
+            throw new IllegalStateException("堆外矩阵重复释放");
+        }
+    }
+
+    public boolean isFreed() {
+        return freed;
+    }
+
+    public double get(int i, int j) {
+        return open(vectors[i >>> shift]).get((i & mask) * columns + j);
+    }
+
+    public int label(int i) {
+        return open(labels[i >>> shift]).get(i & mask);
+    }
+
+    public double weight(int i) {
+        return open(weights[i >>> shift]).get(i & mask);
+    }
+
+    /**
+     * 第 i 行复制到 into（长度至少为列数）
+     */
+    public double[] row(int i, double[] into) {
+        open(vectors[i >>> shift]).get((i & mask) * columns, into, 0, columns);
+        return into;
+    }
+
+    /**
+     * 输入向量与第 i 行的欧氏距离，直接读取直接内存
+     *
+     * @param cols 参与计算的列下标，null 表示全部列
+     */
+    public double distance(int i, double[] input, int[] cols) {
+        DoubleBuffer segment = open(vectors[i >>> shift]);
+        int base = (i & mask) * columns;
+        double sum = 0.0;
+        if (cols == null) {
+            for (int j = 0; j < columns; j++) {
+                double diff = input[j] - segment.get(base + j);
+                sum += diff * diff;
+            }
+        } else {
+            for (int j : cols) {
+                double diff = input[j] - segment.get(base + j);
+                sum += diff * diff;
+            }
+        }
+        return Math.sqrt(sum);
+    }
+
+    /**
+     * 读取前检查是否已释放
+     */
+    public void ensureOpen() {
+        if (freed) {
+            throw new IllegalStateException("堆外矩阵已释放");
+        }
+    }
+
+    /**
+     * 释放后的读取尽早失败；段引用为 null 或 freed 已发布时说明矩阵已释放
+     */
+    private <B> B open(B segment) {
+        if (segment == null || freed) {
+            throw new IllegalStateException("堆外矩阵已释放");
+        }
+        return segment;
+    }
+
+    /**
+     * 兼容 List&lt;double[]&gt; 的只读视图：每次 get 复制一行到新数组，供按行遍历的冷路径（导出、持久化、离线构建）使用
+     */
+    public List<double[]> vectors() {
+        return new AbstractList<>() {
+            @Override
+            public double[] get(int i) {
+                checkIndex(i);
+                return row(i, new double[columns]);
+            }
+
+            @Override
+            public int size() {
+                return rows;
+            }
+        };
+    }
+
+    public List<Integer> labels() {
+        return new AbstractList<>() {
+            @Override
+            public Integer get(int i) {
+                checkIndex(i);
+                return label(i);
+            }
+
+            @Override
+            public int size() {
+                return rows;
+            }
+        };
+    }
+
+    public List<Double> weights() {
+        return new AbstractList<>() {
+            @Override
+            public Double get(int i) {
+                checkIndex(i);
+                return weight(i);
+            }
+
+            @Override
+            public int size() {
+                return rows;
+            }
+        };
+    }
+
+    private void checkIndex(int i) {
+        ensureOpen();
+        if (i < 0 || i >= rows) {
+            throw new IndexOutOfBoundsException("行下标越界: " + i);
+        }
+    }
+
+    private void free() {
+        // 先发布 freed 再清空段引用，让矩阵对象不再阻止 GC 回收段；已拿到段的并发读方仍读到有效内存
+        freed = true;
+        Segment[] owned = segments.clone();
+        for (int s = 0; s < segments.length; s++) {
+            segments[s] = null;
+            vectors[s] = null;
+            labels[s] = null;
+            weights[s] = null;
+        }
+        for (Segment segment : owned) {
+            segment.release();
+        }
+        LIVE.decrementAndGet();
+    }
+
+    /**
+     * 一段：向量、标签与权重共用一块直接内存，被共享它的各矩阵引用计数；计数归零后不再被任何矩阵引用，
+     * 直接内存在 ByteBuffer 不可达后由 GC 回收（申请直接内存不足时 JDK 会先触发 GC）
+     */
+    private static final class Segment {
+        final ByteBuffer raw;
+        final DoubleBuffer vectors;
+        final IntBuffer labels;
+        final DoubleBuffer weights;
+        final AtomicInteger refs = new AtomicInteger(1);
+
+        Segment(int capacity, int columns) {
+            long vectorBytes = (long) capacity * columns * Double.BYTES;
+            long weightBytes = (long) capacity * Double.BYTES;
+            long labelBytes = (long) capacity * Integer.BYTES;
+            raw = ByteBuffer.allocateDirect(Math.toIntExact(vectorBytes + weightBytes + labelBytes)).order(ByteOrder.nativeOrder());
+            vectors = slice(raw, 0, vectorBytes).asDoubleBuffer();
+            weights = slice(raw, vectorBytes, weightBytes).asDoubleBuffer();
+            labels = slice(raw, vectorBytes + weightBytes, labelBytes).asIntBuffer();
+            ALLOCATED.addAndGet(raw.capacity());
+        }
+
+        void retain() {
+            refs.incrementAndGet();
+        }
+
+        void release() {
+            if (refs.decrementAndGet() == 0) {
+                ALLOCATED.addAndGet(-raw.capacity());
+            }
+        }
+
+        private static ByteBuffer slice(ByteBuffer buffer, long offset, long length) {
+            return buffer.slice((int) offset, (int) length).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    /**
+     * 逐行追加构建；build 之前出错时调用 {@link #discard()} 归还已分配的内存
+     */
+    public static final class Builder {
+
+        private final int columns;
+        private final int shift;
+        private final int capacity;
+        private final List<Segment> segments = new ArrayList<>();
+        private int rows;
+
+        public Builder(int columns) {
+            this.columns = columns;
+            int rowBytes = Math.max(1, columns) * Double.BYTES + Double.BYTES + Integer.BYTES;
+            this.shift = Math.max(0, 31 - Integer.numberOfLeadingZeros(Math.max(1, SEGMENT_BYTES / rowBytes)));
+            this.capacity = 1 << shift;
+        }
+
+        public int rows() {
+            return rows;
+        }
+
+        /**
+         * 追加一行；vector 长度必须等于列数，追加后可复用
+         */
+        public Builder add(int label, double weight, double[] vector) {
+            if (vector.length != columns) {
+                throw new IllegalArgumentException("向量长度(" + vector.length + ")与列数(" + columns + ")不一致");
+            }
+            Segment segment = next();
+            int r = rows & (capacity - 1);
+            segment.vectors.put(r * columns, vector, 0, columns);
+            segment.labels.put(r, label);
+            segment.weights.put(r, weight);
+            rows++;
+            return this;
+        }
+
+        /**
+         * 追加另一个矩阵的全部行（不经过堆数组），列数不足的部分填 pad；
+         * 列数相同且从第 0 行开始时直接共享源矩阵写满的段，只复制未写满的最后一段
+         */
+        public Builder addAll(OffHeapMatrix source, double pad) {
+            source.ensureOpen();
+            if (source.columns > columns) {
+                throw new IllegalArgumentException("源矩阵列数(" + source.columns + ")多于目标列数(" + columns + ")");
+            }
+            int first = 0;
+            if (rows == 0 && source.columns == columns && source.shift == shift) {
+                int full = source.rows >>> shift;
+                for (int s = 0; s < full; s++) {
+                    Segment shared = source.open(source.segments[s]);
+                    shared.retain();
+                    segments.add(shared);
+                }
+                first = full << shift;
+                rows = first;
+            }
+            for (int i = first; i < source.rows; i++) {
+                Segment segment = next();
+                int r = rows & (capacity - 1);
+                int base = r * columns;
+                DoubleBuffer from = source.open(source.vectors[i >>> source.shift]);
+                int sourceBase = (i & source.mask) * source.columns;
+                if (columns == source.columns) {
+                    segment.vectors.put(base, from, sourceBase, columns);
+                } else {
+                    segment.vectors.put(base, from, sourceBase, source.columns);
+                    for (int j = source.columns; j < columns; j++) {
+                        segment.vectors.put(base + j, pad);
+                    }
+                }
+                segment.labels.put(r, source.label(i));
+                segment.weights.put(r, source.weight(i));
+                rows++;
+            }
+            return this;
+        }
+
+        /**
+         * 完成构建；最后一段未填满时复制到按实际行数分配的段，小数据集不占用整段内存
+         */
+        public OffHeapMatrix build() {
+            int used = rows & (capacity - 1);
+            if (used > 0) {
+                Segment last = segments.get(segments.size() - 1);
+                Segment trimmed = new Segment(used, columns);
+                trimmed.vectors.put(0, last.vectors, 0, used * columns);
+                trimmed.labels.put(0, last.labels, 0, used);
+                trimmed.weights.put(0, last.weights, 0, used);
+                segments.set(segments.size() - 1, trimmed);
+                last.release();
+            }
+            return new OffHeapMatrix(rows, columns, shift, segments);
+        }
+
+        /**
+         * 放弃构建：归还新分配的段，释放对共享段的引用
+         */
+        public void discard() {
+            for (Segment segment : segments) {
+                segment.release();
+            }
+            segments.clear();
+            rows = 0;
+        }
+
+        private Segment next() {
+            if ((rows >>> shift) == segments.size()) {
+                segments.add(new Segment(capacity, columns));
+            }
+            return segments.get(rows >>> shift);
+        }
+    }
+}
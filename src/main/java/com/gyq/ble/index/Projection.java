@@ -0,0 +1,198 @@
+package com.gyq.ble.index;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * 样本向量的低维投影（PCA 或随机投影），用于 KNN 预筛
+ *
+ * 样本减去均值后投影到 d 维（d 远小于信标列数）并保存投影结果。查询时同样投影，
+ * 在低维空间按欧氏距离取最近的若干候选，再由调用方在原空间精确计算距离重排。
+ * PCA 的主成分用协方差矩阵上的子空间迭代求得；随机投影使用高斯随机矩阵，只需要均值。
+ */
+public final class Projection {
+
+    /**
+     * 子空间迭代次数
+     */
+    private static final int ITERATIONS = 30;
+
+    private final String method;
+    private final double[] mean;
+    private final double[][] components;
+    private final double[][] projected;
+
+    private Projection(String method, double[] mean, double[][] components, double[][] projected) {
+        this.method = method;
+        this.mean = mean;
+        this.components = components;
+        this.projected = projected;
+    }
+
+    /**
+     * 拟合投影并投影全部样本
+     *
+     * @param vectors    样本向量（长度相同）
+     * @param dimensions 目标维数，超过列数时取列数
+     * @param method     pca 或 random
+     * @param seed       随机种子（子空间迭代初值 / 随机矩阵）
+     */
+    public static Projection fit(List<double[]> vectors, int dimensions, String method, long seed) {
+        int n = vectors.size();
+        int m = n == 0 ? 0 : vectors.get(0).length;
+        int d = Math.max(1, Math.min(dimensions, m));
+        double[] mean = new double[m];
+        for (double[] v : vectors) {
+            for (int j = 0; j < m; j++) mean[j] += v[j];
+        }
+        for (int j = 0; j < m; j++) mean[j] /= Math.max(n, 1);
+
+        Random random = new Random(seed);
+        double[][] components = new double[d][m];
+        for (double[] c : components) {
+            for (int j = 0; j < m; j++) c[j] = random.nextGaussian();
+        }
+        if ("random".equals(method)) {
+            for (double[] c : components) {
+                for (int j = 0; j < m; j++) c[j] /= Math.sqrt(d);
+            }
+        } else {
+            double[][] covariance = covariance(vectors, mean);
+            orthonormalize(components);
+            for (int it = 0; it < ITERATIONS; it++) {
+                for (int c = 0; c < d; c++) {
+                    components[c] = multiply(covariance, components[c]);
+                }
+                orthonormalize(components);
+            }
+        }
+
+        Projection projection = new Projection(method, mean, components, null);
+        double[][] projected = new double[n][];
+        for (int i = 0; i < n; i++) {
+            projected[i] = projection.project(vectors.get(i));
+        }
+        return new Projection(method, mean, components, projected);
+    }
+
+    /**
+     * 把向量投影到低维空间
+     */
+    public double[] project(double[] vector) {
+        double[] out = new double[components.length];
+        for (int c = 0; c < components.length; c++) {
+            double[] component = components[c];
+            double sum = 0;
+            for (int j = 0; j < component.length; j++) {
+                sum += (vector[j] - mean[j]) * component[j];
+            }
+            out[c] = sum;
+        }
+        return out;
+    }
+
+    /**
+     * 低维空间中离查询最近的至多 limit 个样本下标（升序）
+     *
+     * @param query      已投影的查询向量
+     * @param candidates 参与比较的样本下标，null 表示全部
+     */
+    public int[] nearest(double[] query, int[] candidates, int limit) {
+        int n = candidates == null ? projected.length : candidates.length;
+        if (n <= limit) {
+            return candidates != null ? candidates : IntStream.range(0, n).toArray();
+        }
+        // 大顶堆保留距离最小的 limit 个
+        PriorityQueue<double[]> heap = new PriorityQueue<>(limit, (a, b) -> Double.compare(b[0], a[0]));
+        for (int c = 0; c < n; c++) {
+            int i = candidates == null ? c : candidates[c];
+            double[] p = projected[i];
+            double sum = 0;
+            for (int j = 0; j < p.length; j++) {
+                double diff = query[j] - p[j];
+                sum += diff * diff;
+            }
+            if (heap.size() < limit) {
+                heap.add(new double[]{sum, i});
+            } else if (sum < heap.peek()[0]) {
+                heap.poll();
+                heap.add(new double[]{sum, i});
+            }
+        }
+        int[] result = new int[heap.size()];
+        int r = 0;
+        for (double[] e : heap) {
+            result[r++] = (int) e[1];
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public int dimensions() {
+        return components.length;
+    }
+
+    public int size() {
+        return projected.length;
+    }
+
+    private static double[][] covariance(List<double[]> vectors, double[] mean) {
+        int m = mean.length;
+        double[][] cov = new double[m][m];
+        double[] centered = new double[m];
+        for (double[] v : vectors) {
+            for (int j = 0; j < m; j++) centered[j] = v[j] - mean[j];
+            for (int a = 0; a < m; a++) {
+                double x = centered[a];
+                if (x == 0) continue;
+                double[] row = cov[a];
+                for (int b = a; b < m; b++) row[b] += x * centered[b];
+            }
+        }
+        for (int a = 0; a < m; a++) {
+            for (int b = a; b < m; b++) {
+                cov[a][b] /= Math.max(vectors.size() - 1, 1);
+                cov[b][a] = cov[a][b];
+            }
+        }
+        return cov;
+    }
+
+    private static double[] multiply(double[][] matrix, double[] vector) {
+        double[] out = new double[matrix.length];
+        for (int a = 0; a < matrix.length; a++) {
+            double[] row = matrix[a];
+            double sum = 0;
+            for (int b = 0; b < row.length; b++) sum += row[b] * vector[b];
+            out[a] = sum;
+        }
+        return out;
+    }
+
+    /**
+     * 修正 Gram-Schmidt 正交化（按行）；退化的行重新置为单位向量
+     */
+    private static void orthonormalize(double[][] rows) {
+        for (int c = 0; c < rows.length; c++) {
+            double[] row = rows[c];
+            for (int p = 0; p < c; p++) {
+                double dot = 0;
+                for (int j = 0; j < row.length; j++) dot += row[j] * rows[p][j];
+                for (int j = 0; j < row.length; j++) row[j] -= dot * rows[p][j];
+            }
+            double norm = 0;
+            for (double x : row) norm += x * x;
+            norm = Math.sqrt(norm);
+            if (norm < 1e-12) {
+                Arrays.fill(row, 0);
+                row[c % row.length] = 1;
+            } else {
+                for (int j = 0; j < row.length; j++) row[j] /= norm;
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.gyq.ble.index;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 区域邻接图（无向）
+ *
+ * 配置文件格式：{"1": [2, 3], "2": [1, 4], ...}，单向声明的边会自动补成双向。
+ * 行人在相邻两次扫描之间只能走到相邻区域，跟踪模式下只在上次区域的 k 跳邻域内搜索。
+ */
+public final class RegionGraph {
+
+    public static final RegionGraph EMPTY = new RegionGraph(Collections.emptyMap());
+
+    private final Map<String, Set<String>> adjacency;
+
+    /**
+     * (区域, 跳数) -> 邻域（含自身）
+     */
+    private final ConcurrentHashMap<String, Set<String>> neighbourhoods = new ConcurrentHashMap<>();
+
+    private RegionGraph(Map<String, Set<String>> adjacency) {
+        this.adjacency = adjacency;
+    }
+
+    /**
+     * 由邻接表构建，区域统一按字符串处理（与点位名称中的区域部分一致）
+     */
+    public static RegionGraph of(Map<String, ? extends Collection<?>> edges) {
+        Map<String, Set<String>> adjacency = new HashMap<>();
+        for (Map.Entry<String, ? extends Collection<?>> e : edges.entrySet()) {
+            String from = e.getKey().trim();
+            adjacency.computeIfAbsent(from, k -> new HashSet<>());
+            if (e.getValue() == null) {
+                continue;
+            }
+            for (Object neighbour : e.getValue()) {
+                String to = String.valueOf(neighbour).trim();
+                if (to.equals(from)) {
+                    continue;
+                }
+                adjacency.get(from).add(to);
+                adjacency.computeIfAbsent(to, k -> new HashSet<>()).add(from);
+            }
+        }
+        return new RegionGraph(adjacency);
+    }
+
+    public boolean isEmpty() {
+        return adjacency.isEmpty();
+    }
+
+    public boolean contains(String region) {
+        return adjacency.containsKey(region);
+    }
+
+    public int size() {
+        return adjacency.size();
+    }
+
+    /**
+     * 区域的 k 跳邻域（含自身）；区域不在图中时返回 null
+     */
+    public Set<String> neighbourhood(String region, int hops) {
+        if (!adjacency.containsKey(region)) {
+            return null;
+        }
+        return neighbourhoods.computeIfAbsent(region + "#" + hops, k -> bfs(region, hops));
+    }
+
+    private Set<String> bfs(String region, int hops) {
+        Set<String> visited = new LinkedHashSet<>();
+        visited.add(region);
+        List<String> frontier = List.of(region);
+        for (int h = 0; h < hops && !frontier.isEmpty(); h++) {
+            List<String> next = new ArrayList<>();
+            for (String r : frontier) {
+                for (String neighbour : adjacency.getOrDefault(r, Collections.emptySet())) {
+                    if (visited.add(neighbour)) {
+                        next.add(neighbour);
+                    }
+                }
+            }
+            frontier = next;
+        }
+        return Collections.unmodifiableSet(visited);
+    }
+}
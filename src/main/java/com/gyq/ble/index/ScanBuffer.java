@@ -0,0 +1,169 @@
+package com.gyq.ble.index;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 一次扫描的原始类型表示：按信标ID升序排列的 (id, rssi) 数组
+ *
+ * 请求线程通过 {@link #acquire(BeaconDictionary)} 复用线程本地实例，解析和打分都在同一线程内完成，
+ * 因此热路径上不产生新的对象。需要跨线程保存时使用 {@link #copy()}。
+ */
+public final class ScanBuffer {
+
+    private static final ThreadLocal<ScanBuffer> POOL = ThreadLocal.withInitial(ScanBuffer::new);
+
+    private int[] ids = new int[32];
+    private double[] rssi = new double[32];
+    private int size;
+
+    /**
+     * 字典中不存在的信标数
+     */
+    private int unknown;
+
+    /**
+     * 被 RSSI 区间过滤掉的读数数
+     */
+    private int filtered;
+
+    /**
+     * 解析时使用的字典
+     */
+    private BeaconDictionary dictionary = BeaconDictionary.EMPTY;
+
+    /**
+     * 解析 UUID 用的字符缓冲
+     */
+    private char[] chars = new char[64];
+
+    /**
+     * 取当前线程的缓冲并清空
+     */
+    public static ScanBuffer acquire(BeaconDictionary dictionary) {
+        ScanBuffer buffer = POOL.get();
+        buffer.reset(dictionary);
+        return buffer;
+    }
+
+    /**
+     * 新建一个不属于线程池的缓冲
+     */
+    public static ScanBuffer create(BeaconDictionary dictionary) {
+        ScanBuffer buffer = new ScanBuffer();
+        buffer.reset(dictionary);
+        return buffer;
+    }
+
+    public void reset(BeaconDictionary dictionary) {
+        this.dictionary = dictionary;
+        this.size = 0;
+        this.unknown = 0;
+        this.filtered = 0;
+    }
+
+    /**
+     * 追加一个读数；同一信标重复出现时以最后一次为准
+     */
+    public void add(int id, double value) {
+        for (int i = 0; i < size; i++) {
+            if (ids[i] == id) {
+                rssi[i] = value;
+                return;
+            }
+        }
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            rssi = Arrays.copyOf(rssi, size * 2);
+        }
+        ids[size] = id;
+        rssi[size] = value;
+        size++;
+    }
+
+    /**
+     * 解析结束：按信标ID升序排序（读数很少，插入排序即可）
+     */
+    public void seal() {
+        for (int i = 1; i < size; i++) {
+            int id = ids[i];
+            double v = rssi[i];
+            int j = i - 1;
+            while (j >= 0 && ids[j] > id) {
+                ids[j + 1] = ids[j];
+                rssi[j + 1] = rssi[j];
+                j--;
+            }
+            ids[j + 1] = id;
+            rssi[j + 1] = v;
+        }
+    }
+
+    public void markUnknown() {
+        unknown++;
+    }
+
+    public void markFiltered() {
+        filtered++;
+    }
+
+    /**
+     * 取至少 len 长度的字符缓冲
+     */
+    public char[] chars(int len) {
+        if (chars.length < len) {
+            chars = new char[Math.max(len, chars.length * 2)];
+        }
+        return chars;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int id(int i) {
+        return ids[i];
+    }
+
+    public double rssi(int i) {
+        return rssi[i];
+    }
+
+    public int unknown() {
+        return unknown;
+    }
+
+    public int filtered() {
+        return filtered;
+    }
+
+    public BeaconDictionary dictionary() {
+        return dictionary;
+    }
+
+    /**
+     * 复制一份独立的缓冲（可跨线程保存）
+     */
+    public ScanBuffer copy() {
+        ScanBuffer copy = new ScanBuffer();
+        copy.ids = Arrays.copyOf(ids, Math.max(1, size));
+        copy.rssi = Arrays.copyOf(rssi, Math.max(1, size));
+        copy.size = size;
+        copy.unknown = unknown;
+        copy.filtered = filtered;
+        copy.dictionary = dictionary;
+        return copy;
+    }
+
+    /**
+     * 转为 存储键 -> RSSI 的映射（仅供 explain 等非热路径使用）
+     */
+    public Map<String, Double> toKeyMap() {
+        Map<String, Double> map = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            map.put(dictionary.keyOf(ids[i]), rssi[i]);
+        }
+        return map;
+    }
+}
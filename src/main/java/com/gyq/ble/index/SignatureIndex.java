@@ -0,0 +1,197 @@
+package com.gyq.ble.index;
+
+import java.util.*;
+
+/**
+ * 最强信标签名索引（局部敏感预筛）
+ *
+ * 扫描中最强的 3~4 个信标基本决定了所在位置。每个指纹按其最强 N 个信标ID建立若干哈希键：
+ * <ul>
+ *   <li>有序签名：按信号强度排列的前 N 个ID</li>
+ *   <li>无序签名：前 N 个ID的集合</li>
+ *   <li>退化签名：前 N 个中任取 N-1 个的集合（容忍一个强信标被遮挡或排名变化）</li>
+ * </ul>
+ * 查询取有序、无序与退化签名命中的桶的并集（强信标排名变化或被遮挡时最佳点位多半只在退化签名的桶里），
+ * 全部为空时返回 null 由调用方全量搜索。
+ * 哈希冲突只会多出候选，精确打分会把它们排掉。
+ */
+public final class SignatureIndex {
+
+    private static final long ORDERED = 1;
+    private static final long UNORDERED = 2;
+    private static final long PARTIAL = 3;
+
+    private static final int[] EMPTY = new int[0];
+
+    private final int topN;
+    private final Map<Long, int[]> buckets;
+
+    private SignatureIndex(int topN, Map<Long, int[]> buckets) {
+        this.topN = topN;
+        this.buckets = buckets;
+    }
+
+    /**
+     * 构建索引
+     *
+     * @param topN   签名使用的最强信标数
+     * @param ids    每个指纹的信标ID
+     * @param values 每个指纹的 RSSI（与 ids 一一对应）
+     */
+    public static SignatureIndex build(int topN, int[][] ids, double[][] values) {
+        Map<Long, List<Integer>> lists = new HashMap<>();
+        int[] top = new int[topN];
+        int[] key = new int[topN];
+        for (int f = 0; f < ids.length; f++) {
+            int k = strongest(ids[f], values[f], ids[f].length, top);
+            if (k == 0) {
+                continue;
+            }
+            Set<Long> keys = new LinkedHashSet<>();
+            keys.add(hash(ORDERED, top, k));
+            keys.add(unordered(UNORDERED, top, k, -1, key));
+            if (k > 1) {
+                for (int skip = 0; skip < k; skip++) {
+                    keys.add(unordered(PARTIAL, top, k, skip, key));
+                }
+            }
+            for (Long h : keys) {
+                lists.computeIfAbsent(h, x -> new ArrayList<>()).add(f);
+            }
+        }
+        Map<Long, int[]> buckets = new HashMap<>(lists.size() * 2);
+        for (Map.Entry<Long, List<Integer>> e : lists.entrySet()) {
+            buckets.put(e.getKey(), e.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+        return new SignatureIndex(topN, buckets);
+    }
+
+    /**
+     * 扫描的候选指纹下标（升序）；所有桶都为空时返回 null
+     */
+    public int[] candidates(ScanBuffer scan) {
+        int n = scan.size();
+        int[] ids = new int[n];
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = scan.id(i);
+            values[i] = scan.rssi(i);
+        }
+        return candidates(ids, values, n);
+    }
+
+    /**
+     * 查询的候选指纹下标（升序）；所有桶都为空时返回 null
+     *
+     * @param ids    查询中的信标ID
+     * @param values 对应的 RSSI
+     * @param len    有效长度
+     */
+    public int[] candidates(int[] ids, double[] values, int len) {
+        int[] top = new int[topN];
+        int[] key = new int[topN];
+        int k = strongest(ids, values, len, top);
+        if (k == 0) {
+            return null;
+        }
+        int[] exact = union(bucket(hash(ORDERED, top, k)), bucket(unordered(UNORDERED, top, k, -1, key)));
+        if (k > 1) {
+            int[] partial = exact;
+            for (int skip = 0; skip < k; skip++) {
+                partial = union(partial, bucket(unordered(PARTIAL, top, k, skip, key)));
+            }
+            if (partial.length > 0) {
+                return partial;
+            }
+        }
+        return null;
+    }
+
+    public int topN() {
+        return topN;
+    }
+
+    public int bucketCount() {
+        return buckets.size();
+    }
+
+    private int[] bucket(long hash) {
+        return buckets.getOrDefault(hash, EMPTY);
+    }
+
+    /**
+     * 取最强的至多 top.length 个信标ID（RSSI 降序，相同时ID升序），返回实际个数
+     */
+    private static int strongest(int[] ids, double[] values, int len, int[] top) {
+        double[] topValues = new double[top.length];
+        int size = 0;
+        for (int i = 0; i < len; i++) {
+            int id = ids[i];
+            double v = values[i];
+            if (size == top.length && !stronger(id, v, top[size - 1], topValues[size - 1])) {
+                continue;
+            }
+            int j = size < top.length ? size++ : size - 1;
+            while (j > 0 && stronger(id, v, top[j - 1], topValues[j - 1])) {
+                top[j] = top[j - 1];
+                topValues[j] = topValues[j - 1];
+                j--;
+            }
+            top[j] = id;
+            topValues[j] = v;
+        }
+        return size;
+    }
+
+    private static boolean stronger(int idA, double a, int idB, double b) {
+        return a > b || (a == b && idA < idB);
+    }
+
+    private static long unordered(long variant, int[] top, int k, int skip, int[] key) {
+        int m = 0;
+        for (int i = 0; i < k; i++) {
+            if (i != skip) {
+                key[m++] = top[i];
+            }
+        }
+        Arrays.sort(key, 0, m);
+        return hash(variant, key, m);
+    }
+
+    private static long hash(long variant, int[] ids, int len) {
+        long h = mix(variant * 0x9E3779B97F4A7C15L + len);
+        for (int i = 0; i < len; i++) {
+            h = mix(h ^ ids[i]);
+        }
+        return h;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9F53A1ED3B9L;
+        return z ^ (z >>> 33);
+    }
+
+    /**
+     * 两个升序数组的并集（升序、去重）
+     */
+    private static int[] union(int[] a, int[] b) {
+        if (a.length == 0) return b;
+        if (b.length == 0) return a;
+        int[] out = new int[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length || j < b.length) {
+            int v;
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                v = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                v = b[j++];
+            } else {
+                v = a[i++];
+                j++;
+            }
+            out[n++] = v;
+        }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+}
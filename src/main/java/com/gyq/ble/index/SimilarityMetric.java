@@ -0,0 +1,65 @@
+package com.gyq.ble.index;
+
+import com.gyq.ble.controller.SimilarityMetricsDemo;
+
+/**
+ * 指纹打分使用的相似度指标（实现见 {@link SimilarityMetricsDemo}）
+ *
+ * 得分越大越相似：距离类指标取负数。cost 为相对余弦的单次比较开销估计，调参时用于比较配置的代价。
+ */
+public enum SimilarityMetric {
+
+    COSINE("cosine", 1),
+    CENTERED_COSINE("centeredCosine", 2),
+    PEARSON("pearson", 2),
+    SPEARMAN("spearman", 8),
+    EUCLIDEAN("euclidean", 1),
+    MANHATTAN("manhattan", 1),
+    MAE("mae", 1),
+    COSINE_MW("cosineMw", 4);
+
+    private final String name;
+    private final double cost;
+
+    SimilarityMetric(String name, double cost) {
+        this.name = name;
+        this.cost = cost;
+    }
+
+    /**
+     * 共同信标上的得分，a、b 长度相同
+     */
+    public double score(double[] a, double[] b) {
+        return switch (this) {
+            case COSINE -> SimilarityMetricsDemo.cosine(a, b);
+            case CENTERED_COSINE -> SimilarityMetricsDemo.centeredCosine(a, b);
+            case PEARSON -> SimilarityMetricsDemo.pearson(a, b);
+            case SPEARMAN -> SimilarityMetricsDemo.spearman(a, b);
+            case EUCLIDEAN -> -SimilarityMetricsDemo.euclidean(a, b);
+            case MANHATTAN -> -SimilarityMetricsDemo.manhattan(a, b);
+            case MAE -> -SimilarityMetricsDemo.mae(a, b);
+            case COSINE_MW -> SimilarityMetricsDemo.cosine(
+                    SimilarityMetricsDemo.dbmToMilliwatt(a), SimilarityMetricsDemo.dbmToMilliwatt(b));
+        };
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getCost() {
+        return cost;
+    }
+
+    /**
+     * 按名称（如 cosine、euclidean，忽略大小写）查找
+     */
+    public static SimilarityMetric of(String name) {
+        for (SimilarityMetric metric : values()) {
+            if (metric.name.equalsIgnoreCase(name)) {
+                return metric;
+            }
+        }
+        throw new IllegalArgumentException("未知指标: " + name);
+    }
+}
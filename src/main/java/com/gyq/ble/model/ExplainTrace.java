@@ -0,0 +1,96 @@
+package com.gyq.ble.model;
+
+import lombok.Data;
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 预测解释轨迹：记录一次预测的候选、对齐向量与各项指标
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ExplainTrace {
+
+    /**
+     * 轨迹ID（单调递增）
+     */
+    private long id;
+
+    /**
+     * 记录时间（毫秒时间戳）
+     */
+    private long timestamp;
+
+    /**
+     * 是否由采样触发（false 表示请求显式开启）
+     */
+    private boolean sampled;
+
+    /**
+     * 过滤后的扫描数据：信标键 -> RSSI
+     */
+    private Map<String, Double> scan;
+
+    /**
+     * 每个候选指纹的比对明细
+     */
+    private List<Candidate> candidates = new ArrayList<>();
+
+    /**
+     * 按相似度排序后的结果
+     */
+    private List<Candidate> ranking = new ArrayList<>();
+
+    /**
+     * 最终预测结果
+     */
+    private PredictResponse result;
+
+    /**
+     * 总耗时（微秒）
+     */
+    private long durationMicros;
+
+    /**
+     * 候选指纹比对明细
+     */
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Candidate {
+        /**
+         * 指纹键，如 "1_3"
+         */
+        private String key;
+
+        /**
+         * 共同信标（排序后）
+         */
+        private List<String> commonKeys;
+
+        /**
+         * 对齐后的扫描向量
+         */
+        private double[] scanVector;
+
+        /**
+         * 对齐后的指纹向量
+         */
+        private double[] fingerprintVector;
+
+        /**
+         * 各项指标（余弦、皮尔逊、欧氏距离等）
+         */
+        private Map<String, Double> metrics;
+
+        /**
+         * 用于排序的相似度，共同信标不足时为 null
+         */
+        private Double score;
+    }
+}
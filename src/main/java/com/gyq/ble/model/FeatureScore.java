@@ -0,0 +1,39 @@
+package com.gyq.ble.model;
+
+import lombok.Data;
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+
+/**
+ * 信标列的区分度评分
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class FeatureScore {
+
+    /**
+     * 信标列名（uuid-major-minor）
+     */
+    private String beacon;
+
+    /**
+     * 与 region_id 的互信息（bit）
+     */
+    private double mutualInformation;
+
+    /**
+     * 扫到该信标的样本比例
+     */
+    private double coverage;
+
+    /**
+     * 扫到时 RSSI 的方差
+     */
+    private double variance;
+
+    /**
+     * 是否保留在精简列集中
+     */
+    private boolean selected;
+}
@@ -0,0 +1,26 @@
+package com.gyq.ble.model;
+
+import lombok.Data;
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * 指纹库导出（NDJSON）中的一个点位
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class FingerprintRecord {
+
+    /**
+     * 点位名称（regional_count）
+     */
+    private String point;
+
+    /**
+     * 信标存储键（uuid_minor_major）-> RSSI 中位数
+     */
+    private Map<String, Double> rssi;
+}
@@ -0,0 +1,54 @@
+package com.gyq.ble.model;
+
+import lombok.Data;
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+
+/**
+ * 批量导入结果
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ImportResult {
+
+    /**
+     * 导入的样本数
+     */
+    private int rows;
+
+    /**
+     * 跳过的无效行数（区域ID缺失或无法解析）
+     */
+    private int skipped;
+
+    /**
+     * 新增的信标列数
+     */
+    private int newBeacons;
+
+    /**
+     * 导入后的数据集版本号
+     */
+    private long version;
+
+    /**
+     * 导入后的样本数量
+     */
+    private int samples;
+
+    /**
+     * 导入后的信标列数
+     */
+    private int beaconCols;
+
+    /**
+     * 解析与提交总耗时（毫秒）
+     */
+    private long millis;
+
+    /**
+     * 每秒导入的行数
+     */
+    private double rowsPerSecond;
+}
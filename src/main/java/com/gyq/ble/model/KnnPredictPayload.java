@@ -0,0 +1,36 @@
+package com.gyq.ble.model;
+
+import lombok.Data;
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * KNN 预测请求载荷
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class KnnPredictPayload {
+
+    /**
+     * 设备型号（可选），用于选择分区和 RSSI 偏移校准
+     */
+    private String device;
+
+    /**
+     * 时段（可选）
+     */
+    private String time_slot;
+
+    /**
+     * 朝向（可选）
+     */
+    private String heading;
+
+    /**
+     * 信标列表
+     */
+    private List<BeaconReading> beacons;
+}
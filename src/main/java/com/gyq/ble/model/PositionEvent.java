@@ -0,0 +1,39 @@
+package com.gyq.ble.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 推送给订阅者的位置事件
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class PositionEvent {
+
+    /**
+     * 设备ID
+     */
+    private String deviceId;
+
+    /**
+     * 该设备的事件序号（单调递增，可用于发现跳过的事件）
+     */
+    private Long sequence;
+
+    /**
+     * 预测时间戳（毫秒）
+     */
+    private Long timestamp;
+
+    /**
+     * 该订阅者自上次推送以来因缓冲区满而丢弃的事件数
+     */
+    private Integer dropped;
+
+    /**
+     * 预测结果
+     */
+    private PredictResponse result;
+}
@@ -1,5 +1,6 @@
 package com.gyq.ble.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Data;
 import lombok.AllArgsConstructor;
 import lombok.NoArgsConstructor;
@@ -25,6 +26,23 @@ public class PredictResponse {
      */
     private List<RegionScore> regionTop3 = new ArrayList<>();
     
+    /**
+     * 带时延预算的预测：预算用完时提前结束、返回已打分候选中的最好结果时为 true；未带预算时不输出
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Boolean truncated;
+    
+    /**
+     * 带时延预算的预测：实际打分的候选数；未带预算时不输出
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer evaluated;
+    
+    public PredictResponse(Integer regionTop1, List<RegionScore> regionTop3) {
+        this.regionTop1 = regionTop1;
+        this.regionTop3 = regionTop3;
+    }
+    
     /**
      * 区域分数
      */
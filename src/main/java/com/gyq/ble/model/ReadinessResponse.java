@@ -0,0 +1,64 @@
+package com.gyq.ble.model;
+
+import lombok.Data;
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+
+/**
+ * 就绪检查响应
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ReadinessResponse {
+
+    /**
+     * 是否接收流量
+     */
+    private boolean ready;
+
+    /**
+     * 预热状态：running / stable / budget / disabled / empty
+     */
+    private String warmup;
+
+    /**
+     * 预热执行的预测次数
+     */
+    private long warmupPredictions;
+
+    /**
+     * 预热耗时（毫秒）
+     */
+    private long warmupMillis;
+
+    /**
+     * 预热最后一轮的平均单次预测耗时（微秒）
+     */
+    private double warmupLastMicros;
+
+    /**
+     * 指纹库点位数
+     */
+    private int fingerprints;
+
+    /**
+     * 指纹库区域数
+     */
+    private int regions;
+
+    /**
+     * 指纹库版本号
+     */
+    private long indexVersion;
+
+    /**
+     * CSV 数据集样本数量
+     */
+    private int samples;
+
+    /**
+     * CSV 数据集信标列数
+     */
+    private int beaconCols;
+}
@@ -0,0 +1,39 @@
+package com.gyq.ble.model;
+
+import lombok.Data;
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+
+/**
+ * 数据集样本的元数据（与 CSV 前 6 列中除区域ID外的字段对应）
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class SampleMeta {
+
+    /**
+     * X坐标（可为空）
+     */
+    private String x;
+
+    /**
+     * Y坐标（可为空）
+     */
+    private String y;
+
+    /**
+     * 设备型号
+     */
+    private String device;
+
+    /**
+     * 时段
+     */
+    private String time_slot;
+
+    /**
+     * 朝向
+     */
+    private String heading;
+}
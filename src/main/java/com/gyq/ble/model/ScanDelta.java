@@ -0,0 +1,32 @@
+package com.gyq.ble.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 会话模式下的增量扫描：只携带相对上一次扫描新增、变化或消失的信标
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ScanDelta {
+
+    /**
+     * 为 true 时先清空会话再应用本次数据（首次请求或会话过期后重发完整扫描）
+     */
+    private Boolean reset = false;
+
+    /**
+     * 新增或 RSSI 变化的信标
+     */
+    private List<BeaconReading> upsert = new ArrayList<>();
+
+    /**
+     * 消失的信标（只需 uuid / major / minor）
+     */
+    private List<BeaconReading> remove = new ArrayList<>();
+}
@@ -0,0 +1,64 @@
+package com.gyq.ble.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 批量导入 / 导出（NDJSON）中的一条勘测样本，字段与 CSV 数据集的列对应
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@AllArgsConstructor
+@NoArgsConstructor
+public class SurveyRecord {
+
+    /**
+     * 区域ID
+     */
+    private Integer region_id;
+
+    /**
+     * X坐标（可为空）
+     */
+    private String x;
+
+    /**
+     * Y坐标（可为空）
+     */
+    private String y;
+
+    /**
+     * 设备型号
+     */
+    private String device;
+
+    /**
+     * 时段
+     */
+    private String time_slot;
+
+    /**
+     * 朝向
+     */
+    private String heading;
+
+    /**
+     * 扫到的信标
+     */
+    private List<BeaconReading> beacons;
+
+    /**
+     * 按数据集列名（uuid-major-minor）给出的 RSSI，可与 beacons 同时给出；导出使用这种形式（保留小数）
+     */
+    private Map<String, Double> rssi;
+
+    /**
+     * 样本权重，只在导出压缩数据集时给出，导入时忽略
+     */
+    private Double weight;
+}
@@ -0,0 +1,63 @@
+package com.gyq.ble.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+
+/**
+ * 调参配置文件（tool/Tuner 生成，TuningService 热加载）
+ *
+ * 省略的字段使用 application.yml 中的默认值
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TuningProfile {
+
+    /**
+     * CSV 数据集 KNN 的 K
+     */
+    private Integer k;
+
+    /**
+     * 指纹打分指标：cosine / centeredCosine / pearson / spearman / euclidean / manhattan / mae / cosineMw
+     */
+    private String metric;
+
+    /**
+     * RSSI 过滤区间下限（不含）
+     */
+    private Integer rssiMin;
+
+    /**
+     * RSSI 过滤区间上限（不含）
+     */
+    private Integer rssiMax;
+
+    /**
+     * 参与打分的最少共同信标数
+     */
+    private Integer minCommon;
+
+    /**
+     * addData 聚合时信标出现次数不超过该值则丢弃
+     */
+    private Integer minOccurrences;
+
+    /**
+     * 生成时交叉验证的指纹 Top-1 准确率（仅供查看）
+     */
+    private Double accuracy;
+
+    /**
+     * 生成时交叉验证的 KNN Top-1 准确率（仅供查看）
+     */
+    private Double knnAccuracy;
+
+    /**
+     * 生成时间（仅供查看）
+     */
+    private String generatedAt;
+}
@@ -0,0 +1,311 @@
+package com.gyq.ble.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 预测路径的准入控制
+ *
+ * 打分是 CPU 密集的，同时执行的请求超过核数后只会互相拖慢，流量突增时 Tomcat 线程池被占满、所有请求的延迟一起上升。
+ * 这里限制同时执行的打分请求数（limit），超出的请求进入短的有界等待队列，队列满、等待超时或单个客户端占用过多时立即拒绝：
+ * <ul>
+ *   <li>limit 的取值（admission.mode）：fixed 固定；aimd 延迟超过 target-latency-ms 时乘 0.9，否则接近饱和时每个请求加 1/limit（约每轮加 1）；
+ *       gradient 按长期 / 短期延迟之比缩放并留 sqrt(limit) 的余量（平滑后取整）</li>
+ *   <li>等待队列按客户端分成多个 FIFO，空出名额时轮流从各客户端取，单个客户端的突发不会挤占其他客户端</li>
+ *   <li>需要排队时，单个客户端同时执行 + 排队的请求数不超过 per-client-limit（0 表示当前 limit 的一半，至少 1），超出返回 429</li>
+ *   <li>队列满或等待超过 queue-timeout-ms 返回 503</li>
+ * </ul>
+ */
+@Slf4j
+@Service
+public class AdmissionService {
+
+    /**
+     * 是否启用准入控制
+     */
+    @Value("${admission.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * fixed / aimd / gradient
+     */
+    @Value("${admission.mode:fixed}")
+    private String mode;
+
+    /**
+     * 并发上限（自适应模式下为初始值），0 表示 CPU 核数的 2 倍
+     */
+    @Value("${admission.limit:0}")
+    private int initialLimit;
+
+    @Value("${admission.min-limit:1}")
+    private int minLimit;
+
+    /**
+     * 自适应模式的上限，0 表示 CPU 核数的 8 倍
+     */
+    @Value("${admission.max-limit:0}")
+    private int maxLimit;
+
+    /**
+     * 等待队列长度（所有客户端合计）
+     */
+    @Value("${admission.queue-size:50}")
+    private int queueSize;
+
+    /**
+     * 排队最长等待时间
+     */
+    @Value("${admission.queue-timeout-ms:50}")
+    private long queueTimeoutMs;
+
+    /**
+     * 单个客户端同时执行 + 排队的上限，0 表示当前 limit 的一半（至少 1）
+     */
+    @Value("${admission.per-client-limit:0}")
+    private int perClientLimit;
+
+    /**
+     * aimd 模式的目标延迟
+     */
+    @Value("${admission.target-latency-ms:20}")
+    private double targetLatencyMs;
+
+    @Autowired
+    private PipelineMetrics metrics;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * 当前并发上限（自适应模式下是平滑后的实数）
+     */
+    private volatile double limit;
+
+    private volatile int inFlight;
+
+    private volatile int queued;
+
+    /**
+     * 客户端 -> 执行中与排队中的请求数
+     */
+    private final Map<String, Integer> active = new HashMap<>();
+
+    /**
+     * 客户端 -> 排队的请求，按轮转顺序排列
+     */
+    private final LinkedHashMap<String, ArrayDeque<Waiter>> waiting = new LinkedHashMap<>();
+
+    /**
+     * gradient 模式：长期 / 短期延迟的指数滑动平均（纳秒）
+     */
+    private double longRtt;
+    private double shortRtt;
+
+    /**
+     * 准入结果
+     *
+     * @param startNanos 获得名额的时刻
+     * @param status 未准入时的 HTTP 状态码（429 / 503），准入时为 0
+     * @param reason 拒绝原因，准入时为 null
+     */
+    public record Permit(String client, long startNanos, int status, String reason) {
+
+        public boolean admitted() {
+            return status == 0;
+        }
+    }
+
+    private static final class Waiter {
+        final CountDownLatch latch = new CountDownLatch(1);
+        boolean granted;
+    }
+
+    public AdmissionService() {
+    }
+
+    /**
+     * 不经 Spring 直接构造（单元测试）：启用准入控制，最小上限 1
+     */
+    AdmissionService(String mode, int limit, int maxLimit, int queueSize, long queueTimeoutMs, int perClientLimit,
+                     double targetLatencyMs, PipelineMetrics metrics) {
+        this.enabled = true;
+        this.mode = mode;
+        this.initialLimit = limit;
+        this.minLimit = 1;
+        this.maxLimit = maxLimit;
+        this.queueSize = queueSize;
+        this.queueTimeoutMs = queueTimeoutMs;
+        this.perClientLimit = perClientLimit;
+        this.targetLatencyMs = targetLatencyMs;
+        this.metrics = metrics;
+        init();
+    }
+
+    @PostConstruct
+    public void init() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        if (initialLimit <= 0) initialLimit = cores * 2;
+        if (maxLimit <= 0) maxLimit = Math.max(cores * 8, initialLimit);
+        minLimit = Math.max(1, Math.min(minLimit, initialLimit));
+        limit = initialLimit;
+        metrics.gauge("ble.admission.limit", "准入控制的并发上限", () -> (int) limit);
+        metrics.gauge("ble.admission.inflight", "正在执行的打分请求数", () -> inFlight);
+        metrics.gauge("ble.admission.queue", "排队等待的打分请求数", () -> queued);
+        metrics.gauge("ble.admission.clients", "有执行中或排队请求的客户端数", this::activeClients);
+        if (enabled) {
+            log.info("准入控制已启用，模式: {}, 并发上限: {}, 队列: {}, 等待: {}ms", mode, initialLimit, queueSize, queueTimeoutMs);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 申请执行名额：有空闲名额时立即返回，否则排队至多 queue-timeout-ms；准入后必须调用 {@link #release(Permit)}
+     */
+    public Permit acquire(String client) throws InterruptedException {
+        long start = System.nanoTime();
+        Waiter waiter;
+        lock.lock();
+        try {
+            int clientActive = active.getOrDefault(client, 0);
+            if (inFlight < (int) limit && queued == 0) {
+                inFlight++;
+                active.put(client, clientActive + 1);
+                metrics.increment("admission.admitted");
+                return new Permit(client, start, 0, null);
+            }
+            // 需要排队时才检查单客户端上限：空闲时单个网关也可以用满名额
+            if (clientActive >= clientLimit()) {
+                metrics.increment("admission.rejected.client");
+                return new Permit(client, start, 429, "客户端并发请求过多");
+            }
+            if (queued >= queueSize) {
+                metrics.increment("admission.rejected.queue");
+                return new Permit(client, start, 503, "服务繁忙");
+            }
+            waiter = new Waiter();
+            waiting.computeIfAbsent(client, c -> new ArrayDeque<>()).addLast(waiter);
+            queued++;
+            active.put(client, clientActive + 1);
+        } finally {
+            lock.unlock();
+        }
+
+        metrics.increment("admission.queued");
+        try {
+            waiter.latch.await(queueTimeoutMs, TimeUnit.MILLISECONDS);
+        } finally {
+            lock.lock();
+            try {
+                if (!waiter.granted) {
+                    // 超时（或被中断）：从队列移除，名额还没分给它
+                    ArrayDeque<Waiter> deque = waiting.get(client);
+                    if (deque != null && deque.remove(waiter)) {
+                        queued--;
+                        if (deque.isEmpty()) waiting.remove(client);
+                    }
+                    decrementActive(client);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        long admitted = metrics.stage("admission", "wait", start);
+        if (waiter.granted) {
+            metrics.increment("admission.admitted");
+            // 自适应上限按执行耗时调整，不含排队时间
+            return new Permit(client, admitted, 0, null);
+        }
+        metrics.increment("admission.rejected.timeout");
+        return new Permit(client, start, 503, "排队超时");
+    }
+
+    /**
+     * 归还名额并记录本次延迟（自适应模式据此调整上限），然后按客户端轮转唤醒排队的请求
+     */
+    public void release(Permit permit) {
+        if (!permit.admitted()) {
+            return;
+        }
+        long rtt = System.nanoTime() - permit.startNanos();
+        lock.lock();
+        try {
+            inFlight--;
+            decrementActive(permit.client());
+            adjust(rtt);
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void dispatch() {
+        while (inFlight < (int) limit && !waiting.isEmpty()) {
+            Iterator<Map.Entry<String, ArrayDeque<Waiter>>> it = waiting.entrySet().iterator();
+            Map.Entry<String, ArrayDeque<Waiter>> first = it.next();
+            it.remove();
+            Waiter next = first.getValue().pollFirst();
+            if (!first.getValue().isEmpty()) {
+                // 该客户端还有排队请求，移到轮转顺序末尾
+                waiting.put(first.getKey(), first.getValue());
+            }
+            queued--;
+            inFlight++;
+            next.granted = true;
+            next.latch.countDown();
+        }
+    }
+
+    private void adjust(long rttNanos) {
+        switch (mode) {
+            case "aimd" -> {
+                if (rttNanos > targetLatencyMs * 1_000_000) {
+                    limit = Math.max(minLimit, limit * 0.9);
+                } else if (inFlight + 1 >= limit / 2) {
+                    limit = Math.min(maxLimit, limit + 1.0 / limit);
+                }
+            }
+            case "gradient" -> {
+                longRtt = longRtt == 0 ? rttNanos : longRtt * 0.99 + rttNanos * 0.01;
+                shortRtt = shortRtt == 0 ? rttNanos : shortRtt * 0.8 + rttNanos * 0.2;
+                // 短期延迟超过长期基线的 2 倍时收缩；持平且接近饱和时按 sqrt(limit) 的余量增长
+                double gradient = Math.max(0.5, Math.min(1.0, 2.0 * longRtt / shortRtt));
+                double next = limit * gradient + (inFlight + 1 >= limit / 2 ? Math.sqrt(limit) : 0);
+                limit = Math.max(minLimit, Math.min(maxLimit, limit * 0.8 + next * 0.2));
+                if (longRtt > shortRtt * 2) {
+                    // 延迟回落后让长期基线跟上，避免基线被过载期间的高值长期抬高
+                    longRtt = shortRtt * 2;
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    private int activeClients() {
+        lock.lock();
+        try {
+            return active.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int clientLimit() {
+        return perClientLimit > 0 ? perClientLimit : Math.max(1, (int) limit / 2);
+    }
+
+    private void decrementActive(String client) {
+        active.computeIfPresent(client, (c, n) -> n <= 1 ? null : n - 1);
+    }
+}
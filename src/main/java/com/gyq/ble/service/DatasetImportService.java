@@ -0,0 +1,182 @@
+package com.gyq.ble.service;
+
+import com.fasterxml.jackson.core.JacksonException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.gyq.ble.model.BeaconReading;
+import com.gyq.ble.model.ImportResult;
+import com.gyq.ble.model.SampleMeta;
+import com.gyq.ble.model.SurveyRecord;
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 勘测数据批量导入
+ *
+ * 请求体按行流式解析（CSV 或 NDJSON），不缓冲整个请求；解析结果以稀疏形式暂存在 {@link DatasetService.Batch} 中，
+ * 全部解析成功后一次提交：信标列只扩展一次、文件只打开一次、数据集版本号只加 1，分区 / 签名 / 特征选择 / 投影随版本重建一次。
+ * 请求体格式错误或行数超过上限时不提交任何数据。
+ */
+@Slf4j
+@Service
+public class DatasetImportService {
+
+    /**
+     * 单次导入的行数上限，限制暂存区内存
+     */
+    @Value("${dataset.import-max-rows:200000}")
+    private int maxRows;
+
+    @Autowired
+    private DatasetService datasetService;
+
+    @Autowired
+    private PipelineMetrics metrics;
+
+    private final ObjectReader recordReader = new ObjectMapper().readerFor(SurveyRecord.class);
+
+    public DatasetImportService() {
+    }
+
+    /**
+     * 不经 Spring 直接构造（单元测试）
+     */
+    DatasetImportService(int maxRows, DatasetService datasetService, PipelineMetrics metrics) {
+        this.maxRows = maxRows;
+        this.datasetService = datasetService;
+        this.metrics = metrics;
+    }
+
+    /**
+     * 导入 CSV：表头与数据集文件相同（region_id, x, y, device, time_slot, heading, [weight], 信标列...），
+     * 空单元格、无法解析或不在 (-100, 0] 内的 RSSI 视为未扫到，weight 列忽略（导入的都是原始样本）
+     *
+     * @throws IllegalArgumentException 表头不合法、CSV 格式错误或行数超过上限
+     */
+    public ImportResult importCsv(InputStream body) throws IOException {
+        long start = System.nanoTime();
+        DatasetService.Batch batch = new DatasetService.Batch();
+        int skipped = 0;
+        try (CSVReader reader = new CSVReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            String[] headers = reader.readNext();
+            if (headers == null || headers.length < 6 || !"region_id".equals(headers[0].trim())) {
+                throw new IllegalArgumentException("CSV 表头应以 region_id, x, y, device, time_slot, heading 开头");
+            }
+            int first = headers.length > 6 && DatasetService.WEIGHT_COLUMN.equals(headers[6].trim()) ? 7 : 6;
+            String[] row;
+            while ((row = reader.readNext()) != null) {
+                Integer regionId = row.length < 6 ? null : parseRegion(row[0]);
+                if (regionId == null) {
+                    skipped++;
+                    continue;
+                }
+                Map<String, Double> rssiByKey = new HashMap<>();
+                for (int j = first; j < Math.min(row.length, headers.length); j++) {
+                    Double rssi = parseRssi(row[j]);
+                    if (rssi != null) {
+                        rssiByKey.put(headers[j].trim(), rssi);
+                    }
+                }
+                add(batch, regionId, new SampleMeta(row[1], row[2], row[3], row[4], row[5]), rssiByKey);
+            }
+        } catch (CsvException e) {
+            throw new IllegalArgumentException("CSV 格式错误: " + e.getMessage(), e);
+        }
+        return commit(batch, skipped, "csv", start);
+    }
+
+    /**
+     * 导入 NDJSON：每行一个 {@link SurveyRecord}（beacons 列表和 / 或按列名的 rssi 映射，导出的 NDJSON 可直接导入）；
+     * region_id 缺失的行跳过，RSSI 缺失或不在 (-100, 0] 内的读数忽略
+     *
+     * @throws IllegalArgumentException JSON 格式错误或行数超过上限
+     */
+    public ImportResult importNdjson(InputStream body) throws IOException {
+        long start = System.nanoTime();
+        DatasetService.Batch batch = new DatasetService.Batch();
+        int skipped = 0;
+        try (MappingIterator<SurveyRecord> records = recordReader.readValues(body)) {
+            while (records.hasNextValue()) {
+                SurveyRecord record = records.nextValue();
+                if (record.getRegion_id() == null) {
+                    skipped++;
+                    continue;
+                }
+                Map<String, Double> rssiByKey = new HashMap<>();
+                if (record.getBeacons() != null) {
+                    for (BeaconReading beacon : record.getBeacons()) {
+                        if (beacon.getUuid() != null && beacon.getMajor() != null && beacon.getMinor() != null
+                                && beacon.getRssi() != null && beacon.getRssi() <= 0 && beacon.getRssi() > -100) {
+                            rssiByKey.put(datasetService.keyOf(beacon.getUuid(), beacon.getMajor(), beacon.getMinor()),
+                                    beacon.getRssi().doubleValue());
+                        }
+                    }
+                }
+                if (record.getRssi() != null) {
+                    record.getRssi().forEach((key, rssi) -> {
+                        if (key != null && rssi != null && rssi > -100.0 && rssi <= 0) {
+                            rssiByKey.put(key, rssi);
+                        }
+                    });
+                }
+                add(batch, record.getRegion_id(), new SampleMeta(record.getX(), record.getY(), record.getDevice(),
+                        record.getTime_slot(), record.getHeading()), rssiByKey);
+            }
+        } catch (JacksonException e) {
+            throw new IllegalArgumentException("NDJSON 格式错误: " + e.getOriginalMessage(), e);
+        }
+        return commit(batch, skipped, "ndjson", start);
+    }
+
+    private void add(DatasetService.Batch batch, int regionId, SampleMeta meta, Map<String, Double> rssiByKey) {
+        if (batch.size() >= maxRows) {
+            throw new IllegalArgumentException("导入行数超过上限 " + maxRows + "（dataset.import-max-rows）");
+        }
+        batch.add(regionId, meta, rssiByKey);
+    }
+
+    private ImportResult commit(DatasetService.Batch batch, int skipped, String format, long start) throws IOException {
+        int columnsBefore = datasetService.getBeaconColumnCount();
+        DatasetService.Snapshot data = batch.size() == 0 ? datasetService.snapshot() : datasetService.importBatch(batch);
+        long nanos = System.nanoTime() - start;
+        double rowsPerSecond = batch.size() / Math.max(nanos / 1e9, 1e-9);
+        metrics.increment("dataset.import");
+        metrics.increment("dataset.import.rows", batch.size());
+        log.info("批量导入（{}）: {} 行，跳过 {} 行，耗时 {}ms，{} 行/秒", format, batch.size(), skipped, nanos / 1_000_000,
+                Math.round(rowsPerSecond));
+        return new ImportResult(batch.size(), skipped, data.beaconColumns().size() - columnsBefore, data.version(),
+                data.labels().size(), data.beaconColumns().size(), nanos / 1_000_000, rowsPerSecond);
+    }
+
+    private static Integer parseRegion(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Double parseRssi(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            double rssi = Double.parseDouble(value.trim());
+            return rssi > -100.0 && rssi <= 0 ? rssi : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -1,20 +1,30 @@
 package com.gyq.ble.service;
 
+import com.gyq.ble.index.OffHeapMatrix;
+import com.gyq.ble.model.SampleMeta;
 import com.opencsv.CSVReader;
 import com.opencsv.CSVWriter;
 import com.opencsv.exceptions.CsvException;
 import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 数据集服务，负责CSV文件的读写和内存数据管理
+ * 
+ * dataset.storage 为 offheap 时样本向量、标签与权重保存在 {@link OffHeapMatrix}（直接内存），快照被替换后
+ * 释放服务持有的引用，最后一个读方用完后直接内存交给 GC 回收；读取样本数据的调用方应通过 {@link #acquire()} 取得快照并关闭。
  */
 @Slf4j
 @Service
@@ -31,33 +41,90 @@ public class DatasetService {
     private static final double RSSI_PAD = -100.0;
     
     /**
-     * 内存中的样本特征矩阵
+     * 压缩数据集中可选的权重列名（位于 heading 之后、信标列之前）
      */
-    private List<double[]> X = new ArrayList<>();
+    public static final String WEIGHT_COLUMN = "weight";
     
     /**
-     * 内存中的区域标签
+     * 是否加载压缩后的数据集（见 tool.DatasetCompactor）；压缩文件不存在时仍加载原始数据集
      */
-    private List<Integer> y = new ArrayList<>();
+    @Value("${dataset.compacted:false}")
+    private boolean compacted;
     
     /**
-     * 信标列名列表
+     * 压缩数据集文件
      */
-    private List<String> beaconColumns = new ArrayList<>();
+    @Value("${dataset.compacted-file:qqqq.compact.csv}")
+    private String compactedFile;
+
+    /**
+     * 原始数据集文件（默认 {@link #DATASET}）
+     */
+    private String datasetFile = DATASET;
+    
+    /**
+     * 样本存储：heap（堆内数组）/ offheap（直接内存，大数据集不增加 GC 停顿与堆大小）
+     */
+    @Value("${dataset.storage:heap}")
+    private String storage;
+    
+    /**
+     * 当前快照是否来自压缩数据集；此时新样本同时写入压缩文件（权重 1）与原始文件
+     */
+    private volatile boolean servingCompacted;
+    
+    /**
+     * 当前数据集快照（不可变），加载 / 追加时在旁边构建新快照后整体替换，读方无锁
+     */
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    
+    /**
+     * 串行化写方（加载、追加），不阻塞读方
+     */
+    private final Object writeLock = new Object();
     
     /**
-     * 读写锁，保证线程安全
+     * 数据集版本号，每次加载或追加后递增
      */
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicLong version = new AtomicLong();
+    
+    /**
+     * 可作为分区键的元数据字段
+     */
+    public static final List<String> PARTITION_FIELDS = List.of("device", "heading", "time_slot");
+    
+    /**
+     * 分区索引（字段 -> 取值 -> 样本下标），在快照发布前构建，请求线程不重建
+     */
+    private volatile Partitions partitions;
+    
+    @Autowired
+    private PipelineMetrics metrics;
+
+    public DatasetService() {
+    }
+
+    /**
+     * 不经 Spring 直接构造（单元测试）：不加载数据集，初始快照由 {@link #publish(Snapshot)} 发布
+     */
+    DatasetService(String datasetFile, String storage, PipelineMetrics metrics) {
+        this.datasetFile = datasetFile;
+        this.storage = storage;
+        this.metrics = metrics;
+    }
     
     /**
      * 启动时自动加载数据集
      */
     @PostConstruct
     public void init() {
+        metrics.gauge("ble.dataset.samples", "样本数量", this::getSampleCount);
+        metrics.gauge("ble.dataset.beacons", "信标字典大小（信标列数）", this::getBeaconColumnCount);
+        metrics.gauge("ble.dataset.version", "数据集版本号", this::getVersion);
+        metrics.gauge("ble.dataset.offheap.bytes", "堆外样本矩阵占用的直接内存字节数", OffHeapMatrix::allocatedBytes);
+        metrics.gauge("ble.dataset.offheap.matrices", "未释放的堆外样本矩阵数（含仍被读方持有的旧快照）", OffHeapMatrix::liveCount);
         try {
             load();
-            log.info("数据集加载完成，样本数: {}, 信标列数: {}", y.size(), beaconColumns.size());
         } catch (Exception e) {
             log.error("数据集加载失败，创建新的数据集文件", e);
             createNewDataset();
@@ -69,7 +136,7 @@ public class DatasetService {
      */
     private void createNewDataset() {
         try {
-            File file = new File(DATASET);
+            File file = new File(datasetFile);
             if (!file.exists()) {
                 file.createNewFile();
             }
@@ -80,105 +147,198 @@ public class DatasetService {
                 writer.writeNext(headers.toArray(new String[0]));
             }
             
-            log.info("创建新的数据集文件: {}", DATASET);
+            log.info("创建新的数据集文件: {}", datasetFile);
         } catch (IOException e) {
             log.error("创建数据集文件失败", e);
         }
     }
     
     /**
-     * 从磁盘加载数据集到内存
+     * 从磁盘加载数据集
+     * 
+     * 新快照在旁边读取并校验，通过后整体替换；加载期间预测继续使用旧快照，校验失败时保留旧快照并抛出异常。
+     * 
+     * @return 加载后的快照
      */
-    public void load() throws IOException, CsvException {
-        lock.writeLock().lock();
-        try {
-            File file = new File(DATASET);
+    public Snapshot load() throws IOException, CsvException {
+        synchronized (writeLock) {
+            File file = new File(datasetFile);
             if (!file.exists()) {
                 createNewDataset();
-                return;
+                return snapshot;
+            }
+            boolean useCompacted = compacted && new File(compactedFile).exists();
+            if (compacted && !useCompacted) {
+                log.warn("压缩数据集 {} 不存在，加载原始数据集", compactedFile);
+            }
+            if (useCompacted) {
+                file = new File(compactedFile);
             }
             
-            X.clear();
-            y.clear();
-            beaconColumns.clear();
+            long start = System.nanoTime();
+            Snapshot loaded = read(file, version.get() + 1, isOffHeap());
+            if (loaded == null) {
+                return snapshot;
+            }
+            try {
+                validate(loaded);
+            } catch (RuntimeException e) {
+                loaded.close();
+                throw e;
+            }
+            version.set(loaded.version());
+            replace(loaded);
+            servingCompacted = useCompacted;
             
-            try (CSVReader reader = new CSVReader(new FileReader(file))) {
-                List<String[]> rows = reader.readAll();
-                if (rows.isEmpty()) {
-                    return;
-                }
-                
-                String[] headers = rows.get(0);
-                // 前6列是固定列：region_id, x, y, device, time_slot, heading
-                // 从第7列开始是信标列
-                for (int i = 6; i < headers.length; i++) {
-                    beaconColumns.add(headers[i]);
-                }
-                
-                // 读取数据行
-                for (int i = 1; i < rows.size(); i++) {
-                    String[] row = rows.get(i);
+            log.info("数据集加载完成，文件: {}, 版本: {}, 样本数: {}, 信标列数: {}, 存储: {}, 耗时: {}ms", file.getName(), loaded.version(),
+                    loaded.labels().size(), loaded.beaconColumns().size(), storage, (System.nanoTime() - start) / 1_000_000);
+            return loaded;
+        }
+    }
+    
+    /**
+     * 读取 CSV 数据集文件到堆内快照（不校验、不替换当前快照），离线工具也使用
+     * 
+     * @return 快照，文件为空时返回 null
+     */
+    public static Snapshot read(File file, long version) throws IOException, CsvException {
+        return read(file, version, false);
+    }
+    
+    /**
+     * 逐行读取 CSV 数据集文件（不校验、不替换当前快照）
+     * 
+     * @param offHeap 为 true 时样本直接写入堆外矩阵，不经过整表的堆内数组
+     * @return 快照，文件为空时返回 null
+     */
+    public static Snapshot read(File file, long version, boolean offHeap) throws IOException, CsvException {
+        try (CSVReader reader = new CSVReader(new FileReader(file))) {
+            String[] headers = reader.readNext();
+            if (headers == null) {
+                return null;
+            }
+            
+            // 前6列是固定列：region_id, x, y, device, time_slot, heading
+            // 压缩数据集第7列是权重列，其余情况从第7列开始是信标列
+            List<String> beaconColumns = new ArrayList<>();
+            boolean weighted = headers.length > 6 && WEIGHT_COLUMN.equals(headers[6]);
+            int first = weighted ? 7 : 6;
+            for (int i = first; i < headers.length; i++) {
+                beaconColumns.add(headers[i]);
+            }
+            
+            SnapshotBuilder builder = new SnapshotBuilder(beaconColumns, offHeap, 0);
+            try {
+                // 读取数据行（堆外存储时复用同一个向量数组）
+                double[] buffer = new double[beaconColumns.size()];
+                String[] row;
+                while ((row = reader.readNext()) != null) {
                     if (row.length < 6) continue;
                     
                     // 解析区域ID
+                    int regionId;
                     try {
-                        int regionId = Integer.parseInt(row[0]);
-                        y.add(regionId);
+                        regionId = Integer.parseInt(row[0]);
                     } catch (NumberFormatException e) {
                         log.warn("跳过无效的区域ID行: {}", Arrays.toString(row));
                         continue;
                     }
                     
                     // 构造RSSI向量
-                    double[] rssiVector = new double[beaconColumns.size()];
+                    double[] rssiVector = offHeap ? buffer : new double[beaconColumns.size()];
                     Arrays.fill(rssiVector, RSSI_PAD);
                     
                     // 填充RSSI值
-                    for (int j = 6; j < Math.min(row.length, headers.length); j++) {
-                        if (j - 6 < beaconColumns.size() && !row[j].trim().isEmpty()) {
+                    for (int j = first; j < Math.min(row.length, headers.length); j++) {
+                        if (j - first < beaconColumns.size() && !row[j].trim().isEmpty()) {
                             try {
-                                rssiVector[j - 6] = Double.parseDouble(row[j]);
+                                rssiVector[j - first] = Double.parseDouble(row[j]);
                             } catch (NumberFormatException e) {
-                                rssiVector[j - 6] = RSSI_PAD;
+                                rssiVector[j - first] = RSSI_PAD;
                             }
                         }
                     }
                     
-                    X.add(rssiVector);
+                    // 权重缺失或无法解析时按 1 处理
+                    double weight = 1.0;
+                    if (weighted && row.length > 6 && !row[6].trim().isEmpty()) {
+                        try {
+                            weight = Double.parseDouble(row[6]);
+                        } catch (NumberFormatException e) {
+                            log.warn("无效的样本权重 {}，按 1 处理", row[6]);
+                        }
+                    }
+                    
+                    builder.add(regionId, new SampleMeta(row[1], row[2], row[3], row[4], row[5]), weight, rssiVector);
                 }
+                return builder.build(version);
+            } catch (IOException | CsvException | RuntimeException e) {
+                builder.discard();
+                throw e;
             }
-            
-            log.info("数据集加载完成，样本数: {}, 信标列数: {}", y.size(), beaconColumns.size());
-        } finally {
-            lock.writeLock().unlock();
         }
     }
     
     /**
-     * 追加样本到数据集
+     * 校验快照：各列表长度一致、向量长度等于信标列数、RSSI 为有限值且不为正、权重为正、信标列不重复
+     */
+    public static void validate(Snapshot data) {
+        validate(data, 0);
+    }
+    
+    /**
+     * 校验快照的结构，逐样本的检查只做第 from 个及之后的样本（之前的样本来自已校验的快照）
+     */
+    static void validate(Snapshot data, int from) {
+        int n = data.labels().size();
+        if (data.vectors().size() != n || data.meta().size() != n || data.weights().size() != n) {
+            throw new IllegalStateException("样本、标签、元数据与权重数量不一致");
+        }
+        for (int i = from; i < n; i++) {
+            double weight = data.weights().get(i);
+            if (!Double.isFinite(weight) || weight <= 0) {
+                throw new IllegalStateException("第 " + (i + 1) + " 个样本的权重无效: " + weight);
+            }
+        }
+        if (new HashSet<>(data.beaconColumns()).size() != data.beaconColumns().size()) {
+            throw new IllegalStateException("信标列重复");
+        }
+        int columns = data.beaconColumns().size();
+        if (data.matrix() != null && data.matrix().columns() != columns) {
+            throw new IllegalStateException("堆外矩阵列数(" + data.matrix().columns() + ")与信标列数(" + columns + ")不一致");
+        }
+        for (int i = from; i < n; i++) {
+            if (data.matrix() == null && data.vectors().get(i).length != columns) {
+                throw new IllegalStateException("第 " + (i + 1) + " 个样本的向量长度(" + data.vectors().get(i).length
+                        + ")与信标列数(" + columns + ")不一致");
+            }
+            for (int j = 0; j < columns; j++) {
+                double v = data.value(i, j);
+                if (!Double.isFinite(v) || v > 0) {
+                    throw new IllegalStateException("第 " + (i + 1) + " 个样本包含无效的 RSSI: " + v);
+                }
+            }
+        }
+    }
+    
+    /**
+     * 追加样本到数据集（写时复制：在新快照上追加后整体替换）
+     * 
+     * 当前快照来自压缩数据集时，样本以权重 1 写入压缩文件，同时写入原始文件，下次压缩时参与聚类。
      */
     public void appendSample(Map<String, Object> meta, Map<String, Double> rssiByKey) throws IOException {
-        lock.writeLock().lock();
-        try {
+        synchronized (writeLock) {
+            Snapshot current = snapshot;
+            List<String> beaconColumns = new ArrayList<>(current.beaconColumns());
+            
             // 检查是否需要扩展信标列
             Set<String> newBeaconKeys = new HashSet<>(rssiByKey.keySet());
             newBeaconKeys.removeAll(beaconColumns);
             
             if (!newBeaconKeys.isEmpty()) {
-                // 扩展信标列
+                // 扩展信标列（旧快照中的向量不修改，复制时补齐填充值）
                 beaconColumns.addAll(newBeaconKeys);
                 log.info("扩展信标列: {}", newBeaconKeys);
-                
-                // 重新构造所有样本的RSSI向量
-                for (int i = 0; i < X.size(); i++) {
-                    double[] oldVector = X.get(i);
-                    double[] newVector = Arrays.copyOf(oldVector, beaconColumns.size());
-                    Arrays.fill(newVector, oldVector.length, newVector.length, RSSI_PAD);
-                    X.set(i, newVector);
-                }
-                
-                // 重写CSV文件
-                rewriteCsvFile();
             }
             
             // 构造新样本的RSSI向量
@@ -190,75 +350,383 @@ public class DatasetService {
                 rssiVector[i] = rssiByKey.getOrDefault(key, RSSI_PAD);
             }
             
-            // 添加到内存
-            X.add(rssiVector);
-            y.add((Integer) meta.get("region_id"));
+            SnapshotBuilder builder = new SnapshotBuilder(beaconColumns, isOffHeap(), current.labels().size() + 1);
+            Snapshot next;
+            try {
+                builder.addAll(current);
+                builder.add((Integer) meta.get("region_id"), new SampleMeta(text(meta.get("x")), text(meta.get("y")),
+                        text(meta.get("device")), text(meta.get("time_slot")), text(meta.get("heading"))), 1.0, rssiVector);
+                next = builder.build(version.get() + 1);
+            } catch (RuntimeException e) {
+                builder.discard();
+                throw e;
+            }
             
-            // 追加到CSV文件
-            appendToCsv(meta, rssiVector);
+            // 扩展了信标列时重写CSV文件，否则追加一行；写入成功后才推进版本号
+            try {
+                persist(current, next);
+            } catch (IOException | RuntimeException e) {
+                next.close();
+                throw e;
+            }
+            version.set(next.version());
+            replace(next);
             
-            log.info("样本追加成功，当前样本数: {}, 信标列数: {}", y.size(), beaconColumns.size());
-        } finally {
-            lock.writeLock().unlock();
+            log.info("样本追加成功，当前样本数: {}, 信标列数: {}", next.labels().size(), beaconColumns.size());
         }
     }
     
     /**
-     * 重写CSV文件
+     * 批量导入：信标列只扩展一次，全部行写入存储后整体替换快照（版本号只加 1）
+     * 
+     * 写入失败时不替换快照并抛出异常；追加写入失败时文件截断回导入前的长度，重写通过临时文件原子替换。
+     * 
+     * @return 导入后的快照
      */
-    private void rewriteCsvFile() throws IOException {
-        File file = new File(DATASET);
-        try (CSVWriter writer = new CSVWriter(new FileWriter(file))) {
-            // 写入表头
-            List<String> headers = new ArrayList<>();
-            headers.add("region_id");
-            headers.add("x");
-            headers.add("y");
-            headers.add("device");
-            headers.add("time_slot");
-            headers.add("heading");
-            headers.addAll(beaconColumns);
-            writer.writeNext(headers.toArray(new String[0]));
+    public Snapshot importBatch(Batch batch) throws IOException {
+        synchronized (writeLock) {
+            Snapshot current = snapshot;
+            List<String> beaconColumns = new ArrayList<>(current.beaconColumns());
+            Map<String, Integer> position = new HashMap<>();
+            for (int j = 0; j < beaconColumns.size(); j++) {
+                position.put(beaconColumns.get(j), j);
+            }
+            // 暂存区字典下标 -> 数据集列下标
+            int[] mapping = new int[batch.keys.size()];
+            for (Map.Entry<String, Integer> entry : batch.keys.entrySet()) {
+                Integer p = position.get(entry.getKey());
+                if (p == null) {
+                    p = beaconColumns.size();
+                    beaconColumns.add(entry.getKey());
+                }
+                mapping[entry.getValue()] = p;
+            }
+            int added = beaconColumns.size() - current.beaconColumns().size();
             
-            // 写入数据行
-            for (int i = 0; i < X.size(); i++) {
-                String[] row = new String[headers.size()];
-                row[0] = String.valueOf(y.get(i));
-                row[1] = ""; // x坐标
-                row[2] = ""; // y坐标
-                row[3] = ""; // device
-                row[4] = ""; // time_slot
-                row[5] = ""; // heading
-                
-                double[] rssiVector = X.get(i);
-                for (int j = 0; j < rssiVector.length; j++) {
-                    row[j + 6] = String.valueOf(rssiVector[j]);
+            int n = current.labels().size() + batch.size();
+            SnapshotBuilder builder = new SnapshotBuilder(beaconColumns, isOffHeap(), n);
+            Snapshot next;
+            try {
+                builder.addAll(current);
+                double[] buffer = new double[beaconColumns.size()];
+                for (int r = 0; r < batch.size(); r++) {
+                    double[] rssiVector = isOffHeap() ? buffer : new double[beaconColumns.size()];
+                    Arrays.fill(rssiVector, RSSI_PAD);
+                    int[] columns = batch.columns.get(r);
+                    double[] values = batch.values.get(r);
+                    for (int c = 0; c < columns.length; c++) {
+                        rssiVector[mapping[columns[c]]] = values[c];
+                    }
+                    builder.add(batch.labels.get(r), batch.meta.get(r), 1.0, rssiVector);
                 }
-                
-                writer.writeNext(row);
+                next = builder.build(version.get() + 1);
+            } catch (RuntimeException e) {
+                builder.discard();
+                throw e;
+            }
+            
+            try {
+                // 已有样本在上次加载 / 写入时校验过，只校验本批新增的行
+                validate(next, current.labels().size());
+                persist(current, next);
+            } catch (IOException | RuntimeException e) {
+                next.close();
+                throw e;
             }
+            version.set(next.version());
+            replace(next);
+            
+            log.info("批量导入完成，版本: {}, 导入样本: {}, 新增信标列: {}, 当前样本数: {}", next.version(), batch.size(), added, n);
+            return next;
         }
     }
     
     /**
-     * 追加到CSV文件
+     * 把 next 相对 current 新增的样本写入存储：扩展了信标列时重写文件，否则只追加新行；
+     * 服务压缩数据集时新样本同时写入原始文件
      */
-    private void appendToCsv(Map<String, Object> meta, double[] rssiVector) throws IOException {
-        File file = new File(DATASET);
-        try (CSVWriter writer = new CSVWriter(new FileWriter(file, true))) {
-            String[] row = new String[6 + beaconColumns.size()];
-            row[0] = String.valueOf(meta.get("region_id"));
-            row[1] = String.valueOf(meta.getOrDefault("x", ""));
-            row[2] = String.valueOf(meta.getOrDefault("y", ""));
-            row[3] = String.valueOf(meta.getOrDefault("device", ""));
-            row[4] = String.valueOf(meta.getOrDefault("time_slot", ""));
-            row[5] = String.valueOf(meta.getOrDefault("heading", ""));
+    private void persist(Snapshot current, Snapshot next) throws IOException {
+        int from = current.labels().size();
+        File file = new File(servingCompacted ? compactedFile : datasetFile);
+        if (next.beaconColumns().size() != current.beaconColumns().size() || !file.exists() || file.length() == 0) {
+            write(file, next);
+        } else {
+            appendRows(file, next, from, weighted(current));
+        }
+        if (servingCompacted) {
+            appendRaw(next, from);
+        }
+    }
+    
+    /**
+     * 写出整个数据集；存在不为 1 的权重时在 heading 之后写权重列（离线工具也使用）
+     * 
+     * 先写临时文件再原子替换，写入失败时原文件不变。
+     */
+    public static void write(File file, Snapshot data) throws IOException {
+        boolean weighted = weighted(data);
+        File tmp = new File(file.getPath() + ".tmp");
+        try (CSVWriter writer = new CSVWriter(new BufferedWriter(new FileWriter(tmp)))) {
+            // 写入表头
+            writer.writeNext(header(data, weighted));
             
-            for (int i = 0; i < rssiVector.length; i++) {
-                row[i + 6] = String.valueOf(rssiVector[i]);
+            // 写入数据行
+            for (int i = 0; i < data.labels().size(); i++) {
+                writer.writeNext(row(data, i, weighted));
             }
-            
-            writer.writeNext(row);
+            if (writer.checkError()) {
+                throw new IOException("写入数据集失败: " + tmp.getPath());
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /**
+     * 把快照中从 from 开始的样本追加到CSV文件（一次打开、缓冲写入），失败时截断回追加前的长度
+     * 
+     * @param weighted 文件是否有权重列
+     */
+    private static void appendRows(File file, Snapshot data, int from, boolean weighted) throws IOException {
+        long length = file.length();
+        try (CSVWriter writer = new CSVWriter(new BufferedWriter(new FileWriter(file, true)))) {
+            for (int i = from; i < data.labels().size(); i++) {
+                writer.writeNext(row(data, i, weighted));
+            }
+            if (writer.checkError()) {
+                throw new IOException("追加写入数据集失败: " + file.getPath());
+            }
+        } catch (IOException e) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(length);
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * 快照是否有不为 1 的权重（写出时需要权重列）
+     */
+    static boolean weighted(Snapshot data) {
+        return data.weights().stream().anyMatch(w -> w != 1.0);
+    }
+    
+    /**
+     * CSV 表头
+     */
+    static String[] header(Snapshot data, boolean weighted) {
+        List<String> headers = new ArrayList<>();
+        headers.add("region_id");
+        headers.add("x");
+        headers.add("y");
+        headers.add("device");
+        headers.add("time_slot");
+        headers.add("heading");
+        if (weighted) {
+            headers.add(WEIGHT_COLUMN);
+        }
+        headers.addAll(data.beaconColumns());
+        return headers.toArray(new String[0]);
+    }
+    
+    /**
+     * 样本转为 CSV 行
+     */
+    static String[] row(Snapshot data, int i, boolean weighted) {
+        int first = weighted ? 7 : 6;
+        double[] rssiVector = data.vectors().get(i);
+        String[] row = new String[first + rssiVector.length];
+        row[0] = String.valueOf(data.labels().get(i));
+        SampleMeta sampleMeta = data.meta().get(i);
+        row[1] = sampleMeta.getX();
+        row[2] = sampleMeta.getY();
+        row[3] = sampleMeta.getDevice();
+        row[4] = sampleMeta.getTime_slot();
+        row[5] = sampleMeta.getHeading();
+        if (weighted) {
+            row[6] = String.valueOf(data.weights().get(i));
+        }
+        for (int j = 0; j < rssiVector.length; j++) {
+            row[j + first] = String.valueOf(rssiVector[j]);
+        }
+        return row;
+    }
+    
+    /**
+     * 服务压缩数据集时把新样本写入原始数据集：只读表头确定列顺序，新样本扫到原始文件没有的信标时才整体重写原始文件
+     * 
+     * @param from 新样本在 next 中的起始下标
+     */
+    private void appendRaw(Snapshot next, int from) throws IOException {
+        File file = new File(datasetFile);
+        String[] headers;
+        try (CSVReader reader = new CSVReader(new FileReader(file))) {
+            headers = reader.readNext();
+        } catch (CsvException e) {
+            throw new IOException("读取原始数据集表头失败", e);
+        }
+        List<String> columns = headers == null || headers.length <= 6
+                ? new ArrayList<>() : new ArrayList<>(Arrays.asList(headers).subList(6, headers.length));
+        Set<String> seen = new HashSet<>();
+        for (int i = from; i < next.labels().size(); i++) {
+            double[] v = next.vectors().get(i);
+            for (int j = 0; j < v.length; j++) {
+                if (v[j] > RSSI_PAD) seen.add(next.beaconColumns().get(j));
+            }
+        }
+        
+        Snapshot raw = null;
+        if (!columns.containsAll(seen)) {
+            try {
+                raw = read(file, 0);
+            } catch (CsvException e) {
+                throw new IOException("读取原始数据集失败", e);
+            }
+            columns = new ArrayList<>(raw == null ? List.of() : raw.beaconColumns());
+            for (String key : next.beaconColumns()) {
+                if (seen.contains(key) && !columns.contains(key)) columns.add(key);
+            }
+        }
+        
+        // 新样本按原始文件的列顺序重排；需要重写时连同原有样本一起写出
+        List<double[]> X = new ArrayList<>();
+        List<Integer> y = new ArrayList<>();
+        List<SampleMeta> meta = new ArrayList<>();
+        if (raw != null) {
+            for (double[] oldVector : raw.vectors()) {
+                double[] newVector = Arrays.copyOf(oldVector, columns.size());
+                Arrays.fill(newVector, oldVector.length, newVector.length, RSSI_PAD);
+                X.add(newVector);
+            }
+            y.addAll(raw.labels());
+            meta.addAll(raw.meta());
+        }
+        Map<String, Integer> position = new HashMap<>();
+        for (int j = 0; j < next.beaconColumns().size(); j++) {
+            position.put(next.beaconColumns().get(j), j);
+        }
+        for (int i = from; i < next.labels().size(); i++) {
+            double[] v = next.vectors().get(i);
+            double[] rssiVector = new double[columns.size()];
+            for (int j = 0; j < columns.size(); j++) {
+                Integer p = position.get(columns.get(j));
+                rssiVector[j] = p == null ? RSSI_PAD : v[p];
+            }
+            X.add(rssiVector);
+            y.add(next.labels().get(i));
+            meta.add(next.meta().get(i));
+        }
+        Snapshot rows = new Snapshot(0, X, y, meta, columns, Collections.nCopies(X.size(), 1.0));
+        if (raw != null) {
+            write(file, rows);
+        } else {
+            appendRows(file, rows, 0, false);
+        }
+    }
+    
+    /**
+     * 批量导入的暂存区：信标键只登记一次，各行以稀疏形式（暂存区字典下标与 RSSI）保存，内存与扫到的读数数成正比
+     */
+    public static final class Batch {
+        
+        private final Map<String, Integer> keys = new LinkedHashMap<>();
+        private final List<int[]> columns = new ArrayList<>();
+        private final List<double[]> values = new ArrayList<>();
+        private final List<Integer> labels = new ArrayList<>();
+        private final List<SampleMeta> meta = new ArrayList<>();
+        
+        /**
+         * 暂存一行；RSSI 不大于填充值的读数视为未扫到
+         */
+        public void add(int regionId, SampleMeta sampleMeta, Map<String, Double> rssiByKey) {
+            int[] ids = new int[rssiByKey.size()];
+            double[] rssi = new double[rssiByKey.size()];
+            int c = 0;
+            for (Map.Entry<String, Double> entry : rssiByKey.entrySet()) {
+                if (entry.getValue() <= RSSI_PAD) continue;
+                ids[c] = keys.computeIfAbsent(entry.getKey(), k -> keys.size());
+                rssi[c++] = entry.getValue();
+            }
+            columns.add(Arrays.copyOf(ids, c));
+            values.add(Arrays.copyOf(rssi, c));
+            labels.add(regionId);
+            meta.add(sampleMeta);
+        }
+        
+        public int size() {
+            return labels.size();
+        }
+        
+        /**
+         * 暂存区中出现过的信标数
+         */
+        public int beaconCount() {
+            return keys.size();
+        }
+    }
+    
+    /**
+     * 元数据转为 CSV 单元格文本，缺失为空串
+     */
+    private static String text(Object value) {
+        return value == null ? "" : String.valueOf(value);
+    }
+    
+    /**
+     * 分区键取值的规范形式（去空白、大写），空值返回 null
+     */
+    public static String partitionValue(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        return value.trim().toUpperCase(Locale.ROOT);
+    }
+    
+    /**
+     * 某个元数据字段取指定值的样本下标（升序）
+     * 
+     * @param data  样本下标所属的快照
+     * @param field 分区字段，见 {@link #PARTITION_FIELDS}
+     * @param value 取值（不区分大小写）
+     * @return 样本下标，没有匹配时为空数组
+     */
+    public int[] partition(Snapshot data, String field, String value) {
+        Partitions current = partitions;
+        if (current == null || current.version != data.version()) {
+            // 只有替换前取得的旧快照会走到这里：临时构建，不覆盖已发布的索引
+            current = buildPartitions(data);
+        }
+        Map<String, int[]> byValue = current.index.get(field);
+        if (byValue == null) {
+            throw new IllegalArgumentException("不支持的分区字段: " + field);
+        }
+        return byValue.getOrDefault(partitionValue(value), new int[0]);
+    }
+    
+    private static Partitions buildPartitions(Snapshot data) {
+        Map<String, Map<String, List<Integer>>> lists = new HashMap<>();
+        for (String field : PARTITION_FIELDS) {
+            lists.put(field, new HashMap<>());
+        }
+        List<SampleMeta> meta = data.meta();
+        for (int i = 0; i < meta.size(); i++) {
+            SampleMeta m = meta.get(i);
+            add(lists.get("device"), m.getDevice(), i);
+            add(lists.get("heading"), m.getHeading(), i);
+            add(lists.get("time_slot"), m.getTime_slot(), i);
+        }
+        Map<String, Map<String, int[]>> index = new HashMap<>();
+        lists.forEach((field, byValue) -> {
+            Map<String, int[]> arrays = new HashMap<>();
+            byValue.forEach((value, ids) -> arrays.put(value, ids.stream().mapToInt(Integer::intValue).toArray()));
+            index.put(field, arrays);
+        });
+        return new Partitions(data.version(), index);
+    }
+    
+    private static void add(Map<String, List<Integer>> byValue, String value, int sample) {
+        String key = partitionValue(value);
+        if (key != null) {
+            byValue.computeIfAbsent(key, k -> new ArrayList<>()).add(sample);
         }
     }
     
@@ -270,62 +738,241 @@ public class DatasetService {
     }
     
     /**
-     * 获取样本特征矩阵（只读）
+     * 当前数据集快照；一次预测应只使用同一个快照
+     * 
+     * 不增加引用：堆外存储时只可读取版本号、样本数、信标列与元数据，读取向量 / 标签 / 权重请使用 {@link #acquire()}
      */
-    public List<double[]> getX() {
-        lock.readLock().lock();
-        try {
-            return new ArrayList<>(X);
-        } finally {
-            lock.readLock().unlock();
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+    
+    /**
+     * 取得当前快照并持有其样本数据，用完必须关闭（try-with-resources）；快照被替换后，
+     * 已取得的快照在关闭前仍然可读
+     */
+    public Snapshot acquire() {
+        while (true) {
+            Snapshot current = snapshot;
+            if (current.matrix() == null || current.matrix().retain()) {
+                return current;
+            }
+            // 恰好在替换后被释放，重新读取新快照
+        }
+    }
+    
+    /**
+     * 替换当前快照并释放服务对旧快照的引用（调用方持有 writeLock）；分区索引先于快照发布
+     */
+    private void replace(Snapshot next) {
+        Snapshot previous = snapshot;
+        partitions = buildPartitions(next);
+        snapshot = next;
+        previous.close();
+    }
+    
+    /**
+     * 直接发布一个已校验的快照（不写文件），版本号随之设置
+     */
+    void publish(Snapshot next) {
+        synchronized (writeLock) {
+            version.set(next.version());
+            replace(next);
         }
     }
     
+    private boolean isOffHeap() {
+        return "offheap".equalsIgnoreCase(storage);
+    }
+    
+    /**
+     * 获取样本特征矩阵（只读；堆外存储时请改用 {@link #acquire()}）
+     */
+    public List<double[]> getX() {
+        return snapshot.vectors();
+    }
+    
     /**
      * 获取区域标签（只读）
      */
     public List<Integer> getY() {
-        lock.readLock().lock();
-        try {
-            return new ArrayList<>(y);
-        } finally {
-            lock.readLock().unlock();
-        }
+        return snapshot.labels();
+    }
+    
+    /**
+     * 获取样本元数据（只读）
+     */
+    public List<SampleMeta> getMeta() {
+        return snapshot.meta();
     }
     
     /**
      * 获取信标列名（只读）
      */
     public List<String> getBeaconColumns() {
-        lock.readLock().lock();
-        try {
-            return new ArrayList<>(beaconColumns);
-        } finally {
-            lock.readLock().unlock();
-        }
+        return snapshot.beaconColumns();
     }
     
     /**
      * 获取样本数量
      */
     public int getSampleCount() {
-        lock.readLock().lock();
-        try {
-            return y.size();
-        } finally {
-            lock.readLock().unlock();
-        }
+        return snapshot.labels().size();
     }
     
     /**
      * 获取信标列数
      */
     public int getBeaconColumnCount() {
-        lock.readLock().lock();
-        try {
-            return beaconColumns.size();
-        } finally {
-            lock.readLock().unlock();
+        return snapshot.beaconColumns().size();
+    }
+    
+    /**
+     * 获取数据集版本号
+     */
+    public long getVersion() {
+        return snapshot.version();
+    }
+    
+    /**
+     * 数据集快照：样本向量、区域标签、元数据、信标列与样本权重，构造后不再修改
+     * 
+     * 原始数据集的权重全为 1；压缩数据集中每个代表样本的权重是它所代表的原始样本数，KNN 投票按权重累加。
+     * 堆外存储时 matrix 不为 null，vectors / labels / weights 是它的只读视图（vectors 每次 get 复制一行），
+     * 热路径应通过 {@link #matrix()} 或 {@link #value(int, int)} 直接读取；堆内快照的 close 不做任何事。
+     */
+    public record Snapshot(long version, List<double[]> vectors, List<Integer> labels, List<SampleMeta> meta,
+                           List<String> beaconColumns, List<Double> weights, OffHeapMatrix matrix) implements AutoCloseable {
+        
+        static final Snapshot EMPTY = new Snapshot(0, List.of(), List.of(), List.of(), List.of(), List.of());
+        
+        public Snapshot {
+            vectors = Collections.unmodifiableList(vectors);
+            labels = Collections.unmodifiableList(labels);
+            meta = Collections.unmodifiableList(meta);
+            beaconColumns = Collections.unmodifiableList(beaconColumns);
+            weights = Collections.unmodifiableList(weights);
+        }
+        
+        /**
+         * 堆内快照
+         */
+        public Snapshot(long version, List<double[]> vectors, List<Integer> labels, List<SampleMeta> meta,
+                        List<String> beaconColumns, List<Double> weights) {
+            this(version, vectors, labels, meta, beaconColumns, weights, null);
+        }
+        
+        /**
+         * 以堆外矩阵为存储的快照，持有矩阵的一个引用
+         */
+        static Snapshot offHeap(long version, OffHeapMatrix matrix, List<SampleMeta> meta, List<String> beaconColumns) {
+            return new Snapshot(version, matrix.vectors(), matrix.labels(), meta, beaconColumns, matrix.weights(), matrix);
         }
+        
+        /**
+         * 第 i 个样本第 j 列的 RSSI
+         */
+        public double value(int i, int j) {
+            return matrix != null ? matrix.get(i, j) : vectors.get(i)[j];
+        }
+        
+        /**
+         * 第 i 个样本的区域ID
+         */
+        public int label(int i) {
+            return matrix != null ? matrix.label(i) : labels.get(i);
+        }
+        
+        /**
+         * 第 i 个样本的权重
+         */
+        public double weight(int i) {
+            return matrix != null ? matrix.weight(i) : weights.get(i);
+        }
+        
+        /**
+         * 释放一个堆外矩阵引用
+         */
+        @Override
+        public void close() {
+            if (matrix != null) {
+                matrix.release();
+            }
+        }
+    }
+    
+    /**
+     * 构建新快照：堆内时收集数组（未变化的旧向量直接共享），堆外时逐行写入 {@link OffHeapMatrix}；出错时调用 discard
+     */
+    private static final class SnapshotBuilder {
+        
+        private final List<String> beaconColumns;
+        private final OffHeapMatrix.Builder matrix;
+        private final List<double[]> vectors;
+        private final List<Integer> labels;
+        private final List<Double> weights;
+        private final List<SampleMeta> meta;
+        
+        SnapshotBuilder(List<String> beaconColumns, boolean offHeap, int expected) {
+            this.beaconColumns = beaconColumns;
+            this.matrix = offHeap ? new OffHeapMatrix.Builder(beaconColumns.size()) : null;
+            this.vectors = offHeap ? null : new ArrayList<>(expected);
+            this.labels = offHeap ? null : new ArrayList<>(expected);
+            this.weights = offHeap ? null : new ArrayList<>(expected);
+            this.meta = new ArrayList<>(expected);
+        }
+        
+        /**
+         * 追加一个样本；堆内时保存 vector 的引用，堆外时复制（vector 可复用）
+         */
+        void add(int label, SampleMeta sampleMeta, double weight, double[] vector) {
+            if (matrix != null) {
+                matrix.add(label, weight, vector);
+            } else {
+                vectors.add(vector);
+                labels.add(label);
+                weights.add(weight);
+            }
+            meta.add(sampleMeta);
+        }
+        
+        /**
+         * 追加已有快照的全部样本，信标列扩展时补齐填充值
+         */
+        void addAll(Snapshot current) {
+            int columns = beaconColumns.size();
+            if (matrix != null && current.matrix() != null) {
+                matrix.addAll(current.matrix(), RSSI_PAD);
+                meta.addAll(current.meta());
+                return;
+            }
+            for (int i = 0; i < current.labels().size(); i++) {
+                double[] oldVector = current.vectors().get(i);
+                double[] newVector = oldVector;
+                if (oldVector.length != columns) {
+                    newVector = Arrays.copyOf(oldVector, columns);
+                    Arrays.fill(newVector, oldVector.length, columns, RSSI_PAD);
+                }
+                add(current.label(i), current.meta().get(i), current.weight(i), newVector);
+            }
+        }
+        
+        Snapshot build(long version) {
+            if (matrix != null) {
+                return Snapshot.offHeap(version, matrix.build(), meta, beaconColumns);
+            }
+            return new Snapshot(version, vectors, labels, meta, beaconColumns, weights);
+        }
+        
+        void discard() {
+            if (matrix != null) {
+                matrix.discard();
+            }
+        }
+    }
+    
+    /**
+     * 分区索引快照
+     */
+    private record Partitions(long version, Map<String, Map<String, int[]>> index) {
     }
 }
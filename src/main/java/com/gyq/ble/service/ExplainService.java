@@ -0,0 +1,86 @@
+package com.gyq.ble.service;
+
+import com.gyq.ble.model.ExplainTrace;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 预测解释服务
+ *
+ * 默认路径不做任何记录；请求显式开启（explain=true）或命中采样率时，
+ * 把结构化轨迹写入固定大小的环形缓冲区，旧轨迹被覆盖，可通过 /api/explain 查询。
+ */
+@Slf4j
+@Service
+public class ExplainService {
+
+    /**
+     * 采样率（0~1），0 表示只记录显式开启的请求
+     */
+    @Value("${explain.sample-rate:0.0}")
+    private double sampleRate;
+
+    private final AtomicReferenceArray<ExplainTrace> buffer;
+    private final AtomicLong sequence = new AtomicLong();
+
+    public ExplainService(@Value("${explain.buffer-size:256}") int bufferSize) {
+        this.buffer = new AtomicReferenceArray<>(Math.max(1, bufferSize));
+    }
+
+    /**
+     * 判断本次请求是否需要记录轨迹
+     *
+     * @param requested 请求是否显式开启
+     * @return 0 不记录，1 显式开启，2 采样命中
+     */
+    public int decide(boolean requested) {
+        if (requested) {
+            return 1;
+        }
+        if (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            return 2;
+        }
+        return 0;
+    }
+
+    /**
+     * 写入一条轨迹，返回分配的ID
+     */
+    public long record(ExplainTrace trace) {
+        long id = sequence.incrementAndGet();
+        trace.setId(id);
+        trace.setTimestamp(System.currentTimeMillis());
+        buffer.set((int) (id % buffer.length()), trace);
+        return id;
+    }
+
+    /**
+     * 最近的若干条轨迹（新的在前）
+     */
+    public List<ExplainTrace> recent(int limit) {
+        List<ExplainTrace> traces = new ArrayList<>();
+        long last = sequence.get();
+        for (long id = last; id > 0 && id > last - buffer.length() && traces.size() < limit; id--) {
+            ExplainTrace trace = buffer.get((int) (id % buffer.length()));
+            if (trace != null && trace.getId() == id) {
+                traces.add(trace);
+            }
+        }
+        return traces;
+    }
+
+    /**
+     * 按ID查询轨迹，已被覆盖时返回 null
+     */
+    public ExplainTrace get(long id) {
+        ExplainTrace trace = buffer.get((int) (id % buffer.length()));
+        return trace != null && trace.getId() == id ? trace : null;
+    }
+}
@@ -0,0 +1,295 @@
+package com.gyq.ble.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.gyq.ble.index.BeaconDictionary;
+import com.gyq.ble.index.BinaryScanCodec;
+import com.gyq.ble.index.FingerprintIndex;
+import com.gyq.ble.model.FingerprintRecord;
+import com.gyq.ble.model.SampleMeta;
+import com.gyq.ble.model.SurveyRecord;
+import com.opencsv.CSVWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 数据集与指纹库的流式导出
+ *
+ * 导出基于调用方取得的不可变快照（{@link DatasetService.Snapshot} / {@link FingerprintIndex}），逐行直接写到输出流，
+ * 不在内存中拼出整个输出，也不持有任何锁：导出期间的预测、追加、导入和重载都不受影响，导出内容是取快照那一刻的一致视图。
+ *
+ * 二进制格式（application/x-ble-export）：
+ * <pre>
+ * magic   2 字节 'B' 'X'
+ * version 1 字节，当前为 1
+ * kind    1 字节，'S' 样本 / 'F' 指纹
+ * records 直到流结束，每条 { length int32 大端, body }
+ *   样本 body：region_id int32, weight float64, x/y/device/time_slot/heading（DataOutput.writeUTF，缺失为空串），扫描消息
+ *   指纹 body：点位名称（writeUTF），扫描消息
+ * </pre>
+ * 扫描消息即 {@link BinaryScanCodec} 的 application/x-ble-scan 格式：RSSI 取整到 1 dB，信标键不是 UUID 形式的读数不写出。
+ * 需要无损备份时使用 CSV / NDJSON / JSON。
+ */
+@Slf4j
+@Service
+public class ExportService {
+
+    public static final String BINARY_MEDIA_TYPE = "application/x-ble-export";
+
+    /**
+     * 数据集支持的导出格式
+     */
+    public static final List<String> DATASET_FORMATS = List.of("csv", "ndjson", "binary");
+
+    /**
+     * 指纹库支持的导出格式；json 与 median_data.json 结构相同
+     */
+    public static final List<String> FINGERPRINT_FORMATS = List.of("json", "ndjson", "csv", "binary");
+
+    private static final byte MAGIC_0 = 'B';
+    private static final byte MAGIC_1 = 'X';
+    private static final byte VERSION = 1;
+
+    @Autowired
+    private PipelineMetrics metrics;
+
+    /**
+     * 不随生成器关闭目标流，输出流由调用方关闭
+     */
+    private final ObjectMapper objectMapper = new ObjectMapper().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    /**
+     * 格式对应的 Content-Type
+     */
+    public static String mediaType(String format) {
+        return switch (format) {
+            case "csv" -> "text/csv";
+            case "ndjson" -> "application/x-ndjson";
+            case "json" -> "application/json";
+            default -> BINARY_MEDIA_TYPE;
+        };
+    }
+
+    /**
+     * 导出数据集快照（CSV 与数据集文件格式相同，NDJSON 每行一个 {@link SurveyRecord}，都可以直接导入）
+     *
+     * @return 导出的样本数
+     */
+    public long writeDataset(DatasetService.Snapshot data, String format, OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        int n = data.labels().size();
+        boolean weighted = DatasetService.weighted(data);
+        switch (format) {
+            case "csv" -> {
+                CSVWriter writer = new CSVWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                writer.writeNext(DatasetService.header(data, weighted));
+                for (int i = 0; i < n; i++) {
+                    writer.writeNext(DatasetService.row(data, i, weighted));
+                }
+                if (writer.checkError()) {
+                    throw new IOException("导出数据集中断");
+                }
+            }
+            case "ndjson" -> {
+                List<String> columns = data.beaconColumns();
+                try (SequenceWriter writer = objectMapper.writer().withRootValueSeparator("\n").writeValues(out)) {
+                    for (int i = 0; i < n; i++) {
+                        double[] v = data.vectors().get(i);
+                        Map<String, Double> rssi = new LinkedHashMap<>();
+                        for (int j = 0; j < v.length; j++) {
+                            if (v[j] > -100.0) rssi.put(columns.get(j), v[j]);
+                        }
+                        SampleMeta m = data.meta().get(i);
+                        writer.write(new SurveyRecord(data.labels().get(i), m.getX(), m.getY(), m.getDevice(), m.getTime_slot(),
+                                m.getHeading(), null, rssi, weighted ? data.weight(i) : null));
+                    }
+                }
+                out.write('\n');
+            }
+            case "binary" -> {
+                Beacon[] beacons = data.beaconColumns().stream().map(ExportService::parseColumn).toArray(Beacon[]::new);
+                DataOutputStream stream = header(out, 'S');
+                ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+                DataOutputStream record = new DataOutputStream(body);
+                for (int i = 0; i < n; i++) {
+                    body.reset();
+                    record.writeInt(data.labels().get(i));
+                    record.writeDouble(data.weight(i));
+                    SampleMeta m = data.meta().get(i);
+                    for (String field : new String[]{m.getX(), m.getY(), m.getDevice(), m.getTime_slot(), m.getHeading()}) {
+                        record.writeUTF(field == null ? "" : field);
+                    }
+                    double[] v = data.vectors().get(i);
+                    List<Beacon> present = new ArrayList<>();
+                    List<Double> rssi = new ArrayList<>();
+                    for (int j = 0; j < v.length; j++) {
+                        if (v[j] > -100.0 && beacons[j] != null) {
+                            present.add(beacons[j]);
+                            rssi.add(v[j]);
+                        }
+                    }
+                    record.write(scan(present, rssi));
+                    stream.writeInt(body.size());
+                    body.writeTo(stream);
+                }
+                stream.flush();
+            }
+            default -> throw new IllegalArgumentException("不支持的数据集导出格式: " + format);
+        }
+        out.flush();
+        metrics.increment("export.dataset");
+        log.info("数据集导出（{}）: 版本 {}, {} 个样本, 耗时 {}ms", format, data.version(), n, (System.nanoTime() - start) / 1_000_000);
+        return n;
+    }
+
+    /**
+     * 导出指纹库快照（JSON 与 median_data.json 结构相同；NDJSON 每行一个 {@link FingerprintRecord}；CSV 为 point,beacon,rssi 长表）
+     *
+     * @return 导出的点位数
+     */
+    public long writeFingerprints(FingerprintIndex index, String format, OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        BeaconDictionary dictionary = index.getDictionary();
+        int n = index.size();
+        switch (format) {
+            case "json" -> {
+                try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+                    generator.writeStartObject();
+                    for (int i = 0; i < n; i++) {
+                        generator.writeObjectFieldStart(index.name(i));
+                        int[] ids = index.ids(i);
+                        double[] values = index.values(i);
+                        for (int j = 0; j < ids.length; j++) {
+                            generator.writeNumberField(dictionary.keyOf(ids[j]), values[j]);
+                        }
+                        generator.writeEndObject();
+                    }
+                    generator.writeEndObject();
+                }
+            }
+            case "ndjson" -> {
+                try (SequenceWriter writer = objectMapper.writer().withRootValueSeparator("\n").writeValues(out)) {
+                    for (int i = 0; i < n; i++) {
+                        Map<String, Double> rssi = new LinkedHashMap<>();
+                        int[] ids = index.ids(i);
+                        double[] values = index.values(i);
+                        for (int j = 0; j < ids.length; j++) {
+                            rssi.put(dictionary.keyOf(ids[j]), values[j]);
+                        }
+                        writer.write(new FingerprintRecord(index.name(i), rssi));
+                    }
+                }
+                out.write('\n');
+            }
+            case "csv" -> {
+                CSVWriter writer = new CSVWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                writer.writeNext(new String[]{"point", "beacon", "rssi"});
+                for (int i = 0; i < n; i++) {
+                    int[] ids = index.ids(i);
+                    double[] values = index.values(i);
+                    for (int j = 0; j < ids.length; j++) {
+                        writer.writeNext(new String[]{index.name(i), dictionary.keyOf(ids[j]), String.valueOf(values[j])});
+                    }
+                }
+                if (writer.checkError()) {
+                    throw new IOException("导出指纹库中断");
+                }
+            }
+            case "binary" -> {
+                DataOutputStream stream = header(out, 'F');
+                ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+                DataOutputStream record = new DataOutputStream(body);
+                for (int i = 0; i < n; i++) {
+                    body.reset();
+                    record.writeUTF(index.name(i));
+                    List<Beacon> present = new ArrayList<>();
+                    List<Double> rssi = new ArrayList<>();
+                    int[] ids = index.ids(i);
+                    double[] values = index.values(i);
+                    for (int j = 0; j < ids.length; j++) {
+                        Beacon beacon = beaconOf(dictionary, ids[j]);
+                        if (beacon != null) {
+                            present.add(beacon);
+                            rssi.add(values[j]);
+                        }
+                    }
+                    record.write(scan(present, rssi));
+                    stream.writeInt(body.size());
+                    body.writeTo(stream);
+                }
+                stream.flush();
+            }
+            default -> throw new IllegalArgumentException("不支持的指纹库导出格式: " + format);
+        }
+        out.flush();
+        metrics.increment("export.fingerprints");
+        log.info("指纹库导出（{}）: 版本 {}, {} 个点位, 耗时 {}ms", format, index.getVersion(), n, (System.nanoTime() - start) / 1_000_000);
+        return n;
+    }
+
+    /**
+     * 二进制导出中可编码的信标（UUID 形式）
+     */
+    private record Beacon(String uuid, int major, int minor) {
+    }
+
+    private static DataOutputStream header(OutputStream out, char kind) throws IOException {
+        DataOutputStream stream = new DataOutputStream(out);
+        stream.write(MAGIC_0);
+        stream.write(MAGIC_1);
+        stream.write(VERSION);
+        stream.write(kind);
+        return stream;
+    }
+
+    private static byte[] scan(List<Beacon> beacons, List<Double> rssi) {
+        List<String> uuids = new ArrayList<>(beacons.size());
+        int[] majors = new int[beacons.size()];
+        int[] minors = new int[beacons.size()];
+        int[] rssis = new int[beacons.size()];
+        for (int b = 0; b < beacons.size(); b++) {
+            uuids.add(beacons.get(b).uuid());
+            majors[b] = beacons.get(b).major();
+            minors[b] = beacons.get(b).minor();
+            rssis[b] = (int) Math.round(rssi.get(b));
+        }
+        return BinaryScanCodec.encode(uuids, majors, minors, rssis);
+    }
+
+    /**
+     * 数据集列名（uuid-major-minor）解析为信标，不是 UUID 形式时为 null
+     */
+    private static Beacon parseColumn(String column) {
+        int minorStart = column.lastIndexOf('-');
+        int majorStart = minorStart > 0 ? column.lastIndexOf('-', minorStart - 1) : -1;
+        if (majorStart <= 0) {
+            return null;
+        }
+        try {
+            String uuid = column.substring(0, majorStart);
+            UUID.fromString(uuid);
+            return new Beacon(uuid, Integer.parseInt(column.substring(majorStart + 1, minorStart)),
+                    Integer.parseInt(column.substring(minorStart + 1)));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static Beacon beaconOf(BeaconDictionary dictionary, int id) {
+        if (dictionary.majorOf(id) == Integer.MIN_VALUE) {
+            return null;
+        }
+        try {
+            UUID.fromString(dictionary.uuidOf(id));
+            return new Beacon(dictionary.uuidOf(id), dictionary.majorOf(id), dictionary.minorOf(id));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.gyq.ble.service;
+
+import com.gyq.ble.model.FeatureScore;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 信标列特征选择
+ *
+ * 数据集中出现过的每个信标都是 KNN 距离的一个维度，包括只在远处偶尔扫到一次的信标。
+ * 按与 region_id 的互信息（RSSI 按 bin-width 分箱，未扫到单独一箱）给信标列排序，覆盖率、方差作为并列时的次序，
+ * 保留前 keep-ratio 比例（不少于 min-columns 列）作为精简列集，KNN 只在这些列上计算距离。
+ * 数据集版本变化后在后台线程重新计算，完成前 KNN 使用全部列。
+ */
+@Slf4j
+@Service
+public class FeatureSelectionService {
+
+    /**
+     * 保留的信标列比例，1 表示不做特征选择
+     */
+    @Value("${features.keep-ratio:1.0}")
+    private double keepRatio;
+
+    /**
+     * 至少保留的信标列数
+     */
+    @Value("${features.min-columns:8}")
+    private int minColumns;
+
+    /**
+     * 计算互信息时 RSSI 的分箱宽度（dB）
+     */
+    @Value("${features.bin-width:5}")
+    private double binWidth;
+
+    /**
+     * 排序：互信息、覆盖率、方差依次降序
+     */
+    private static final Comparator<FeatureScore> RANKING = Comparator.comparingDouble(FeatureScore::getMutualInformation)
+            .thenComparingDouble(FeatureScore::getCoverage)
+            .thenComparingDouble(FeatureScore::getVariance)
+            .reversed();
+
+    @Autowired
+    private DatasetService datasetService;
+
+    @Autowired
+    private PipelineMetrics metrics;
+
+    private volatile Selection selection;
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private final ExecutorService selector = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "feature-selection");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 某个数据集版本上的特征选择结果
+     *
+     * @param columns 保留的列下标（升序）
+     * @param scores  全部列的评分，按列下标顺序
+     */
+    public record Selection(long version, int[] columns, List<FeatureScore> scores) {
+    }
+
+    @PostConstruct
+    public void init() {
+        metrics.gauge("ble.features.selected", "特征选择保留的信标列数（未启用时为全部列）", () -> {
+            Selection current = selection;
+            return current != null ? current.columns().length : datasetService.getBeaconColumnCount();
+        });
+        if (isEnabled()) {
+            schedule();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        selector.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return keepRatio > 0 && keepRatio < 1;
+    }
+
+    /**
+     * 快照对应的精简列集；未启用、或该版本尚未计算完成（已安排后台计算）时返回 null，表示使用全部列
+     */
+    public int[] columns(DatasetService.Snapshot data) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Selection current = selection;
+        if (current != null && current.version() == data.version()) {
+            return current.columns();
+        }
+        schedule();
+        return null;
+    }
+
+    /**
+     * 最近一次计算的结果，未计算时为 null
+     */
+    public Selection current() {
+        return selection;
+    }
+
+    /**
+     * 当前数据集各信标列的评分，按互信息降序（/api/features 使用）；缓存的结果不是当前版本时同步计算
+     */
+    public List<FeatureScore> ranking() {
+        Selection current = selection;
+        try (DatasetService.Snapshot data = datasetService.acquire()) {
+            if (current == null || current.version() != data.version()) {
+                current = select(data, isEnabled() ? keepRatio : 1.0, minColumns, binWidth);
+            }
+        }
+        List<FeatureScore> ranking = new ArrayList<>(current.scores());
+        ranking.sort(RANKING);
+        return ranking;
+    }
+
+    private void schedule() {
+        if (!scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        selector.execute(() -> {
+            try (DatasetService.Snapshot data = datasetService.acquire()) {
+                Selection current = selection;
+                if (current == null || current.version() != data.version()) {
+                    long start = System.nanoTime();
+                    selection = select(data, keepRatio, minColumns, binWidth);
+                    metrics.increment("features.rebuild");
+                    log.info("特征选择完成，数据集版本: {}, 保留信标列: {}/{}, 耗时: {}ms", data.version(),
+                            selection.columns().length, data.beaconColumns().size(), (System.nanoTime() - start) / 1_000_000);
+                }
+            } catch (Exception e) {
+                log.error("特征选择失败，KNN 使用全部信标列", e);
+            } finally {
+                scheduled.set(false);
+            }
+        });
+    }
+
+    /**
+     * 计算各信标列的评分并保留前 keepRatio 比例（不少于 minColumns 列）
+     */
+    public static Selection select(DatasetService.Snapshot data, double keepRatio, int minColumns, double binWidth) {
+        List<String> beaconColumns = data.beaconColumns();
+        int n = data.labels().size();
+        int m = beaconColumns.size();
+
+        Map<Integer, Integer> regionIndex = new HashMap<>();
+        int[] region = new int[n];
+        for (int i = 0; i < n; i++) {
+            region[i] = regionIndex.computeIfAbsent(data.label(i), r -> regionIndex.size());
+        }
+        int regions = regionIndex.size();
+        int[] regionCount = new int[regions];
+        for (int r : region) {
+            regionCount[r]++;
+        }
+
+        int bins = (int) Math.ceil(100 / binWidth) + 1;
+        List<FeatureScore> scores = new ArrayList<>(m);
+        for (int j = 0; j < m; j++) {
+            // 联合计数：分箱 0 为未扫到
+            int[][] joint = new int[bins][regions];
+            int[] binCount = new int[bins];
+            int present = 0;
+            double sum = 0, sumSq = 0;
+            for (int i = 0; i < n; i++) {
+                double v = data.value(i, j);
+                int bin = 0;
+                if (v > -100.0) {
+                    bin = Math.min(bins - 1, 1 + (int) ((v + 100.0) / binWidth));
+                    present++;
+                    sum += v;
+                    sumSq += v * v;
+                }
+                joint[bin][region[i]]++;
+                binCount[bin]++;
+            }
+            double mi = 0;
+            for (int b = 0; b < bins; b++) {
+                for (int r = 0; r < regions; r++) {
+                    if (joint[b][r] == 0) continue;
+                    double pxy = (double) joint[b][r] / n;
+                    mi += pxy * Math.log(pxy * n * n / ((double) binCount[b] * regionCount[r])) / Math.log(2);
+                }
+            }
+            double mean = present == 0 ? 0 : sum / present;
+            double variance = present == 0 ? 0 : sumSq / present - mean * mean;
+            scores.add(new FeatureScore(beaconColumns.get(j), mi, n == 0 ? 0 : (double) present / n, variance, false));
+        }
+
+        Integer[] order = new Integer[m];
+        for (int j = 0; j < m; j++) order[j] = j;
+        Arrays.sort(order, Comparator.comparing(scores::get, RANKING));
+        int keep = Math.min(m, Math.max(minColumns, (int) Math.ceil(keepRatio * m)));
+        int[] columns = new int[keep];
+        for (int c = 0; c < keep; c++) {
+            columns[c] = order[c];
+            scores.get(order[c]).setSelected(true);
+        }
+        Arrays.sort(columns);
+        return new Selection(data.version(), columns, Collections.unmodifiableList(scores));
+    }
+}
@@ -0,0 +1,223 @@
+package com.gyq.ble.service;
+
+import com.gyq.ble.index.BeaconDictionary;
+import com.gyq.ble.index.FingerprintIndex;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 指纹索引服务，持有 median_data.json 的内存索引快照
+ *
+ * 预测时不再逐次读取 JSON 文件：存储版本号变化（saveMedianData / deleteMedianData）
+ * 或文件在外部被修改时在后台线程重建索引。新索引在旁边读取、校验、构建，完成后整体替换快照；
+ * 重建期间预测继续使用旧快照，读方无锁也不等待。
+ */
+@Slf4j
+@Service
+public class FingerprintIndexService {
+
+    /**
+     * 检查文件修改时间的最小间隔（毫秒）
+     */
+    private static final long FILE_CHECK_INTERVAL_MS = 1000;
+
+    /**
+     * 签名预筛使用的最强信标数，0 表示关闭
+     */
+    @Value("${signature.top-n:0}")
+    private int signatureTopN;
+
+    @Autowired
+    private JsonStorageService jsonStorageService;
+
+    @Autowired
+    private PipelineMetrics metrics;
+
+    private volatile FingerprintIndex index;
+    private volatile long indexedModified;
+    private volatile long lastFileCheck;
+
+    /**
+     * 串行化重建（后台重建与 /api/reload），不阻塞读方与 intern
+     */
+    private final Object rebuildLock = new Object();
+
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean();
+
+    private final ExecutorService rebuilder = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "index-rebuild");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 最近一次校验失败的存储状态，同一状态不重复重建
+     */
+    private volatile long failedVersion = -1;
+    private volatile long failedModified = -1;
+
+    @PostConstruct
+    public void init() {
+        try {
+            reload();
+        } catch (Exception e) {
+            log.error("指纹索引初始化失败，使用空索引", e);
+            index = FingerprintIndex.build(jsonStorageService.getVersion(), Map.of(), BeaconDictionary.EMPTY, signatureTopN);
+        }
+        metrics.gauge("ble.index.fingerprints", "内存索引中的指纹数量", () -> index.size());
+        metrics.gauge("ble.index.beacons", "信标字典大小", () -> index.getDictionary().size());
+        metrics.gauge("ble.index.version", "内存索引对应的指纹库版本号", () -> index.getVersion());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        rebuilder.shutdownNow();
+    }
+
+    /**
+     * 当前索引快照；存储已变化时安排后台重建，本次仍返回旧快照
+     */
+    public FingerprintIndex current() {
+        FingerprintIndex snapshot = index;
+        if (snapshot.getVersion() != jsonStorageService.getVersion() || fileChanged()) {
+            scheduleRebuild();
+        }
+        return snapshot;
+    }
+
+    /**
+     * 当前信标字典
+     */
+    public BeaconDictionary dictionary() {
+        return current().getDictionary();
+    }
+
+    /**
+     * 把新信标追加到字典（采集时使用），返回扩展后的字典
+     */
+    public BeaconDictionary intern(Collection<String> storageKeys) {
+        if (storageKeys.isEmpty()) {
+            return dictionary();
+        }
+        return extend(storageKeys);
+    }
+
+    /**
+     * 立即重建索引并等待完成（/api/reload 使用）；读取或校验失败时保留旧索引并抛出异常
+     */
+    public FingerprintIndex reload() throws IOException {
+        synchronized (rebuildLock) {
+            return rebuild(jsonStorageService.getVersion(), jsonStorageService.getLastModified());
+        }
+    }
+
+    private void scheduleRebuild() {
+        if (!rebuildScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        rebuilder.execute(() -> {
+            try {
+                synchronized (rebuildLock) {
+                    long version = jsonStorageService.getVersion();
+                    long modified = jsonStorageService.getLastModified();
+                    FingerprintIndex old = index;
+                    boolean unchanged = old.getVersion() == version && modified == indexedModified;
+                    boolean failedBefore = version == failedVersion && modified == failedModified;
+                    if (!unchanged && !failedBefore) {
+                        rebuild(version, modified);
+                    }
+                }
+            } catch (Exception e) {
+                log.error("后台重建指纹索引失败，继续使用旧索引", e);
+            } finally {
+                rebuildScheduled.set(false);
+            }
+        });
+    }
+
+    private boolean fileChanged() {
+        long now = System.currentTimeMillis();
+        if (now - lastFileCheck < FILE_CHECK_INTERVAL_MS) {
+            return false;
+        }
+        lastFileCheck = now;
+        return jsonStorageService.getLastModified() != indexedModified;
+    }
+
+    /**
+     * 在旁边读取、校验并构建新索引后整体替换，字典在旧字典基础上追加，已解析的信标ID保持有效
+     */
+    private FingerprintIndex rebuild(long version, long modified) throws IOException {
+        long start = System.nanoTime();
+        Map<String, Map<String, Double>> data;
+        try {
+            data = jsonStorageService.readAllData();
+            validate(data);
+        } catch (IOException | IllegalStateException e) {
+            failedVersion = version;
+            failedModified = modified;
+            metrics.increment("index.reload.failed");
+            throw e;
+        }
+        // 先把新信标并入字典并发布，构建期间 intern 在此基础上继续追加，字典始终保持前缀关系
+        Set<String> keys = new LinkedHashSet<>();
+        data.values().forEach(fp -> keys.addAll(fp.keySet()));
+        BeaconDictionary dictionary = extend(keys);
+        FingerprintIndex rebuilt = FingerprintIndex.build(version, data, dictionary, signatureTopN);
+        synchronized (this) {
+            FingerprintIndex old = index;
+            if (old != null && old.getDictionary().size() > rebuilt.getDictionary().size()) {
+                rebuilt = rebuilt.withDictionary(old.getDictionary());
+            }
+            index = rebuilt;
+        }
+        indexedModified = modified;
+        metrics.increment("index.reload");
+        log.info("指纹索引重建完成，版本: {}, 指纹数: {}, 信标数: {}, 耗时: {}ms", version, rebuilt.size(),
+                rebuilt.getDictionary().size(), (System.nanoTime() - start) / 1_000_000);
+        return rebuilt;
+    }
+
+    /**
+     * 校验指纹库：点位名称非空，信标键为 uuid_minor_major，RSSI 为有限值且不为正
+     */
+    private static void validate(Map<String, Map<String, Double>> data) {
+        for (Map.Entry<String, Map<String, Double>> e : data.entrySet()) {
+            if (e.getKey() == null || e.getKey().isBlank() || e.getValue() == null) {
+                throw new IllegalStateException("点位数据无效: " + e.getKey());
+            }
+            for (Map.Entry<String, Double> reading : e.getValue().entrySet()) {
+                Double rssi = reading.getValue();
+                if (reading.getKey().split("_").length != 3) {
+                    throw new IllegalStateException("点位 " + e.getKey() + " 的信标键无效: " + reading.getKey());
+                }
+                if (rssi == null || !Double.isFinite(rssi) || rssi > 0) {
+                    throw new IllegalStateException("点位 " + e.getKey() + " 的信标 " + reading.getKey() + " RSSI 无效: " + rssi);
+                }
+            }
+        }
+    }
+
+    private synchronized BeaconDictionary extend(Collection<String> storageKeys) {
+        FingerprintIndex snapshot = index;
+        BeaconDictionary base = snapshot == null ? BeaconDictionary.EMPTY : snapshot.getDictionary();
+        BeaconDictionary extended = base.extend(storageKeys);
+        if (snapshot != null && extended != base) {
+            index = snapshot.withDictionary(extended);
+        }
+        return extended;
+    }
+}
@@ -0,0 +1,400 @@
+package com.gyq.ble.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gyq.ble.index.BeaconDictionary;
+import com.gyq.ble.index.FingerprintIndex;
+import com.gyq.ble.index.ScanBuffer;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按站点（楼栋/楼层）分片的指纹库
+ *
+ * 一个部署服务多栋楼时，指纹按站点拆分到 shard.dir 下的独立文件，每个分片有自己的内存索引，
+ * 首次使用时加载，超过内存预算时淘汰最久未使用的分片。扫描只会访问其信标所属的分片，
+ * 内存与每次查询的计算量只与一栋楼的规模相关。
+ *
+ * 信标所属站点默认为 UUID + major（"UUID_major"），也可以在 sites.json 中显式映射为站点ID。
+ * manifest.json 记录每个站点的信标键，启动时只读取清单来建立信标字典，不读取指纹。
+ * 分片与清单都先写临时文件再原子替换。
+ *
+ * 目前只分片了指纹库：KNN 的 CSV 数据集（DatasetService）仍是一个跨所有楼栋信标的全局列空间，
+ * 按站点拆分数据集是后续工作，见 readme。
+ */
+@Slf4j
+@Service
+public class FingerprintShardService {
+
+    private static final String MANIFEST = "manifest.json";
+
+    @Value("${shard.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 分片目录
+     */
+    @Value("${shard.dir:data/shards}")
+    private String dir;
+
+    /**
+     * 已加载分片的内存预算（MB，按数组大小估算）
+     */
+    @Value("${shard.max-memory-mb:256}")
+    private long maxMemoryMb;
+
+    /**
+     * 显式站点映射文件：{"UUID_major": "siteId"}，不存在时按 UUID_major 分片
+     */
+    @Value("${shard.sites-file:data/shards/sites.json}")
+    private String sitesFile;
+
+    @Value("${signature.top-n:0}")
+    private int signatureTopN;
+
+    @Autowired
+    private FingerprintIndexService fingerprintIndexService;
+
+    @Autowired
+    private PipelineMetrics metrics;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * 站点 -> 信标存储键
+     */
+    private final Map<String, Set<String>> manifest = new ConcurrentHashMap<>();
+
+    private volatile Map<String, String> siteMapping = Collections.emptyMap();
+
+    /**
+     * 信标ID -> 站点下标，随字典扩展重建
+     */
+    private volatile SiteTable siteTable = new SiteTable(BeaconDictionary.EMPTY, new int[0], new String[0]);
+
+    /**
+     * 已加载的分片，按访问顺序排列；所有访问在 synchronized (loaded) 内完成
+     */
+    private final LinkedHashMap<String, Shard> loaded = new LinkedHashMap<>(16, 0.75f, true);
+    private long loadedBytes;
+
+    private final ConcurrentHashMap<String, Object> siteLocks = new ConcurrentHashMap<>();
+    private final AtomicLong shardVersion = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        siteMapping = readSiteMapping(new File(sitesFile));
+        File file = new File(dir, MANIFEST);
+        if (file.exists()) {
+            try {
+                Map<String, Set<String>> stored = objectMapper.readValue(file, new TypeReference<Map<String, Set<String>>>() {});
+                stored.forEach((site, keys) -> manifest.put(site, ConcurrentHashMap.newKeySet()));
+                stored.forEach((site, keys) -> manifest.get(site).addAll(keys));
+            } catch (IOException e) {
+                log.error("读取分片清单失败: {}", file.getPath(), e);
+            }
+        }
+        Set<String> beacons = new LinkedHashSet<>();
+        manifest.values().forEach(beacons::addAll);
+        fingerprintIndexService.intern(beacons);
+        metrics.gauge("ble.shard.sites", "分片（站点）数", manifest::size);
+        metrics.gauge("ble.shard.loaded", "已加载分片数", this::loadedCount);
+        metrics.gauge("ble.shard.bytes", "已加载分片估算内存（字节）", this::loadedBytes);
+        log.info("指纹分片已启用，目录: {}, 站点数: {}, 信标数: {}", dir, manifest.size(), beacons.size());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 扫描所属分片的索引；无法确定站点或分片不存在时返回 null
+     */
+    public FingerprintIndex index(ScanBuffer scan) {
+        String site = siteOf(scan);
+        if (site == null) {
+            metrics.increment("shard.unresolved");
+            return null;
+        }
+        return load(site);
+    }
+
+    /**
+     * 扫描所属站点：各读数所属站点中出现最多的一个
+     */
+    public String siteOf(ScanBuffer scan) {
+        SiteTable table = siteTable(scan.dictionary());
+        int[] counts = new int[table.sites.length];
+        int best = -1;
+        for (int i = 0; i < scan.size(); i++) {
+            int id = scan.id(i);
+            int slot = id < table.siteOf.length ? table.siteOf[id] : -1;
+            if (slot < 0) {
+                continue;
+            }
+            counts[slot]++;
+            if (best < 0 || counts[slot] > counts[best]) {
+                best = slot;
+            }
+        }
+        return best < 0 ? null : table.sites[best];
+    }
+
+    /**
+     * 保存一个指纹到其所属站点的分片，并让已加载的分片失效
+     */
+    public void save(String name, Map<String, Double> fingerprint) {
+        String site = majoritySite(fingerprint.keySet(), siteMapping);
+        if (site == null) {
+            log.warn("无法确定指纹所属站点，未保存: {}", name);
+            return;
+        }
+        synchronized (siteLock(site)) {
+            try {
+                Map<String, Map<String, Double>> data = readShard(site);
+                data.put(name, fingerprint);
+                writeShard(site, data);
+                Set<String> beacons = manifest.computeIfAbsent(site, k -> ConcurrentHashMap.newKeySet());
+                if (beacons.addAll(fingerprint.keySet())) {
+                    writeManifest();
+                }
+                fingerprintIndexService.intern(fingerprint.keySet());
+                invalidate(site);
+                log.info("成功保存指纹到分片 {}，key: {}, 分片指纹数: {}", site, name, data.size());
+            } catch (IOException e) {
+                log.error("保存分片指纹失败，站点: {}, key: {}", site, name, e);
+            }
+        }
+    }
+
+    /**
+     * 信标存储键（uuid_minor_major）所属站点
+     */
+    public static String siteOfKey(String storageKey, Map<String, String> mapping) {
+        String[] parts = storageKey.split("_");
+        if (parts.length != 3) {
+            return null;
+        }
+        String uuidMajor = parts[0] + "_" + parts[2];
+        return mapping.getOrDefault(uuidMajor, uuidMajor);
+    }
+
+    /**
+     * 一组信标中出现最多的站点
+     */
+    public static String majoritySite(Collection<String> storageKeys, Map<String, String> mapping) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String key : storageKeys) {
+            String site = siteOfKey(key, mapping);
+            if (site != null) {
+                counts.merge(site, 1, Integer::sum);
+            }
+        }
+        return counts.entrySet().stream()
+                .max(Map.Entry.<String, Integer>comparingByValue().thenComparing(Map.Entry.comparingByKey()))
+                .map(Map.Entry::getKey)
+                .orElse(null);
+    }
+
+    /**
+     * 读取站点映射文件，不存在时返回空映射
+     */
+    public static Map<String, String> readSiteMapping(File file) {
+        if (!file.exists()) {
+            return Collections.emptyMap();
+        }
+        try {
+            return new ObjectMapper().readValue(file, new TypeReference<Map<String, String>>() {});
+        } catch (IOException e) {
+            log.error("读取站点映射失败: {}", file.getPath(), e);
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * 站点对应的分片文件（文件名只保留安全字符）
+     */
+    public static File shardFile(String dir, String site) {
+        return new File(dir, site.replaceAll("[^A-Za-z0-9_.-]", "_") + ".json");
+    }
+
+    public int loadedCount() {
+        synchronized (loaded) {
+            return loaded.size();
+        }
+    }
+
+    public long loadedBytes() {
+        synchronized (loaded) {
+            return loadedBytes;
+        }
+    }
+
+    private FingerprintIndex load(String site) {
+        synchronized (loaded) {
+            Shard shard = loaded.get(site);
+            if (shard != null) {
+                return shard.index;
+            }
+        }
+        if (!manifest.containsKey(site)) {
+            metrics.increment("shard.missing");
+            return null;
+        }
+        synchronized (siteLock(site)) {
+            synchronized (loaded) {
+                Shard shard = loaded.get(site);
+                if (shard != null) {
+                    return shard.index;
+                }
+            }
+            long start = System.nanoTime();
+            Map<String, Map<String, Double>> data;
+            try {
+                data = readShard(site);
+            } catch (IOException e) {
+                log.error("加载分片失败: {}", site, e);
+                return null;
+            }
+            // 先把分片的信标并入全局字典，分片索引与请求解析使用同一套信标ID
+            Set<String> keys = new LinkedHashSet<>();
+            data.values().forEach(fp -> keys.addAll(fp.keySet()));
+            BeaconDictionary dictionary = fingerprintIndexService.intern(keys);
+            FingerprintIndex index = FingerprintIndex.build(shardVersion.incrementAndGet(), data, dictionary, signatureTopN);
+            Shard shard = new Shard(site, index, estimateBytes(index));
+            synchronized (loaded) {
+                loaded.put(site, shard);
+                loadedBytes += shard.bytes;
+                evict(site);
+            }
+            metrics.increment("shard.load");
+            log.info("加载分片 {}，指纹数: {}, 估算内存: {}KB, 耗时: {}ms", site, index.size(), shard.bytes / 1024,
+                    (System.nanoTime() - start) / 1_000_000);
+            return index;
+        }
+    }
+
+    /**
+     * 超过内存预算时按 LRU 淘汰（不淘汰刚加载的分片）
+     */
+    private void evict(String keep) {
+        long maxBytes = maxMemoryMb * 1024 * 1024;
+        Iterator<Shard> it = loaded.values().iterator();
+        while (loadedBytes > maxBytes && it.hasNext()) {
+            Shard eldest = it.next();
+            if (eldest.site.equals(keep)) {
+                continue;
+            }
+            it.remove();
+            loadedBytes -= eldest.bytes;
+            metrics.increment("shard.evict");
+            log.info("淘汰分片 {}，释放约 {}KB", eldest.site, eldest.bytes / 1024);
+        }
+    }
+
+    private void invalidate(String site) {
+        synchronized (loaded) {
+            Shard shard = loaded.remove(site);
+            if (shard != null) {
+                loadedBytes -= shard.bytes;
+            }
+        }
+    }
+
+    /**
+     * 正排 + 倒排数组各约 12 字节/信标，另计每个点位的名称与数组头
+     */
+    private static long estimateBytes(FingerprintIndex index) {
+        long bytes = 0;
+        for (int i = 0; i < index.size(); i++) {
+            bytes += index.ids(i).length * 24L + 128;
+        }
+        return bytes;
+    }
+
+    private SiteTable siteTable(BeaconDictionary dictionary) {
+        SiteTable table = siteTable;
+        if (table.dictionary == dictionary && table.siteCount == manifest.size()) {
+            return table;
+        }
+        // 信标按自身的 UUID_major（或显式映射）归属站点；清单中也会出现邻近站点被扫到的信标，不能用于归属
+        List<String> sites = new ArrayList<>(manifest.keySet());
+        Map<String, Integer> slots = new HashMap<>();
+        for (int i = 0; i < sites.size(); i++) {
+            slots.put(sites.get(i), i);
+        }
+        int[] siteOf = new int[dictionary.size()];
+        for (int id = 0; id < siteOf.length; id++) {
+            String site = siteOfKey(dictionary.keyOf(id), siteMapping);
+            siteOf[id] = site == null ? -1 : slots.getOrDefault(site, -1);
+        }
+        table = new SiteTable(dictionary, siteOf, sites.toArray(new String[0]));
+        siteTable = table;
+        return table;
+    }
+
+    private Object siteLock(String site) {
+        return siteLocks.computeIfAbsent(site, s -> new Object());
+    }
+
+    private Map<String, Map<String, Double>> readShard(String site) throws IOException {
+        File file = shardFile(dir, site);
+        if (!file.exists()) {
+            return new HashMap<>();
+        }
+        return objectMapper.readValue(file, new TypeReference<Map<String, Map<String, Double>>>() {});
+    }
+
+    private void writeShard(String site, Map<String, Map<String, Double>> data) throws IOException {
+        Files.createDirectories(new File(dir).toPath());
+        write(objectMapper, shardFile(dir, site), data);
+    }
+
+    private synchronized void writeManifest() throws IOException {
+        Files.createDirectories(new File(dir).toPath());
+        write(objectMapper, new File(dir, MANIFEST), new TreeMap<>(manifest));
+    }
+
+    /**
+     * 先写临时文件再原子替换，写到一半崩溃或磁盘写满时原文件保持完整，并发读取的加载线程也不会读到半个文件
+     */
+    public static void write(ObjectMapper objectMapper, File file, Object value) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(tmp, value);
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private record Shard(String site, FingerprintIndex index, long bytes) {
+    }
+
+    /**
+     * 信标ID到站点下标的映射快照
+     */
+    private static final class SiteTable {
+        private final BeaconDictionary dictionary;
+        private final int[] siteOf;
+        private final String[] sites;
+        private final int siteCount;
+
+        SiteTable(BeaconDictionary dictionary, int[] siteOf, String[] sites) {
+            this.dictionary = dictionary;
+            this.siteOf = siteOf;
+            this.sites = sites;
+            this.siteCount = sites.length;
+        }
+    }
+}
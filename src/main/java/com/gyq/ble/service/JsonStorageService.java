@@ -2,7 +2,9 @@ package com.gyq.ble.service;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
@@ -13,6 +15,8 @@ import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * JSON 存储服务，用于保存和读取 medianMap 数据
@@ -24,6 +28,28 @@ public class JsonStorageService {
     private final ObjectMapper objectMapper = new ObjectMapper();
     private final String dataDir = "data";
     private final String fileName = "median_data.json";
+
+    /**
+     * 存储版本号，每次写入（保存/删除）后递增
+     */
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * 最近一次读取或写入文件时的指纹数量
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    @Autowired
+    private PipelineMetrics metrics;
+
+    /**
+     * 注册存储相关仪表；指纹数量取最近一次读写文件时的值，不为此读取文件
+     */
+    @PostConstruct
+    public void registerMetrics() {
+        metrics.gauge("ble.store.version", "指纹库版本号", this::getVersion);
+        metrics.gauge("ble.store.fingerprints", "指纹库中的指纹数量（最近一次读写文件时）", size::get);
+    }
     
     /**
      * 保存 medianMap 数据到 JSON 文件
@@ -49,6 +75,8 @@ public class JsonStorageService {
             // 保存到文件
             File file = new File(dataDir, fileName);
             objectMapper.writerWithDefaultPrettyPrinter().writeValue(file, allData);
+            size.set(allData.size());
+            version.incrementAndGet();
             
             log.info("成功保存 medianMap 数据，key: {}, 数据量: {}", key, medianMap.size());
             
@@ -64,20 +92,31 @@ public class JsonStorageService {
      */
     public Map<String, Map<String, Double>> loadAllData() {
         try {
-            File file = new File(dataDir, fileName);
-            if (!file.exists()) {
-                log.info("JSON 文件不存在，返回空数据");
-                return new HashMap<>();
-            }
-            
-            return objectMapper.readValue(file, new TypeReference<Map<String, Map<String, Double>>>() {});
-                
+            return readAllData();
         } catch (IOException e) {
             log.error("读取 medianMap 数据失败", e);
             return new HashMap<>();
         }
     }
     
+    /**
+     * 读取所有 medianMap 数据，读取或解析失败时抛出异常（重载时用于区分"空库"与"读取失败"）
+     * 
+     * @return 所有数据的映射，文件不存在时为空
+     */
+    public Map<String, Map<String, Double>> readAllData() throws IOException {
+        File file = new File(dataDir, fileName);
+        if (!file.exists()) {
+            log.info("JSON 文件不存在，返回空数据");
+            size.set(0);
+            return new HashMap<>();
+        }
+        
+        Map<String, Map<String, Double>> data = objectMapper.readValue(file, new TypeReference<Map<String, Map<String, Double>>>() {});
+        size.set(data.size());
+        return data;
+    }
+    
     /**
      * 根据 key 读取特定的 medianMap 数据
      * 
@@ -101,6 +140,8 @@ public class JsonStorageService {
             
             File file = new File(dataDir, fileName);
             objectMapper.writerWithDefaultPrettyPrinter().writeValue(file, allData);
+            size.set(allData.size());
+            version.incrementAndGet();
             
             log.info("成功删除 medianMap 数据，key: {}", key);
             
@@ -118,6 +159,20 @@ public class JsonStorageService {
         return loadAllData().keySet();
     }
 
+    /**
+     * 获取存储版本号
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * 获取 JSON 文件的最后修改时间，文件不存在时返回 0
+     */
+    public long getLastModified() {
+        return new File(dataDir, fileName).lastModified();
+    }
+
     public static void main(String[] args) {
         JsonStorageService jsonStorageService = new JsonStorageService();
         Map<String, Map<String, Double>> stringMapMap = jsonStorageService.loadAllData();
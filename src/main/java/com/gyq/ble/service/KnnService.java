@@ -1,13 +1,27 @@
 package com.gyq.ble.service;
 
+import com.gyq.ble.index.OffHeapMatrix;
+import com.gyq.ble.index.SignatureIndex;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.gyq.ble.model.BeaconReading;
+import com.gyq.ble.model.KnnPredictPayload;
 import com.gyq.ble.model.PredictResponse;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * KNN服务，实现基于K近邻的区域预测
@@ -16,32 +30,142 @@ import java.util.stream.Collectors;
 @Service
 public class KnnService {
     
+    @Autowired
+    private DatasetService datasetService;
+
     /**
-     * K值
+     * K 值等可调参数（knn.k，调参配置文件可覆盖）
      */
-    private static final int K = 5;
-    
     @Autowired
-    private DatasetService datasetService;
+    private TuningService tuningService;
 
     @Autowired
     private JsonStorageService jsonStorageService;
 
+    @Autowired
+    private FeatureSelectionService featureSelectionService;
+
+    @Autowired
+    private ProjectionService projectionService;
+
+    @Autowired
+    private PipelineMetrics metrics;
+
+    /**
+     * 签名预筛使用的最强信标数，0 表示关闭
+     */
+    @Value("${signature.top-n:0}")
+    private int signatureTopN;
+
+    /**
+     * 各设备型号的 RSSI 偏移文件 {"设备型号": 偏移dB}，查询时加到该设备扫到的 RSSI 上
+     */
+    @Value("${knn.device-offsets-file:data/device_offsets.json}")
+    private String deviceOffsetsFile;
+    
+    /**
+     * 分区样本数少于该值时回退到全局
+     */
+    @Value("${knn.partition-min-samples:5}")
+    private int partitionMinSamples;
+    
+    /**
+     * 设备型号（规范形式）-> RSSI 偏移
+     */
+    private Map<String, Double> deviceOffsets = Collections.emptyMap();
+    
+    /**
+     * 数据集样本的签名索引（连同构建时的数据集版本），由后台线程按版本重建
+     */
+    private volatile Signature signature;
+
+    private final AtomicBoolean signatureScheduled = new AtomicBoolean();
+
+    private final ExecutorService indexer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "knn-signature");
+        thread.setDaemon(true);
+        return thread;
+    });
+
 //    public PredictResponse predictZone(List<BeaconReading> input) {
 //
 //    }
     
+    @PostConstruct
+    public void init() {
+        if (signatureTopN > 0) {
+            // 启动时即为已加载的数据集构建签名索引，首批请求不必走全量搜索
+            scheduleSignature();
+        }
+        File file = new File(deviceOffsetsFile);
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            Map<String, Double> offsets = new HashMap<>();
+            new ObjectMapper().readValue(file, new TypeReference<Map<String, Double>>() {})
+                    .forEach((device, offset) -> offsets.put(DatasetService.partitionValue(device), offset));
+            deviceOffsets = offsets;
+            log.info("设备 RSSI 偏移加载完成: {}", offsets);
+        } catch (IOException e) {
+            log.error("加载设备 RSSI 偏移失败: {}", file.getPath(), e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        indexer.shutdownNow();
+    }
+    
     /**
      * 预测区域
      */
     public PredictResponse predict(List<Map<String, Object>> beacons) {
-        try {
-            // 构造输入向量
-            double[] inputVector = constructInputVector(beacons);
+        // 将beacons转换为Map，方便查找
+        Map<String, Double> beaconMap = new HashMap<>();
+        for (Map<String, Object> beacon : beacons) {
+            String uuid = (String) beacon.get("uuid");
+            Integer major = (Integer) beacon.get("major");
+            Integer minor = (Integer) beacon.get("minor");
+            Double rssi = ((Number) beacon.get("rssi")).doubleValue();
             
-            // 获取训练数据
-            List<double[]> X = datasetService.getX();
-            List<Integer> y = datasetService.getY();
+            if (uuid != null && major != null && minor != null && rssi != null) {
+                String key = datasetService.keyOf(uuid, major, minor);
+                beaconMap.put(key, rssi);
+            }
+        }
+        return predict(beaconMap, null, null, null);
+    }
+    
+    /**
+     * 按设备型号 / 朝向 / 时段分区预测；给出的字段都匹配的样本不足时回退到全部样本
+     */
+    public PredictResponse predict(KnnPredictPayload payload) {
+        Map<String, Double> beaconMap = new HashMap<>();
+        if (payload.getBeacons() != null) {
+            for (BeaconReading beacon : payload.getBeacons()) {
+                if (beacon.getUuid() != null && beacon.getMajor() != null && beacon.getMinor() != null && beacon.getRssi() != null) {
+                    beaconMap.put(datasetService.keyOf(beacon.getUuid(), beacon.getMajor(), beacon.getMinor()),
+                            beacon.getRssi().doubleValue());
+                }
+            }
+        }
+        return predict(beaconMap, payload.getDevice(), payload.getHeading(), payload.getTime_slot());
+    }
+    
+    private PredictResponse predict(Map<String, Double> beaconMap, String device, String heading, String timeSlot) {
+        long begin = metrics.start();
+        long t = begin;
+        // 获取训练数据（整个预测使用同一个快照，重载不影响进行中的预测；堆外存储时持有到预测结束）
+        try (DatasetService.Snapshot data = datasetService.acquire()) {
+            List<double[]> X = data.vectors();
+            List<Integer> y = data.labels();
+            t = metrics.stage(PipelineMetrics.KNN, "snapshot", t);
+            
+            // 构造输入向量，并按设备型号平移 RSSI
+            double[] inputVector = constructInputVector(data.beaconColumns(), beaconMap);
+            calibrate(inputVector, device);
+            t = metrics.stage(PipelineMetrics.KNN, "vector", t);
             
             if (X.isEmpty() || y.isEmpty()) {
                 log.warn("训练数据为空，无法进行预测");
@@ -52,7 +176,7 @@ public class KnnService {
             }
             
             // 检查向量长度一致性
-            int expectedLength = datasetService.getBeaconColumnCount();
+            int expectedLength = data.beaconColumns().size();
             if (inputVector.length != expectedLength) {
                 log.error("输入向量长度({})与期望长度({})不匹配", inputVector.length, expectedLength);
                 PredictResponse response = new PredictResponse();
@@ -61,8 +185,8 @@ public class KnnService {
                 return response;
             }
             
-            // 验证训练数据向量长度
-            for (int i = 0; i < X.size(); i++) {
+            // 验证训练数据向量长度（堆外矩阵的行长度即列数，构建时已保证）
+            for (int i = 0; data.matrix() == null && i < X.size(); i++) {
                 if (X.get(i).length != expectedLength) {
                     log.error("训练数据向量[{}]长度({})与期望长度({})不匹配", i, X.get(i).length, expectedLength);
                     PredictResponse response = new PredictResponse();
@@ -72,11 +196,31 @@ public class KnnService {
                 }
             }
             
-            log.info("开始KNN预测，输入向量长度: {}, 训练数据样本数: {}, 期望向量长度: {}", 
+            t = metrics.stage(PipelineMetrics.KNN, "validate", t);
+            
+            log.debug("开始KNN预测，输入向量长度: {}, 训练数据样本数: {}, 期望向量长度: {}", 
                     inputVector.length, X.size(), expectedLength);
             
-            // 计算距离并获取Top-K邻居
-            List<Neighbor> neighbors = topK(X, y, inputVector, K);
+            // 分区：只在元数据匹配的样本中找邻居
+            int[] partition = partition(data, device, heading, timeSlot);
+            t = metrics.stage(PipelineMetrics.KNN, "partition", t);
+            
+            // 签名预筛：只在最强信标签名命中的样本中找邻居，桶为空时全量
+            int[] candidates = restrict(candidates(data, inputVector), partition);
+            t = metrics.stage(PipelineMetrics.KNN, "signature", t);
+            
+            // 投影预筛：候选较多时先在低维空间取最近的若干个，再在原空间精确重排
+            int k = tuningService.current().k();
+            candidates = projectionService.shortlist(data, inputVector, candidates, k);
+            t = metrics.stage(PipelineMetrics.KNN, "projection", t);
+            
+            // 计算距离并获取Top-K邻居（启用特征选择时只在精简列上计算距离；压缩数据集的邻居带权重）
+            int[] columns = featureSelectionService.columns(data);
+            List<Neighbor> neighbors = data.matrix() != null
+                    ? topK(data.matrix(), inputVector, k, candidates, columns)
+                    : topK(X, y, data.weights(), inputVector, k, candidates, columns);
+            metrics.candidates(PipelineMetrics.KNN, candidates == null ? X.size() : candidates.length);
+            t = metrics.stage(PipelineMetrics.KNN, "topk", t);
             
             if (neighbors.isEmpty()) {
                 log.warn("没有找到邻居，无法进行预测");
@@ -86,13 +230,15 @@ public class KnnService {
                 return response;
             }
             
-            // Top-1预测（多数投票）
+            // Top-1预测（按权重多数投票）
             Integer regionTop1 = voteRegion(neighbors);
             
             // Top-3预测（加权分数）
             List<PredictResponse.RegionScore> regionTop3 = top3WithScore(neighbors);
+            metrics.stage(PipelineMetrics.KNN, "vote", t);
+            metrics.stage(PipelineMetrics.KNN, "total", begin);
             
-            log.info("KNN预测完成，Top-1: {}, Top-3数量: {}", regionTop1, regionTop3);
+            log.debug("KNN预测完成，Top-1: {}, Top-3数量: {}", regionTop1, regionTop3);
             
             return new PredictResponse(regionTop1, regionTop3);
             
@@ -108,25 +254,10 @@ public class KnnService {
     /**
      * 构造输入向量
      */
-    private double[] constructInputVector(List<Map<String, Object>> beacons) {
-        List<String> beaconColumns = datasetService.getBeaconColumns();
+    private double[] constructInputVector(List<String> beaconColumns, Map<String, Double> beaconMap) {
         double[] inputVector = new double[beaconColumns.size()];
         Arrays.fill(inputVector, -100.0); // 默认填充值
         
-        // 将beacons转换为Map，方便查找
-        Map<String, Double> beaconMap = new HashMap<>();
-        for (Map<String, Object> beacon : beacons) {
-            String uuid = (String) beacon.get("uuid");
-            Integer major = (Integer) beacon.get("major");
-            Integer minor = (Integer) beacon.get("minor");
-            Double rssi = ((Number) beacon.get("rssi")).doubleValue();
-            
-            if (uuid != null && major != null && minor != null && rssi != null) {
-                String key = datasetService.keyOf(uuid, major, minor);
-                beaconMap.put(key, rssi);
-            }
-        }
-        
         // 按beaconColumns的顺序填充向量
         for (int i = 0; i < beaconColumns.size(); i++) {
             String key = beaconColumns.get(i);
@@ -136,32 +267,257 @@ public class KnnService {
         return inputVector;
     }
     
+    /**
+     * 按设备型号的偏移平移扫到的 RSSI（填充值不变），不复制样本数据
+     */
+    private void calibrate(double[] vector, String device) {
+        String key = DatasetService.partitionValue(device);
+        Double offset = key == null ? null : deviceOffsets.get(key);
+        if (offset == null || offset == 0) {
+            return;
+        }
+        for (int i = 0; i < vector.length; i++) {
+            if (vector[i] > -100.0) {
+                vector[i] = Math.max(vector[i] + offset, -99.0);
+            }
+        }
+    }
+    
+    /**
+     * 给出的元数据字段都匹配的样本下标；没有给出任何字段时返回 null，匹配样本不足时回退 null（全局）
+     */
+    private int[] partition(DatasetService.Snapshot data, String device, String heading, String timeSlot) {
+        int[] result = null;
+        String[] values = {device, heading, timeSlot};
+        for (int f = 0; f < values.length; f++) {
+            if (DatasetService.partitionValue(values[f]) == null) {
+                continue;
+            }
+            int[] samples = datasetService.partition(data, DatasetService.PARTITION_FIELDS.get(f), values[f]);
+            result = result == null ? samples : intersect(result, samples);
+        }
+        if (result == null) {
+            return null;
+        }
+        if (result.length < Math.max(partitionMinSamples, 1)) {
+            metrics.increment("partition.fallback");
+            return null;
+        }
+        metrics.increment("partition.hit");
+        return result;
+    }
+    
+    /**
+     * 签名候选限制在分区内；交集为空时只用分区
+     */
+    private static int[] restrict(int[] candidates, int[] partition) {
+        if (partition == null) {
+            return candidates;
+        }
+        if (candidates == null) {
+            return partition;
+        }
+        int[] both = intersect(candidates, partition);
+        return both.length > 0 ? both : partition;
+    }
+    
+    /**
+     * 两个升序数组的交集
+     */
+    private static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+    
     /**
      * 计算欧氏距离
+     * 
+     * @param columns 参与计算的列下标，null 表示全部列
      */
-    private double distance(double[] a, double[] b) {
+    private static double distance(double[] a, double[] b, int[] columns) {
         if (a.length != b.length) {
             throw new IllegalArgumentException("向量长度不一致");
         }
         
         double sum = 0.0;
-        for (int i = 0; i < a.length; i++) {
-            double diff = a[i] - b[i];
-            sum += diff * diff;
+        if (columns == null) {
+            for (int i = 0; i < a.length; i++) {
+                double diff = a[i] - b[i];
+                sum += diff * diff;
+            }
+        } else {
+            for (int i : columns) {
+                double diff = a[i] - b[i];
+                sum += diff * diff;
+            }
         }
         
         return Math.sqrt(sum);
     }
     
+    /**
+     * 签名预筛的候选样本下标，未启用或没有命中时返回 null；
+     * 该版本的签名索引尚未建好（已安排后台构建）时也返回 null，即全量搜索
+     */
+    private int[] candidates(DatasetService.Snapshot data, double[] input) {
+        if (signatureTopN <= 0) {
+            return null;
+        }
+        Signature current = signature;
+        if (current == null || current.version != data.version()) {
+            // 旧版本的索引与新快照的样本下标不对应，不能沿用
+            scheduleSignature();
+            metrics.increment("signature.pending");
+            return null;
+        }
+        int[] result = signatureCandidates(current.index, input);
+        metrics.increment(result == null ? "signature.miss" : "signature.hit");
+        return result;
+    }
+    
+    /**
+     * 在后台为当前数据集版本构建签名索引，同一时间只有一个构建任务
+     */
+    private void scheduleSignature() {
+        if (!signatureScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        indexer.execute(() -> {
+            try (DatasetService.Snapshot data = datasetService.acquire()) {
+                Signature current = signature;
+                if (current == null || current.version != data.version()) {
+                    signature = new Signature(data.version(), buildSignature(data.vectors(), signatureTopN));
+                    metrics.increment("signature.rebuild");
+                }
+            } catch (Exception e) {
+                log.error("构建签名索引失败，KNN 使用全量搜索", e);
+            } finally {
+                signatureScheduled.set(false);
+            }
+        });
+    }
+
+    /**
+     * 为样本向量建立签名索引（只使用非填充值的信标列）
+     */
+    public static SignatureIndex buildSignature(List<double[]> X, int topN) {
+        int[][] ids = new int[X.size()][];
+        double[][] values = new double[X.size()][];
+        for (int i = 0; i < X.size(); i++) {
+            ids[i] = present(X.get(i));
+            values[i] = valuesOf(X.get(i), ids[i]);
+        }
+        return SignatureIndex.build(topN, ids, values);
+    }
+    
+    /**
+     * 输入向量在签名索引中的候选样本下标，没有命中时返回 null
+     */
+    public static int[] signatureCandidates(SignatureIndex index, double[] input) {
+        int[] ids = present(input);
+        return index.candidates(ids, valuesOf(input, ids), ids.length);
+    }
+    
+    /**
+     * 向量中实际扫到的信标列（非填充值）
+     */
+    private static int[] present(double[] vector) {
+        return IntStream.range(0, vector.length).filter(i -> vector[i] > -100.0).toArray();
+    }
+    
+    private static double[] valuesOf(double[] vector, int[] columns) {
+        double[] values = new double[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = vector[columns[i]];
+        }
+        return values;
+    }
+    
+    /**
+     * K 近邻分类：与 predict 相同的邻居选择、Top-1 投票与 Top-3 加权（供离线评估使用）
+     * 
+     * @param candidates 参与比较的样本下标，null 表示全部
+     * @return 预测响应，没有邻居时 Top-1 为 null
+     */
+    public static PredictResponse classify(List<double[]> X, List<Integer> y, double[] input, int k, int[] candidates) {
+        return classify(X, y, input, k, candidates, null);
+    }
+    
+    /**
+     * K 近邻分类，只在指定列上计算距离
+     * 
+     * @param columns 参与计算的列下标，null 表示全部列
+     */
+    public static PredictResponse classify(List<double[]> X, List<Integer> y, double[] input, int k, int[] candidates,
+                                           int[] columns) {
+        return classify(X, y, null, input, k, candidates, columns);
+    }
+    
+    /**
+     * 带样本权重的 K 近邻分类（压缩数据集）
+     * 
+     * @param weights 样本权重，null 表示全部为 1
+     */
+    public static PredictResponse classify(List<double[]> X, List<Integer> y, List<Double> weights, double[] input, int k,
+                                           int[] candidates, int[] columns) {
+        List<Neighbor> neighbors = topK(X, y, weights, input, k, candidates, columns);
+        if (neighbors.isEmpty()) {
+            return new PredictResponse(null, new ArrayList<>());
+        }
+        return new PredictResponse(voteRegion(neighbors), top3WithScore(neighbors));
+    }
+    
     /**
      * 获取Top-K邻居
+     * 
+     * @param weights    样本权重，null 表示全部为 1
+     * @param candidates 参与比较的样本下标，null 表示全部
+     * @param columns    参与计算的列下标，null 表示全部列
      */
-    private List<Neighbor> topK(List<double[]> X, List<Integer> y, double[] input, int k) {
+    private static List<Neighbor> topK(List<double[]> X, List<Integer> y, List<Double> weights, double[] input, int k,
+                                       int[] candidates, int[] columns) {
         List<Neighbor> neighbors = new ArrayList<>();
         
-        for (int i = 0; i < X.size(); i++) {
-            double dist = distance(input, X.get(i));
-            neighbors.add(new Neighbor(dist, y.get(i)));
+        int n = candidates == null ? X.size() : candidates.length;
+        for (int c = 0; c < n; c++) {
+            int i = candidates == null ? c : candidates[c];
+            double dist = distance(input, X.get(i), columns);
+            neighbors.add(new Neighbor(dist, y.get(i), weights == null ? 1.0 : weights.get(i)));
+        }
+        
+        // 按距离升序排序，取前k个
+        return neighbors.stream()
+                .sorted(Comparator.comparingDouble(Neighbor::getDistance))
+                .limit(k)
+                .collect(Collectors.toList());
+    }
+    
+    /**
+     * 在堆外矩阵上获取Top-K邻居：距离直接读取直接内存，不复制到堆数组
+     */
+    private static List<Neighbor> topK(OffHeapMatrix matrix, double[] input, int k, int[] candidates, int[] columns) {
+        if (input.length != matrix.columns()) {
+            throw new IllegalArgumentException("向量长度不一致");
+        }
+        matrix.ensureOpen();
+        List<Neighbor> neighbors = new ArrayList<>();
+        
+        int n = candidates == null ? matrix.rows() : candidates.length;
+        for (int c = 0; c < n; c++) {
+            int i = candidates == null ? c : candidates[c];
+            neighbors.add(new Neighbor(matrix.distance(i, input, columns), matrix.label(i), matrix.weight(i)));
         }
         
         // 按距离升序排序，取前k个
@@ -172,18 +528,18 @@ public class KnnService {
     }
     
     /**
-     * Top-1区域投票
+     * Top-1区域投票（每个邻居计其权重，原始样本为 1）
      */
-    private Integer voteRegion(List<Neighbor> neighbors) {
+    private static Integer voteRegion(List<Neighbor> neighbors) {
         if (neighbors.isEmpty()) {
             return null;
         }
         
-        // 统计每个区域的出现次数
-        Map<Integer, Long> regionCounts = neighbors.stream()
-                .collect(Collectors.groupingBy(Neighbor::getRegionId, Collectors.counting()));
+        // 统计每个区域的权重和
+        Map<Integer, Double> regionCounts = neighbors.stream()
+                .collect(Collectors.groupingBy(Neighbor::getRegionId, Collectors.summingDouble(Neighbor::getWeight)));
         
-        // 返回出现次数最多的区域
+        // 返回权重和最大的区域
         return regionCounts.entrySet().stream()
                 .max(Map.Entry.comparingByValue())
                 .map(Map.Entry::getKey)
@@ -193,15 +549,15 @@ public class KnnService {
     /**
      * Top-3加权分数
      */
-    private List<PredictResponse.RegionScore> top3WithScore(List<Neighbor> neighbors) {
+    private static List<PredictResponse.RegionScore> top3WithScore(List<Neighbor> neighbors) {
         if (neighbors.isEmpty()) {
             return new ArrayList<>();
         }
         
-        // 计算每个区域的加权分数（1/距离）
+        // 计算每个区域的加权分数（样本权重/距离）
         Map<Integer, Double> regionScores = new HashMap<>();
         for (Neighbor neighbor : neighbors) {
-            double weight = 1.0 / (neighbor.getDistance() + 1e-6); // 避免除零
+            double weight = neighbor.getWeight() / (neighbor.getDistance() + 1e-6); // 避免除零
             regionScores.merge(neighbor.getRegionId(), weight, Double::sum);
         }
         
@@ -224,10 +580,12 @@ public class KnnService {
     private static class Neighbor {
         private final double distance;
         private final int regionId;
+        private final double weight;
         
-        public Neighbor(double distance, int regionId) {
+        public Neighbor(double distance, int regionId, double weight) {
             this.distance = distance;
             this.regionId = regionId;
+            this.weight = weight;
         }
         
         public double getDistance() {
@@ -237,5 +595,15 @@ public class KnnService {
         public int getRegionId() {
             return regionId;
         }
+        
+        public double getWeight() {
+            return weight;
+        }
+    }
+
+    /**
+     * 签名索引快照
+     */
+    private record Signature(long version, SignatureIndex index) {
     }
 }
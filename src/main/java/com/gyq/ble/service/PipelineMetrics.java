@@ -0,0 +1,148 @@
+package com.gyq.ble.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 处理链路分阶段指标
+ *
+ * 各阶段用 {@link System#nanoTime()} 打点，Timer 按 path -> stage 两级缓存，热路径上不拼接字符串，只有两次 map 查找和一次记录。
+ * 指标通过 /actuator/prometheus 以 Prometheus 格式暴露：
+ * <ul>
+ *   <li>ble_stage_seconds{path,stage}：各阶段耗时（带直方图，可算 p99）</li>
+ *   <li>ble_events_total{name}：计数器</li>
+ *   <li>ble_candidates{path}：每次请求参与打分的候选数</li>
+ *   <li>ble_store_*：指纹数、信标字典大小、存储版本、缓存大小等仪表</li>
+ * </ul>
+ */
+@Service
+public class PipelineMetrics {
+
+    public static final String PREDICT = "predict";
+    public static final String ADD_DATA = "addData";
+    public static final String KNN = "knn";
+    public static final String SESSION = "session";
+
+    private final MeterRegistry registry;
+
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Timer>> timers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, DistributionSummary> summaries = new ConcurrentHashMap<>();
+
+    @Autowired
+    public PipelineMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * 阶段开始打点
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * 记录从 startNanos 到现在的阶段耗时，返回当前时间作为下一阶段的起点
+     */
+    public long stage(String path, String stage, long startNanos) {
+        long now = System.nanoTime();
+        timer(path, stage).record(now - startNanos, TimeUnit.NANOSECONDS);
+        return now;
+    }
+
+    /**
+     * 计数器加一
+     */
+    public void increment(String name) {
+        increment(name, 1);
+    }
+
+    /**
+     * 计数器增加 amount
+     */
+    public void increment(String name, long amount) {
+        if (amount <= 0) {
+            return;
+        }
+        counters.computeIfAbsent(name, this::newCounter).increment(amount);
+    }
+
+    /**
+     * 记录每次请求的候选数
+     */
+    public void candidates(String path, int count) {
+        summaries.computeIfAbsent(path, this::newSummary).record(count);
+    }
+
+    /**
+     * 注册仪表
+     */
+    public void gauge(String name, String description, Supplier<Number> supplier) {
+        Gauge.builder(name, supplier)
+                .description(description)
+                .register(registry);
+    }
+
+    /**
+     * 清零所有阶段耗时、计数器与候选数指标（仪表不变），用于丢弃启动预热产生的数据
+     *
+     * Micrometer 的指标不能清零，这里逐个替换为重新注册的同名指标：缓存中的条目始终存在，
+     * 并发记录的线程随后取到的是新指标；替换瞬间已取到旧指标的一次记录会丢失。
+     */
+    public void reset() {
+        timers.forEach((path, byStage) -> byStage.replaceAll((stage, old) -> {
+            registry.remove(old);
+            return newTimer(path, stage);
+        }));
+        counters.replaceAll((name, old) -> {
+            registry.remove(old);
+            return newCounter(name);
+        });
+        summaries.replaceAll((path, old) -> {
+            registry.remove(old);
+            return newSummary(path);
+        });
+    }
+
+    private Timer timer(String path, String stage) {
+        ConcurrentHashMap<String, Timer> byStage = timers.get(path);
+        if (byStage == null) {
+            byStage = timers.computeIfAbsent(path, p -> new ConcurrentHashMap<>());
+        }
+        Timer timer = byStage.get(stage);
+        return timer != null ? timer : byStage.computeIfAbsent(stage, s -> newTimer(path, s));
+    }
+
+    private Timer newTimer(String path, String stage) {
+        return Timer.builder("ble.stage")
+                .tag("path", path)
+                .tag("stage", stage)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(1_000))
+                .maximumExpectedValue(Duration.ofSeconds(2))
+                .register(registry);
+    }
+
+    private Counter newCounter(String name) {
+        return Counter.builder("ble.events")
+                .tag("name", name)
+                .register(registry);
+    }
+
+    private DistributionSummary newSummary(String path) {
+        return DistributionSummary.builder("ble.candidates")
+                .tag("path", path)
+                .publishPercentiles(0.5, 0.99)
+                .register(registry);
+    }
+}
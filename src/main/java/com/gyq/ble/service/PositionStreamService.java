@@ -0,0 +1,393 @@
+package com.gyq.ble.service;
+
+import com.gyq.ble.model.PositionEvent;
+import com.gyq.ble.model.PredictResponse;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+
+/**
+ * 位置推送服务（Server-Sent Events）
+ *
+ * 每个订阅者一个有界队列，预测线程只负责入队（队满丢弃最旧的事件），
+ * 真正的网络写由少量发送线程完成，慢客户端不会阻塞预测，也不会让内存无限增长。
+ * SSE 连接在 Tomcat 中以异步请求挂起，不占用请求线程，可同时保持数千个订阅。
+ *
+ * SseEmitter.send 是阻塞写，对端不读时会一直卡在发送线程上。看门狗定期检查，
+ * 单次发送超过 stream.send-timeout-ms 的订阅者被移除并中断其发送线程；
+ * 卡住的线程不一定能被中断唤醒（要等容器的写超时），因此发送线程池同时临时扩容一个线程，
+ * 保证其他订阅者始终有 stream.sender-threads 个可用的发送线程，卡住的写返回后再收回。
+ */
+@Slf4j
+@Service
+public class PositionStreamService {
+
+    /**
+     * 心跳标记（队列为空时入队，用于发现已断开的连接）
+     */
+    private static final Published HEARTBEAT = new Published(null, 0, 0, null);
+
+    /**
+     * 每个订阅者最多缓存的未发送事件数
+     */
+    @Value("${stream.buffer-size:16}")
+    private int bufferSize;
+
+    /**
+     * 最大订阅数，超过时拒绝新的订阅
+     */
+    @Value("${stream.max-subscribers:10000}")
+    private int maxSubscribers;
+
+    /**
+     * 订阅超时（毫秒），到期后客户端应自动重连
+     */
+    @Value("${stream.timeout-ms:1800000}")
+    private long timeoutMs;
+
+    /**
+     * 心跳间隔（秒），0 表示不发送
+     */
+    @Value("${stream.heartbeat-seconds:15}")
+    private int heartbeatSeconds;
+
+    @Value("${stream.sender-threads:2}")
+    private int senderThreads;
+
+    /**
+     * 单次发送超时（毫秒），超过时移除该订阅者；0 表示不检查
+     */
+    @Value("${stream.send-timeout-ms:5000}")
+    private long sendTimeoutMs;
+
+    @Autowired
+    private PipelineMetrics metrics;
+
+    /**
+     * 按订阅超时创建 SSE 连接
+     */
+    private LongFunction<SseEmitter> emitters = SseEmitter::new;
+
+    private final ConcurrentHashMap<String, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicLong> sequences = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+
+    /**
+     * 因发送超时被移除、但写调用还没有返回的发送线程数
+     */
+    private int stuckSenders;
+
+    private ThreadPoolExecutor sender;
+    private ScheduledExecutorService timer;
+
+    public PositionStreamService() {
+    }
+
+    /**
+     * 不经 Spring 直接构造（单元测试），调用方负责 {@link #shutdown()}
+     */
+    PositionStreamService(int bufferSize, int maxSubscribers, int heartbeatSeconds, int senderThreads, long sendTimeoutMs,
+                          PipelineMetrics metrics, LongFunction<SseEmitter> emitters) {
+        this.bufferSize = bufferSize;
+        this.maxSubscribers = maxSubscribers;
+        this.heartbeatSeconds = heartbeatSeconds;
+        this.senderThreads = senderThreads;
+        this.sendTimeoutMs = sendTimeoutMs;
+        this.metrics = metrics;
+        this.emitters = emitters;
+        init();
+    }
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger n = new AtomicInteger();
+        int threads = Math.max(1, senderThreads);
+        // 队列无界，线程数只由核心线程数决定；最大线程数只是 setCorePoolSize 扩容的上限
+        sender = new ThreadPoolExecutor(threads, threads + Math.max(1, maxSubscribers), 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "position-stream-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "position-stream-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        if (heartbeatSeconds > 0) {
+            timer.scheduleAtFixedRate(this::heartbeat, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+        }
+        if (sendTimeoutMs > 0) {
+            long period = Math.max(10, Math.min(1000, sendTimeoutMs / 4));
+            timer.scheduleAtFixedRate(this::evictStuck, period, period, TimeUnit.MILLISECONDS);
+        }
+        metrics.gauge("ble.stream.subscribers", "当前位置推送订阅数", subscriberCount::get);
+        metrics.gauge("ble.stream.devices", "有订阅者的设备数", subscribers::size);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+        sender.shutdownNow();
+        subscribers.values().forEach(set -> set.forEach(s -> s.emitter.complete()));
+        subscribers.clear();
+    }
+
+    /**
+     * 订阅设备的位置更新
+     *
+     * @return 订阅数已满时返回 null
+     */
+    public SseEmitter subscribe(String deviceId) {
+        if (subscriberCount.incrementAndGet() > maxSubscribers) {
+            subscriberCount.decrementAndGet();
+            metrics.increment("stream.rejected");
+            return null;
+        }
+        SseEmitter emitter = emitters.apply(timeoutMs);
+        Subscriber subscriber = new Subscriber(deviceId, emitter, bufferSize);
+        subscribers.computeIfAbsent(deviceId, k -> ConcurrentHashMap.newKeySet()).add(subscriber);
+        emitter.onCompletion(() -> remove(subscriber));
+        emitter.onTimeout(() -> remove(subscriber));
+        emitter.onError(e -> remove(subscriber));
+        metrics.increment("stream.subscribed");
+        return emitter;
+    }
+
+    /**
+     * 发布设备的最新预测结果；没有订阅者时直接返回
+     */
+    public void publish(String deviceId, PredictResponse response) {
+        Set<Subscriber> set = subscribers.get(deviceId);
+        if (set == null || set.isEmpty()) {
+            return;
+        }
+        long sequence = sequences.computeIfAbsent(deviceId, k -> new AtomicLong()).incrementAndGet();
+        Published event = new Published(deviceId, sequence, System.currentTimeMillis(), response);
+        for (Subscriber subscriber : set) {
+            if (subscriber.offer(event)) {
+                metrics.increment("stream.dropped");
+            }
+            schedule(subscriber);
+        }
+        metrics.increment("stream.published");
+    }
+
+    public int subscriberCount() {
+        return subscriberCount.get();
+    }
+
+    private void heartbeat() {
+        for (Set<Subscriber> set : subscribers.values()) {
+            for (Subscriber subscriber : set) {
+                if (subscriber.offerHeartbeat()) {
+                    schedule(subscriber);
+                }
+            }
+        }
+    }
+
+    /**
+     * 看门狗：移除单次发送超时的订阅者，中断其发送线程，并为卡住的线程临时补一个发送线程
+     */
+    private void evictStuck() {
+        long now = System.nanoTime();
+        long timeout = TimeUnit.MILLISECONDS.toNanos(sendTimeoutMs);
+        for (Set<Subscriber> set : subscribers.values()) {
+            for (Subscriber subscriber : set) {
+                synchronized (subscriber) {
+                    if (!subscriber.sendTimedOut(now, timeout)) {
+                        continue;
+                    }
+                    log.warn("位置推送发送超过 {} ms，移除订阅: {}", sendTimeoutMs, subscriber.deviceId);
+                    metrics.increment("stream.send.timeout");
+                    remove(subscriber);
+                    // 在订阅者锁内扩容并中断：发送线程拿到同一把锁才能结束本次发送，收回补充线程一定发生在扩容之后
+                    resizeSenders(1);
+                    subscriber.sendingThread.interrupt();
+                }
+            }
+        }
+    }
+
+    private synchronized void resizeSenders(int delta) {
+        int stuck = Math.max(0, Math.min(stuckSenders + delta, sender.getMaximumPoolSize() - Math.max(1, senderThreads)));
+        if (stuck != stuckSenders) {
+            stuckSenders = stuck;
+            sender.setCorePoolSize(Math.max(1, senderThreads) + stuck);
+        }
+    }
+
+    private void schedule(Subscriber subscriber) {
+        if (subscriber.scheduled.compareAndSet(false, true)) {
+            try {
+                sender.execute(() -> drain(subscriber));
+            } catch (RejectedExecutionException e) {
+                subscriber.scheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * 在发送线程上把队列中的事件依次写出；同一订阅者同一时刻只有一个线程在写
+     */
+    private void drain(Subscriber subscriber) {
+        while (true) {
+            Published event;
+            while ((event = subscriber.poll()) != null) {
+                subscriber.beginSend();
+                Exception failure = null;
+                try {
+                    if (event == HEARTBEAT) {
+                        subscriber.emitter.send(SseEmitter.event().comment("ping"));
+                    } else {
+                        PositionEvent data = new PositionEvent(event.deviceId, event.sequence, event.timestamp,
+                                subscriber.takeDropped(), event.response);
+                        subscriber.emitter.send(SseEmitter.event()
+                                .id(String.valueOf(event.sequence))
+                                .name("position")
+                                .data(data, MediaType.APPLICATION_JSON));
+                    }
+                } catch (Exception e) {
+                    failure = e;
+                }
+                boolean timedOut = subscriber.endSend();
+                if (timedOut) {
+                    // 看门狗已移除该订阅者并补了一个线程：清掉中断标记，收回补充的线程
+                    Thread.interrupted();
+                    resizeSenders(-1);
+                }
+                if (failure != null || timedOut) {
+                    // 客户端已断开，或发送超时
+                    log.debug("位置推送失败，移除订阅: {} {}", subscriber.deviceId,
+                            failure != null ? failure.getMessage() : "发送超时");
+                    remove(subscriber);
+                    if (failure != null) {
+                        subscriber.emitter.completeWithError(failure);
+                    } else {
+                        subscriber.emitter.complete();
+                    }
+                    return;
+                }
+            }
+            subscriber.scheduled.set(false);
+            // 释放标记后再检查一次，避免与入队竞争导致事件滞留
+            if (subscriber.isEmpty() || !subscriber.scheduled.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    private void remove(Subscriber subscriber) {
+        if (subscriber.removed.compareAndSet(false, true)) {
+            subscribers.computeIfPresent(subscriber.deviceId, (k, set) -> {
+                set.remove(subscriber);
+                return set.isEmpty() ? null : set;
+            });
+            subscriberCount.decrementAndGet();
+            metrics.increment("stream.disconnected");
+        }
+    }
+
+    /**
+     * 已发布的事件（所有订阅者共享）
+     */
+    private record Published(String deviceId, long sequence, long timestamp, PredictResponse response) {
+    }
+
+    /**
+     * 单个订阅者：SSE 连接 + 有界队列（满时丢弃最旧）
+     */
+    private static final class Subscriber {
+        private final String deviceId;
+        private final SseEmitter emitter;
+        private final int capacity;
+        private final ArrayDeque<Published> queue;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicBoolean removed = new AtomicBoolean();
+        /**
+         * 正在发送的线程与开始时间，空闲时线程为 null；stuck 表示本次发送已被看门狗判定超时
+         */
+        private Thread sendingThread;
+        private long sendingSince;
+        private boolean stuck;
+        private int dropped;
+
+        Subscriber(String deviceId, SseEmitter emitter, int capacity) {
+            this.deviceId = deviceId;
+            this.emitter = emitter;
+            this.capacity = Math.max(1, capacity);
+            this.queue = new ArrayDeque<>(this.capacity);
+        }
+
+        /**
+         * 入队，返回是否丢弃了旧事件
+         */
+        synchronized boolean offer(Published event) {
+            boolean drop = false;
+            if (queue.size() >= capacity) {
+                queue.pollFirst();
+                dropped++;
+                drop = true;
+            }
+            queue.addLast(event);
+            return drop;
+        }
+
+        synchronized boolean offerHeartbeat() {
+            if (!queue.isEmpty()) {
+                return false;
+            }
+            queue.addLast(HEARTBEAT);
+            return true;
+        }
+
+        synchronized Published poll() {
+            return queue.pollFirst();
+        }
+
+        synchronized boolean isEmpty() {
+            return queue.isEmpty();
+        }
+
+        synchronized void beginSend() {
+            sendingThread = Thread.currentThread();
+            sendingSince = System.nanoTime();
+        }
+
+        /**
+         * 结束一次发送，返回期间是否被看门狗判定超时
+         */
+        synchronized boolean endSend() {
+            sendingThread = null;
+            return stuck;
+        }
+
+        synchronized boolean sendTimedOut(long now, long timeout) {
+            if (sendingThread == null || stuck || now - sendingSince < timeout) {
+                return false;
+            }
+            stuck = true;
+            return true;
+        }
+
+        synchronized int takeDropped() {
+            int n = dropped;
+            dropped = 0;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,576 @@
+package com.gyq.ble.service;
+
+import com.gyq.ble.controller.SimilarityMetricsDemo;
+import com.gyq.ble.index.FingerprintIndex;
+import com.gyq.ble.index.ScanBuffer;
+import com.gyq.ble.index.SignatureIndex;
+import com.gyq.ble.index.SimilarityMetric;
+import com.gyq.ble.model.ExplainTrace;
+import com.gyq.ble.model.PredictResponse;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * 指纹匹配预测服务：扫描与指纹库计算相似度（默认余弦，指标与最少共同信标数取 TuningService 的当前参数），
+ * 再按区域取最高分得到 Top-1 / Top-3
+ *
+ * 候选依次来自：区域跟踪的邻域、最强信标签名预筛、两级搜索（先用每个区域的质心指纹粗筛出
+ * 得分最高的 R 个区域，再只对这些区域内的点位精确打分，候选较多时按区域并行）。区域ID在索引构建时解析，预测时不再拆分点位名称。
+ * 请求带时延预算时两级搜索的精排改为可中断搜索：粗筛区域内的点位按与扫描的共同信标数从多到少依次打分，预算用完即停，返回已打分部分的投票结果。
+ * 供 /api/predict、位置推送与增量会话等入口共用。
+ */
+@Slf4j
+@Service
+public class PredictService {
+
+    /**
+     * 粗筛保留的区域数 R，0 表示不粗筛（区域数不超过 R 时同样直接全量打分）
+     */
+    @Value("${search.coarse-regions:50}")
+    private int coarseRegions;
+
+    /**
+     * 精排阶段并行度，0 表示 CPU 核数
+     */
+    @Value("${search.parallelism:0}")
+    private int parallelism;
+
+    /**
+     * 候选点位数不少于该值时精排阶段并行
+     */
+    @Value("${search.parallel-min-candidates:4096}")
+    private int parallelMinCandidates;
+
+    /**
+     * 未指定 budgetMs 时的默认时延预算（毫秒），0 表示不限
+     */
+    @Value("${search.default-budget-ms:0}")
+    private int defaultBudgetMs;
+
+    /**
+     * 可中断搜索每打分多少个候选检查一次截止时间
+     */
+    private static final int DEADLINE_CHECK_INTERVAL = 32;
+
+    @Autowired
+    private FingerprintIndexService fingerprintIndexService;
+
+    @Autowired
+    private PipelineMetrics metrics;
+
+    @Autowired
+    private RegionTrackingService regionTrackingService;
+
+    @Autowired
+    private FingerprintShardService fingerprintShardService;
+
+    @Autowired
+    private TuningService tuningService;
+
+    /**
+     * 每个请求线程复用的打分数组
+     */
+    private final ThreadLocal<double[]> scoreBuffer = ThreadLocal.withInitial(() -> new double[0]);
+
+    /**
+     * 每个请求线程复用的共同信标计数数组（可中断搜索使用，用完清零）
+     */
+    private final ThreadLocal<int[]> overlapBuffer = ThreadLocal.withInitial(() -> new int[0]);
+
+    private ForkJoinPool pool;
+
+    public PredictService() {
+    }
+
+    /**
+     * 不经 Spring 直接构造（单元测试）：单线程精排、不带默认预算，调用方负责 {@link #shutdown()}
+     */
+    PredictService(FingerprintIndexService fingerprintIndexService, RegionTrackingService regionTrackingService,
+                   FingerprintShardService fingerprintShardService, TuningService tuningService, PipelineMetrics metrics,
+                   int coarseRegions) {
+        this.fingerprintIndexService = fingerprintIndexService;
+        this.regionTrackingService = regionTrackingService;
+        this.fingerprintShardService = fingerprintShardService;
+        this.tuningService = tuningService;
+        this.metrics = metrics;
+        this.coarseRegions = coarseRegions;
+        this.parallelism = 1;
+        this.parallelMinCandidates = Integer.MAX_VALUE;
+        init();
+    }
+
+    @PostConstruct
+    public void init() {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        pool = new ForkJoinPool(threads);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * 区域预测
+     *
+     * @param scan  已过滤并解析为信标ID的扫描
+     * @param trace 解释轨迹，为 null 时不记录
+     * @return 预测响应
+     */
+    public PredictResponse predict(ScanBuffer scan, ExplainTrace trace) {
+        return predict(scan, trace, null);
+    }
+
+    /**
+     * 区域预测；携带设备ID且有邻接图时先在上次区域的邻域内搜索
+     *
+     * @param scan     已过滤并解析为信标ID的扫描
+     * @param trace    解释轨迹，为 null 时不记录
+     * @param deviceId 被跟踪设备ID，可为 null
+     * @return 预测响应
+     */
+    public PredictResponse predict(ScanBuffer scan, ExplainTrace trace, String deviceId) {
+        return predict(scan, trace, deviceId, null);
+    }
+
+    /**
+     * 带时延预算的区域预测：区域跟踪、签名预筛与两级搜索的候选都分段打分，超过预算即停止
+     * （跟踪与两级搜索的候选按共同信标数从多到少排列，排序本身也计入预算）；
+     * 响应中的 truncated / evaluated 表示是否提前结束及实际打分的候选数，预算内完成时结果与不带预算相同
+     *
+     * @param budgetMs 时延预算（毫秒，从进入本方法计），null 时取 search.default-budget-ms，不大于 0 表示不限
+     */
+    public PredictResponse predict(ScanBuffer scan, ExplainTrace trace, String deviceId, Integer budgetMs) {
+        long begin = metrics.start();
+        int budget = budgetMs != null ? budgetMs : defaultBudgetMs;
+        return predict(scan, trace, deviceId, begin, budget > 0 ? begin + budget * 1_000_000L : 0);
+    }
+
+    /**
+     * 按给定截止时间预测
+     *
+     * @param begin    开始时间（System.nanoTime）
+     * @param deadline 截止时间（System.nanoTime），0 表示不限
+     */
+    PredictResponse predict(ScanBuffer scan, ExplainTrace trace, String deviceId, long begin, long deadline) {
+        long t = begin;
+        // RSSI 过滤与信标ID解析已在 ScanDeserializer 解析请求体时完成
+        Map<String, Double> scanMap = trace == null ? null : scan.toKeyMap();
+        FingerprintIndex index = index(scan);
+        TuningService.Settings settings = tuningService.current();
+        double[] scores = scores(index.size());
+        int[] regions = regionTrackingService.candidateRegions(deviceId, index);
+        t = metrics.stage(PipelineMetrics.PREDICT, "load", t);
+
+        int[] points = null;
+        int total = -1;
+        boolean overlapCut = false;
+        if (regions != null) {
+            double best;
+            if (deadline == 0) {
+                best = scoreRegions(index, scan, settings, regions, scores);
+            } else {
+                Ranked ranked = rankByOverlap(index, scan, settings.minCommon(), members(index, regions), deadline);
+                total = ranked.points().length;
+                overlapCut = ranked.cut();
+                points = scoreUntil(index, scan, settings, ranked.points(), scores, deadline);
+                best = best(points, scores);
+            }
+            // 跟踪阈值按余弦标定，其他指标只要求局部有可比较的点位
+            double minScore = settings.metric() == SimilarityMetric.COSINE ? regionTrackingService.minScore() : -Double.MAX_VALUE;
+            if (best >= minScore) {
+                metrics.increment("tracking.local");
+            } else {
+                // 局部最高分过低：可能跟丢，回退全局搜索
+                metrics.increment("tracking.fallback");
+                Arrays.fill(scores, Double.NaN);
+                regions = null;
+                points = null;
+                total = -1;
+                overlapCut = false;
+            }
+        }
+        // 签名预筛：最强信标签名命中的点位，桶为空或候选全部无法比较时继续两级搜索
+        SignatureIndex signature = index.signature();
+        if (regions == null && signature != null) {
+            int[] candidates = signature.candidates(scan);
+            t = metrics.stage(PipelineMetrics.PREDICT, "signature", t);
+            if (candidates == null) {
+                metrics.increment("signature.miss");
+            } else {
+                int[] scored = scoreUntil(index, scan, settings, candidates, scores, deadline);
+                if (best(scored, scores) > Double.NEGATIVE_INFINITY) {
+                    metrics.increment("signature.hit");
+                    points = scored;
+                    total = candidates.length;
+                } else {
+                    metrics.increment("signature.fallback");
+                    Arrays.fill(scores, Double.NaN);
+                }
+            }
+        }
+        if (regions == null && points == null) {
+            regions = coarse(index, scan);
+            t = metrics.stage(PipelineMetrics.PREDICT, "coarse", t);
+            if (deadline == 0) {
+                scoreRegions(index, scan, settings, regions, scores);
+            } else {
+                // 可中断搜索：粗筛区域内的点位按共同信标数排序，预算用完时只有已打分的前缀参与投票
+                Ranked ranked = rankByOverlap(index, scan, settings.minCommon(), members(index, regions), deadline);
+                total = ranked.points().length;
+                overlapCut = ranked.cut();
+                t = metrics.stage(PipelineMetrics.PREDICT, "overlap", t);
+                points = scoreUntil(index, scan, settings, ranked.points(), scores, deadline);
+            }
+        }
+        t = metrics.stage(PipelineMetrics.PREDICT, "score", t);
+
+        // 实现 KNN 相似度匹配
+        PredictResponse response = vote(index, scores);
+        if (deadline != 0) {
+            int evaluated = points != null ? points.length : members(index, regions).length;
+            boolean truncated = overlapCut || total >= 0 && evaluated < total;
+            response.setTruncated(truncated);
+            response.setEvaluated(evaluated);
+            metrics.increment(truncated ? "deadline.truncated" : "deadline.complete");
+        }
+        metrics.stage(PipelineMetrics.PREDICT, "knn", t);
+        metrics.stage(PipelineMetrics.PREDICT, "total", begin);
+        regionTrackingService.update(deviceId, response);
+
+        if (trace != null) {
+            trace.setScan(scanMap);
+            List<ExplainTrace.Candidate> ranking = new ArrayList<>();
+            for (int i : points != null ? points : members(index, regions)) {
+                Double v = Double.isNaN(scores[i]) ? null : scores[i];
+                trace.getCandidates().add(explainCandidate(index.name(i), scanMap, index.fingerprintMap(i), v));
+                if (v != null) {
+                    ranking.add(new ExplainTrace.Candidate(index.name(i), null, null, null, null, v));
+                }
+            }
+            // 排序（从大到小）
+            ranking.sort((a, b) -> Double.compare(b.getScore(), a.getScore()));
+            trace.setRanking(ranking);
+            trace.setResult(response);
+        }
+        return response;
+    }
+
+    /**
+     * 由已算好的相似度做区域投票（会话增量打分等场景使用）
+     *
+     * @param index  打分所用的索引快照
+     * @param scores 每个指纹的相似度，NaN 表示共同信标不足、不参与投票
+     * @param path   指标路径标签
+     */
+    public PredictResponse predict(FingerprintIndex index, double[] scores, String path) {
+        long t = metrics.start();
+        PredictResponse response = vote(index, scores);
+        metrics.stage(path, "knn", t);
+        return response;
+    }
+
+    /**
+     * 启用分片时只使用扫描所属站点的分片，无法确定站点时回退到全局指纹库
+     */
+    private FingerprintIndex index(ScanBuffer scan) {
+        if (fingerprintShardService.isEnabled()) {
+            FingerprintIndex shard = fingerprintShardService.index(scan);
+            if (shard != null) {
+                return shard;
+            }
+        }
+        return fingerprintIndexService.current();
+    }
+
+    /**
+     * 粗筛：按区域质心得分取前 R 个区域；质心与扫描都没有足够共同信标时保留全部区域
+     */
+    private int[] coarse(FingerprintIndex index, ScanBuffer scan) {
+        return coarse(index, scan, coarseRegions);
+    }
+
+    /**
+     * 粗筛（离线评估工具复用）：按区域质心得分取前 coarseRegions 个区域，返回升序的区域下标
+     */
+    public static int[] coarse(FingerprintIndex index, ScanBuffer scan, int coarseRegions) {
+        int n = index.regionCount();
+        if (coarseRegions <= 0 || n <= coarseRegions) {
+            return IntStream.range(0, n).toArray();
+        }
+        double[] centroid = new double[n];
+        for (int r = 0; r < n; r++) {
+            centroid[r] = index.centroidCosine(r, scan);
+        }
+        int[] top = topRegions(centroid, coarseRegions);
+        if (top.length == 0) {
+            return IntStream.range(0, n).toArray();
+        }
+        Arrays.sort(top);
+        return top;
+    }
+
+    /**
+     * 精排：对所选区域内的点位打分写入 scores，返回最高分
+     */
+    private double scoreRegions(FingerprintIndex index, ScanBuffer scan, TuningService.Settings settings, int[] regions,
+                                double[] scores) {
+        int candidates = 0;
+        for (int region : regions) {
+            candidates += index.regionMembers(region).length;
+        }
+        metrics.candidates(PipelineMetrics.PREDICT, candidates);
+
+        if (regions.length > 1 && candidates >= parallelMinCandidates && pool.getParallelism() > 1) {
+            // 各区域写入 scores 中互不重叠的位置
+            pool.submit(() -> Arrays.stream(regions).parallel().forEach(r -> scoreMembers(index, scan, settings, r, scores)))
+                    .join();
+        } else {
+            for (int region : regions) {
+                scoreMembers(index, scan, settings, region, scores);
+            }
+        }
+
+        double best = Double.NEGATIVE_INFINITY;
+        for (int region : regions) {
+            best = Math.max(best, best(index.regionMembers(region), scores));
+        }
+        return best;
+    }
+
+    /**
+     * 按共同信标数排好的候选
+     *
+     * @param points 候选下标，共同信标数降序
+     * @param cut    共同信标计数因超时没有数完，points 含全部候选（计数不全，排序只是近似）
+     */
+    private record Ranked(int[] points, boolean cut) {
+    }
+
+    /**
+     * 候选按与扫描的共同信标数降序排列（计数排序，同数时保持候选原顺序）；计数完成时去掉共同信标不足 minCommon 的指纹
+     * （得分必为 NaN）。排序计入时延预算：每遍历完一个信标的倒排表检查一次截止时间，超时后按已累计的计数排序，
+     * 此时计数不足的指纹还可能达到 minCommon，全部保留（排在后面）并标记 cut
+     *
+     * @param deadline 截止时间（System.nanoTime），0 表示不限
+     */
+    private Ranked rankByOverlap(FingerprintIndex index, ScanBuffer scan, int minCommon, int[] candidates, long deadline) {
+        int[] overlap = overlapBuffer.get();
+        if (overlap.length != index.size()) {
+            overlap = new int[index.size()];
+            overlapBuffer.set(overlap);
+        }
+        boolean cut = false;
+        for (int b = 0; b < scan.size(); b++) {
+            int id = scan.id(b);
+            for (int p = index.postingStart(id), end = index.postingEnd(id); p < end; p++) {
+                overlap[index.postingFingerprint(p)]++;
+            }
+            if (deadline != 0 && b + 1 < scan.size() && System.nanoTime() - deadline >= 0) {
+                metrics.increment("deadline.overlap");
+                cut = true;
+                break;
+            }
+        }
+        int floor = cut ? 0 : Math.max(1, minCommon);
+        // 按共同信标数分桶：bucketStart[c] 为共同信标数为 c 的候选在结果中的起始位置（c 越大越靠前）
+        int maxOverlap = scan.size();
+        int[] bucketStart = new int[maxOverlap + 1];
+        int count = 0;
+        for (int i : candidates) {
+            int c = overlap[i];
+            if (c >= floor) {
+                bucketStart[c]++;
+                count++;
+            }
+        }
+        for (int c = maxOverlap, pos = 0; c >= 0; c--) {
+            int size = bucketStart[c];
+            bucketStart[c] = pos;
+            pos += size;
+        }
+        int[] ranked = new int[count];
+        for (int i : candidates) {
+            int c = overlap[i];
+            if (c >= floor) {
+                ranked[bucketStart[c]++] = i;
+            }
+        }
+        Arrays.fill(overlap, 0);
+        return new Ranked(ranked, cut);
+    }
+
+    /**
+     * 按顺序对候选打分直到截止时间，返回已打分的前缀；每 {@link #DEADLINE_CHECK_INTERVAL} 个候选检查一次时间，
+     * 至少打分第一批，保证预算很小时也有结果；deadline 为 0 时全部打分
+     */
+    private int[] scoreUntil(FingerprintIndex index, ScanBuffer scan, TuningService.Settings settings, int[] ranked,
+                             double[] scores, long deadline) {
+        int evaluated = 0;
+        while (evaluated < ranked.length) {
+            int end = Math.min(ranked.length, evaluated + DEADLINE_CHECK_INTERVAL);
+            for (int k = evaluated; k < end; k++) {
+                int i = ranked[k];
+                scores[i] = index.score(i, scan, settings.metric(), settings.minCommon());
+            }
+            evaluated = end;
+            if (deadline != 0 && System.nanoTime() - deadline >= 0) {
+                break;
+            }
+        }
+        metrics.candidates(PipelineMetrics.PREDICT, evaluated);
+        return evaluated == ranked.length ? ranked : Arrays.copyOf(ranked, evaluated);
+    }
+
+    /**
+     * 点位中的最高分；共同信标不足的点位计入 similarity.skipped
+     */
+    private double best(int[] points, double[] scores) {
+        double best = Double.NEGATIVE_INFINITY;
+        int skipped = 0;
+        for (int i : points) {
+            if (Double.isNaN(scores[i])) {
+                skipped++;
+            } else {
+                best = Math.max(best, scores[i]);
+            }
+        }
+        metrics.increment("similarity.skipped", skipped);
+        return best;
+    }
+
+    private static int[] members(FingerprintIndex index, int[] regions) {
+        return Arrays.stream(regions).flatMap(r -> Arrays.stream(index.regionMembers(r))).toArray();
+    }
+
+    private static void scoreMembers(FingerprintIndex index, ScanBuffer scan, TuningService.Settings settings, int region,
+                                     double[] scores) {
+        for (int i : index.regionMembers(region)) {
+            scores[i] = index.score(i, scan, settings.metric(), settings.minCommon());
+        }
+    }
+
+    /**
+     * 当前线程的打分数组，全部置为 NaN（未打分）
+     */
+    private double[] scores(int n) {
+        double[] scores = scoreBuffer.get();
+        if (scores.length != n) {
+            scores = new double[n];
+            scoreBuffer.set(scores);
+        }
+        Arrays.fill(scores, Double.NaN);
+        return scores;
+    }
+
+    /**
+     * 构造单个候选的解释明细
+     */
+    private static ExplainTrace.Candidate explainCandidate(String key, Map<String, Double> scan,
+                                                           Map<String, Double> fingerprint, Double score) {
+        List<String> commonKeys = SimilarityMetricsDemo.getCommonKeysSorted(scan, fingerprint);
+        double[] a = SimilarityMetricsDemo.toVector(scan, commonKeys);
+        double[] b = SimilarityMetricsDemo.toVector(fingerprint, commonKeys);
+        Map<String, Double> candidateMetrics = commonKeys.isEmpty()
+                ? Collections.emptyMap() : SimilarityMetricsDemo.allMetrics(a, b);
+        return new ExplainTrace.Candidate(key, commonKeys, a, b, candidateMetrics, score);
+    }
+
+    /**
+     * 执行 KNN 相似度匹配预测：同一区域有多个点位时取最高相似度，再按区域排序
+     *
+     * @param index  索引快照（提供点位所属区域与区域ID）
+     * @param scores 每个点位的相似度，NaN 表示未打分或共同信标不足
+     * @return 预测响应
+     */
+    public static PredictResponse vote(FingerprintIndex index, double[] scores) {
+        PredictResponse response = new PredictResponse();
+
+        double[] regionSimilarities = new double[index.regionCount()];
+        Arrays.fill(regionSimilarities, Double.NaN);
+        boolean any = false;
+        for (int i = 0; i < scores.length; i++) {
+            double similarity = scores[i];
+            if (Double.isNaN(similarity)) {
+                continue;
+            }
+            int region = index.regionOf(i);
+            if (Double.isNaN(regionSimilarities[region]) || similarity > regionSimilarities[region]) {
+                regionSimilarities[region] = similarity;
+            }
+            any = true;
+        }
+
+        if (!any) {
+            log.warn("没有找到任何相似度数据，无法进行预测");
+            return response;
+        }
+
+        int[] top = topRegions(regionSimilarities, 3);
+
+        // 设置 Top-1 预测结果
+        Integer topRegion = index.regionId(top[0]);
+        if (topRegion != null) {
+            response.setRegionTop1(topRegion);
+            log.debug("Top-1 预测区域: {}, 相似度: {}", topRegion, regionSimilarities[top[0]]);
+        } else {
+            log.warn("区域名称无法转换为整数: {}", index.regionName(top[0]));
+        }
+
+        // 设置 Top-3 预测结果
+        List<PredictResponse.RegionScore> top3List = new ArrayList<>();
+        for (int region : top) {
+            Integer regionId = index.regionId(region);
+            if (regionId != null) {
+                top3List.add(new PredictResponse.RegionScore(regionId, regionSimilarities[region]));
+            } else {
+                log.warn("区域名称无法转换为整数: {}", index.regionName(region));
+            }
+        }
+        response.setRegionTop3(top3List);
+
+        if (log.isDebugEnabled()) {
+            log.debug("KNN 预测完成，Top-1: {}, Top-3: {}",
+                    response.getRegionTop1(),
+                    top3List.stream().map(rs -> rs.getRegionId() + "(" + String.format("%.3f", rs.getScore()) + ")").collect(Collectors.joining(", ")));
+        }
+
+        return response;
+    }
+
+    /**
+     * 取得分最高的至多 k 个下标（从高到低），NaN 不参与
+     */
+    private static int[] topRegions(double[] values, int k) {
+        int[] top = new int[Math.min(k, values.length)];
+        int size = 0;
+        for (int r = 0; r < values.length; r++) {
+            double v = values[r];
+            if (Double.isNaN(v)) {
+                continue;
+            }
+            if (size < top.length) {
+                size++;
+            } else if (v <= values[top[size - 1]]) {
+                continue;
+            }
+            // 插入到有序位置
+            int j = size - 1;
+            while (j > 0 && values[top[j - 1]] < v) {
+                top[j] = top[j - 1];
+                j--;
+            }
+            top[j] = r;
+        }
+        return Arrays.copyOf(top, size);
+    }
+}
@@ -0,0 +1,134 @@
+package com.gyq.ble.service;
+
+import com.gyq.ble.index.Projection;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * KNN 低维投影预筛
+ *
+ * 信标列很多（密集勘测）时每个样本一次全维距离代价较高。按数据集快照在后台拟合 PCA（或随机投影），
+ * 样本投影到 dimensions 维后保存；查询时先在低维空间取最近的 shortlist 个候选，再由 KnnService 在原空间精确重排。
+ * 投影与数据集版本绑定，版本变化后重新拟合，完成前 KNN 不使用投影。
+ */
+@Slf4j
+@Service
+public class ProjectionService {
+
+    @Value("${projection.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * pca 或 random
+     */
+    @Value("${projection.method:pca}")
+    private String method;
+
+    /**
+     * 投影维数
+     */
+    @Value("${projection.dimensions:32}")
+    private int dimensions;
+
+    /**
+     * 低维空间中保留、交给原空间精确重排的候选数（不少于 K 的 4 倍）
+     */
+    @Value("${projection.shortlist:64}")
+    private int shortlist;
+
+    @Autowired
+    private DatasetService datasetService;
+
+    @Autowired
+    private PipelineMetrics metrics;
+
+    private volatile Fitted fitted;
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private final ExecutorService fitter = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "projection-fit");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 某个数据集版本上拟合的投影
+     */
+    private record Fitted(long version, Projection projection) {
+    }
+
+    @PostConstruct
+    public void init() {
+        metrics.gauge("ble.projection.version", "KNN 投影对应的数据集版本号，未拟合为 -1", () -> {
+            Fitted current = fitted;
+            return current == null ? -1 : current.version();
+        });
+        if (enabled) {
+            schedule();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        fitter.shutdownNow();
+    }
+
+    /**
+     * 在低维空间中预筛候选
+     *
+     * @param candidates 已有的候选（签名 / 分区），null 表示全部样本
+     * @return 交给精确重排的候选下标；未启用、投影尚未拟合到该版本或候选本来就不多时原样返回 candidates
+     */
+    public int[] shortlist(DatasetService.Snapshot data, double[] input, int[] candidates, int k) {
+        if (!enabled) {
+            return candidates;
+        }
+        Fitted current = fitted;
+        if (current == null || current.version() != data.version()) {
+            schedule();
+            metrics.increment("projection.pending");
+            return candidates;
+        }
+        int limit = Math.max(shortlist, 4 * k);
+        int n = candidates == null ? data.labels().size() : candidates.length;
+        if (n <= limit) {
+            return candidates;
+        }
+        metrics.increment("projection.hit");
+        Projection projection = current.projection();
+        return projection.nearest(projection.project(input), candidates, limit);
+    }
+
+    private void schedule() {
+        if (!scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        fitter.execute(() -> {
+            try (DatasetService.Snapshot data = datasetService.acquire()) {
+                Fitted current = fitted;
+                if (!data.labels().isEmpty() && (current == null || current.version() != data.version())) {
+                    long start = System.nanoTime();
+                    Projection projection = Projection.fit(data.vectors(), dimensions, method, data.version());
+                    fitted = new Fitted(data.version(), projection);
+                    metrics.increment("projection.fit");
+                    log.info("KNN 投影拟合完成（{}），数据集版本: {}, {} 列 -> {} 维, 样本数: {}, 耗时: {}ms", method,
+                            data.version(), data.beaconColumns().size(), projection.dimensions(), projection.size(),
+                            (System.nanoTime() - start) / 1_000_000);
+                }
+            } catch (Exception e) {
+                log.error("KNN 投影拟合失败，继续不使用投影", e);
+            } finally {
+                scheduled.set(false);
+            }
+        });
+    }
+}
@@ -0,0 +1,182 @@
+package com.gyq.ble.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gyq.ble.index.FingerprintIndex;
+import com.gyq.ble.index.RegionGraph;
+import com.gyq.ble.model.PredictResponse;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 区域跟踪服务
+ *
+ * 记录每个设备最近一次预测的区域。设备再次预测时只对上次区域 k 跳邻域内的指纹打分，
+ * 局部最高分低于阈值时（可能跟丢或图不完整）再回退到全局搜索。
+ * 邻接图从配置文件加载，文件被修改后自动重新加载；未配置图时始终全局搜索。
+ */
+@Slf4j
+@Service
+public class RegionTrackingService {
+
+    private static final long FILE_CHECK_INTERVAL_MS = 1000;
+
+    @Value("${tracking.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 邻接图文件
+     */
+    @Value("${tracking.graph-file:data/region_graph.json}")
+    private String graphFile;
+
+    /**
+     * 搜索上次区域的几跳邻域
+     */
+    @Value("${tracking.hops:1}")
+    private int hops;
+
+    /**
+     * 局部最高分低于该值时回退全局搜索
+     */
+    @Value("${tracking.min-score:0.998}")
+    private double minScore;
+
+    /**
+     * 设备多久没有预测后不再使用其历史区域（秒）
+     */
+    @Value("${tracking.ttl-seconds:600}")
+    private long ttlSeconds;
+
+    @Value("${tracking.max-devices:100000}")
+    private int maxDevices;
+
+    @Autowired
+    private PipelineMetrics metrics;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final ConcurrentHashMap<String, Track> tracks = new ConcurrentHashMap<>();
+
+    /**
+     * 上次区域 -> 邻域内的区域下标，随索引数据变化失效
+     */
+    private final ConcurrentHashMap<String, int[]> candidateCache = new ConcurrentHashMap<>();
+    private volatile FingerprintIndex cachedIndex;
+
+    private volatile RegionGraph graph = RegionGraph.EMPTY;
+    private volatile long graphModified;
+    private volatile long lastFileCheck;
+
+    @PostConstruct
+    public void init() {
+        loadGraph();
+        metrics.gauge("ble.tracking.devices", "跟踪中的设备数", tracks::size);
+        metrics.gauge("ble.tracking.regions", "邻接图中的区域数", () -> graph.size());
+    }
+
+    /**
+     * 设备本次需要打分的区域下标（FingerprintIndex 中的区域槽位）
+     *
+     * @return null 表示全局搜索（未开启、无邻接图、设备无历史或历史已过期）
+     */
+    public int[] candidateRegions(String deviceId, FingerprintIndex index) {
+        if (!enabled || deviceId == null || deviceId.isEmpty()) {
+            return null;
+        }
+        RegionGraph current = graph();
+        if (current.isEmpty()) {
+            return null;
+        }
+        Track track = tracks.get(deviceId);
+        if (track == null || System.currentTimeMillis() - track.timestamp > ttlSeconds * 1000) {
+            return null;
+        }
+        Set<String> neighbourhood = current.neighbourhood(track.region, hops);
+        if (neighbourhood == null) {
+            return null;
+        }
+        if (!index.sameData(cachedIndex)) {
+            candidateCache.clear();
+            cachedIndex = index;
+        }
+        return candidateCache.computeIfAbsent(track.region, r -> slots(index, neighbourhood));
+    }
+
+    /**
+     * 局部搜索的最低可接受分数
+     */
+    public double minScore() {
+        return minScore;
+    }
+
+    /**
+     * 记录设备本次预测的区域
+     */
+    public void update(String deviceId, PredictResponse response) {
+        if (!enabled || deviceId == null || deviceId.isEmpty() || response.getRegionTop1() == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (tracks.size() >= maxDevices && !tracks.containsKey(deviceId)) {
+            tracks.values().removeIf(t -> now - t.timestamp > ttlSeconds * 1000);
+            if (tracks.size() >= maxDevices) {
+                metrics.increment("tracking.rejected");
+                return;
+            }
+        }
+        tracks.put(deviceId, new Track(String.valueOf(response.getRegionTop1()), now));
+    }
+
+    private static int[] slots(FingerprintIndex index, Set<String> regions) {
+        return regions.stream()
+                .mapToInt(index::regionSlot)
+                .filter(slot -> slot >= 0)
+                .sorted()
+                .toArray();
+    }
+
+    private RegionGraph graph() {
+        long now = System.currentTimeMillis();
+        if (now - lastFileCheck >= FILE_CHECK_INTERVAL_MS) {
+            lastFileCheck = now;
+            if (new File(graphFile).lastModified() != graphModified) {
+                loadGraph();
+            }
+        }
+        return graph;
+    }
+
+    private synchronized void loadGraph() {
+        File file = new File(graphFile);
+        long modified = file.lastModified();
+        if (!file.exists()) {
+            graph = RegionGraph.EMPTY;
+            graphModified = modified;
+            return;
+        }
+        try {
+            Map<String, List<Object>> edges = objectMapper.readValue(file, new TypeReference<Map<String, List<Object>>>() {});
+            graph = RegionGraph.of(edges);
+            candidateCache.clear();
+            graphModified = modified;
+            log.info("区域邻接图加载完成: {}, 区域数: {}", file.getPath(), graph.size());
+        } catch (IOException e) {
+            log.error("加载区域邻接图失败: {}", e.getMessage());
+            graphModified = modified;
+        }
+    }
+
+    private record Track(String region, long timestamp) {
+    }
+}
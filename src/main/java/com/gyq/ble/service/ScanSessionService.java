@@ -0,0 +1,398 @@
+package com.gyq.ble.service;
+
+import com.gyq.ble.index.BeaconDictionary;
+import com.gyq.ble.index.FingerprintIndex;
+import com.gyq.ble.index.ScanBuffer;
+import com.gyq.ble.index.SimilarityMetric;
+import com.gyq.ble.model.BeaconReading;
+import com.gyq.ble.model.PredictResponse;
+import com.gyq.ble.model.ScanDelta;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 增量扫描会话服务
+ *
+ * 同一部手机连续两次扫描通常只差几个信标。会话保存当前扫描以及每个指纹在共同信标上的
+ * 部分点积 / 两侧平方和 / 共同信标数，客户端只发送新增、变化、消失的信标，
+ * 服务端通过倒排表只更新包含这些信标的指纹，不再对整个指纹库重新计算。
+ *
+ * 会话保存原始读数，RSSI 过滤区间与最少共同信标数取自 TuningService；调参变化时从头重算。
+ * 部分和只适用于余弦相似度，其他度量对会话的当前扫描逐个指纹完整打分。
+ *
+ * 空闲超过 TTL 的会话被清理；会话总数或估算内存超过上限时淘汰最久未使用的会话。
+ */
+@Slf4j
+@Service
+public class ScanSessionService {
+
+    /**
+     * 空闲超时（秒）
+     */
+    @Value("${session.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    /**
+     * 最大会话数
+     */
+    @Value("${session.max-sessions:10000}")
+    private int maxSessions;
+
+    /**
+     * 会话状态占用内存上限（MB，按数组大小估算）
+     */
+    @Value("${session.max-memory-mb:256}")
+    private long maxMemoryMb;
+
+    /**
+     * 累计应用多少次增量后从头重算一次，消除浮点累积误差
+     */
+    @Value("${session.refresh-every:64}")
+    private int refreshEvery;
+
+    @Autowired
+    private FingerprintIndexService fingerprintIndexService;
+
+    @Autowired
+    private PredictService predictService;
+
+    @Autowired
+    private TuningService tuningService;
+
+    @Autowired
+    private PipelineMetrics metrics;
+
+    /**
+     * 按访问顺序排列，队首为最久未使用的会话；所有访问在 synchronized (sessions) 内完成
+     */
+    private final LinkedHashMap<String, Session> sessions = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private ScheduledExecutorService sweeper;
+
+    public ScanSessionService() {
+    }
+
+    /**
+     * 不经 Spring 直接构造（单元测试），调用方负责 {@link #shutdown()}
+     */
+    ScanSessionService(long ttlSeconds, int maxSessions, long maxMemoryMb, int refreshEvery,
+                       FingerprintIndexService fingerprintIndexService, PredictService predictService,
+                       TuningService tuningService, PipelineMetrics metrics) {
+        this.ttlSeconds = ttlSeconds;
+        this.maxSessions = maxSessions;
+        this.maxMemoryMb = maxMemoryMb;
+        this.refreshEvery = refreshEvery;
+        this.fingerprintIndexService = fingerprintIndexService;
+        this.predictService = predictService;
+        this.tuningService = tuningService;
+        this.metrics = metrics;
+        init();
+    }
+
+    @PostConstruct
+    public void init() {
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "scan-session-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1, ttlSeconds / 4);
+        sweeper.scheduleAtFixedRate(this::evictExpired, period, period, TimeUnit.SECONDS);
+        metrics.gauge("ble.session.count", "增量扫描会话数", this::size);
+        metrics.gauge("ble.session.bytes", "增量扫描会话估算内存（字节）", this::bytes);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sweeper.shutdownNow();
+    }
+
+    /**
+     * 应用一次增量扫描并返回预测结果
+     *
+     * @return 会话不存在（已过期或被淘汰）且本次不是 reset 时返回 null，客户端应携带 reset 重发完整扫描
+     */
+    public PredictResponse apply(String sessionId, ScanDelta delta) {
+        long begin = metrics.start();
+        boolean reset = Boolean.TRUE.equals(delta.getReset());
+        FingerprintIndex index = fingerprintIndexService.current();
+        TuningService.Settings settings = tuningService.current();
+
+        Session session;
+        synchronized (sessions) {
+            session = sessions.get(sessionId);
+            if (session == null) {
+                if (!reset) {
+                    metrics.increment("session.missing");
+                    return null;
+                }
+                session = new Session(sessionId);
+                sessions.put(sessionId, session);
+                metrics.increment("session.created");
+            }
+            session.lastAccess = System.currentTimeMillis();
+        }
+
+        PredictResponse response;
+        synchronized (session) {
+            long t = metrics.start();
+            if (reset) {
+                session.beacons.clear();
+            }
+            boolean cosine = settings.metric() == SimilarityMetric.COSINE;
+            if (reset || !index.sameData(session.index) || !settings.equals(session.settings)
+                    || session.deltas >= refreshEvery || !cosine) {
+                // 首次、指纹库或调参已变化、到达重算周期：先按新增量更新当前扫描，再从头计算
+                applyReadings(session, delta, index.getDictionary(), null);
+                resize(session, index);
+                session.settings = settings;
+                if (cosine) {
+                    session.recompute(index);
+                } else {
+                    session.index = index;
+                }
+            } else {
+                session.index = index;
+                applyReadings(session, delta, index.getDictionary(), index);
+                session.deltas++;
+            }
+            t = metrics.stage(PipelineMetrics.SESSION, "apply", t);
+            double[] scores = cosine ? session.scores() : session.fullScores(index);
+            metrics.stage(PipelineMetrics.SESSION, "score", t);
+            response = predictService.predict(index, scores, PipelineMetrics.SESSION);
+        }
+        enforceLimits();
+        metrics.stage(PipelineMetrics.SESSION, "total", begin);
+        return response;
+    }
+
+    /**
+     * 关闭会话
+     */
+    public boolean remove(String sessionId) {
+        synchronized (sessions) {
+            Session session = sessions.remove(sessionId);
+            if (session == null) {
+                return false;
+            }
+            totalBytes -= session.bytes;
+            return true;
+        }
+    }
+
+    public int size() {
+        synchronized (sessions) {
+            return sessions.size();
+        }
+    }
+
+    public long bytes() {
+        synchronized (sessions) {
+            return totalBytes;
+        }
+    }
+
+    /**
+     * 把增量应用到会话的当前扫描；index 不为 null 时同时增量更新部分和
+     */
+    private void applyReadings(Session session, ScanDelta delta, BeaconDictionary dictionary, FingerprintIndex index) {
+        if (delta.getRemove() != null) {
+            for (BeaconReading reading : delta.getRemove()) {
+                int id = resolve(reading, dictionary);
+                if (id >= 0) {
+                    session.set(id, null, index);
+                }
+            }
+        }
+        if (delta.getUpsert() != null) {
+            for (BeaconReading reading : delta.getUpsert()) {
+                int id = resolve(reading, dictionary);
+                if (id < 0 || reading.getRssi() == null) {
+                    continue;
+                }
+                // 保存原始读数，过滤区间在参与打分时按会话当前的调参判断
+                session.set(id, (double) reading.getRssi(), index);
+            }
+        }
+    }
+
+    private static int resolve(BeaconReading reading, BeaconDictionary dictionary) {
+        if (reading.getUuid() == null || reading.getMajor() == null || reading.getMinor() == null) {
+            return -1;
+        }
+        return dictionary.lookup(reading.getUuid(), reading.getMajor(), reading.getMinor());
+    }
+
+    /**
+     * 指纹数变化时重新分配部分和数组并更新内存占用
+     */
+    private void resize(Session session, FingerprintIndex index) {
+        long before = session.bytes;
+        session.allocate(index.size());
+        synchronized (sessions) {
+            if (sessions.get(session.id) == session) {
+                totalBytes += session.bytes - before;
+            }
+        }
+    }
+
+    /**
+     * 会话数或内存超限时淘汰最久未使用的会话
+     */
+    private void enforceLimits() {
+        long maxBytes = maxMemoryMb * 1024 * 1024;
+        synchronized (sessions) {
+            Iterator<Session> it = sessions.values().iterator();
+            while ((sessions.size() > maxSessions || totalBytes > maxBytes) && sessions.size() > 1 && it.hasNext()) {
+                Session eldest = it.next();
+                it.remove();
+                totalBytes -= eldest.bytes;
+                metrics.increment("session.evicted.capacity");
+            }
+        }
+    }
+
+    private void evictExpired() {
+        long deadline = System.currentTimeMillis() - ttlSeconds * 1000;
+        int evicted = 0;
+        synchronized (sessions) {
+            Iterator<Session> it = sessions.values().iterator();
+            while (it.hasNext()) {
+                Session session = it.next();
+                if (session.lastAccess < deadline) {
+                    it.remove();
+                    totalBytes -= session.bytes;
+                    evicted++;
+                }
+            }
+        }
+        if (evicted > 0) {
+            log.debug("清理过期扫描会话: {}", evicted);
+            for (int i = 0; i < evicted; i++) {
+                metrics.increment("session.evicted.ttl");
+            }
+        }
+    }
+
+    /**
+     * 单个会话：当前扫描 + 每个指纹的部分和
+     */
+    private static final class Session {
+        private final String id;
+        private final Map<Integer, Double> beacons = new HashMap<>();
+        private FingerprintIndex index;
+        private TuningService.Settings settings;
+        private double[] dot = new double[0];
+        private double[] nx = new double[0];
+        private double[] ny = new double[0];
+        private int[] common = new int[0];
+        private double[] scores = new double[0];
+        private int deltas;
+        private long bytes;
+        private volatile long lastAccess;
+
+        Session(String id) {
+            this.id = id;
+        }
+
+        void allocate(int n) {
+            if (dot.length != n) {
+                dot = new double[n];
+                nx = new double[n];
+                ny = new double[n];
+                common = new int[n];
+                scores = new double[n];
+            }
+            // 4 个 double 数组 + 1 个 int 数组，另计当前扫描的装箱开销
+            bytes = n * 36L + beacons.size() * 64L + 256;
+        }
+
+        /**
+         * 设置信标的 RSSI（null 表示消失），index 不为 null 时沿倒排表更新部分和；
+         * 过滤区间外的读数保留在当前扫描中但不参与打分（与完整扫描一致，视为信标消失）
+         */
+        void set(int beacon, Double value, FingerprintIndex index) {
+            Double old = value == null ? beacons.remove(beacon) : beacons.put(beacon, value);
+            if (index == null || Objects.equals(old, value)) {
+                return;
+            }
+            if (old != null && settings.accepts(old)) {
+                update(index, beacon, old, -1);
+            }
+            if (value != null && settings.accepts(value)) {
+                update(index, beacon, value, 1);
+            }
+        }
+
+        private void update(FingerprintIndex index, int beacon, double x, int sign) {
+            for (int p = index.postingStart(beacon), end = index.postingEnd(beacon); p < end; p++) {
+                int f = index.postingFingerprint(p);
+                double y = index.postingValue(p);
+                dot[f] += sign * x * y;
+                nx[f] += sign * x * x;
+                ny[f] += sign * y * y;
+                common[f] += sign;
+            }
+        }
+
+        /**
+         * 按当前扫描从头计算部分和
+         */
+        void recompute(FingerprintIndex index) {
+            this.index = index;
+            Arrays.fill(dot, 0);
+            Arrays.fill(nx, 0);
+            Arrays.fill(ny, 0);
+            Arrays.fill(common, 0);
+            for (Map.Entry<Integer, Double> e : beacons.entrySet()) {
+                if (settings.accepts(e.getValue())) {
+                    update(index, e.getKey(), e.getValue(), 1);
+                }
+            }
+            deltas = 0;
+        }
+
+        /**
+         * 余弦相似度，共同信标不足时为 NaN（与 FingerprintIndex.cosine 一致）
+         */
+        double[] scores() {
+            for (int f = 0; f < scores.length; f++) {
+                if (common[f] < settings.minCommon()) {
+                    scores[f] = Double.NaN;
+                } else if (nx[f] <= 0 || ny[f] <= 0) {
+                    scores[f] = 0.0;
+                } else {
+                    scores[f] = dot[f] / (Math.sqrt(nx[f]) * Math.sqrt(ny[f]));
+                }
+            }
+            return scores;
+        }
+
+        /**
+         * 非余弦度量：把当前扫描放入 ScanBuffer，对每个指纹按调参的度量完整打分
+         */
+        double[] fullScores(FingerprintIndex index) {
+            ScanBuffer scan = ScanBuffer.create(index.getDictionary());
+            for (Map.Entry<Integer, Double> e : beacons.entrySet()) {
+                if (settings.accepts(e.getValue())) {
+                    scan.add(e.getKey(), e.getValue());
+                }
+            }
+            scan.seal();
+            for (int f = 0; f < scores.length; f++) {
+                scores[f] = index.score(f, scan, settings.metric(), settings.minCommon());
+            }
+            return scores;
+        }
+    }
+}
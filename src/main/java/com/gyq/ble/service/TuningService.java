@@ -0,0 +1,145 @@
+package com.gyq.ble.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gyq.ble.index.FingerprintIndex;
+import com.gyq.ble.index.SimilarityMetric;
+import com.gyq.ble.model.TuningProfile;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 可调参数：KNN 的 K、指纹打分指标、RSSI 过滤区间、最少共同信标数、addData 出现次数阈值
+ *
+ * 默认值来自 application.yml；调参配置文件（tool/Tuner 生成）存在时覆盖其中给出的字段。
+ * 文件修改后自动重新加载（每秒至多检查一次修改时间），/api/reload 也会重新加载；
+ * 校验失败时继续使用旧配置。读方拿到的是不可变快照，一次请求内参数保持一致。
+ */
+@Slf4j
+@Service
+public class TuningService {
+
+    /**
+     * 检查文件修改时间的最小间隔（毫秒）
+     */
+    private static final long FILE_CHECK_INTERVAL_MS = 1000;
+
+    @Value("${tuning.profile-file:data/tuning_profile.json}")
+    private String profileFile;
+
+    @Value("${knn.k:5}")
+    private int k;
+
+    @Value("${tuning.metric:cosine}")
+    private String metric;
+
+    @Value("${tuning.rssi-min:-85}")
+    private int rssiMin;
+
+    @Value("${tuning.rssi-max:0}")
+    private int rssiMax;
+
+    @Value("${tuning.min-common:" + FingerprintIndex.MIN_COMMON + "}")
+    private int minCommon;
+
+    @Value("${tuning.min-occurrences:5}")
+    private int minOccurrences;
+
+    @Autowired
+    private PipelineMetrics metrics;
+
+    private volatile Settings settings;
+    private volatile long loadedModified;
+    private volatile long lastFileCheck;
+
+    /**
+     * 生效的参数
+     */
+    public record Settings(int k, SimilarityMetric metric, int rssiMin, int rssiMax, int minCommon, int minOccurrences) {
+
+        /**
+         * RSSI 是否在过滤区间 (rssiMin, rssiMax) 内
+         */
+        public boolean accepts(double rssi) {
+            return rssi > rssiMin && rssi < rssiMax;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        settings = validate(new Settings(k, SimilarityMetric.of(metric), rssiMin, rssiMax, minCommon, minOccurrences));
+        try {
+            reload();
+        } catch (Exception e) {
+            log.error("加载调参配置失败，使用默认参数: {}", profileFile, e);
+        }
+    }
+
+    /**
+     * 当前参数；配置文件被修改时先重新加载
+     */
+    public Settings current() {
+        long now = System.currentTimeMillis();
+        if (now - lastFileCheck >= FILE_CHECK_INTERVAL_MS) {
+            lastFileCheck = now;
+            if (new File(profileFile).lastModified() != loadedModified) {
+                try {
+                    reload();
+                } catch (Exception e) {
+                    log.error("重新加载调参配置失败，继续使用旧参数: {}", profileFile, e);
+                }
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * 重新读取配置文件；文件不存在时恢复默认值，读取或校验失败时保留旧参数并抛出异常
+     */
+    public synchronized Settings reload() throws IOException {
+        File file = new File(profileFile);
+        long modified = file.lastModified();
+        Settings defaults = new Settings(k, SimilarityMetric.of(metric), rssiMin, rssiMax, minCommon, minOccurrences);
+        Settings loaded;
+        try {
+            loaded = file.exists() ? validate(merge(defaults, new ObjectMapper().readValue(file, TuningProfile.class))) : defaults;
+        } catch (IOException | IllegalArgumentException e) {
+            // 同一个无效文件不重复加载
+            loadedModified = modified;
+            metrics.increment("tuning.reload.failed");
+            throw e;
+        }
+        loadedModified = modified;
+        if (!loaded.equals(settings)) {
+            log.info("调参配置生效: {}", loaded);
+            metrics.increment("tuning.reload");
+        }
+        settings = loaded;
+        return loaded;
+    }
+
+    private static Settings merge(Settings defaults, TuningProfile profile) {
+        return new Settings(
+                profile.getK() != null ? profile.getK() : defaults.k(),
+                profile.getMetric() != null ? SimilarityMetric.of(profile.getMetric()) : defaults.metric(),
+                profile.getRssiMin() != null ? profile.getRssiMin() : defaults.rssiMin(),
+                profile.getRssiMax() != null ? profile.getRssiMax() : defaults.rssiMax(),
+                profile.getMinCommon() != null ? profile.getMinCommon() : defaults.minCommon(),
+                profile.getMinOccurrences() != null ? profile.getMinOccurrences() : defaults.minOccurrences());
+    }
+
+    /**
+     * 校验：K 与最少共同信标数为正，过滤区间非空且不高于 0，出现次数阈值不为负
+     */
+    private static Settings validate(Settings s) {
+        if (s.k() < 1 || s.minCommon() < 1 || s.minOccurrences() < 0 || s.rssiMin() >= s.rssiMax() || s.rssiMax() > 0) {
+            throw new IllegalArgumentException("调参配置无效: " + s);
+        }
+        return s;
+    }
+}
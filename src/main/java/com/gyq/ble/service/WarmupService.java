@@ -0,0 +1,235 @@
+package com.gyq.ble.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gyq.ble.index.BeaconDictionary;
+import com.gyq.ble.index.FingerprintIndex;
+import com.gyq.ble.index.ScanBuffer;
+import com.gyq.ble.model.BeaconReading;
+import com.gyq.ble.model.KnnPredictPayload;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 启动预热
+ *
+ * 部署后的前几千次预测在解释执行与 JIT 编译期间慢数倍。启动完成前（ApplicationRunner 在
+ * Spring Boot 发布 ACCEPTING_TRAFFIC 之前执行）从已加载的指纹和数据集样本生成带噪声的合成扫描，
+ * 走真实的请求解析（ScanDeserializer）、打分代码（PredictService 与 KnnService）和响应序列化，
+ * 直到每轮平均耗时稳定或超出时间预算；
+ * 期间就绪探针（/actuator/health/readiness、/api/ready）返回未就绪。
+ * 预热结束后清零其产生的阶段耗时与计数器指标。
+ */
+@Slf4j
+@Service
+public class WarmupService implements ApplicationRunner {
+
+    @Value("${warmup.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 预热时间预算（秒）
+     */
+    @Value("${warmup.max-seconds:30}")
+    private int maxSeconds;
+
+    /**
+     * 每轮预测次数
+     */
+    @Value("${warmup.batch:500}")
+    private int batch;
+
+    /**
+     * 相邻两轮平均耗时的相对变化不超过该值视为稳定
+     */
+    @Value("${warmup.tolerance:0.1}")
+    private double tolerance;
+
+    /**
+     * 连续稳定多少轮后结束
+     */
+    @Value("${warmup.stable-rounds:3}")
+    private int stableRounds;
+
+    /**
+     * 合成扫描的 RSSI 噪声标准差（dB）
+     */
+    @Value("${warmup.noise:3}")
+    private double noise;
+
+    @Autowired
+    private FingerprintIndexService fingerprintIndexService;
+
+    @Autowired
+    private DatasetService datasetService;
+
+    @Autowired
+    private PredictService predictService;
+
+    @Autowired
+    private KnnService knnService;
+
+    @Autowired
+    private TuningService tuningService;
+
+    @Autowired
+    private PipelineMetrics metrics;
+
+    /**
+     * Spring 配置的 ObjectMapper（已注册 ScanDeserializer）
+     */
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private volatile String state = "running";
+    private volatile long predictions;
+    private volatile long millis;
+    private volatile double lastMicros;
+
+    @Override
+    public void run(ApplicationArguments args) throws IOException {
+        if (!enabled) {
+            state = "disabled";
+            return;
+        }
+        FingerprintIndex index = fingerprintIndexService.current();
+        DatasetService.Snapshot data = datasetService.snapshot();
+        if (index.size() == 0 && data.labels().isEmpty()) {
+            state = "empty";
+            return;
+        }
+        Random random = new Random(42);
+        List<byte[]> bodies = bodies(index, random);
+        List<KnnPredictPayload> knnQueries;
+        try (DatasetService.Snapshot samples = datasetService.acquire()) {
+            knnQueries = knnQueries(samples, random);
+        }
+        long begin = System.nanoTime();
+        long deadline = begin + maxSeconds * 1_000_000_000L;
+        double previous = Double.NaN;
+        int stable = 0;
+        int rounds = 0;
+        String result = "budget";
+        while (System.nanoTime() < deadline) {
+            long start = System.nanoTime();
+            for (int q = 0; q < batch; q++) {
+                if (!bodies.isEmpty()) {
+                    ScanBuffer scan = objectMapper.readValue(bodies.get(random.nextInt(bodies.size())), ScanBuffer.class);
+                    objectMapper.writeValueAsBytes(predictService.predict(scan, null));
+                }
+                if (!knnQueries.isEmpty() && q % 50 == 0) {
+                    knnService.predict(knnQueries.get(random.nextInt(knnQueries.size())));
+                }
+            }
+            double micros = (System.nanoTime() - start) / 1000.0 / batch;
+            rounds++;
+            predictions += batch;
+            lastMicros = micros;
+            stable = !Double.isNaN(previous) && Math.abs(micros - previous) <= tolerance * previous ? stable + 1 : 0;
+            previous = micros;
+            if (stable >= stableRounds) {
+                result = "stable";
+                break;
+            }
+        }
+        millis = (System.nanoTime() - begin) / 1_000_000;
+        metrics.reset();
+        state = result;
+        log.info("预热完成（{}），轮数: {}, 预测次数: {}, 耗时: {}ms, 最后一轮平均: {}µs",
+                result, rounds, predictions, millis, String.format("%.1f", lastMicros));
+    }
+
+    /**
+     * 从指纹库随机取点位生成预测请求体（至多 1024 个）：加高斯噪声并按当前调参的 RSSI 区间过滤；
+     * 过滤后信标数不足最少共同信标数的请求体丢弃，避免预热时每次预测都打印“无相似度数据”的告警
+     */
+    private List<byte[]> bodies(FingerprintIndex index, Random random) {
+        List<byte[]> bodies = new ArrayList<>();
+        BeaconDictionary dictionary = index.getDictionary();
+        TuningService.Settings settings = tuningService.current();
+        for (int q = 0; q < Math.min(index.size(), 1024); q++) {
+            int source = random.nextInt(index.size());
+            int[] ids = index.ids(source);
+            double[] values = index.values(source);
+            StringBuilder body = new StringBuilder("{\"beacons\":[");
+            int kept = 0;
+            for (int j = 0; j < ids.length; j++) {
+                int rssi = (int) Math.round(values[j] + random.nextGaussian() * noise);
+                if (!settings.accepts(rssi)) {
+                    continue;
+                }
+                if (body.charAt(body.length() - 1) != '[') {
+                    body.append(',');
+                }
+                body.append("{\"uuid\":\"").append(dictionary.uuidOf(ids[j]))
+                        .append("\",\"major\":").append(dictionary.majorOf(ids[j]))
+                        .append(",\"minor\":").append(dictionary.minorOf(ids[j]))
+                        .append(",\"rssi\":").append(rssi).append('}');
+                kept++;
+            }
+            if (kept < settings.minCommon()) {
+                continue;
+            }
+            bodies.add(body.append("]}").toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return bodies;
+    }
+
+    /**
+     * 从数据集样本生成 KNN 查询（至多 256 个）
+     */
+    private List<KnnPredictPayload> knnQueries(DatasetService.Snapshot data, Random random) {
+        List<KnnPredictPayload> queries = new ArrayList<>();
+        int n = data.labels().size();
+        List<String> columns = data.beaconColumns();
+        for (int q = 0; q < Math.min(n, 256); q++) {
+            int sample = random.nextInt(n);
+            double[] vector = data.vectors().get(sample);
+            List<BeaconReading> beacons = new ArrayList<>();
+            for (int c = 0; c < vector.length; c++) {
+                if (vector[c] <= -100.0) {
+                    continue;
+                }
+                // 信标列名为 uuid-major-minor，UUID 本身含 '-'
+                String column = columns.get(c);
+                int minorStart = column.lastIndexOf('-');
+                int majorStart = column.lastIndexOf('-', minorStart - 1);
+                try {
+                    beacons.add(new BeaconReading(column.substring(0, majorStart),
+                            Integer.parseInt(column.substring(majorStart + 1, minorStart)),
+                            Integer.parseInt(column.substring(minorStart + 1)),
+                            (int) Math.round(vector[c] + random.nextGaussian() * noise)));
+                } catch (RuntimeException e) {
+                    // 列名格式不符的信标不参与预热
+                }
+            }
+            queries.add(new KnnPredictPayload(data.meta().get(sample).getDevice(), null, null, beacons));
+        }
+        return queries;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public long getPredictions() {
+        return predictions;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    public double getLastMicros() {
+        return lastMicros;
+    }
+}
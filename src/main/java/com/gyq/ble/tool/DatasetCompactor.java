@@ -0,0 +1,319 @@
+package com.gyq.ble.tool;
+
+import ch.qos.logback.classic.Level;
+import com.gyq.ble.model.PredictResponse;
+import com.gyq.ble.model.SampleMeta;
+import com.gyq.ble.service.DatasetService;
+import com.gyq.ble.service.KnnService;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * 数据集压缩：按区域聚类，每个区域只保留至多 --per-region 个带权重的代表样本
+ *
+ * 同一区域内的样本在 k-means（k-means++ 初始化）下聚成至多 per-region 簇，每簇输出一个代表样本，
+ * 权重为簇内原始样本的权重和（原始样本为 1）。代表样本的取法（--method）：
+ * <ul>
+ *   <li>medoid（默认）：离簇质心最近的真实样本，向量与元数据都来自该样本</li>
+ *   <li>centroid：簇质心；簇内多数样本扫到的信标取扫到值的加权均值，其余为填充值，元数据取离质心最近的样本</li>
+ * </ul>
+ * 样本数不超过 per-region 的区域原样保留。原始数据集不修改，可随时换参数重新压缩；
+ * 服务端设置 dataset.compacted=true 后加载压缩文件，KNN 投票按权重累加。
+ *
+ * 写出前先做 --folds 折交叉验证（1 表示跳过）：每折只压缩训练部分，用测试部分的原始样本分别查询原始训练集和压缩训练集，
+ * 报告 Top-1 / Top-3 准确率的变化与单次查询耗时。
+ *
+ * 用法：
+ * <pre>
+ * java -cp ... com.gyq.ble.tool.DatasetCompactor --input qqqq.csv --output qqqq.compact.csv --per-region 10 --method medoid
+ * </pre>
+ *
+ * 其他参数：--iterations（k-means 最大迭代次数，默认 20）、--k（评估时 KNN 的 K，默认 5）、--max-queries（评估查询数上限，默认 2000）、--seed（默认 42）
+ */
+public class DatasetCompactor {
+
+    private static final double RSSI_PAD = -100.0;
+
+    public static void main(String[] args) throws Exception {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.ERROR);
+        Map<String, String> options = LoadGenerator.parseArgs(args);
+        File input = new File(options.getOrDefault("input", "qqqq.csv"));
+        File output = new File(options.getOrDefault("output", "qqqq.compact.csv"));
+        int perRegion = Integer.parseInt(options.getOrDefault("per-region", "10"));
+        String method = options.getOrDefault("method", "medoid");
+        int iterations = Integer.parseInt(options.getOrDefault("iterations", "20"));
+        int folds = Integer.parseInt(options.getOrDefault("folds", "5"));
+        int k = Integer.parseInt(options.getOrDefault("k", "5"));
+        int maxQueries = Integer.parseInt(options.getOrDefault("max-queries", "2000"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        if (!method.equals("medoid") && !method.equals("centroid")) {
+            System.out.println("--method 只支持 medoid / centroid");
+            return;
+        }
+        if (perRegion < 1) {
+            System.out.println("--per-region 至少为 1");
+            return;
+        }
+
+        DatasetService.Snapshot raw = input.exists() ? DatasetService.read(input, 0) : null;
+        if (raw == null || raw.labels().isEmpty()) {
+            System.out.println("数据集为空或不存在: " + input.getPath());
+            return;
+        }
+        System.out.printf("数据集 %s：样本 %d，区域 %d，信标列 %d%n", input.getPath(), raw.labels().size(),
+                new HashSet<>(raw.labels()).size(), raw.beaconColumns().size());
+
+        if (folds > 1) {
+            evaluate(raw, folds, k, maxQueries, perRegion, method, iterations, seed);
+        }
+
+        long start = System.nanoTime();
+        DatasetService.Snapshot compacted = compact(raw, perRegion, method, iterations, seed);
+        DatasetService.validate(compacted);
+        DatasetService.write(output, compacted);
+        System.out.printf("压缩（%s，每区域至多 %d 个代表）：%d -> %d 个样本（%.1f%%），耗时 %d ms，已写入 %s%n", method, perRegion,
+                raw.labels().size(), compacted.labels().size(), 100.0 * compacted.labels().size() / raw.labels().size(),
+                (System.nanoTime() - start) / 1_000_000, output.getPath());
+    }
+
+    /**
+     * 按区域聚类压缩数据集
+     *
+     * @param perRegion  每个区域至多保留的代表样本数
+     * @param method     medoid 或 centroid
+     * @param iterations k-means 最大迭代次数
+     * @return 压缩后的快照（版本号沿用原快照），区域按首次出现的顺序排列
+     */
+    public static DatasetService.Snapshot compact(DatasetService.Snapshot data, int perRegion, String method,
+                                                  int iterations, long seed) {
+        Map<Integer, List<Integer>> byRegion = new LinkedHashMap<>();
+        for (int i = 0; i < data.labels().size(); i++) {
+            byRegion.computeIfAbsent(data.labels().get(i), r -> new ArrayList<>()).add(i);
+        }
+        List<double[]> X = new ArrayList<>();
+        List<Integer> y = new ArrayList<>();
+        List<SampleMeta> meta = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+        Random random = new Random(seed);
+        byRegion.forEach((region, members) -> {
+            if (members.size() <= perRegion) {
+                for (int i : members) {
+                    X.add(data.vectors().get(i));
+                    y.add(region);
+                    meta.add(data.meta().get(i));
+                    weights.add(data.weight(i));
+                }
+                return;
+            }
+            int[] assignment = cluster(data, members, perRegion, iterations, random);
+            for (int c = 0; c < perRegion; c++) {
+                List<Integer> cluster = new ArrayList<>();
+                for (int m = 0; m < members.size(); m++) {
+                    if (assignment[m] == c) cluster.add(members.get(m));
+                }
+                if (cluster.isEmpty()) {
+                    continue;
+                }
+                double[] centroid = centroid(data, cluster, false);
+                int medoid = cluster.get(0);
+                double best = Double.MAX_VALUE;
+                double weight = 0;
+                for (int i : cluster) {
+                    double d = squaredDistance(centroid, data.vectors().get(i));
+                    if (d < best) {
+                        best = d;
+                        medoid = i;
+                    }
+                    weight += data.weight(i);
+                }
+                X.add(method.equals("centroid") ? centroid(data, cluster, true) : data.vectors().get(medoid));
+                y.add(region);
+                meta.add(data.meta().get(medoid));
+                weights.add(weight);
+            }
+        });
+        return new DatasetService.Snapshot(data.version(), X, y, meta, data.beaconColumns(), weights);
+    }
+
+    /**
+     * 区域内样本的加权 k-means（k-means++ 初始化）
+     *
+     * @return 每个成员所属的簇（0..clusters-1），可能有空簇
+     */
+    private static int[] cluster(DatasetService.Snapshot data, List<Integer> members, int clusters, int iterations,
+                                 Random random) {
+        int n = members.size();
+        List<double[]> centers = new ArrayList<>(clusters);
+        centers.add(data.vectors().get(members.get(random.nextInt(n))).clone());
+        double[] nearest = new double[n];
+        Arrays.fill(nearest, Double.MAX_VALUE);
+        while (centers.size() < clusters) {
+            double[] last = centers.get(centers.size() - 1);
+            double total = 0;
+            for (int m = 0; m < n; m++) {
+                nearest[m] = Math.min(nearest[m], squaredDistance(last, data.vectors().get(members.get(m))));
+                total += nearest[m] * data.weight(members.get(m));
+            }
+            if (total == 0) {
+                break;
+            }
+            double target = random.nextDouble() * total;
+            int pick = n - 1;
+            for (int m = 0; m < n; m++) {
+                target -= nearest[m] * data.weight(members.get(m));
+                if (target <= 0) {
+                    pick = m;
+                    break;
+                }
+            }
+            centers.add(data.vectors().get(members.get(pick)).clone());
+        }
+
+        int[] assignment = new int[n];
+        Arrays.fill(assignment, -1);
+        for (int it = 0; it < iterations; it++) {
+            boolean changed = false;
+            for (int m = 0; m < n; m++) {
+                double[] v = data.vectors().get(members.get(m));
+                int best = 0;
+                double bestDistance = Double.MAX_VALUE;
+                for (int c = 0; c < centers.size(); c++) {
+                    double d = squaredDistance(centers.get(c), v);
+                    if (d < bestDistance) {
+                        bestDistance = d;
+                        best = c;
+                    }
+                }
+                if (assignment[m] != best) {
+                    assignment[m] = best;
+                    changed = true;
+                }
+            }
+            if (!changed) {
+                break;
+            }
+            for (int c = 0; c < centers.size(); c++) {
+                List<Integer> cluster = new ArrayList<>();
+                for (int m = 0; m < n; m++) {
+                    if (assignment[m] == c) cluster.add(members.get(m));
+                }
+                if (!cluster.isEmpty()) {
+                    centers.set(c, centroid(data, cluster, false));
+                }
+            }
+        }
+        return assignment;
+    }
+
+    /**
+     * 簇的加权质心
+     *
+     * @param presence true 时按信标处理填充值：扫到的权重不足一半的列取填充值，其余取扫到值的加权均值；
+     *                 false 时对所有值（含填充值）直接加权平均，与 k-means 的距离一致
+     */
+    private static double[] centroid(DatasetService.Snapshot data, List<Integer> cluster, boolean presence) {
+        int m = data.beaconColumns().size();
+        double[] sum = new double[m];
+        double[] seen = new double[m];
+        double total = 0;
+        for (int i : cluster) {
+            double w = data.weight(i);
+            double[] v = data.vectors().get(i);
+            for (int j = 0; j < m; j++) {
+                if (!presence || v[j] > RSSI_PAD) {
+                    sum[j] += w * v[j];
+                    seen[j] += w;
+                }
+            }
+            total += w;
+        }
+        double[] out = new double[m];
+        for (int j = 0; j < m; j++) {
+            out[j] = seen[j] == 0 || (presence && seen[j] * 2 < total) ? RSSI_PAD : sum[j] / seen[j];
+        }
+        return out;
+    }
+
+    private static double squaredDistance(double[] a, double[] b) {
+        double sum = 0;
+        for (int j = 0; j < a.length; j++) {
+            double diff = a[j] - b[j];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    /**
+     * k 折交叉验证：每折压缩训练部分，测试样本分别查询原始 / 压缩训练集
+     */
+    private static void evaluate(DatasetService.Snapshot raw, int folds, int k, int maxQueries, int perRegion, String method,
+                                 int iterations, long seed) {
+        int n = raw.labels().size();
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < n; i++) order.add(i);
+        Collections.shuffle(order, new Random(seed));
+        int perFold = (int) Math.ceil((double) Math.min(maxQueries, n) / folds);
+
+        // 下标 0 为原始训练集，1 为压缩训练集
+        long[] top1 = new long[2], top3 = new long[2], nanos = new long[2], samples = new long[2];
+        long queries = 0;
+        for (int f = 0; f < folds; f++) {
+            List<Integer> train = new ArrayList<>();
+            List<Integer> test = new ArrayList<>();
+            for (int p = 0; p < n; p++) {
+                (p % folds == f ? test : train).add(order.get(p));
+            }
+            if (train.isEmpty() || test.isEmpty()) {
+                continue;
+            }
+            DatasetService.Snapshot trainRaw = subset(raw, train);
+            DatasetService.Snapshot trainCompact = compact(trainRaw, perRegion, method, iterations, seed + f);
+            DatasetService.Snapshot[] sets = {trainRaw, trainCompact};
+            for (int q = 0; q < Math.min(perFold, test.size()); q++) {
+                int i = test.get(q);
+                double[] input = raw.vectors().get(i);
+                int truth = raw.labels().get(i);
+                for (int s = 0; s < 2; s++) {
+                    DatasetService.Snapshot set = sets[s];
+                    long start = System.nanoTime();
+                    PredictResponse response = KnnService.classify(set.vectors(), set.labels(), set.weights(), input, k, null, null);
+                    nanos[s] += System.nanoTime() - start;
+                    samples[s] += set.labels().size();
+                    if (Objects.equals(response.getRegionTop1(), truth)) top1[s]++;
+                    if (response.getRegionTop3().stream().anyMatch(r -> Objects.equals(r.getRegionId(), truth))) top3[s]++;
+                }
+                queries++;
+            }
+        }
+        if (queries == 0) {
+            System.out.println("样本太少，跳过交叉验证");
+            return;
+        }
+        System.out.printf("%n%d 折交叉验证（K=%d，查询 %d 次）%n", folds, k, queries);
+        System.out.printf("%-10s %10s %8s %8s %12s%n", "训练集", "平均样本数", "Top-1", "Top-3", "平均耗时µs");
+        String[] names = {"raw", "compacted"};
+        for (int s = 0; s < 2; s++) {
+            System.out.printf("%-10s %10.1f %7.1f%% %7.1f%% %12.1f%n", names[s], (double) samples[s] / queries,
+                    100.0 * top1[s] / queries, 100.0 * top3[s] / queries, nanos[s] / 1000.0 / queries);
+        }
+        System.out.printf("Top-1 变化 %+.1f 个百分点，Top-3 变化 %+.1f 个百分点，距离计算减少 %.1f%%%n%n",
+                100.0 * (top1[1] - top1[0]) / queries, 100.0 * (top3[1] - top3[0]) / queries,
+                100.0 * (1 - (double) samples[1] / samples[0]));
+    }
+
+    private static DatasetService.Snapshot subset(DatasetService.Snapshot data, List<Integer> indices) {
+        List<double[]> X = new ArrayList<>(indices.size());
+        List<Integer> y = new ArrayList<>(indices.size());
+        List<SampleMeta> meta = new ArrayList<>(indices.size());
+        List<Double> weights = new ArrayList<>(indices.size());
+        for (int i : indices) {
+            X.add(data.vectors().get(i));
+            y.add(data.labels().get(i));
+            meta.add(data.meta().get(i));
+            weights.add(data.weight(i));
+        }
+        return new DatasetService.Snapshot(data.version(), X, y, meta, data.beaconColumns(), weights);
+    }
+}
@@ -0,0 +1,512 @@
+package com.gyq.ble.tool;
+
+import ch.qos.logback.classic.Level;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gyq.ble.controller.ScanDeserializer;
+import com.gyq.ble.controller.SimilarityMetricsDemo;
+import com.gyq.ble.index.BeaconDictionary;
+import com.gyq.ble.index.FingerprintIndex;
+import com.gyq.ble.index.Projection;
+import com.gyq.ble.index.ScanBuffer;
+import com.gyq.ble.index.SignatureIndex;
+import com.gyq.ble.index.SimilarityMetric;
+import com.gyq.ble.model.PredictResponse;
+import com.gyq.ble.service.DatasetService;
+import com.gyq.ble.service.FeatureSelectionService;
+import com.gyq.ble.service.KnnService;
+import com.gyq.ble.service.PredictService;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * 离线评估：留一法（loo）/ k 折交叉验证（kfold）下各引擎的准确率与开销
+ *
+ * 数据源：
+ * <ul>
+ *   <li>--fingerprints：{@code median_data.json} 指纹库，每个点位作为查询，真实区域取点位名称中的区域</li>
+ *   <li>--dataset：{@code DatasetService} 的 CSV 数据集，每个样本作为查询，真实区域取 region_id</li>
+ * </ul>
+ * 引擎（--engines，逗号分隔，all 表示全部）：
+ * <ul>
+ *   <li>fp-cosine：FingerprintIndex 全量余弦 + PredictService.vote</li>
+ *   <li>fp-coarse：区域质心粗筛（前 --coarse-regions 个区域）后精排余弦</li>
+ *   <li>fp-signature：最强信标签名预筛后余弦，未命中时回退粗筛（即线上 /api/predict 不带跟踪时的路径）</li>
+ *   <li>fp-{指标}：SimilarityMetricsDemo 中的各指标（cosine、centeredCosine、pearson、spearman、euclidean、manhattan、mae、cosineMw），距离取负数作为得分</li>
+ *   <li>knn / knn-signature：KnnService.classify（欧氏距离 K 近邻）全量 / 签名预筛</li>
+ *   <li>knn-features：只在特征选择保留的信标列（--keep-ratio，默认 0.5）上计算距离；列集按完整数据集计算</li>
+ *   <li>knn-pca：投影到 --dimensions 维（默认 32，--projection pca|random）后取最近的 --shortlist 个（默认 64）再精确重排</li>
+ * </ul>
+ * 每折把测试样本从候选中排除（掩码），各折并行在 --threads 个线程上执行；
+ * 区域质心与签名桶按完整指纹库构建，不随折重算。
+ * 输出 Top-1 / Top-3 准确率、单次打分耗时（均值与 p50/p90/p99）、每次打分的候选数和混淆矩阵。
+ *
+ * 用法：
+ * <pre>
+ * java -cp ... com.gyq.ble.tool.Evaluator --fingerprints data/median_data.json --dataset qqqq.csv \
+ *     --mode kfold --folds 10 --engines fp-cosine,fp-signature,knn --noise 3 --max-queries 2000
+ * </pre>
+ *
+ * 其他参数：--k（KNN 的 K，默认 5）、--keep-ratio、--dimensions、--projection、--shortlist、--top-n（签名信标数，默认 3）、--coarse-regions（默认 50）、--seed（默认 42）、
+ * --threads（默认 CPU 核数）、--confusion full|top|none（默认区域数不超过 20 时 full，否则 top）
+ */
+public class Evaluator {
+
+    private static final List<String> FP_METRICS = Arrays.stream(SimilarityMetric.values()).map(SimilarityMetric::getName).toList();
+
+    private static final String DEFAULT_ENGINES = "fp-cosine,fp-coarse,fp-signature,knn,knn-signature";
+
+    public static void main(String[] args) throws Exception {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.ERROR);
+        Map<String, String> options = LoadGenerator.parseArgs(args);
+        String mode = options.getOrDefault("mode", "loo");
+        int folds = Integer.parseInt(options.getOrDefault("folds", "10"));
+        int maxQueries = Integer.parseInt(options.getOrDefault("max-queries", "2000"));
+        double noise = Double.parseDouble(options.getOrDefault("noise", "0"));
+        int k = Integer.parseInt(options.getOrDefault("k", "5"));
+        int topN = Integer.parseInt(options.getOrDefault("top-n", "3"));
+        int coarseRegions = Integer.parseInt(options.getOrDefault("coarse-regions", "50"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        int threads = Integer.parseInt(options.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        Set<String> engines = new LinkedHashSet<>(Arrays.asList(options.getOrDefault("engines", DEFAULT_ENGINES).split(",")));
+        if (engines.remove("all")) {
+            engines.addAll(Arrays.asList(DEFAULT_ENGINES.split(",")));
+            FP_METRICS.forEach(m -> engines.add("fp-" + m));
+            engines.add("knn-features");
+            engines.add("knn-pca");
+        }
+
+        List<Engine> selected = new ArrayList<>();
+        File fingerprints = new File(options.getOrDefault("fingerprints", "data/median_data.json"));
+        if (engines.stream().anyMatch(e -> e.startsWith("fp-")) && fingerprints.exists()) {
+            Map<String, Map<String, Double>> store = new ObjectMapper().readValue(fingerprints,
+                    new TypeReference<Map<String, Map<String, Double>>>() {});
+            FingerprintData data = new FingerprintData(FingerprintIndex.build(0, store, BeaconDictionary.EMPTY, topN), noise, seed);
+            System.out.printf("指纹库 %s：点位 %d，区域 %d，信标 %d%n", fingerprints.getPath(),
+                    data.index.size(), data.index.regionCount(), data.index.getDictionary().size());
+            for (String name : engines) {
+                if (name.equals("fp-cosine")) {
+                    selected.add(new FingerprintCosine(name, data, false, 0));
+                } else if (name.equals("fp-coarse")) {
+                    selected.add(new FingerprintCosine(name, data, false, coarseRegions));
+                } else if (name.equals("fp-signature")) {
+                    selected.add(new FingerprintCosine(name, data, true, coarseRegions));
+                } else if (name.startsWith("fp-") && FP_METRICS.contains(name.substring(3))) {
+                    selected.add(new FingerprintMetric(name, data, name.substring(3)));
+                }
+            }
+        }
+        File dataset = new File(options.getOrDefault("dataset", "qqqq.csv"));
+        if (engines.stream().anyMatch(e -> e.startsWith("knn")) && dataset.exists()) {
+            DatasetService.Snapshot snapshot = DatasetService.read(dataset, 0);
+            if (snapshot != null && !snapshot.labels().isEmpty()) {
+                DatasetData data = new DatasetData(snapshot, noise, seed);
+                System.out.printf("数据集 %s：样本 %d，信标列 %d%n", dataset.getPath(),
+                        snapshot.labels().size(), snapshot.beaconColumns().size());
+                if (engines.contains("knn")) {
+                    selected.add(new Knn("knn", data, k, null, null));
+                }
+                if (engines.contains("knn-signature")) {
+                    selected.add(new Knn("knn-signature", data, k, KnnService.buildSignature(snapshot.vectors(), topN), null));
+                }
+                if (engines.contains("knn-features")) {
+                    double keepRatio = Double.parseDouble(options.getOrDefault("keep-ratio", "0.5"));
+                    int[] columns = FeatureSelectionService.select(snapshot, keepRatio, 1, 5).columns();
+                    System.out.printf("特征选择保留信标列 %d/%d%n", columns.length, snapshot.beaconColumns().size());
+                    selected.add(new Knn("knn-features", data, k, null, columns));
+                }
+                if (engines.contains("knn-pca")) {
+                    long start = System.nanoTime();
+                    Projection projection = Projection.fit(snapshot.vectors(),
+                            Integer.parseInt(options.getOrDefault("dimensions", "32")),
+                            options.getOrDefault("projection", "pca"), seed);
+                    System.out.printf("投影拟合（%s）：%d 列 -> %d 维，耗时 %d ms%n", projection.getMethod(),
+                            snapshot.beaconColumns().size(), projection.dimensions(), (System.nanoTime() - start) / 1_000_000);
+                    Knn engine = new Knn("knn-pca", data, k, null, null);
+                    engine.projection = projection;
+                    engine.shortlist = Integer.parseInt(options.getOrDefault("shortlist", "64"));
+                    selected.add(engine);
+                }
+            }
+        }
+        if (selected.isEmpty()) {
+            System.out.println("没有可评估的引擎（检查 --engines / --fingerprints / --dataset）");
+            return;
+        }
+        System.out.printf("模式 %s%s，噪声 %.1f dB，线程 %d，每个数据源至多 %d 次查询%n%n", mode,
+                mode.equals("kfold") ? "（" + folds + " 折）" : "", noise, threads, maxQueries);
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<Report> reports = new ArrayList<>();
+        for (Engine engine : selected) {
+            List<Fold> plan = plan(engine.size(), mode, folds, maxQueries, new Random(seed));
+            Outcome[] outcomes = new Outcome[engine.size()];
+            long start = System.nanoTime();
+            pool.submit(() -> plan.parallelStream().forEach(fold -> {
+                boolean[] excluded = new boolean[engine.size()];
+                for (int i : fold.held()) excluded[i] = true;
+                for (int q : fold.queries()) {
+                    if (engine.truth(q) != null) {
+                        outcomes[q] = engine.evaluate(q, excluded);
+                    }
+                }
+            })).get();
+            reports.add(new Report(engine, outcomes, (System.nanoTime() - start) / 1_000_000));
+        }
+        pool.shutdown();
+
+        System.out.printf("%-22s %7s %8s %8s %9s %9s %9s %9s %10s %9s%n",
+                "引擎", "查询", "Top-1", "Top-3", "均值µs", "p50µs", "p90µs", "p99µs", "平均候选", "总耗时ms");
+        for (Report report : reports) {
+            report.print();
+        }
+        String confusion = options.get("confusion");
+        for (Report report : reports) {
+            report.printConfusion(confusion);
+        }
+    }
+
+    /**
+     * 一折：held 为训练时排除的样本，queries 为其中参与评估的查询
+     */
+    private record Fold(int[] held, int[] queries) {
+    }
+
+    /**
+     * 查询计划：loo 每个查询一折（随机抽取至多 maxQueries 个）；kfold 打乱后分 k 折，每折至多 maxQueries/k 个查询
+     */
+    private static List<Fold> plan(int n, String mode, int folds, int maxQueries, Random random) {
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < n; i++) order.add(i);
+        Collections.shuffle(order, random);
+        List<Fold> plan = new ArrayList<>();
+        if (mode.equals("kfold")) {
+            int perFold = Math.max(1, maxQueries / folds);
+            for (int f = 0; f < folds; f++) {
+                List<Integer> held = new ArrayList<>();
+                for (int i = f; i < n; i += folds) held.add(order.get(i));
+                int[] members = held.stream().mapToInt(Integer::intValue).toArray();
+                plan.add(new Fold(members, Arrays.copyOf(members, Math.min(members.length, perFold))));
+            }
+            return plan;
+        }
+        for (int i = 0; i < Math.min(n, maxQueries); i++) {
+            int[] single = {order.get(i)};
+            plan.add(new Fold(single, single));
+        }
+        return plan;
+    }
+
+    /**
+     * 单次查询的结果
+     */
+    private record Outcome(int truth, Integer top1, List<Integer> top3, long nanos, int candidates) {
+    }
+
+    private abstract static class Engine {
+        final String name;
+
+        Engine(String name) {
+            this.name = name;
+        }
+
+        abstract int size();
+
+        abstract Integer truth(int q);
+
+        abstract Outcome evaluate(int q, boolean[] excluded);
+
+        Outcome outcome(int q, PredictResponse response, long nanos, int candidates) {
+            List<Integer> top3 = response.getRegionTop3() == null ? List.of()
+                    : response.getRegionTop3().stream().map(PredictResponse.RegionScore::getRegionId).toList();
+            return new Outcome(truth(q), response.getRegionTop1(), top3, nanos, candidates);
+        }
+    }
+
+    /**
+     * 指纹库及按种子生成的查询扫描（各引擎使用相同查询）
+     */
+    private static final class FingerprintData {
+        final FingerprintIndex index;
+        final ScanBuffer[] scans;
+        final Map<String, Double>[] scanMaps;
+        final Map<String, Double>[] fingerprintMaps;
+
+        @SuppressWarnings("unchecked")
+        FingerprintData(FingerprintIndex index, double noise, long seed) {
+            this.index = index;
+            int n = index.size();
+            scans = new ScanBuffer[n];
+            scanMaps = new Map[n];
+            fingerprintMaps = new Map[n];
+            for (int q = 0; q < n; q++) {
+                Random random = new Random(seed * 31 + q);
+                int[] ids = index.ids(q);
+                double[] values = index.values(q);
+                ScanBuffer scan = ScanBuffer.create(index.getDictionary());
+                for (int j = 0; j < ids.length; j++) {
+                    int rssi = (int) Math.round(values[j] + random.nextGaussian() * noise);
+                    if (rssi < ScanDeserializer.RSSI_MAX && rssi > ScanDeserializer.RSSI_MIN) {
+                        scan.add(ids[j], rssi);
+                    }
+                }
+                scan.seal();
+                scans[q] = scan;
+                scanMaps[q] = scan.toKeyMap();
+                fingerprintMaps[q] = index.fingerprintMap(q);
+            }
+        }
+
+        Integer truth(int q) {
+            return index.regionId(index.regionOf(q));
+        }
+    }
+
+    /**
+     * 线上打分：FingerprintIndex 余弦（可选签名预筛、质心粗筛）+ PredictService.vote
+     */
+    private static final class FingerprintCosine extends Engine {
+        private final FingerprintData data;
+        private final boolean signature;
+        private final int coarseRegions;
+
+        FingerprintCosine(String name, FingerprintData data, boolean signature, int coarseRegions) {
+            super(name);
+            this.data = data;
+            this.signature = signature;
+            this.coarseRegions = coarseRegions;
+        }
+
+        int size() {
+            return data.index.size();
+        }
+
+        Integer truth(int q) {
+            return data.truth(q);
+        }
+
+        Outcome evaluate(int q, boolean[] excluded) {
+            FingerprintIndex index = data.index;
+            ScanBuffer scan = data.scans[q];
+            long start = System.nanoTime();
+            double[] scores = new double[index.size()];
+            Arrays.fill(scores, Double.NaN);
+            int candidates = 0;
+            boolean scored = false;
+            SignatureIndex signatureIndex = index.signature();
+            if (signature && signatureIndex != null) {
+                int[] points = signatureIndex.candidates(scan);
+                if (points != null) {
+                    for (int i : points) {
+                        if (excluded[i]) continue;
+                        scores[i] = index.cosine(i, scan);
+                        candidates++;
+                        scored |= !Double.isNaN(scores[i]);
+                    }
+                }
+            }
+            if (!scored) {
+                for (int region : PredictService.coarse(index, scan, coarseRegions)) {
+                    for (int i : index.regionMembers(region)) {
+                        if (excluded[i]) continue;
+                        scores[i] = index.cosine(i, scan);
+                        candidates++;
+                    }
+                }
+            }
+            PredictResponse response = PredictService.vote(index, scores);
+            return outcome(q, response, System.nanoTime() - start, candidates);
+        }
+    }
+
+    /**
+     * SimilarityMetricsDemo 的指标（共同信标不少于 2 个时比较），距离取负数
+     */
+    private static final class FingerprintMetric extends Engine {
+        private final FingerprintData data;
+        private final SimilarityMetric metric;
+
+        FingerprintMetric(String name, FingerprintData data, String metric) {
+            super(name);
+            this.data = data;
+            this.metric = SimilarityMetric.of(metric);
+        }
+
+        int size() {
+            return data.index.size();
+        }
+
+        Integer truth(int q) {
+            return data.truth(q);
+        }
+
+        Outcome evaluate(int q, boolean[] excluded) {
+            Map<String, Double> scan = data.scanMaps[q];
+            long start = System.nanoTime();
+            double[] scores = new double[size()];
+            Arrays.fill(scores, Double.NaN);
+            int candidates = 0;
+            for (int i = 0; i < scores.length; i++) {
+                if (excluded[i]) continue;
+                candidates++;
+                List<String> common = SimilarityMetricsDemo.getCommonKeysSorted(scan, data.fingerprintMaps[i]);
+                if (common.size() < 2) continue;
+                double value = metric.score(SimilarityMetricsDemo.toVector(scan, common),
+                        SimilarityMetricsDemo.toVector(data.fingerprintMaps[i], common));
+                scores[i] = Double.isFinite(value) ? value : Double.NaN;
+            }
+            PredictResponse response = PredictService.vote(data.index, scores);
+            return outcome(q, response, System.nanoTime() - start, candidates);
+        }
+    }
+
+    /**
+     * CSV 数据集及按种子加噪的查询向量（只对扫到的信标加噪）
+     */
+    private static final class DatasetData {
+        final DatasetService.Snapshot snapshot;
+        final double[][] queries;
+
+        DatasetData(DatasetService.Snapshot snapshot, double noise, long seed) {
+            this.snapshot = snapshot;
+            int n = snapshot.labels().size();
+            queries = new double[n][];
+            for (int q = 0; q < n; q++) {
+                Random random = new Random(seed * 31 + q);
+                double[] query = snapshot.vectors().get(q).clone();
+                for (int j = 0; j < query.length; j++) {
+                    if (query[j] > -100.0) {
+                        query[j] = Math.min(Math.round(query[j] + random.nextGaussian() * noise), -1);
+                    }
+                }
+                queries[q] = query;
+            }
+        }
+    }
+
+    /**
+     * KnnService.classify，可选签名预筛（未命中时全量）与精简列集
+     */
+    private static final class Knn extends Engine {
+        private final DatasetData data;
+        private final int k;
+        private final SignatureIndex signature;
+        private final int[] columns;
+        private Projection projection;
+        private int shortlist;
+
+        Knn(String name, DatasetData data, int k, SignatureIndex signature, int[] columns) {
+            super(name);
+            this.data = data;
+            this.k = k;
+            this.signature = signature;
+            this.columns = columns;
+        }
+
+        int size() {
+            return data.queries.length;
+        }
+
+        Integer truth(int q) {
+            return data.snapshot.labels().get(q);
+        }
+
+        Outcome evaluate(int q, boolean[] excluded) {
+            double[] input = data.queries[q];
+            long start = System.nanoTime();
+            int[] candidates = signature == null ? null : KnnService.signatureCandidates(signature, input);
+            candidates = without(candidates, excluded);
+            if (candidates.length == 0) {
+                candidates = without(null, excluded);
+            }
+            if (projection != null) {
+                candidates = projection.nearest(projection.project(input), candidates, Math.max(shortlist, 4 * k));
+            }
+            PredictResponse response = KnnService.classify(data.snapshot.vectors(), data.snapshot.labels(), input, k,
+                    candidates, columns);
+            return outcome(q, response, System.nanoTime() - start, candidates.length);
+        }
+
+        private static int[] without(int[] candidates, boolean[] excluded) {
+            IntStream all = candidates == null ? IntStream.range(0, excluded.length) : Arrays.stream(candidates);
+            return all.filter(i -> !excluded[i]).toArray();
+        }
+    }
+
+    /**
+     * 单个引擎的汇总
+     */
+    private static final class Report {
+        private final Engine engine;
+        private final List<Outcome> outcomes = new ArrayList<>();
+        private final long wallMillis;
+
+        Report(Engine engine, Outcome[] all, long wallMillis) {
+            this.engine = engine;
+            this.wallMillis = wallMillis;
+            for (Outcome o : all) {
+                if (o != null) outcomes.add(o);
+            }
+        }
+
+        void print() {
+            int n = outcomes.size();
+            if (n == 0) {
+                System.out.printf("%-22s %7d%n", engine.name, 0);
+                return;
+            }
+            long top1 = outcomes.stream().filter(o -> Objects.equals(o.top1, o.truth)).count();
+            long top3 = outcomes.stream().filter(o -> o.top3.contains(o.truth)).count();
+            long[] nanos = outcomes.stream().mapToLong(Outcome::nanos).sorted().toArray();
+            double mean = Arrays.stream(nanos).average().orElse(0) / 1000.0;
+            double candidates = outcomes.stream().mapToInt(Outcome::candidates).average().orElse(0);
+            System.out.printf("%-22s %7d %7.1f%% %7.1f%% %9.1f %9.1f %9.1f %9.1f %10.1f %9d%n", engine.name, n,
+                    top1 * 100.0 / n, top3 * 100.0 / n, mean,
+                    percentile(nanos, 0.5), percentile(nanos, 0.9), percentile(nanos, 0.99), candidates, wallMillis);
+        }
+
+        void printConfusion(String mode) {
+            SortedMap<Integer, SortedMap<String, Integer>> matrix = new TreeMap<>();
+            SortedSet<String> predicted = new TreeSet<>(Comparator.comparing((String s) -> s.equals("-") ? Integer.MAX_VALUE : Integer.parseInt(s)));
+            for (Outcome o : outcomes) {
+                String p = o.top1 == null ? "-" : String.valueOf(o.top1);
+                matrix.computeIfAbsent(o.truth, t -> new TreeMap<>()).merge(p, 1, Integer::sum);
+                predicted.add(p);
+            }
+            if (mode == null) {
+                mode = matrix.size() <= 20 ? "full" : "top";
+            }
+            if (mode.equals("none") || matrix.isEmpty()) {
+                return;
+            }
+            System.out.printf("%n[%s] 混淆矩阵（行：真实区域，列：Top-1 预测，- 表示无结果）%n", engine.name);
+            if (mode.equals("full")) {
+                StringBuilder header = new StringBuilder(String.format("%8s", ""));
+                predicted.forEach(p -> header.append(String.format("%6s", p)));
+                System.out.println(header);
+                matrix.forEach((truth, row) -> {
+                    StringBuilder line = new StringBuilder(String.format("%8d", truth));
+                    predicted.forEach(p -> line.append(String.format("%6s", row.getOrDefault(p, 0) == 0 ? "." : row.get(p))));
+                    System.out.println(line);
+                });
+                return;
+            }
+            // 区域较多时只列出最常见的误判
+            List<String[]> errors = new ArrayList<>();
+            matrix.forEach((truth, row) -> row.forEach((p, count) -> {
+                if (!p.equals(String.valueOf(truth))) errors.add(new String[]{String.valueOf(truth), p, String.valueOf(count)});
+            }));
+            errors.sort(Comparator.comparingInt((String[] e) -> Integer.parseInt(e[2])).reversed());
+            errors.stream().limit(10).forEach(e -> System.out.printf("  %s -> %s : %s%n", e[0], e[1], e[2]));
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            int i = (int) Math.ceil(p * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(i, sorted.length - 1))] / 1000.0;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.gyq.ble.tool;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.opencsv.CSVWriter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 合成指纹库生成器，用于规模测试
+ *
+ * 在一栋虚拟建筑中按网格布置信标，把每层划分为若干区域，在区域内随机撒采样点，
+ * 用对数距离路径损耗模型加阴影衰落噪声计算每个信标的 RSSI，然后同时输出：
+ * <ul>
+ *   <li>CSV：{@code DatasetService.load} 读取的格式（region_id,x,y,device,time_slot,heading,信标列...，缺失填 -100）</li>
+ *   <li>JSON：{@code JsonStorageService} 读取的格式（"区域_点位" -> {"uuid_minor_major": rssi}）</li>
+ * </ul>
+ * 数据逐行流式写入磁盘，内存占用只与信标数有关，与指纹数无关。
+ *
+ * 用法示例（约 100 万条指纹）：
+ * <pre>
+ * java -cp ... com.gyq.ble.tool.FingerprintGenerator \
+ *     --width 400 --height 250 --floors 4 --beacon-spacing 8 \
+ *     --region-size 10 --points-per-region 250 --samples-per-point 1 \
+ *     --csv target/synthetic.csv --json target/synthetic.json
+ * </pre>
+ *
+ * 参数说明：
+ * <ul>
+ *   <li>--width / --height     每层尺寸（米），默认 100 x 60</li>
+ *   <li>--floors               楼层数，默认 1</li>
+ *   <li>--beacon-spacing       信标网格间距（米），默认 8</li>
+ *   <li>--region-size          区域边长（米），默认 10</li>
+ *   <li>--points-per-region    每个区域的采样点数，默认 5</li>
+ *   <li>--samples-per-point    每个采样点写入 CSV 的样本数（各自独立加噪声），默认 3</li>
+ *   <li>--tx-power             1 米处参考 RSSI（dBm），默认 -59</li>
+ *   <li>--path-loss-exponent   路径损耗指数，默认 2.2</li>
+ *   <li>--shadowing            阴影衰落标准差（dB），默认 4</li>
+ *   <li>--floor-loss           每隔一层的穿透损耗（dB），默认 15</li>
+ *   <li>--sensitivity          接收灵敏度（dBm），低于该值视为未扫到，默认 -95</li>
+ *   <li>--json-threshold       写入 JSON 指纹的 RSSI 下限，与 addData 的过滤一致，默认 -85</li>
+ *   <li>--uuid                 信标 UUID，默认 FDA50693-A4E2-4FB1-AFCF-C6EB07647825</li>
+ *   <li>--major-base           第 1 层信标的 major，逐层加 1，默认 10000</li>
+ *   <li>--csv / --json         输出文件，至少指定一个</li>
+ *   <li>--seed                 随机种子，默认 42</li>
+ * </ul>
+ */
+public class FingerprintGenerator {
+
+    /**
+     * 与 DatasetService 一致的 RSSI 缺失值
+     */
+    private static final double RSSI_PAD = -100.0;
+
+    private static final String[] DEVICES = {"MI11", "P40", "IPHONE13", "S21"};
+    private static final String[] TIME_SLOTS = {"AM", "PM", "NIGHT"};
+    private static final String[] HEADINGS = {"N", "E", "S", "W"};
+
+    private final double width;
+    private final double height;
+    private final int floors;
+    private final double beaconSpacing;
+    private final double regionSize;
+    private final int pointsPerRegion;
+    private final int samplesPerPoint;
+    private final double txPower;
+    private final double pathLossExponent;
+    private final double shadowing;
+    private final double floorLoss;
+    private final double sensitivity;
+    private final double jsonThreshold;
+    private final String uuid;
+    private final int majorBase;
+    private final Random random;
+
+    /**
+     * 信标布局（按列顺序）
+     */
+    private double[] beaconX;
+    private double[] beaconY;
+    private int[] beaconFloor;
+    private int[] beaconMajor;
+    private int[] beaconMinor;
+
+    /**
+     * 区域划分
+     */
+    private int regionCols;
+    private int regionRows;
+
+    public FingerprintGenerator(Map<String, String> options) {
+        this.width = Double.parseDouble(options.getOrDefault("width", "100"));
+        this.height = Double.parseDouble(options.getOrDefault("height", "60"));
+        this.floors = Integer.parseInt(options.getOrDefault("floors", "1"));
+        this.beaconSpacing = Double.parseDouble(options.getOrDefault("beacon-spacing", "8"));
+        this.regionSize = Double.parseDouble(options.getOrDefault("region-size", "10"));
+        this.pointsPerRegion = Integer.parseInt(options.getOrDefault("points-per-region", "5"));
+        this.samplesPerPoint = Integer.parseInt(options.getOrDefault("samples-per-point", "3"));
+        this.txPower = Double.parseDouble(options.getOrDefault("tx-power", "-59"));
+        this.pathLossExponent = Double.parseDouble(options.getOrDefault("path-loss-exponent", "2.2"));
+        this.shadowing = Double.parseDouble(options.getOrDefault("shadowing", "4"));
+        this.floorLoss = Double.parseDouble(options.getOrDefault("floor-loss", "15"));
+        this.sensitivity = Double.parseDouble(options.getOrDefault("sensitivity", "-95"));
+        this.jsonThreshold = Double.parseDouble(options.getOrDefault("json-threshold", "-85"));
+        this.uuid = options.getOrDefault("uuid", "FDA50693-A4E2-4FB1-AFCF-C6EB07647825");
+        this.majorBase = Integer.parseInt(options.getOrDefault("major-base", "10000"));
+        this.random = new Random(Long.parseLong(options.getOrDefault("seed", "42")));
+        layoutBeacons();
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = LoadGenerator.parseArgs(args);
+        String csv = options.get("csv");
+        String json = options.get("json");
+        if (csv == null && json == null) {
+            System.err.println("请至少指定 --csv 或 --json 输出文件");
+            System.exit(1);
+        }
+        FingerprintGenerator generator = new FingerprintGenerator(options);
+        long start = System.nanoTime();
+        long points = generator.generate(csv == null ? null : new File(csv), json == null ? null : new File(json));
+        System.out.printf("生成完成：信标 %d 个，区域 %d 个，采样点 %d 个，耗时 %.1fs%n",
+                generator.beaconCount(), generator.regionCount(), points, (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * 按网格在每层布置信标，minor 在整栋楼内唯一
+     */
+    private void layoutBeacons() {
+        int cols = Math.max(1, (int) Math.floor(width / beaconSpacing));
+        int rows = Math.max(1, (int) Math.floor(height / beaconSpacing));
+        int n = cols * rows * floors;
+        beaconX = new double[n];
+        beaconY = new double[n];
+        beaconFloor = new int[n];
+        beaconMajor = new int[n];
+        beaconMinor = new int[n];
+        int i = 0;
+        for (int f = 0; f < floors; f++) {
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    beaconX[i] = (c + 0.5) * width / cols;
+                    beaconY[i] = (r + 0.5) * height / rows;
+                    beaconFloor[i] = f;
+                    beaconMajor[i] = majorBase + f;
+                    beaconMinor[i] = i + 1;
+                    i++;
+                }
+            }
+        }
+        regionCols = Math.max(1, (int) Math.ceil(width / regionSize));
+        regionRows = Math.max(1, (int) Math.ceil(height / regionSize));
+    }
+
+    public int beaconCount() {
+        return beaconX.length;
+    }
+
+    public int regionCount() {
+        return regionCols * regionRows * floors;
+    }
+
+    /**
+     * 生成并流式写出，返回采样点数量
+     */
+    public long generate(File csvFile, File jsonFile) throws IOException {
+        int n = beaconCount();
+        double[] mean = new double[n];
+        double[] sample = new double[n];
+        long points = 0;
+
+        try (CSVWriter csv = csvFile == null ? null : new CSVWriter(
+                new BufferedWriter(new OutputStreamWriter(new FileOutputStream(csvFile), StandardCharsets.UTF_8), 1 << 16));
+             JsonGenerator json = jsonFile == null ? null : new JsonFactory().createGenerator(
+                     new BufferedOutputStream(new FileOutputStream(jsonFile), 1 << 16), JsonEncoding.UTF8)) {
+
+            String[] row = null;
+            if (csv != null) {
+                row = new String[6 + n];
+                csv.writeNext(csvHeader());
+            }
+            if (json != null) {
+                json.writeStartObject();
+            }
+
+            int regionId = 0;
+            for (int f = 0; f < floors; f++) {
+                for (int rr = 0; rr < regionRows; rr++) {
+                    for (int rc = 0; rc < regionCols; rc++) {
+                        regionId++;
+                        for (int p = 1; p <= pointsPerRegion; p++) {
+                            double x = Math.min(width, (rc + random.nextDouble()) * regionSize);
+                            double y = Math.min(height, (rr + random.nextDouble()) * regionSize);
+                            meanRssi(x, y, f, mean);
+                            points++;
+
+                            if (csv != null) {
+                                String device = DEVICES[random.nextInt(DEVICES.length)];
+                                String timeSlot = TIME_SLOTS[random.nextInt(TIME_SLOTS.length)];
+                                String heading = HEADINGS[random.nextInt(HEADINGS.length)];
+                                for (int s = 0; s < samplesPerPoint; s++) {
+                                    observe(mean, sample);
+                                    row[0] = String.valueOf(regionId);
+                                    row[1] = format(x);
+                                    row[2] = format(y);
+                                    row[3] = device;
+                                    row[4] = timeSlot;
+                                    row[5] = heading;
+                                    for (int b = 0; b < n; b++) {
+                                        row[6 + b] = String.valueOf(sample[b]);
+                                    }
+                                    csv.writeNext(row);
+                                }
+                            }
+
+                            if (json != null) {
+                                // 指纹为多次观测的中位数，这里直接使用无噪声均值再取整到 0.5dB
+                                json.writeObjectFieldStart(regionId + "_" + p);
+                                for (int b = 0; b < n; b++) {
+                                    if (mean[b] > jsonThreshold && mean[b] < 0) {
+                                        json.writeNumberField(uuid + "_" + beaconMinor[b] + "_" + beaconMajor[b],
+                                                Math.round(mean[b] * 2) / 2.0);
+                                    }
+                                }
+                                json.writeEndObject();
+                            }
+                        }
+                    }
+                }
+            }
+
+            if (json != null) {
+                json.writeEndObject();
+            }
+        }
+        return points;
+    }
+
+    /**
+     * CSV 表头，信标列使用 DatasetService.keyOf 的格式：uuid-major-minor
+     */
+    private String[] csvHeader() {
+        String[] header = new String[6 + beaconCount()];
+        header[0] = "region_id";
+        header[1] = "x";
+        header[2] = "y";
+        header[3] = "device";
+        header[4] = "time_slot";
+        header[5] = "heading";
+        for (int b = 0; b < beaconCount(); b++) {
+            header[6 + b] = uuid + "-" + beaconMajor[b] + "-" + beaconMinor[b];
+        }
+        return header;
+    }
+
+    /**
+     * 对数距离路径损耗模型：RSSI = P0 - 10 * n * log10(d) - 楼层损耗 + 固定阴影
+     */
+    private void meanRssi(double x, double y, int floor, double[] out) {
+        for (int b = 0; b < out.length; b++) {
+            double dx = x - beaconX[b];
+            double dy = y - beaconY[b];
+            int floorGap = Math.abs(floor - beaconFloor[b]);
+            double d = Math.max(1.0, Math.sqrt(dx * dx + dy * dy + floorGap * floorGap * 9.0));
+            double rssi = txPower - 10.0 * pathLossExponent * Math.log10(d)
+                    - floorGap * floorLoss + random.nextGaussian() * shadowing;
+            out[b] = rssi < sensitivity ? RSSI_PAD : Math.min(-1.0, rssi);
+        }
+    }
+
+    /**
+     * 单次观测：在均值上叠加测量噪声，取整到 dBm
+     */
+    private void observe(double[] mean, double[] out) {
+        for (int b = 0; b < mean.length; b++) {
+            if (mean[b] == RSSI_PAD) {
+                out[b] = RSSI_PAD;
+                continue;
+            }
+            double rssi = Math.rint(mean[b] + random.nextGaussian() * 2.0);
+            out[b] = rssi < sensitivity ? RSSI_PAD : Math.min(-1.0, rssi);
+        }
+    }
+
+    private static String format(double v) {
+        return String.format(Locale.ROOT, "%.2f", v);
+    }
+}
@@ -0,0 +1,531 @@
+package com.gyq.ble.tool;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * HTTP 压测工具：对本地启动的实例回放扫描数据，统计 /api/predict 与 /api/addData 的延迟分布
+ *
+ * 采用开环（open-loop）恒定速率发送：每个请求都有一个"计划发送时间"，延迟从计划时间开始计算，
+ * 服务端变慢时不会降低发送速率，从而避免协调遗漏（coordinated omission）。
+ * 超过在途上限而被丢弃的请求同样计入延迟：视为在下一个在途请求完成、空出名额时才能发出，
+ * 延迟从计划时间算到该时刻（压测结束仍未轮到的按结束时刻计），另单独统计其分布。
+ *
+ * 用法示例：
+ * <pre>
+ * java -cp target/classes:... com.gyq.ble.tool.LoadGenerator \
+ *     --url http://localhost:8080 --rates 100,200,400 --duration 30 --warmup 5 \
+ *     --fingerprints data/median_data.json --collect-ratio 0.1 \
+ *     --slo-p99-ms 50 --out target/load-summary.json
+ * </pre>
+ *
+ * 参数说明：
+ * <ul>
+ *   <li>--url            服务地址，默认 http://localhost:8080</li>
+ *   <li>--rate / --rates 目标 QPS，多个值时逐档扫描以求最大可持续 QPS</li>
+ *   <li>--duration       每档压测时长（秒），默认 30</li>
+ *   <li>--warmup         每档预热时长（秒），预热阶段不计入统计，默认 5</li>
+ *   <li>--replay         回放文件（JSONL，每行一个 predict 或 addData 请求体）</li>
+ *   <li>--fingerprints   指纹库文件，用于生成合成扫描，默认 data/median_data.json</li>
+ *   <li>--noise          合成扫描的 RSSI 高斯噪声标准差（dB），默认 3</li>
+ *   <li>--drop           合成扫描中每个信标被丢弃的概率，默认 0.1</li>
+ *   <li>--collect-ratio  addData 请求占比（0~1），默认 0</li>
+ *   <li>--collect-commit 允许 addData 发送第 20 批（会真正写入指纹库），默认关闭</li>
+ *   <li>--max-in-flight  最大在途请求数，超过即记为丢弃（延迟记到空出名额时），默认 10000</li>
+ *   <li>--slo-p99-ms     判断"可持续"的 p99 上限（毫秒），默认 100</li>
+ *   <li>--out            机器可读的汇总 JSON 输出文件</li>
+ *   <li>--hgrm           HdrHistogram 百分位分布输出文件前缀</li>
+ *   <li>--seed           随机种子，默认 42</li>
+ * </ul>
+ */
+public class LoadGenerator {
+
+    private static final String PREDICT = "predict";
+    private static final String COLLECT = "collect";
+
+    /**
+     * 延迟记录上限：60 秒（纳秒）
+     */
+    private static final long HIGHEST_TRACKABLE = TimeUnit.SECONDS.toNanos(60);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, String> options;
+    private final Random random;
+    private final HttpClient client;
+    private final ExecutorService httpExecutor;
+
+    /**
+     * 回放的请求体
+     */
+    private final List<String> replayPredict = new ArrayList<>();
+    private final List<String> replayCollect = new ArrayList<>();
+
+    /**
+     * 合成扫描用的指纹
+     */
+    private final List<Map<String, Double>> fingerprints = new ArrayList<>();
+    private final List<String> fingerprintRegions = new ArrayList<>();
+
+    private int collectCount = 0;
+
+    public LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        this.random = new Random(Long.parseLong(options.getOrDefault("seed", "42")));
+        this.httpExecutor = Executors.newFixedThreadPool(
+                Math.max(4, Runtime.getRuntime().availableProcessors()), r -> {
+                    Thread t = new Thread(r, "load-http");
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(httpExecutor)
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseArgs(args);
+        LoadGenerator generator = new LoadGenerator(options);
+        generator.loadWorkload();
+        int code = generator.run();
+        System.exit(code);
+    }
+
+    /**
+     * 解析 --key value 形式的参数（--flag 不带值时记为 true）
+     */
+    static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("无法识别的参数: " + arg);
+            }
+            String key = arg.substring(2);
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                options.put(key, args[++i]);
+            } else {
+                options.put(key, "true");
+            }
+        }
+        return options;
+    }
+
+    /**
+     * 加载回放文件或指纹库
+     */
+    void loadWorkload() throws IOException {
+        String replay = options.get("replay");
+        if (replay != null) {
+            for (String line : Files.readAllLines(Path.of(replay), StandardCharsets.UTF_8)) {
+                if (line.isBlank()) continue;
+                JsonNode node = objectMapper.readTree(line);
+                if (node.has("dto")) {
+                    replayCollect.add(line);
+                } else if (node.has("beacons")) {
+                    replayPredict.add(line);
+                }
+            }
+            System.out.printf("回放文件 %s：predict %d 条，addData %d 条%n",
+                    replay, replayPredict.size(), replayCollect.size());
+        }
+
+        String fingerprintFile = options.getOrDefault("fingerprints", "data/median_data.json");
+        File file = new File(fingerprintFile);
+        if (file.exists()) {
+            Map<String, Map<String, Double>> all = objectMapper.readValue(file,
+                    new TypeReference<Map<String, Map<String, Double>>>() {});
+            for (Map.Entry<String, Map<String, Double>> e : all.entrySet()) {
+                if (e.getValue().isEmpty()) continue;
+                fingerprints.add(e.getValue());
+                int underscore = e.getKey().indexOf('_');
+                fingerprintRegions.add(underscore > 0 ? e.getKey().substring(0, underscore) : e.getKey());
+            }
+            System.out.printf("指纹库 %s：%d 个指纹%n", fingerprintFile, fingerprints.size());
+        }
+
+        if (replayPredict.isEmpty() && fingerprints.isEmpty()) {
+            throw new IllegalStateException("没有可用的负载：请指定 --replay 或 --fingerprints");
+        }
+    }
+
+    /**
+     * 按档位依次压测，返回进程退出码
+     */
+    int run() throws Exception {
+        String url = options.getOrDefault("url", "http://localhost:8080");
+        long[] rates = Arrays.stream(options.getOrDefault("rates", options.getOrDefault("rate", "100")).split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .mapToLong(Long::parseLong)
+                .toArray();
+        int duration = Integer.parseInt(options.getOrDefault("duration", "30"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        double sloP99Ms = Double.parseDouble(options.getOrDefault("slo-p99-ms", "100"));
+
+        ObjectNode summary = objectMapper.createObjectNode();
+        summary.put("url", url);
+        summary.put("durationSeconds", duration);
+        summary.put("warmupSeconds", warmup);
+        summary.put("collectRatio", Double.parseDouble(options.getOrDefault("collect-ratio", "0")));
+        summary.put("sloP99Ms", sloP99Ms);
+        ArrayNode steps = summary.putArray("steps");
+
+        long maxSustainable = 0;
+        for (long rate : rates) {
+            System.out.printf("%n=== 目标 QPS %d：预热 %ds，压测 %ds ===%n", rate, warmup, duration);
+            if (warmup > 0) {
+                runStep(url, rate, warmup);
+            }
+            StepResult result = runStep(url, rate, duration);
+            ObjectNode step = result.toJson(objectMapper);
+            steps.add(step);
+            result.print(System.out);
+            writeHistograms(rate, result);
+
+            boolean sustainable = result.isSustainable(sloP99Ms);
+            step.put("sustainable", sustainable);
+            if (sustainable) {
+                maxSustainable = Math.max(maxSustainable, rate);
+            } else {
+                System.out.printf("目标 QPS %d 不可持续，停止扫描%n", rate);
+                break;
+            }
+        }
+        summary.put("maxSustainableQps", maxSustainable);
+        System.out.printf("%n最大可持续 QPS（p99 <= %.1fms）: %d%n", sloP99Ms, maxSustainable);
+
+        String out = options.get("out");
+        if (out != null) {
+            objectMapper.writerWithDefaultPrettyPrinter().writeValue(new File(out), summary);
+            System.out.println("汇总已写入: " + out);
+        }
+        httpExecutor.shutdownNow();
+        return 0;
+    }
+
+    /**
+     * 以恒定速率运行一档压测
+     */
+    StepResult runStep(String url, long rate, int seconds) throws InterruptedException {
+        double collectRatio = Double.parseDouble(options.getOrDefault("collect-ratio", "0"));
+        int maxInFlight = Integer.parseInt(options.getOrDefault("max-in-flight", "10000"));
+
+        Map<String, OperationStats> stats = new LinkedHashMap<>();
+        stats.put(PREDICT, new OperationStats(PREDICT));
+        stats.put(COLLECT, new OperationStats(COLLECT));
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        // 被丢弃、等待空出名额的请求（按丢弃顺序，每个完成的请求让出一个名额）
+        ConcurrentLinkedQueue<Drop> drops = new ConcurrentLinkedQueue<>();
+        // 本档结束后仍未返回的请求不再计入本档（也不再认领丢弃），避免与汇总及下一档交叉
+        AtomicBoolean finished = new AtomicBoolean();
+
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, rate);
+        long total = rate * seconds;
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10);
+
+        for (long i = 0; i < total; i++) {
+            long intended = start + i * intervalNanos;
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            boolean collect = collectRatio > 0 && random.nextDouble() < collectRatio;
+            String op = collect ? COLLECT : PREDICT;
+            String body = collect ? nextCollectBody() : nextPredictBody();
+            OperationStats opStats = stats.get(op);
+
+            if (!inFlight.tryAcquire()) {
+                // 在途请求过多：记为丢弃，延迟在空出名额时记录，仍按计划时间继续发送
+                drops.add(new Drop(opStats, intended));
+                continue;
+            }
+
+            HttpRequest request = HttpRequest.newBuilder(URI.create(url + (collect ? "/api/addData" : "/api/predict")))
+                    .timeout(Duration.ofSeconds(30))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .build();
+            long sent = System.nanoTime();
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        long now = System.nanoTime();
+                        inFlight.release();
+                        if (finished.get()) {
+                            return;
+                        }
+                        Drop drop = drops.poll();
+                        if (drop != null) {
+                            drop.record(now);
+                        }
+                        if (error != null || response.statusCode() >= 400) {
+                            opStats.errors.incrementAndGet();
+                            return;
+                        }
+                        opStats.latency.recordValue(Math.min(now - intended, HIGHEST_TRACKABLE));
+                        opStats.serviceTime.recordValue(Math.min(now - sent, HIGHEST_TRACKABLE));
+                    });
+        }
+
+        // 等待在途请求完成
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (inFlight.availablePermits() < maxInFlight && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        finished.set(true);
+        long end = System.nanoTime();
+        long dropped = 0;
+        Drop drop;
+        while ((drop = drops.poll()) != null) {
+            drop.record(end);
+        }
+        for (OperationStats s : stats.values()) {
+            dropped += s.dropped.get();
+        }
+        long elapsed = end - start;
+        return new StepResult(rate, total, elapsed, dropped, stats);
+    }
+
+    /**
+     * 取下一条 predict 请求体：优先回放，否则从指纹库合成
+     */
+    private String nextPredictBody() {
+        if (!replayPredict.isEmpty()) {
+            return replayPredict.get(random.nextInt(replayPredict.size()));
+        }
+        int index = random.nextInt(fingerprints.size());
+        ObjectNode root = objectMapper.createObjectNode();
+        root.set("beacons", synthesizeBeacons(fingerprints.get(index)));
+        return root.toString();
+    }
+
+    /**
+     * 取下一条 addData 请求体：优先回放，否则从指纹库合成一批采集数据
+     */
+    private String nextCollectBody() {
+        if (!replayCollect.isEmpty()) {
+            return replayCollect.get(random.nextInt(replayCollect.size()));
+        }
+        if (fingerprints.isEmpty()) {
+            return nextPredictBody();
+        }
+        boolean commit = Boolean.parseBoolean(options.getOrDefault("collect-commit", "false"));
+        int batches = commit ? 20 : 19;
+        collectCount = collectCount % batches + 1;
+
+        int index = random.nextInt(fingerprints.size());
+        ObjectNode root = objectMapper.createObjectNode();
+        root.set("dto", synthesizeBeacons(fingerprints.get(index)));
+        root.put("count", collectCount);
+        root.put("regional", fingerprintRegions.get(index));
+        return root.toString();
+    }
+
+    /**
+     * 以指纹为中心加噪声并随机丢弃信标，生成一次扫描
+     */
+    private ArrayNode synthesizeBeacons(Map<String, Double> fingerprint) {
+        double noise = Double.parseDouble(options.getOrDefault("noise", "3"));
+        double drop = Double.parseDouble(options.getOrDefault("drop", "0.1"));
+        ArrayNode beacons = objectMapper.createArrayNode();
+        for (Map.Entry<String, Double> e : fingerprint.entrySet()) {
+            if (random.nextDouble() < drop) continue;
+            // 存储键格式：uuid_minor_major
+            String[] parts = e.getKey().split("_");
+            if (parts.length != 3) continue;
+            int rssi = (int) Math.round(e.getValue() + random.nextGaussian() * noise);
+            ObjectNode beacon = beacons.addObject();
+            beacon.put("uuid", parts[0]);
+            beacon.put("major", Integer.parseInt(parts[2]));
+            beacon.put("minor", Integer.parseInt(parts[1]));
+            beacon.put("rssi", Math.min(-1, rssi));
+        }
+        return beacons;
+    }
+
+    private void writeHistograms(long rate, StepResult result) throws IOException {
+        String prefix = options.get("hgrm");
+        if (prefix == null) return;
+        for (OperationStats s : result.stats.values()) {
+            if (s.snapshot.getTotalCount() == 0) continue;
+            File file = new File(prefix + "-" + rate + "-" + s.name + ".hgrm");
+            try (PrintStream out = new PrintStream(file, StandardCharsets.UTF_8)) {
+                // 以毫秒为单位输出
+                s.snapshot.outputPercentileDistribution(out, 1_000_000.0);
+            }
+        }
+    }
+
+    /**
+     * 一个被丢弃的请求：计划发送时间与所属操作
+     */
+    record Drop(OperationStats stats, long intended) {
+
+        /**
+         * 按 at 时刻才能发出记录延迟（计入总延迟分布与丢弃延迟分布）
+         */
+        void record(long at) {
+            long value = Math.min(Math.max(at - intended, 0), HIGHEST_TRACKABLE);
+            stats.latency.recordValue(value);
+            stats.dropLatency.recordValue(value);
+            stats.dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * 单个操作类型的统计；latency 包含被丢弃的请求，serviceTime 只包含实际发出并成功的请求
+     */
+    static class OperationStats {
+        final String name;
+        final Recorder latency = new Recorder(HIGHEST_TRACKABLE, 3);
+        final Recorder serviceTime = new Recorder(HIGHEST_TRACKABLE, 3);
+        final Recorder dropLatency = new Recorder(HIGHEST_TRACKABLE, 3);
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        Histogram snapshot;
+        Histogram serviceSnapshot;
+        Histogram dropSnapshot;
+
+        OperationStats(String name) {
+            this.name = name;
+        }
+
+        void freeze() {
+            snapshot = latency.getIntervalHistogram();
+            serviceSnapshot = serviceTime.getIntervalHistogram();
+            dropSnapshot = dropLatency.getIntervalHistogram();
+        }
+    }
+
+    /**
+     * 一档压测结果
+     */
+    static class StepResult {
+        final long targetRate;
+        final long scheduled;
+        final long elapsedNanos;
+        final long dropped;
+        final Map<String, OperationStats> stats;
+
+        StepResult(long targetRate, long scheduled, long elapsedNanos, long dropped, Map<String, OperationStats> stats) {
+            this.targetRate = targetRate;
+            this.scheduled = scheduled;
+            this.elapsedNanos = elapsedNanos;
+            this.dropped = dropped;
+            this.stats = stats;
+            stats.values().forEach(OperationStats::freeze);
+        }
+
+        long completed() {
+            return stats.values().stream().mapToLong(s -> s.serviceSnapshot.getTotalCount()).sum();
+        }
+
+        long errors() {
+            return stats.values().stream().mapToLong(s -> s.errors.get()).sum();
+        }
+
+        double achievedRate() {
+            return completed() / (elapsedNanos / 1e9);
+        }
+
+        /**
+         * 可持续：p99（含丢弃）不超过 SLO，错误与丢弃合计低于 1%，实际吞吐达到目标的 95%
+         */
+        boolean isSustainable(double sloP99Ms) {
+            Histogram predict = stats.get(PREDICT).snapshot;
+            double p99 = predict.getTotalCount() == 0 ? 0 : predict.getValueAtPercentile(99) / 1e6;
+            return p99 <= sloP99Ms
+                    && errors() + dropped <= scheduled * 0.01
+                    && achievedRate() >= targetRate * 0.95;
+        }
+
+        ObjectNode toJson(ObjectMapper mapper) {
+            ObjectNode node = mapper.createObjectNode();
+            node.put("targetRate", targetRate);
+            node.put("scheduled", scheduled);
+            node.put("completed", completed());
+            node.put("errors", errors());
+            node.put("dropped", dropped);
+            node.put("achievedRate", round(achievedRate()));
+            ObjectNode ops = node.putObject("operations");
+            for (OperationStats s : stats.values()) {
+                if (s.snapshot.getTotalCount() == 0 && s.errors.get() == 0) continue;
+                ObjectNode op = ops.putObject(s.name);
+                op.put("count", s.serviceSnapshot.getTotalCount());
+                op.put("errors", s.errors.get());
+                op.put("dropped", s.dropped.get());
+                op.set("latencyMs", percentiles(mapper, s.snapshot));
+                op.set("serviceTimeMs", percentiles(mapper, s.serviceSnapshot));
+                op.set("droppedLatencyMs", percentiles(mapper, s.dropSnapshot));
+            }
+            return node;
+        }
+
+        void print(PrintStream out) {
+            out.printf("完成 %d / 计划 %d，错误 %d，丢弃 %d，实际 QPS %.1f%n",
+                    completed(), scheduled, errors(), dropped, achievedRate());
+            for (OperationStats s : stats.values()) {
+                Histogram h = s.snapshot;
+                if (h.getTotalCount() == 0) continue;
+                out.printf("  %-8s n=%-8d p50=%.2fms p99=%.2fms p999=%.2fms max=%.2fms%n", s.name,
+                        h.getTotalCount(),
+                        h.getValueAtPercentile(50) / 1e6,
+                        h.getValueAtPercentile(99) / 1e6,
+                        h.getValueAtPercentile(99.9) / 1e6,
+                        h.getMaxValue() / 1e6);
+                Histogram d = s.dropSnapshot;
+                if (d.getTotalCount() > 0) {
+                    out.printf("  %-8s 丢弃 n=%-8d p50=%.2fms p99=%.2fms max=%.2fms%n", "",
+                            d.getTotalCount(),
+                            d.getValueAtPercentile(50) / 1e6,
+                            d.getValueAtPercentile(99) / 1e6,
+                            d.getMaxValue() / 1e6);
+                }
+            }
+        }
+
+        private static ObjectNode percentiles(ObjectMapper mapper, Histogram h) {
+            ObjectNode node = mapper.createObjectNode();
+            if (h.getTotalCount() == 0) return node;
+            node.put("mean", round(h.getMean() / 1e6));
+            node.put("p50", round(h.getValueAtPercentile(50) / 1e6));
+            node.put("p90", round(h.getValueAtPercentile(90) / 1e6));
+            node.put("p99", round(h.getValueAtPercentile(99) / 1e6));
+            node.put("p999", round(h.getValueAtPercentile(99.9) / 1e6));
+            node.put("max", round(h.getMaxValue() / 1e6));
+            return node;
+        }
+
+        private static double round(double v) {
+            return Math.round(v * 1000.0) / 1000.0;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.gyq.ble.tool;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gyq.ble.controller.ScanDeserializer;
+import com.gyq.ble.index.BeaconDictionary;
+import com.gyq.ble.index.BinaryScanCodec;
+import com.gyq.ble.index.ScanBuffer;
+import com.gyq.ble.model.BeaconReading;
+import com.gyq.ble.model.PredictPayload;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * 扫描解码基准：比较三种请求体的大小与解码耗时
+ * <ol>
+ *   <li>json-databind：原来的 PredictPayload / BeaconReading 绑定 + 过滤 + 拼接字符串键</li>
+ *   <li>json-stream：ScanDeserializer 流式解析进 ScanBuffer</li>
+ *   <li>binary：BinaryScanCodec 解码进 ScanBuffer</li>
+ * </ol>
+ *
+ * 用法：
+ * <pre>
+ * java -cp ... com.gyq.ble.tool.ScanCodecBenchmark --fingerprints data/median_data.json \
+ *     --readings 20 --scans 1000 --seconds 5
+ * </pre>
+ */
+public class ScanCodecBenchmark {
+
+    private static volatile long sink;
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = LoadGenerator.parseArgs(args);
+        int readingsPerScan = Integer.parseInt(options.getOrDefault("readings", "20"));
+        int scanCount = Integer.parseInt(options.getOrDefault("scans", "1000"));
+        int seconds = Integer.parseInt(options.getOrDefault("seconds", "5"));
+        Random random = new Random(Long.parseLong(options.getOrDefault("seed", "42")));
+
+        ObjectMapper mapper = new ObjectMapper();
+        Map<String, Map<String, Double>> store = new HashMap<>();
+        File file = new File(options.getOrDefault("fingerprints", "data/median_data.json"));
+        if (file.exists()) {
+            store = mapper.readValue(file, new TypeReference<Map<String, Map<String, Double>>>() {});
+        }
+        Set<String> keys = new LinkedHashSet<>();
+        store.values().forEach(m -> keys.addAll(m.keySet()));
+        if (keys.size() < readingsPerScan) {
+            // 指纹库太小时补充合成信标
+            for (int i = 0; keys.size() < readingsPerScan * 4; i++) {
+                keys.add("FDA50693-A4E2-4FB1-AFCF-C6EB07647825_" + (1000 + i) + "_10835");
+            }
+        }
+        List<String> keyList = new ArrayList<>(keys);
+        BeaconDictionary dictionary = BeaconDictionary.of(keyList);
+
+        // 生成测试扫描
+        List<byte[]> jsonBodies = new ArrayList<>();
+        List<byte[]> binaryBodies = new ArrayList<>();
+        for (int s = 0; s < scanCount; s++) {
+            Collections.shuffle(keyList, random);
+            List<BeaconReading> readings = new ArrayList<>();
+            List<String> uuids = new ArrayList<>();
+            int[] majors = new int[readingsPerScan];
+            int[] minors = new int[readingsPerScan];
+            int[] rssis = new int[readingsPerScan];
+            for (int i = 0; i < readingsPerScan; i++) {
+                String[] parts = keyList.get(i).split("_");
+                int rssi = -40 - random.nextInt(50);
+                readings.add(new BeaconReading(parts[0], Integer.parseInt(parts[2]), Integer.parseInt(parts[1]), rssi));
+                uuids.add(parts[0]);
+                majors[i] = Integer.parseInt(parts[2]);
+                minors[i] = Integer.parseInt(parts[1]);
+                rssis[i] = rssi;
+            }
+            jsonBodies.add(mapper.writeValueAsBytes(new PredictPayload(readings)));
+            binaryBodies.add(BinaryScanCodec.encode(uuids, majors, minors, rssis));
+        }
+
+        double jsonBytes = jsonBodies.stream().mapToInt(b -> b.length).average().orElse(0);
+        double binaryBytes = binaryBodies.stream().mapToInt(b -> b.length).average().orElse(0);
+        System.out.printf("每次扫描 %d 个读数，平均大小：JSON %.0f 字节，二进制 %.0f 字节（%.1f%%）%n",
+                readingsPerScan, jsonBytes, binaryBytes, binaryBytes * 100 / jsonBytes);
+
+        JsonFactory factory = mapper.getFactory();
+        ScanBuffer scan = ScanBuffer.create(dictionary);
+
+        Decoder databind = body -> {
+            PredictPayload payload = mapper.readValue(body, PredictPayload.class);
+            Map<String, Double> map = new HashMap<>();
+            payload.getBeacons().stream()
+                    .filter(item -> item.getRssi() < ScanDeserializer.RSSI_MAX && item.getRssi() > ScanDeserializer.RSSI_MIN)
+                    .forEach(item -> map.put(item.getUuid() + "_" + item.getMinor() + "_" + item.getMajor(),
+                            item.getRssi().doubleValue()));
+            return map.size();
+        };
+        Decoder stream = body -> {
+            try (JsonParser p = factory.createParser(body)) {
+                p.nextToken();
+                scan.reset(dictionary);
+                ScanDeserializer.parse(p, scan, dictionary);
+            }
+            return scan.size();
+        };
+        Decoder binary = body -> {
+            scan.reset(dictionary);
+            BinaryScanCodec.decode(ByteBuffer.wrap(body), scan, dictionary,
+                    ScanDeserializer.RSSI_MIN, ScanDeserializer.RSSI_MAX);
+            return scan.size();
+        };
+
+        double databindNs = measure("json-databind", databind, jsonBodies, seconds);
+        double streamNs = measure("json-stream", stream, jsonBodies, seconds);
+        double binaryNs = measure("binary", binary, binaryBodies, seconds);
+        System.out.printf("%n相对 json-databind：json-stream %.1fx，binary %.1fx%n",
+                databindNs / streamNs, databindNs / binaryNs);
+    }
+
+    /**
+     * 先预热再计时，返回每次解码的平均纳秒数
+     */
+    private static double measure(String name, Decoder decoder, List<byte[]> bodies, int seconds) throws IOException {
+        run(decoder, bodies, Math.max(1, seconds / 2) * 1_000_000_000L);
+        long[] result = run(decoder, bodies, seconds * 1_000_000_000L);
+        double nsPerOp = (double) result[1] / result[0];
+        System.out.printf("%-14s %10.0f ns/次  %10.0f 次/秒%n", name, nsPerOp, 1e9 / nsPerOp);
+        return nsPerOp;
+    }
+
+    private static long[] run(Decoder decoder, List<byte[]> bodies, long budgetNanos) throws IOException {
+        long ops = 0;
+        long total = 0;
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < budgetNanos) {
+            for (byte[] body : bodies) {
+                total += decoder.decode(body);
+            }
+            ops += bodies.size();
+        }
+        sink = total;
+        return new long[]{ops, System.nanoTime() - start};
+    }
+
+    @FunctionalInterface
+    private interface Decoder {
+        int decode(byte[] body) throws IOException;
+    }
+}
@@ -0,0 +1,57 @@
+package com.gyq.ble.tool;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gyq.ble.service.FingerprintShardService;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * 把单文件指纹库拆分为按站点的分片（{@code FingerprintShardService} 读取的格式）
+ *
+ * 每个指纹归入其信标中出现最多的站点；站点默认为 UUID_major，可用 --sites 指定显式映射。
+ * 输出每个站点一个 {站点}.json 和一个 manifest.json（站点 -> 信标键）。
+ *
+ * 用法：
+ * <pre>
+ * java -cp ... com.gyq.ble.tool.ShardSplitter --input data/median_data.json --dir data/shards \
+ *     [--sites data/shards/sites.json]
+ * </pre>
+ */
+public class ShardSplitter {
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = LoadGenerator.parseArgs(args);
+        String dir = options.getOrDefault("dir", "data/shards");
+        Map<String, String> mapping = FingerprintShardService.readSiteMapping(
+                new File(options.getOrDefault("sites", dir + "/sites.json")));
+        ObjectMapper objectMapper = new ObjectMapper();
+        Map<String, Map<String, Double>> store = objectMapper.readValue(
+                new File(options.getOrDefault("input", "data/median_data.json")),
+                new TypeReference<Map<String, Map<String, Double>>>() {});
+
+        Map<String, Map<String, Map<String, Double>>> shards = new TreeMap<>();
+        Map<String, Set<String>> manifest = new TreeMap<>();
+        int skipped = 0;
+        for (Map.Entry<String, Map<String, Double>> e : store.entrySet()) {
+            String site = FingerprintShardService.majoritySite(e.getValue().keySet(), mapping);
+            if (site == null) {
+                skipped++;
+                continue;
+            }
+            shards.computeIfAbsent(site, k -> new LinkedHashMap<>()).put(e.getKey(), e.getValue());
+            manifest.computeIfAbsent(site, k -> new TreeSet<>()).addAll(e.getValue().keySet());
+        }
+
+        Files.createDirectories(new File(dir).toPath());
+        for (Map.Entry<String, Map<String, Map<String, Double>>> e : shards.entrySet()) {
+            FingerprintShardService.write(objectMapper, FingerprintShardService.shardFile(dir, e.getKey()), e.getValue());
+            System.out.printf("%s: %d 条指纹, %d 个信标%n", e.getKey(), e.getValue().size(), manifest.get(e.getKey()).size());
+        }
+        FingerprintShardService.write(objectMapper, new File(dir, "manifest.json"), manifest);
+        System.out.printf("共 %d 条指纹拆分为 %d 个分片，无法归属 %d 条%n", store.size() - skipped, shards.size(), skipped);
+    }
+}
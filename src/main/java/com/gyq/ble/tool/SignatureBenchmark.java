@@ -0,0 +1,140 @@
+package com.gyq.ble.tool;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gyq.ble.controller.ScanDeserializer;
+import com.gyq.ble.index.BeaconDictionary;
+import com.gyq.ble.index.FingerprintIndex;
+import com.gyq.ble.index.ScanBuffer;
+import com.gyq.ble.index.SignatureIndex;
+import com.gyq.ble.index.SimilarityMetric;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * 最强信标签名预筛的召回率与加速比测量
+ *
+ * 从指纹库随机取点位，加高斯噪声、随机丢弃信标并按 (-85, 0) 过滤后作为查询，
+ * 与全量余弦打分比较：最佳点位是否在候选集中（召回）、Top-1 区域是否一致、平均候选数、回退比例与耗时，
+ * 并给出相对查询来源区域的 Top-1 准确率（全量与预筛各自计算）。--min-common 为余弦打分要求的最少共同信标数（默认与服务相同）。
+ *
+ * 用法：
+ * <pre>
+ * java -cp ... com.gyq.ble.tool.SignatureBenchmark --fingerprints target/synthetic.json \
+ *     --queries 2000 --noise 4 --drop 0.1 --top-n 2,3,4 --min-common 4
+ * </pre>
+ */
+public class SignatureBenchmark {
+
+    private static volatile double sink;
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = LoadGenerator.parseArgs(args);
+        int queryCount = Integer.parseInt(options.getOrDefault("queries", "2000"));
+        double noise = Double.parseDouble(options.getOrDefault("noise", "4"));
+        double drop = Double.parseDouble(options.getOrDefault("drop", "0.1"));
+        int minCommon = Integer.parseInt(options.getOrDefault("min-common", String.valueOf(FingerprintIndex.MIN_COMMON)));
+        Random random = new Random(Long.parseLong(options.getOrDefault("seed", "42")));
+
+        Map<String, Map<String, Double>> store = new ObjectMapper().readValue(
+                new File(options.getOrDefault("fingerprints", "data/median_data.json")),
+                new TypeReference<Map<String, Map<String, Double>>>() {});
+        FingerprintIndex index = FingerprintIndex.build(0, store, BeaconDictionary.EMPTY);
+        int n = index.size();
+        int[][] ids = new int[n][];
+        double[][] values = new double[n][];
+        for (int i = 0; i < n; i++) {
+            ids[i] = index.ids(i);
+            values[i] = index.values(i);
+        }
+        System.out.printf("指纹数 %d，区域数 %d，信标数 %d，查询 %d（噪声 %.1f dB，丢弃率 %.2f，最少共同信标 %d）%n",
+                n, index.regionCount(), index.getDictionary().size(), queryCount, noise, drop, minCommon);
+
+        // 生成查询
+        List<ScanBuffer> queries = new ArrayList<>();
+        int[] sourceRegion = new int[queryCount];
+        for (int q = 0; q < queryCount; q++) {
+            int source = random.nextInt(n);
+            sourceRegion[q] = index.regionOf(source);
+            ScanBuffer scan = ScanBuffer.create(index.getDictionary());
+            for (int j = 0; j < ids[source].length; j++) {
+                if (random.nextDouble() < drop) continue;
+                int rssi = (int) Math.round(values[source][j] + random.nextGaussian() * noise);
+                if (rssi >= ScanDeserializer.RSSI_MAX || rssi <= ScanDeserializer.RSSI_MIN) continue;
+                scan.add(ids[source][j], rssi);
+            }
+            scan.seal();
+            queries.add(scan);
+        }
+
+        // 全量打分基线
+        int[] bestPoint = new int[queryCount];
+        int[] bestRegion = new int[queryCount];
+        int correct = 0;
+        long start = System.nanoTime();
+        for (int q = 0; q < queryCount; q++) {
+            bestPoint[q] = best(index, queries.get(q), null, minCommon);
+            bestRegion[q] = bestPoint[q] < 0 ? -1 : index.regionOf(bestPoint[q]);
+        }
+        double exhaustiveUs = (System.nanoTime() - start) / 1000.0 / queryCount;
+        for (int q = 0; q < queryCount; q++) {
+            if (bestRegion[q] == sourceRegion[q]) correct++;
+        }
+        System.out.printf("%-6s %8s %8s %8s %10s %8s %10s %8s%n",
+                "top-n", "召回", "Top-1一致", "准确率", "平均候选", "回退", "µs/次", "加速比");
+        System.out.printf("%-6s %8s %8s %7.1f%% %10d %8s %10.1f %8s%n",
+                "全量", "-", "-", correct * 100.0 / queryCount, n, "-", exhaustiveUs, "1.0x");
+
+        for (String item : options.getOrDefault("top-n", "2,3,4").split(",")) {
+            int topN = Integer.parseInt(item.trim());
+            SignatureIndex signature = SignatureIndex.build(topN, ids, values);
+            // 预热
+            for (ScanBuffer scan : queries) {
+                signature.candidates(scan);
+            }
+            int hit = 0, agree = 0, fallback = 0, accurate = 0;
+            long candidates = 0;
+            start = System.nanoTime();
+            for (int q = 0; q < queryCount; q++) {
+                int[] cand = signature.candidates(queries.get(q));
+                if (cand == null) {
+                    fallback++;
+                    candidates += n;
+                } else {
+                    candidates += cand.length;
+                }
+                int point = best(index, queries.get(q), cand, minCommon);
+                int region = point < 0 ? -1 : index.regionOf(point);
+                if (point == bestPoint[q]) hit++;
+                if (region == bestRegion[q]) agree++;
+                if (region == sourceRegion[q]) accurate++;
+            }
+            double us = (System.nanoTime() - start) / 1000.0 / queryCount;
+            System.out.printf("%-6d %7.1f%% %7.1f%% %7.1f%% %10.1f %7.1f%% %10.1f %7.1fx%n", topN,
+                    hit * 100.0 / queryCount, agree * 100.0 / queryCount, accurate * 100.0 / queryCount,
+                    (double) candidates / queryCount,
+                    fallback * 100.0 / queryCount, us, exhaustiveUs / us);
+        }
+    }
+
+    /**
+     * 候选中余弦相似度最高的点位，candidates 为 null 时全量
+     */
+    private static int best(FingerprintIndex index, ScanBuffer scan, int[] candidates, int minCommon) {
+        int best = -1;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        int m = candidates == null ? index.size() : candidates.length;
+        for (int c = 0; c < m; c++) {
+            int i = candidates == null ? c : candidates[c];
+            double score = index.score(i, scan, SimilarityMetric.COSINE, minCommon);
+            if (!Double.isNaN(score) && score > bestScore) {
+                bestScore = score;
+                best = i;
+            }
+        }
+        sink = bestScore;
+        return best;
+    }
+}
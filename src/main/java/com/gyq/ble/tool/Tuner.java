@@ -0,0 +1,308 @@
+package com.gyq.ble.tool;
+
+import ch.qos.logback.classic.Level;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gyq.ble.index.BeaconDictionary;
+import com.gyq.ble.index.FingerprintIndex;
+import com.gyq.ble.index.ScanBuffer;
+import com.gyq.ble.index.SimilarityMetric;
+import com.gyq.ble.model.PredictResponse;
+import com.gyq.ble.model.TuningProfile;
+import com.gyq.ble.service.DatasetService;
+import com.gyq.ble.service.KnnService;
+import com.gyq.ble.service.PredictService;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * 调参：在 CSV 数据集上用 k 折交叉验证并行搜索 K、指纹打分指标、RSSI 过滤区间、最少共同信标数与 addData 出现次数阈值，
+ * 在准确率不低于最优值减去 --tolerance 的配置中选代价最小的，写成 TuningService 热加载的配置文件
+ *
+ * 指纹参数按 addData 的流程模拟：每折的训练样本按区域每 --batch 条（默认 20，对应一次采集）聚合为一个指纹，
+ * 丢弃区间外的读数和出现次数不超过阈值的信标（样本不足一批时阈值按比例缩放）后取中位数；
+ * 测试样本按同一区间过滤后打分并按 PredictService.vote 投票。
+ * 代价为每次查询比较的信标读数数乘以指标的相对开销（SimilarityMetric.cost），与机器负载无关。
+ * K 单独在 KnnService.classify 上评估，取准确率在容差内的最小 K。
+ *
+ * 用法：
+ * <pre>
+ * java -cp ... com.gyq.ble.tool.Tuner --dataset qqqq.csv --output data/tuning_profile.json \
+ *     [--search grid|random --samples 200] [--folds 5] [--tolerance 0.01]
+ * </pre>
+ *
+ * 搜索空间（逗号分隔）：--k 1,3,5,7,9、--metrics all、--rssi-min -95,-90,-85,-80,-75、--rssi-max 0,-30、
+ * --min-common 1,2,3,4、--min-occurrences 0,3,5,8,10；--dry-run 只输出结果不写文件
+ */
+public class Tuner {
+
+    /**
+     * 一组指纹参数
+     */
+    private record Config(SimilarityMetric metric, int rssiMin, int rssiMax, int minCommon, int minOccurrences) {
+
+        Build build() {
+            return new Build(rssiMin, rssiMax, minOccurrences);
+        }
+    }
+
+    /**
+     * 决定指纹库内容的参数，相同的配置共用一次构建
+     */
+    private record Build(int rssiMin, int rssiMax, int minOccurrences) {
+
+        boolean accepts(double rssi) {
+            return rssi > -100.0 && rssi > rssiMin && rssi < rssiMax;
+        }
+    }
+
+    private record Result(Config config, double accuracy, double cost, double micros) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.ERROR);
+        Map<String, String> options = LoadGenerator.parseArgs(args);
+        File dataset = new File(options.getOrDefault("dataset", "qqqq.csv"));
+        int folds = Integer.parseInt(options.getOrDefault("folds", "5"));
+        int batch = Integer.parseInt(options.getOrDefault("batch", "20"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        double tolerance = Double.parseDouble(options.getOrDefault("tolerance", "0.01"));
+        int threads = Integer.parseInt(options.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+        DatasetService.Snapshot data = dataset.exists() ? DatasetService.read(dataset, 0) : null;
+        if (data == null || data.labels().isEmpty()) {
+            System.out.println("数据集为空或不存在: " + dataset.getPath());
+            return;
+        }
+        String[] keys = data.beaconColumns().stream().map(Tuner::storageKey).toArray(String[]::new);
+        int n = data.labels().size();
+        int[] foldOf = new int[n];
+        List<Integer> order = new ArrayList<>(IntStream.range(0, n).boxed().toList());
+        Collections.shuffle(order, new Random(seed));
+        for (int i = 0; i < n; i++) {
+            foldOf[order.get(i)] = i % folds;
+        }
+
+        List<Config> configs = new ArrayList<>();
+        String metricNames = options.getOrDefault("metrics", "all");
+        List<SimilarityMetric> metrics = metricNames.equals("all") ? List.of(SimilarityMetric.values())
+                : Arrays.stream(metricNames.split(",")).map(SimilarityMetric::of).toList();
+        for (SimilarityMetric metric : metrics) {
+            for (int rssiMin : ints(options, "rssi-min", "-95,-90,-85,-80,-75")) {
+                for (int rssiMax : ints(options, "rssi-max", "0,-30")) {
+                    for (int minCommon : ints(options, "min-common", "1,2,3,4")) {
+                        for (int minOccurrences : ints(options, "min-occurrences", "0,3,5,8,10")) {
+                            if (rssiMin < rssiMax) {
+                                configs.add(new Config(metric, rssiMin, rssiMax, minCommon, minOccurrences));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        if (options.getOrDefault("search", "grid").equals("random")) {
+            Collections.shuffle(configs, new Random(seed));
+            configs = configs.subList(0, Math.min(configs.size(), Integer.parseInt(options.getOrDefault("samples", "200"))));
+        }
+        Map<Build, List<Config>> groups = new LinkedHashMap<>();
+        configs.forEach(c -> groups.computeIfAbsent(c.build(), b -> new ArrayList<>()).add(c));
+        int[] ks = ints(options, "k", "1,3,5,7,9");
+        System.out.printf("数据集 %s：样本 %d，信标列 %d；%d 折，%d 组指纹参数（%d 次构建），%d 个 K，线程 %d%n%n",
+                dataset.getPath(), n, keys.length, folds, configs.size(), groups.size(), ks.length, threads);
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        Queue<Result> results = new ConcurrentLinkedQueue<>();
+        pool.submit(() -> groups.entrySet().parallelStream().forEach(e ->
+                results.addAll(evaluate(data, keys, foldOf, folds, batch, e.getKey(), e.getValue())))).get();
+        Map<Integer, Double> knn = new TreeMap<>();
+        pool.submit(() -> Arrays.stream(ks).parallel().forEach(k -> {
+            double accuracy = knnAccuracy(data, foldOf, folds, k);
+            synchronized (knn) {
+                knn.put(k, accuracy);
+            }
+        })).get();
+        pool.shutdown();
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        List<Result> ranked = new ArrayList<>(results);
+        ranked.sort(Comparator.comparingDouble(Result::accuracy).reversed().thenComparingDouble(Result::cost));
+        double best = ranked.get(0).accuracy();
+        Result chosen = ranked.stream().filter(r -> r.accuracy() >= best - tolerance)
+                .min(Comparator.comparingDouble(Result::cost).thenComparing(Comparator.comparingDouble(Result::accuracy).reversed()))
+                .orElseThrow();
+        double bestKnn = Collections.max(knn.values());
+        int k = knn.entrySet().stream().filter(e -> e.getValue() >= bestKnn - tolerance)
+                .map(Map.Entry::getKey).findFirst().orElseThrow();
+
+        System.out.printf("%-16s %8s %8s %6s %10s %8s %10s %9s%n",
+                "指标", "RSSI下限", "RSSI上限", "共同", "出现次数>", "Top-1", "代价", "均值µs");
+        ranked.stream().limit(15).forEach(Tuner::print);
+        System.out.println("...");
+        System.out.println();
+        knn.forEach((key, accuracy) -> System.out.printf("KNN K=%-3d Top-1 %.1f%%%n", key, accuracy * 100));
+        System.out.printf("%n搜索耗时 %d ms；最优指纹 Top-1 %.1f%%，容差 %.1f%% 内代价最小：%n", millis, best * 100, tolerance * 100);
+        print(chosen);
+        System.out.printf("K = %d（Top-1 %.1f%%）%n", k, knn.get(k) * 100);
+
+        Config c = chosen.config();
+        TuningProfile profile = new TuningProfile(k, c.metric().getName(), c.rssiMin(), c.rssiMax(), c.minCommon(),
+                c.minOccurrences(), round(chosen.accuracy()), round(knn.get(k)),
+                LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+        if (options.containsKey("dry-run")) {
+            return;
+        }
+        File output = new File(options.getOrDefault("output", "data/tuning_profile.json"));
+        if (output.getParentFile() != null) {
+            output.getParentFile().mkdirs();
+        }
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(output, profile);
+        System.out.println("已写入 " + output.getPath() + "（服务在 1 秒内自动加载，或调用 /api/reload）");
+    }
+
+    /**
+     * 对共用同一指纹库构建的一组配置做 k 折交叉验证
+     */
+    private static List<Result> evaluate(DatasetService.Snapshot data, String[] keys, int[] foldOf, int folds, int batch,
+                                         Build build, List<Config> configs) {
+        int n = foldOf.length;
+        int[] correct = new int[configs.size()];
+        double[] cost = new double[configs.size()];
+        long[] nanos = new long[configs.size()];
+        for (int f = 0; f < folds; f++) {
+            FingerprintIndex index = FingerprintIndex.build(0, fingerprints(data, keys, foldOf, f, batch, build),
+                    BeaconDictionary.EMPTY, 0);
+            if (index.size() == 0) {
+                continue;
+            }
+            for (int q = 0; q < n; q++) {
+                if (foldOf[q] != f) continue;
+                ScanBuffer scan = scan(index.getDictionary(), data.vectors().get(q), keys, build);
+                for (int c = 0; c < configs.size(); c++) {
+                    Config config = configs.get(c);
+                    long start = System.nanoTime();
+                    double[] scores = new double[index.size()];
+                    for (int i = 0; i < scores.length; i++) {
+                        scores[i] = index.score(i, scan, config.metric(), config.minCommon());
+                        cost[c] += (scan.size() + index.ids(i).length) * config.metric().getCost();
+                    }
+                    PredictResponse response = PredictService.vote(index, scores);
+                    nanos[c] += System.nanoTime() - start;
+                    if (Objects.equals(response.getRegionTop1(), data.labels().get(q))) {
+                        correct[c]++;
+                    }
+                }
+            }
+        }
+        List<Result> results = new ArrayList<>();
+        for (int c = 0; c < configs.size(); c++) {
+            results.add(new Result(configs.get(c), (double) correct[c] / n, cost[c] / n, nanos[c] / 1000.0 / n));
+        }
+        return results;
+    }
+
+    /**
+     * 按 addData 的流程把第 f 折以外的样本聚合为指纹：按区域每 batch 条一个指纹，
+     * 丢弃区间外读数和出现次数不超过阈值（不足一批时按比例缩放）的信标，取中位数
+     */
+    private static Map<String, Map<String, Double>> fingerprints(DatasetService.Snapshot data, String[] keys, int[] foldOf,
+                                                                 int f, int batch, Build build) {
+        Map<Integer, List<Integer>> byRegion = new TreeMap<>();
+        for (int i = 0; i < foldOf.length; i++) {
+            if (foldOf[i] != f) {
+                byRegion.computeIfAbsent(data.labels().get(i), r -> new ArrayList<>()).add(i);
+            }
+        }
+        Map<String, Map<String, Double>> store = new LinkedHashMap<>();
+        byRegion.forEach((region, samples) -> {
+            for (int from = 0, chunk = 1; from < samples.size(); from += batch, chunk++) {
+                List<Integer> group = samples.subList(from, Math.min(from + batch, samples.size()));
+                double threshold = (double) build.minOccurrences() * group.size() / batch;
+                Map<String, Double> fingerprint = new HashMap<>();
+                for (int j = 0; j < keys.length; j++) {
+                    if (keys[j] == null) continue;
+                    List<Double> values = new ArrayList<>();
+                    for (int i : group) {
+                        double v = data.vectors().get(i)[j];
+                        if (build.accepts(v)) values.add(v);
+                    }
+                    if (values.size() > threshold && !values.isEmpty()) {
+                        fingerprint.put(keys[j], median(values));
+                    }
+                }
+                if (!fingerprint.isEmpty()) {
+                    store.put(region + "_" + chunk, fingerprint);
+                }
+            }
+        });
+        return store;
+    }
+
+    private static ScanBuffer scan(BeaconDictionary dictionary, double[] vector, String[] keys, Build build) {
+        ScanBuffer scan = ScanBuffer.create(dictionary);
+        for (int j = 0; j < vector.length; j++) {
+            if (keys[j] == null || !build.accepts(vector[j])) continue;
+            int id = dictionary.idOf(keys[j]);
+            if (id >= 0) {
+                scan.add(id, vector[j]);
+            }
+        }
+        scan.seal();
+        return scan;
+    }
+
+    private static double knnAccuracy(DatasetService.Snapshot data, int[] foldOf, int folds, int k) {
+        int correct = 0;
+        for (int f = 0; f < folds; f++) {
+            final int fold = f;
+            int[] training = IntStream.range(0, foldOf.length).filter(i -> foldOf[i] != fold).toArray();
+            for (int q = 0; q < foldOf.length; q++) {
+                if (foldOf[q] != f) continue;
+                PredictResponse response = KnnService.classify(data.vectors(), data.labels(), data.vectors().get(q), k, training);
+                if (Objects.equals(response.getRegionTop1(), data.labels().get(q))) {
+                    correct++;
+                }
+            }
+        }
+        return (double) correct / foldOf.length;
+    }
+
+    /**
+     * CSV 信标列名 uuid-major-minor 转为存储键 uuid_minor_major，格式不符时返回 null
+     */
+    private static String storageKey(String column) {
+        int minorStart = column.lastIndexOf('-');
+        int majorStart = minorStart > 0 ? column.lastIndexOf('-', minorStart - 1) : -1;
+        if (majorStart <= 0) {
+            return null;
+        }
+        return column.substring(0, majorStart) + "_" + column.substring(minorStart + 1) + "_"
+                + column.substring(majorStart + 1, minorStart);
+    }
+
+    private static double median(List<Double> values) {
+        Collections.sort(values);
+        int n = values.size();
+        return (n & 1) == 1 ? values.get(n / 2) : (values.get(n / 2 - 1) + values.get(n / 2)) / 2.0;
+    }
+
+    private static int[] ints(Map<String, String> options, String name, String defaults) {
+        return Arrays.stream(options.getOrDefault(name, defaults).split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+    }
+
+    private static double round(double v) {
+        return Math.round(v * 10000) / 10000.0;
+    }
+
+    private static void print(Result r) {
+        Config c = r.config();
+        System.out.printf("%-16s %8d %8d %6d %10d %7.1f%% %10.0f %9.1f%n", c.metric().getName(), c.rssiMin(), c.rssiMax(),
+                c.minCommon(), c.minOccurrences(), r.accuracy() * 100, r.cost(), r.micros());
+    }
+}
@@ -1,9 +1,10 @@
 package com.gyq;
 
+import com.gyq.ble.BleApplication;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+@SpringBootTest(classes = BleApplication.class)
 class BleApplicationTests {
 
     @Test
@@ -0,0 +1,85 @@
+package com.gyq.ble.controller;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.gyq.ble.index.BeaconDictionary;
+import com.gyq.ble.index.ScanBuffer;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScanDeserializerTests {
+
+    private static final String UUID = "FDA50693-A4E2-4FB1-AFCF-C6EB07647825";
+
+    private final BeaconDictionary dictionary = BeaconDictionary.of(List.of(UUID + "_1012_10835", UUID + "_1063_10835"));
+
+    private ScanBuffer parse(String json) throws IOException {
+        ScanBuffer scan = ScanBuffer.create(dictionary);
+        try (JsonParser p = new JsonFactory().createParser(json.replace('\'', '"'))) {
+            p.nextToken();
+            ScanDeserializer.parse(p, scan, dictionary);
+            assertNull(p.nextToken(), "请求体未读完");
+        }
+        return scan;
+    }
+
+    private static String beacon(String uuid, String major, String minor, String rssi) {
+        return "{'uuid':" + uuid + ",'major':" + major + ",'minor':" + minor + ",'rssi':" + rssi + "}";
+    }
+
+    @Test
+    void parsesNumbersAndNumericStrings() throws IOException {
+        ScanBuffer scan = parse("{'beacons':[" + beacon("'" + UUID + "'", "10835", "1012", "-63") + ","
+                + beacon("'" + UUID + "'", "'10835'", "'1063'", "'-70.0'") + "]}");
+
+        assertEquals(2, scan.size());
+        assertEquals(dictionary.idOf(UUID + "_1012_10835"), scan.id(0));
+        assertEquals(-63.0, scan.rssi(0));
+        assertEquals(dictionary.idOf(UUID + "_1063_10835"), scan.id(1));
+        assertEquals(-70.0, scan.rssi(1));
+    }
+
+    @Test
+    void nonNumericStringsAreNotReadAsZero() throws IOException {
+        // "abc" 若按 0 读取会落在 (-85, 0) 之外被计为过滤；这里应视为缺字段直接丢弃
+        ScanBuffer scan = parse("{'beacons':[" + beacon("'" + UUID + "'", "10835", "1012", "'abc'") + ","
+                + beacon("'" + UUID + "'", "''", "1063", "-60") + ","
+                + beacon("'" + UUID + "'", "10835", "'1e3'", "-60") + "]}");
+
+        assertEquals(0, scan.size());
+        assertEquals(0, scan.filtered());
+        assertEquals(0, scan.unknown());
+    }
+
+    @Test
+    void skipsNestedValuesInsideBeacon() throws IOException {
+        ScanBuffer scan = parse("{'beacons':["
+                + beacon("[1,2]", "10835", "1012", "-63") + ","
+                + beacon("{'a':{'b':[" + "'" + UUID + "'" + "]}}", "10835", "1012", "-63") + ","
+                + beacon("'" + UUID + "'", "[10835]", "1012", "{'v':-63}") + ","
+                + "{'extra':[{'uuid':'x'}],'uuid':'" + UUID + "','major':10835,'minor':1063,'rssi':-55,'tx':{'power':[-59]}}"
+                + "]}");
+
+        // 只有最后一条完整；嵌套值被整体跳过，不会把内层字段当成信标字段
+        assertEquals(1, scan.size());
+        assertEquals(dictionary.idOf(UUID + "_1063_10835"), scan.id(0));
+        assertEquals(-55.0, scan.rssi(0));
+    }
+
+    @Test
+    void skipsMalformedEntriesAndUnknownFields() throws IOException {
+        ScanBuffer scan = parse("{'deviceId':{'id':[1]},'beacons':[1,'x',[{'uuid':'" + UUID + "'}],null,"
+                + beacon("'" + UUID + "'", "10835", "1012", "-63") + ","
+                + beacon("'" + UUID + "'", "10835", "9999", "-50") + ","
+                + beacon("'" + UUID + "'", "10835", "1063", "-90") + "],'ts':[1,[2]]}");
+
+        assertEquals(1, scan.size());
+        assertEquals(dictionary.idOf(UUID + "_1012_10835"), scan.id(0));
+        assertEquals(1, scan.unknown());
+        assertEquals(1, scan.filtered());
+    }
+}
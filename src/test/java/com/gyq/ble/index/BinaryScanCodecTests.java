@@ -0,0 +1,43 @@
+package com.gyq.ble.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryScanCodecTests {
+
+    private static final String UUID = "FDA50693-A4E2-4FB1-AFCF-C6EB07647825";
+
+    @Test
+    void decodesIntoScanBufferSortedById() {
+        BeaconDictionary dictionary = BeaconDictionary.of(List.of(
+                UUID + "_1012_10835", UUID + "_1063_10835", UUID + "_1100_10835"));
+        byte[] body = BinaryScanCodec.encode(List.of(UUID, UUID, UUID.toLowerCase(), UUID),
+                new int[]{10835, 10835, 10835, 10835},
+                new int[]{1100, 1012, 1063, 9999},
+                new int[]{-70, -63, -90, -55});
+
+        ScanBuffer scan = ScanBuffer.create(dictionary);
+        BinaryScanCodec.decode(ByteBuffer.wrap(body), scan, dictionary, -85, 0);
+
+        assertEquals(2, scan.size());
+        assertEquals(dictionary.idOf(UUID + "_1012_10835"), scan.id(0));
+        assertEquals(-63.0, scan.rssi(0));
+        assertEquals(dictionary.idOf(UUID + "_1100_10835"), scan.id(1));
+        assertEquals(1, scan.filtered());
+        assertEquals(1, scan.unknown());
+        assertEquals(List.of(UUID + "_9999_10835"), BinaryScanCodec.unknownKeys(ByteBuffer.wrap(body), dictionary));
+    }
+
+    @Test
+    void rejectsTruncatedMessage() {
+        byte[] body = BinaryScanCodec.encode(List.of(UUID), new int[]{1}, new int[]{2}, new int[]{-60});
+        ByteBuffer truncated = ByteBuffer.wrap(body, 0, body.length - 1);
+        ScanBuffer scan = ScanBuffer.create(BeaconDictionary.EMPTY);
+        assertThrows(IllegalArgumentException.class,
+                () -> BinaryScanCodec.decode(truncated, scan, BeaconDictionary.EMPTY, -85, 0));
+    }
+}
@@ -0,0 +1,118 @@
+package com.gyq.ble.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapMatrixTests {
+
+    private static OffHeapMatrix matrix(int rows, int columns, double offset) {
+        OffHeapMatrix.Builder builder = new OffHeapMatrix.Builder(columns);
+        double[] vector = new double[columns];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < columns; j++) {
+                vector[j] = -(offset + i + j % 7);
+            }
+            builder.add(i % 5, 1.0 + i % 3, vector);
+        }
+        return builder.build();
+    }
+
+    @Test
+    void readsRowsLabelsAndWeights() {
+        OffHeapMatrix matrix = matrix(10, 3, 40);
+
+        assertEquals(10, matrix.rows());
+        assertEquals(-41.0, matrix.get(1, 0));
+        assertEquals(-43.0, matrix.get(1, 2));
+        assertEquals(3, matrix.label(3));
+        assertEquals(2.0, matrix.weight(4));
+        assertArrayEquals(new double[]{-49, -50, -51}, matrix.row(9, new double[3]));
+        assertEquals(List.of(0, 1, 2), matrix.labels().subList(0, 3));
+        matrix.release();
+    }
+
+    @Test
+    void retainDefersFreeUntilLastRelease() {
+        long before = OffHeapMatrix.allocatedBytes();
+        OffHeapMatrix matrix = matrix(10, 3, 40);
+        assertTrue(OffHeapMatrix.allocatedBytes() > before);
+
+        assertTrue(matrix.retain());
+        matrix.release();
+        assertFalse(matrix.isFreed());
+        assertEquals(-41.0, matrix.get(1, 0));
+
+        matrix.release();
+        assertTrue(matrix.isFreed());
+        assertFalse(matrix.retain());
+        assertEquals(before, OffHeapMatrix.allocatedBytes());
+    }
+
+    @Test
+    void readAfterFreeThrowsInsteadOfTouchingFreedMemory() {
+        OffHeapMatrix matrix = matrix(10, 3, 40);
+        matrix.release();
+
+        assertThrows(IllegalStateException.class, () -> matrix.get(1, 0));
+        assertThrows(IllegalStateException.class, () -> matrix.label(1));
+        assertThrows(IllegalStateException.class, () -> matrix.weight(1));
+        assertThrows(IllegalStateException.class, () -> matrix.row(1, new double[3]));
+        assertThrows(IllegalStateException.class, () -> matrix.distance(1, new double[3], null));
+        assertThrows(IllegalStateException.class, () -> matrix.vectors().get(1));
+    }
+
+    @Test
+    void doubleReleaseIsRejected() {
+        OffHeapMatrix matrix = matrix(10, 3, 40);
+        matrix.release();
+
+        assertThrows(IllegalStateException.class, matrix::release);
+    }
+
+    @Test
+    void sharedSegmentsOutliveTheSourceMatrix() {
+        long before = OffHeapMatrix.allocatedBytes();
+        // 4096 列时每段 256 行：300 行 = 1 个写满的段 + 裁剪后的最后一段
+        OffHeapMatrix source = matrix(300, 4096, 40);
+        OffHeapMatrix.Builder builder = new OffHeapMatrix.Builder(4096);
+        builder.addAll(source, -100);
+        builder.add(7, 1.0, new double[4096]);
+        OffHeapMatrix next = builder.build();
+
+        source.release();
+        assertTrue(source.isFreed());
+        assertFalse(next.isFreed());
+        assertEquals(301, next.rows());
+        assertEquals(-41.0, next.get(1, 0));
+        assertEquals(-(40 + 299 + 4095 % 7), next.get(299, 4095));
+        assertEquals(7, next.label(300));
+
+        next.release();
+        assertEquals(before, OffHeapMatrix.allocatedBytes());
+    }
+
+    @Test
+    void addAllPadsNewColumns() {
+        OffHeapMatrix source = matrix(3, 2, 40);
+        OffHeapMatrix.Builder builder = new OffHeapMatrix.Builder(4);
+        builder.addAll(source, -100);
+        OffHeapMatrix next = builder.build();
+        source.release();
+
+        assertArrayEquals(new double[]{-42, -43, -100, -100}, next.row(2, new double[4]));
+        next.release();
+    }
+
+    @Test
+    void discardReturnsAllocatedMemory() {
+        long before = OffHeapMatrix.allocatedBytes();
+        OffHeapMatrix.Builder builder = new OffHeapMatrix.Builder(3);
+        builder.add(1, 1.0, new double[]{-50, -60, -70});
+        builder.discard();
+
+        assertEquals(before, OffHeapMatrix.allocatedBytes());
+    }
+}
@@ -0,0 +1,134 @@
+package com.gyq.ble.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProjectionTests {
+
+    private static final int COLUMNS = 120;
+    private static final int REGIONS = 12;
+    private static final int K = 5;
+    private static final int SHORTLIST = 64;
+
+    private final Random random = new Random(11);
+    private final double[][] centres = centres();
+
+    /**
+     * 每个区域扫到约 1/4 的信标，其余为填充值 -100
+     */
+    private double[][] centres() {
+        double[][] centres = new double[REGIONS][COLUMNS];
+        for (double[] centre : centres) {
+            for (int j = 0; j < COLUMNS; j++) {
+                centre[j] = random.nextInt(4) == 0 ? -45 - random.nextInt(45) : -100;
+            }
+        }
+        return centres;
+    }
+
+    private double[] sample(int region) {
+        double[] v = new double[COLUMNS];
+        for (int j = 0; j < COLUMNS; j++) {
+            v[j] = centres[region][j] == -100 ? -100 : Math.min(0, centres[region][j] + 4 * random.nextGaussian());
+        }
+        return v;
+    }
+
+    private List<double[]> samples(int n) {
+        List<double[]> vectors = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            vectors.add(sample(i % REGIONS));
+        }
+        return vectors;
+    }
+
+    private static double distance(double[] a, double[] b) {
+        double sum = 0;
+        for (int j = 0; j < a.length; j++) {
+            double diff = a[j] - b[j];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    /**
+     * 原空间中的精确 K 近邻（限定在 candidates 内，null 为全部）
+     */
+    private static int[] exact(List<double[]> vectors, double[] query, int[] candidates, int k) {
+        int[] pool = candidates != null ? candidates : IntStream.range(0, vectors.size()).toArray();
+        return Arrays.stream(pool).boxed()
+                .sorted(Comparator.comparingDouble(i -> distance(vectors.get(i), query)))
+                .limit(k).mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * 真实 K 近邻落在低维预筛候选中的比例
+     */
+    private double recall(String method, int dimensions, int[] candidates) {
+        List<double[]> vectors = samples(1200);
+        Projection projection = Projection.fit(vectors, dimensions, method, 1);
+        int found = 0, total = 0;
+        for (int q = 0; q < 100; q++) {
+            double[] query = sample(q % REGIONS);
+            int[] shortlist = projection.nearest(projection.project(query), candidates, SHORTLIST);
+            assertEquals(SHORTLIST, shortlist.length);
+            for (int i : exact(vectors, query, candidates, K)) {
+                if (Arrays.binarySearch(shortlist, i) >= 0) {
+                    found++;
+                }
+                total++;
+            }
+        }
+        return (double) found / total;
+    }
+
+    @Test
+    void pcaShortlistKeepsTrueNearestNeighbours() {
+        assertTrue(recall("pca", 16, null) >= 0.95);
+    }
+
+    @Test
+    void randomProjectionShortlistKeepsMostNearestNeighbours() {
+        assertTrue(recall("random", 32, null) >= 0.9);
+    }
+
+    @Test
+    void shortlistStaysWithinCandidates() {
+        int[] candidates = IntStream.range(0, 1200).filter(i -> i % 3 != 0).toArray();
+
+        assertTrue(recall("pca", 16, candidates) >= 0.95);
+        Projection projection = Projection.fit(samples(1200), 16, "pca", 1);
+        int[] shortlist = projection.nearest(projection.project(sample(0)), candidates, SHORTLIST);
+        for (int i : shortlist) {
+            assertNotEquals(0, i % 3);
+        }
+    }
+
+    @Test
+    void fewerCandidatesThanLimitAreReturnedAsIs() {
+        Projection projection = Projection.fit(samples(40), 8, "pca", 1);
+        int[] candidates = {1, 5, 9};
+
+        assertSame(candidates, projection.nearest(projection.project(sample(1)), candidates, SHORTLIST));
+        assertArrayEquals(IntStream.range(0, 40).toArray(), projection.nearest(projection.project(sample(1)), null, SHORTLIST));
+    }
+
+    @Test
+    void dimensionsAreCappedByColumnCount() {
+        List<double[]> vectors = List.of(new double[]{-50, -60, -70}, new double[]{-55, -65, -100});
+
+        Projection projection = Projection.fit(vectors, 32, "pca", 1);
+
+        assertEquals(3, projection.dimensions());
+        assertEquals(2, projection.size());
+        assertEquals(3, projection.project(vectors.get(0)).length);
+    }
+}
@@ -0,0 +1,122 @@
+package com.gyq.ble.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SignatureIndexTests {
+
+    private static final String UUID = "FDA50693-A4E2-4FB1-AFCF-C6EB07647825";
+    private static final int BEACONS = 40;
+    private static final int MIN_COMMON = 4;
+
+    private final Random random = new Random(5);
+    private final double[][] beacons = new double[BEACONS][];
+    private final List<double[]> points = new ArrayList<>();
+    private final FingerprintIndex index;
+
+    /**
+     * 40 m × 40 m 内 40 个随机信标、4 m 间距 100 个点位，RSSI 按对数距离衰减，-90 以下视为未扫到
+     */
+    SignatureIndexTests() {
+        for (int b = 0; b < BEACONS; b++) {
+            beacons[b] = new double[]{random.nextDouble() * 40, random.nextDouble() * 40};
+        }
+        Map<String, Map<String, Double>> data = new LinkedHashMap<>();
+        for (int x = 0; x < 10; x++) {
+            for (int y = 0; y < 10; y++) {
+                double[] point = {2 + 4 * x, 2 + 4 * y};
+                points.add(point);
+                Map<String, Double> fingerprint = new LinkedHashMap<>();
+                for (int b = 0; b < BEACONS; b++) {
+                    double rssi = rssi(point, b, 0);
+                    if (rssi > -90) {
+                        fingerprint.put(UUID + "_" + b + "_1", rssi);
+                    }
+                }
+                data.put((x * 10 + y + 1) + "_" + (x * 10 + y), fingerprint);
+            }
+        }
+        index = FingerprintIndex.build(1, data, BeaconDictionary.EMPTY, 3);
+    }
+
+    private double rssi(double[] point, int beacon, double noise) {
+        double d = Math.max(1, Math.hypot(point[0] - beacons[beacon][0], point[1] - beacons[beacon][1]));
+        return -45 - 25 * Math.log10(d) + noise * random.nextGaussian();
+    }
+
+    private ScanBuffer scan(double[] point, double noise) {
+        ScanBuffer scan = ScanBuffer.create(index.getDictionary());
+        for (int b = 0; b < BEACONS; b++) {
+            double rssi = rssi(point, b, noise);
+            int id = index.getDictionary().idOf(UUID + "_" + b + "_1");
+            if (rssi > -90 && id >= 0) {
+                scan.add(id, rssi);
+            }
+        }
+        scan.seal();
+        return scan;
+    }
+
+    /**
+     * 候选中得分最高的指纹，没有可比较的指纹时为 -1
+     */
+    private int best(ScanBuffer scan, int[] candidates) {
+        int best = -1;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int f : candidates) {
+            double score = index.score(f, scan, SimilarityMetric.COSINE, MIN_COMMON);
+            if (!Double.isNaN(score) && score > bestScore) {
+                bestScore = score;
+                best = f;
+            }
+        }
+        return best;
+    }
+
+    @Test
+    void noiseFreeScanFindsItsOwnFingerprint() {
+        for (int f = 0; f < points.size(); f++) {
+            int[] candidates = index.signature().candidates(scan(points.get(f), 0));
+
+            assertNotNull(candidates);
+            assertTrue(Arrays.binarySearch(candidates, f) >= 0, "点位 " + f);
+        }
+    }
+
+    @Test
+    void prefilteredBestAgreesWithExhaustiveBest() {
+        int[] all = new int[index.size()];
+        Arrays.setAll(all, i -> i);
+        int agree = 0, fallback = 0, queries = 400;
+        long prefilteredCandidates = 0;
+        for (int q = 0; q < queries; q++) {
+            double[] at = {random.nextDouble() * 40, random.nextDouble() * 40};
+            ScanBuffer scan = scan(at, 2);
+            int exhaustive = best(scan, all);
+            int[] candidates = index.signature().candidates(scan);
+            if (candidates == null) {
+                fallback++;
+                agree++;
+                continue;
+            }
+            prefilteredCandidates += candidates.length;
+            if (best(scan, candidates) == exhaustive) {
+                agree++;
+            }
+        }
+
+        assertTrue(agree >= 0.9 * queries, "一致 " + agree + "/" + queries);
+        assertTrue(prefilteredCandidates < (long) (queries - fallback) * index.size() / 2, "预筛没有缩小候选");
+    }
+
+    @Test
+    void unknownStrongestBeaconsReturnNull() {
+        ScanBuffer scan = ScanBuffer.create(index.getDictionary());
+        scan.seal();
+
+        assertNull(index.signature().candidates(scan));
+    }
+}
@@ -0,0 +1,216 @@
+package com.gyq.ble.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionServiceTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private AdmissionService service(String mode, int limit, long queueTimeoutMs) {
+        return new AdmissionService(mode, limit, 100, 10, queueTimeoutMs, 0, 20.0, new PipelineMetrics(registry));
+    }
+
+    private int gauge(String name) {
+        return (int) registry.get("ble.admission." + name).gauge().value();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "等待超时");
+            Thread.sleep(1);
+        }
+    }
+
+    private static CompletableFuture<AdmissionService.Permit> acquireAsync(AdmissionService service, String client) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return service.acquire(client);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /**
+     * 以指定耗时归还名额（构造开始时刻更早的同一客户端名额）
+     */
+    private static void releaseAfter(AdmissionService service, AdmissionService.Permit permit, long millis) {
+        service.release(new AdmissionService.Permit(permit.client(),
+                System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(millis), 0, null));
+    }
+
+    @Test
+    void admitsImmediatelyBelowLimit() throws Exception {
+        AdmissionService service = service("fixed", 2, 50);
+
+        AdmissionService.Permit first = service.acquire("a");
+        AdmissionService.Permit second = service.acquire("a");
+
+        assertTrue(first.admitted());
+        assertTrue(second.admitted());
+        assertEquals(2, gauge("inflight"));
+        service.release(first);
+        service.release(second);
+        assertEquals(0, gauge("inflight"));
+        assertEquals(0, gauge("clients"));
+    }
+
+    @Test
+    void queuedRequestIsGrantedOnRelease() throws Exception {
+        AdmissionService service = service("fixed", 1, 5000);
+        AdmissionService.Permit held = service.acquire("a");
+
+        CompletableFuture<AdmissionService.Permit> waiting = acquireAsync(service, "b");
+        await(() -> gauge("queue") == 1);
+        assertFalse(waiting.isDone());
+
+        service.release(held);
+        AdmissionService.Permit granted = waiting.get(5, TimeUnit.SECONDS);
+
+        assertTrue(granted.admitted());
+        assertEquals(1, gauge("inflight"));
+        assertEquals(0, gauge("queue"));
+        service.release(granted);
+        assertEquals(0, gauge("inflight"));
+        assertEquals(0, gauge("clients"));
+    }
+
+    @Test
+    void rejectsAfterQueueTimeout() throws Exception {
+        AdmissionService service = service("fixed", 1, 20);
+        AdmissionService.Permit held = service.acquire("a");
+
+        AdmissionService.Permit rejected = service.acquire("b");
+
+        assertFalse(rejected.admitted());
+        assertEquals(503, rejected.status());
+        assertEquals(0, gauge("queue"));
+        assertEquals(1, gauge("inflight"));
+        // 只剩客户端 a
+        assertEquals(1, gauge("clients"));
+        service.release(rejected);
+        assertEquals(1, gauge("inflight"));
+        service.release(held);
+        assertEquals(0, gauge("inflight"));
+    }
+
+    @Test
+    void grantAtTimeoutIsNotLost() throws Exception {
+        AdmissionService service = service("fixed", 1, 1);
+        Random random = new Random(7);
+
+        // 归还时刻落在等待方 1 ms 超时附近：名额恰好在超时时刻分出时，等待方必须按准入返回，否则名额永久泄漏
+        for (int i = 0; i < 300; i++) {
+            AdmissionService.Permit held = service.acquire("a");
+            CompletableFuture<AdmissionService.Permit> waiting = acquireAsync(service, "b");
+            await(() -> gauge("queue") == 1 || waiting.isDone());
+            long until = System.nanoTime() + random.nextInt(2_000_000);
+            while (System.nanoTime() < until) {
+                Thread.onSpinWait();
+            }
+            service.release(held);
+            service.release(waiting.get(5, TimeUnit.SECONDS));
+
+            assertEquals(0, gauge("inflight"), "第 " + i + " 次");
+            assertEquals(0, gauge("queue"));
+            assertEquals(0, gauge("clients"));
+        }
+        assertTrue(service.acquire("c").admitted());
+    }
+
+    @Test
+    void rejectsClientOverPerClientLimitOnlyWhenQueueing() throws Exception {
+        AdmissionService service = service("fixed", 2, 20);
+
+        // 空闲时单个客户端可以用满名额
+        AdmissionService.Permit first = service.acquire("a");
+        AdmissionService.Permit second = service.acquire("a");
+        assertTrue(first.admitted());
+        assertTrue(second.admitted());
+
+        AdmissionService.Permit overLimit = service.acquire("a");
+        assertEquals(429, overLimit.status());
+
+        AdmissionService.Permit other = service.acquire("b");
+        assertEquals(503, other.status());
+
+        service.release(first);
+        service.release(second);
+        assertEquals(0, gauge("clients"));
+    }
+
+    @Test
+    void aimdShrinksOnSlowResponsesAndGrowsWhenSaturated() throws Exception {
+        AdmissionService service = service("aimd", 10, 50);
+
+        AdmissionService.Permit slow = service.acquire("a");
+        releaseAfter(service, slow, 100);
+        assertEquals(9, gauge("limit"));
+
+        // 上限收缩后第 10 个并发请求需要排队，超时被拒绝
+        List<AdmissionService.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < 9; i++) {
+            permits.add(service.acquire("a"));
+        }
+        assertEquals(503, service.acquire("b").status());
+        for (AdmissionService.Permit permit : permits) {
+            releaseAfter(service, permit, 1);
+        }
+
+        // 延迟正常且接近饱和：每轮约加 1，回到 10
+        for (int round = 0; round < 3 && gauge("limit") < 10; round++) {
+            permits.clear();
+            for (int i = 0; i < gauge("limit"); i++) {
+                permits.add(service.acquire("a"));
+            }
+            for (AdmissionService.Permit permit : permits) {
+                releaseAfter(service, permit, 1);
+            }
+        }
+        assertEquals(10, gauge("limit"));
+        assertEquals(0, gauge("inflight"));
+    }
+
+    @Test
+    void gradientShrinksWhenLatencyRisesAndGrowsWhenSaturated() throws Exception {
+        AdmissionService service = service("gradient", 10, 50);
+
+        // 未饱和且延迟平稳：上限不变
+        for (int i = 0; i < 5; i++) {
+            releaseAfter(service, service.acquire("a"), 2);
+        }
+        assertEquals(10, gauge("limit"));
+
+        // 延迟突增：按长期 / 短期延迟之比收缩
+        for (int i = 0; i < 5; i++) {
+            releaseAfter(service, service.acquire("a"), 40);
+        }
+        int shrunk = gauge("limit");
+        assertTrue(shrunk < 10);
+        assertTrue(shrunk >= 1);
+
+        // 延迟回落且接近饱和：按 sqrt(limit) 的余量增长
+        for (int round = 0; round < 20; round++) {
+            List<AdmissionService.Permit> permits = new ArrayList<>();
+            for (int i = 0; i < gauge("limit"); i++) {
+                permits.add(service.acquire("a"));
+            }
+            for (AdmissionService.Permit permit : permits) {
+                releaseAfter(service, permit, 2);
+            }
+        }
+        assertTrue(gauge("limit") > shrunk);
+        assertEquals(0, gauge("inflight"));
+    }
+}
@@ -0,0 +1,132 @@
+package com.gyq.ble.service;
+
+import com.gyq.ble.index.OffHeapMatrix;
+import com.gyq.ble.model.SampleMeta;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 只覆盖不落盘的路径（超限、校验失败、写入失败）；数据集文件指向临时目录下不存在的子目录，不会改动工作目录下的数据集文件
+ */
+class DatasetImportServiceTests {
+
+    @TempDir
+    Path dir;
+
+    private DatasetService datasetService;
+    private DatasetService.Snapshot initial;
+    private int live;
+    private long allocated;
+
+    @BeforeEach
+    void publishInitialSnapshot() {
+        datasetService = new DatasetService(dir.resolve("missing/qqqq.csv").toString(), "offheap",
+                new PipelineMetrics(new SimpleMeterRegistry()));
+        live = OffHeapMatrix.liveCount();
+        allocated = OffHeapMatrix.allocatedBytes();
+        OffHeapMatrix.Builder builder = new OffHeapMatrix.Builder(2);
+        builder.add(1, 1.0, new double[]{-50, -60});
+        builder.add(2, 1.0, new double[]{-70, -100});
+        initial = DatasetService.Snapshot.offHeap(3, builder.build(),
+                Collections.nCopies(2, new SampleMeta("", "", "PIXEL", "AM", "N")), List.of("b1", "b2"));
+        datasetService.publish(initial);
+    }
+
+    @AfterEach
+    void release() {
+        datasetService.publish(DatasetService.Snapshot.EMPTY);
+        assertEquals(live, OffHeapMatrix.liveCount());
+        assertEquals(allocated, OffHeapMatrix.allocatedBytes());
+    }
+
+    private DatasetImportService importService(int maxRows) {
+        return new DatasetImportService(maxRows, datasetService, new PipelineMetrics(new SimpleMeterRegistry()));
+    }
+
+    private static InputStream body(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void assertUnchanged() {
+        assertSame(initial, datasetService.snapshot());
+        assertEquals(3, datasetService.getVersion());
+        assertFalse(initial.matrix().isFreed());
+        assertEquals(live + 1, OffHeapMatrix.liveCount());
+    }
+
+    @Test
+    void csvOverRowLimitIsRejectedAsAWhole() {
+        String csv = "region_id,x,y,device,time_slot,heading,b1,b3\n"
+                + "1,0,0,PIXEL,AM,N,-55,-65\n"
+                + "2,0,0,PIXEL,AM,N,-75,\n"
+                + "3,0,0,PIXEL,AM,N,,-80\n";
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> importService(2).importCsv(body(csv)));
+
+        assertTrue(e.getMessage().contains("dataset.import-max-rows"));
+        assertUnchanged();
+    }
+
+    @Test
+    void ndjsonOverRowLimitIsRejectedAsAWhole() {
+        String ndjson = "{\"region_id\":1,\"rssi\":{\"b1\":-55}}\n{\"region_id\":2,\"rssi\":{\"b2\":-65}}\n";
+
+        assertThrows(IllegalArgumentException.class, () -> importService(1).importNdjson(body(ndjson)));
+        assertUnchanged();
+    }
+
+    @Test
+    void malformedCsvHeaderCommitsNothing() {
+        assertThrows(IllegalArgumentException.class,
+                () -> importService(10).importCsv(body("x,y\n1,2\n")));
+        assertUnchanged();
+    }
+
+    @Test
+    void invalidRowFailsValidationWithoutReplacingSnapshot() {
+        DatasetService.Batch batch = new DatasetService.Batch();
+        batch.add(1, new SampleMeta("", "", "PIXEL", "AM", "N"), Map.of("b1", -55.0));
+        batch.add(2, new SampleMeta("", "", "PIXEL", "AM", "N"), Map.of("b3", 5.0));
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> datasetService.importBatch(batch));
+
+        assertTrue(e.getMessage().contains("第 4 个样本"));
+        assertUnchanged();
+    }
+
+    @Test
+    void failedWriteLeavesSnapshotAndVersionUnchanged() {
+        // 新增信标列 b3 需要重写数据集文件，目录不存在导致写入失败
+        DatasetService.Batch batch = new DatasetService.Batch();
+        batch.add(1, new SampleMeta("", "", "PIXEL", "AM", "N"), Map.of("b1", -55.0, "b3", -65.0));
+
+        assertThrows(IOException.class, () -> datasetService.importBatch(batch));
+        assertUnchanged();
+    }
+
+    @Test
+    void validateChecksOnlyRowsFromOffset() {
+        List<double[]> vectors = new ArrayList<>(List.of(new double[]{5.0, -60}, new double[]{-70, -80}));
+        DatasetService.Snapshot data = new DatasetService.Snapshot(1, vectors, List.of(1, 2),
+                Collections.nCopies(2, new SampleMeta("", "", "PIXEL", "AM", "N")), List.of("b1", "b2"), List.of(1.0, 1.0));
+
+        assertDoesNotThrow(() -> DatasetService.validate(data, 1));
+        assertThrows(IllegalStateException.class, () -> DatasetService.validate(data, 0));
+    }
+}
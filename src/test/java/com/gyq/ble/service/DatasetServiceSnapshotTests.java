@@ -0,0 +1,142 @@
+package com.gyq.ble.service;
+
+import com.gyq.ble.index.OffHeapMatrix;
+import com.gyq.ble.model.SampleMeta;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatasetServiceSnapshotTests {
+
+    /**
+     * 只通过 publish 发布快照，不读写数据集文件
+     */
+    private static DatasetService service() {
+        return new DatasetService("qqqq.csv", "offheap", new PipelineMetrics(new SimpleMeterRegistry()));
+    }
+
+    /**
+     * 每个样本的全部 RSSI 都等于 -version，便于读方校验读到的是完整的同一个快照
+     */
+    private static DatasetService.Snapshot snapshot(long version, int rows) {
+        OffHeapMatrix.Builder builder = new OffHeapMatrix.Builder(2);
+        for (int i = 0; i < rows; i++) {
+            builder.add(i, 1.0, new double[]{-version, -version});
+        }
+        List<SampleMeta> meta = Collections.nCopies(rows, new SampleMeta("", "", "PIXEL", "AM", "N"));
+        return DatasetService.Snapshot.offHeap(version, builder.build(), meta, List.of("b1", "b2"));
+    }
+
+    private static void replace(DatasetService service, DatasetService.Snapshot next) {
+        service.publish(next);
+    }
+
+    @Test
+    void acquireAndCloseKeepServiceReference() {
+        DatasetService service = service();
+        DatasetService.Snapshot published = snapshot(1, 4);
+        replace(service, published);
+
+        try (DatasetService.Snapshot data = service.acquire()) {
+            assertSame(published, data);
+            assertEquals(-1.0, data.value(3, 1));
+        }
+        assertFalse(published.matrix().isFreed());
+
+        replace(service, DatasetService.Snapshot.EMPTY);
+        assertTrue(published.matrix().isFreed());
+    }
+
+    @Test
+    void snapshotHeldAcrossReplaceStaysReadableUntilClosed() {
+        DatasetService service = service();
+        DatasetService.Snapshot first = snapshot(1, 4);
+        replace(service, first);
+
+        DatasetService.Snapshot held = service.acquire();
+        DatasetService.Snapshot second = snapshot(2, 4);
+        replace(service, second);
+
+        assertFalse(first.matrix().isFreed());
+        assertEquals(-1.0, held.value(2, 0));
+        assertEquals(List.of(0, 1, 2, 3), new ArrayList<>(held.labels()));
+        try (DatasetService.Snapshot current = service.acquire()) {
+            assertEquals(2, current.version());
+        }
+
+        held.close();
+        assertTrue(first.matrix().isFreed());
+        assertThrows(IllegalStateException.class, () -> held.value(2, 0));
+        replace(service, DatasetService.Snapshot.EMPTY);
+    }
+
+    @Test
+    void doubleCloseAfterReplaceIsRejected() {
+        DatasetService service = service();
+        DatasetService.Snapshot first = snapshot(1, 4);
+        replace(service, first);
+        DatasetService.Snapshot held = service.acquire();
+        replace(service, snapshot(2, 4));
+
+        held.close();
+        assertThrows(IllegalStateException.class, held::close);
+        replace(service, DatasetService.Snapshot.EMPTY);
+    }
+
+    @Test
+    void acquireRetriesAgainstConcurrentReplace() throws Exception {
+        DatasetService service = service();
+        int live = OffHeapMatrix.liveCount();
+        long allocated = OffHeapMatrix.allocatedBytes();
+        replace(service, snapshot(1, 8));
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong total = new AtomicLong();
+        ExecutorService readers = Executors.newFixedThreadPool(2);
+        List<Future<Long>> reads = new ArrayList<>();
+        for (int r = 0; r < 2; r++) {
+            reads.add(readers.submit(() -> {
+                long count = 0;
+                while (running.get()) {
+                    try (DatasetService.Snapshot data = service.acquire()) {
+                        double expected = -data.version();
+                        for (int i = 0; i < data.labels().size(); i++) {
+                            assertEquals(expected, data.value(i, 0));
+                            assertEquals(expected, data.value(i, 1));
+                        }
+                    }
+                    count++;
+                    total.incrementAndGet();
+                }
+                return count;
+            }));
+        }
+        while (total.get() == 0) {
+            Thread.sleep(1);
+        }
+        for (long version = 2; version <= 300; version++) {
+            replace(service, snapshot(version, 8));
+        }
+        running.set(false);
+        readers.shutdown();
+        assertTrue(readers.awaitTermination(10, TimeUnit.SECONDS));
+        for (Future<Long> read : reads) {
+            read.get();
+        }
+
+        replace(service, DatasetService.Snapshot.EMPTY);
+        assertEquals(live, OffHeapMatrix.liveCount());
+        assertEquals(allocated, OffHeapMatrix.allocatedBytes());
+    }
+}
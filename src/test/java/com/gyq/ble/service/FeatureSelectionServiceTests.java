@@ -0,0 +1,97 @@
+package com.gyq.ble.service;
+
+import com.gyq.ble.model.FeatureScore;
+import com.gyq.ble.model.SampleMeta;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FeatureSelectionServiceTests {
+
+    private static final List<String> COLUMNS = List.of("constant", "region", "absent", "noise", "half", "sparse");
+
+    /**
+     * 4 个区域各 8 个样本：
+     * region 每个区域一个分箱（2 bit），half 只区分前后两组区域（1 bit），sparse 只在区域 0 的一个样本中扫到，
+     * noise 在每个区域内 -50 / -80 各半（0 bit、方差大），constant 恒为 -60，absent 从未扫到
+     */
+    private static DatasetService.Snapshot snapshot() {
+        List<double[]> vectors = new ArrayList<>();
+        List<Integer> labels = new ArrayList<>();
+        for (int region = 0; region < 4; region++) {
+            for (int i = 0; i < 8; i++) {
+                vectors.add(new double[]{
+                        -60,
+                        -40 - 10 * region,
+                        -100,
+                        i % 2 == 0 ? -50 : -80,
+                        region < 2 ? -45 : -75,
+                        region == 0 && i == 0 ? -55 : -100});
+                labels.add(region + 1);
+            }
+        }
+        return new DatasetService.Snapshot(1, vectors, labels,
+                Collections.nCopies(labels.size(), new SampleMeta("", "", "PIXEL", "AM", "N")), COLUMNS,
+                Collections.nCopies(labels.size(), 1.0));
+    }
+
+    private static FeatureScore score(FeatureSelectionService.Selection selection, String beacon) {
+        return selection.scores().get(COLUMNS.indexOf(beacon));
+    }
+
+    @Test
+    void mutualInformationMeasuresRegionSeparation() {
+        FeatureSelectionService.Selection selection = FeatureSelectionService.select(snapshot(), 1.0, 1, 5);
+
+        assertEquals(2.0, score(selection, "region").getMutualInformation(), 1e-9);
+        assertEquals(1.0, score(selection, "half").getMutualInformation(), 1e-9);
+        assertEquals(0.0, score(selection, "noise").getMutualInformation(), 1e-9);
+        assertEquals(0.0, score(selection, "constant").getMutualInformation(), 1e-9);
+        assertEquals(0.0, score(selection, "absent").getMutualInformation(), 1e-9);
+        double sparse = score(selection, "sparse").getMutualInformation();
+        assertTrue(sparse > 0 && sparse < 1.0);
+
+        assertEquals(1.0, score(selection, "noise").getCoverage(), 1e-9);
+        assertEquals(225.0, score(selection, "noise").getVariance(), 1e-9);
+        assertEquals(0.0, score(selection, "absent").getCoverage(), 1e-9);
+        assertEquals(1.0 / 32, score(selection, "sparse").getCoverage(), 1e-9);
+    }
+
+    @Test
+    void keepsTopColumnsByMutualInformation() {
+        FeatureSelectionService.Selection selection = FeatureSelectionService.select(snapshot(), 0.5, 1, 5);
+
+        // region、half、sparse，按列下标升序
+        assertArrayEquals(new int[]{1, 4, 5}, selection.columns());
+        assertEquals(1, selection.version());
+        for (int j = 0; j < COLUMNS.size(); j++) {
+            boolean kept = j == 1 || j == 4 || j == 5;
+            assertEquals(kept, selection.scores().get(j).isSelected(), COLUMNS.get(j));
+        }
+    }
+
+    @Test
+    void tiesOnMutualInformationFallBackToCoverageThenVariance() {
+        // 互信息为 0 的三列中先保留 noise（覆盖率 1、方差大），再保留 constant，最后才是 absent
+        assertArrayEquals(new int[]{1, 3, 4, 5}, FeatureSelectionService.select(snapshot(), 0.5, 4, 5).columns());
+        assertArrayEquals(new int[]{0, 1, 3, 4, 5}, FeatureSelectionService.select(snapshot(), 0.5, 5, 5).columns());
+    }
+
+    @Test
+    void minColumnsAndKeepRatioAreCappedByColumnCount() {
+        assertEquals(6, FeatureSelectionService.select(snapshot(), 1.0, 1, 5).columns().length);
+        assertEquals(6, FeatureSelectionService.select(snapshot(), 0.1, 20, 5).columns().length);
+    }
+
+    @Test
+    void coarseBinsMergeNeighbouringRegions() {
+        // 20 dB 分箱时 region 列的 -50 与 -60 落入同一箱：H(region) - H(region|箱) = 2 - 0.5 = 1.5 bit
+        FeatureSelectionService.Selection selection = FeatureSelectionService.select(snapshot(), 1.0, 1, 20);
+
+        assertEquals(1.5, score(selection, "region").getMutualInformation(), 1e-9);
+    }
+}
@@ -0,0 +1,164 @@
+package com.gyq.ble.service;
+
+import com.gyq.ble.model.PositionEvent;
+import com.gyq.ble.model.PredictResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PositionStreamServiceTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final List<PositionStreamService> services = new ArrayList<>();
+    private final CountDownLatch released = new CountDownLatch(1);
+
+    /**
+     * 缓冲 4 条、最多 2 个订阅、1 个发送线程
+     */
+    private PositionStreamService service(int heartbeatSeconds, long sendTimeoutMs) {
+        PositionStreamService service = new PositionStreamService(4, 2, heartbeatSeconds, 1, sendTimeoutMs,
+                new PipelineMetrics(registry), timeout -> new RecordingEmitter());
+        services.add(service);
+        return service;
+    }
+
+    @AfterEach
+    void shutdown() {
+        released.countDown();
+        services.forEach(PositionStreamService::shutdown);
+    }
+
+    private double counter(String name) {
+        return registry.get("ble.events").tag("name", name).counter().count();
+    }
+
+    /**
+     * 记录写出的事件；blocked 时写调用一直阻塞，模拟连接未断但不读数据的客户端
+     */
+    private final class RecordingEmitter extends SseEmitter {
+        private final BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+        private final CountDownLatch sending = new CountDownLatch(1);
+        private volatile boolean blocked;
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            sending.countDown();
+            if (blocked) {
+                try {
+                    released.await();
+                } catch (InterruptedException e) {
+                    throw new IOException("写被中断", e);
+                }
+            }
+            for (ResponseBodyEmitter.DataWithMediaType part : builder.build()) {
+                if (part.getData() instanceof PositionEvent event) {
+                    events.add(event);
+                } else if (part.getData().toString().startsWith(":ping")) {
+                    events.add("ping");
+                }
+            }
+        }
+
+        Object next() throws InterruptedException {
+            Object event = events.poll(5, TimeUnit.SECONDS);
+            assertNotNull(event, "等待推送超时");
+            return event;
+        }
+
+        void awaitSending() throws InterruptedException {
+            assertTrue(sending.await(5, TimeUnit.SECONDS), "等待发送超时");
+        }
+    }
+
+    @Test
+    void slowSubscriberKeepsOnlyNewestEvents() throws Exception {
+        PositionStreamService service = service(0, 0);
+        RecordingEmitter emitter = (RecordingEmitter) service.subscribe("phone");
+        emitter.blocked = true;
+
+        // 第一条事件卡在写上，之后的 20 条只保留最新 4 条
+        service.publish("phone", new PredictResponse());
+        emitter.awaitSending();
+        for (int i = 0; i < 20; i++) {
+            service.publish("phone", new PredictResponse());
+        }
+        assertEquals(16.0, counter("stream.dropped"));
+        assertEquals(21.0, counter("stream.published"));
+
+        released.countDown();
+        List<Long> sequences = new ArrayList<>();
+        List<Integer> dropped = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            PositionEvent event = (PositionEvent) emitter.next();
+            sequences.add(event.getSequence());
+            dropped.add(event.getDropped());
+        }
+        assertEquals(List.of(1L, 18L, 19L, 20L, 21L), sequences);
+        // 丢弃数随恢复后的第一条事件下发，随后清零
+        assertEquals(List.of(0, 16, 0, 0, 0), dropped);
+        assertEquals(1, service.subscriberCount());
+    }
+
+    @Test
+    void stuckSubscriberIsEvictedWithoutStarvingOthers() throws Exception {
+        PositionStreamService service = service(0, 100);
+        RecordingEmitter stuck = (RecordingEmitter) service.subscribe("stuck");
+        RecordingEmitter healthy = (RecordingEmitter) service.subscribe("healthy");
+        stuck.blocked = true;
+
+        // 唯一的发送线程卡在 stuck 的写上
+        service.publish("stuck", new PredictResponse());
+        stuck.awaitSending();
+        service.publish("healthy", new PredictResponse());
+
+        assertEquals(1L, ((PositionEvent) healthy.next()).getSequence());
+        assertEquals(1, service.subscriberCount());
+        assertEquals(1.0, counter("stream.send.timeout"));
+
+        // 被移除的订阅者不再收到事件，其他订阅者继续正常推送
+        service.publish("stuck", new PredictResponse());
+        service.publish("healthy", new PredictResponse());
+        assertEquals(2L, ((PositionEvent) healthy.next()).getSequence());
+        assertTrue(stuck.events.isEmpty());
+    }
+
+    @Test
+    void idleSubscriberReceivesHeartbeat() throws Exception {
+        PositionStreamService service = service(1, 0);
+        RecordingEmitter emitter = (RecordingEmitter) service.subscribe("phone");
+
+        assertEquals("ping", emitter.next());
+    }
+
+    @Test
+    void publishWithoutSubscribersIsNoop() {
+        PositionStreamService service = service(0, 0);
+
+        service.publish("nobody", new PredictResponse());
+
+        assertTrue(registry.find("ble.events").tag("name", "stream.published").counters().isEmpty());
+    }
+
+    @Test
+    void rejectsSubscribersOverLimit() {
+        PositionStreamService service = service(0, 0);
+        assertNotNull(service.subscribe("a"));
+        assertNotNull(service.subscribe("b"));
+
+        assertNull(service.subscribe("c"));
+        assertEquals(2, service.subscriberCount());
+        assertEquals(1.0, counter("stream.rejected"));
+    }
+}
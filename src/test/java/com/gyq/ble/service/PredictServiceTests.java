@@ -0,0 +1,107 @@
+package com.gyq.ble.service;
+
+import com.gyq.ble.index.BeaconDictionary;
+import com.gyq.ble.index.FingerprintIndex;
+import com.gyq.ble.index.ScanBuffer;
+import com.gyq.ble.index.SimilarityMetric;
+import com.gyq.ble.model.PredictResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PredictServiceTests {
+
+    private static final String UUID = "FDA50693-A4E2-4FB1-AFCF-C6EB07647825";
+    private static final int BEACONS = 12;
+
+    private final Random random = new Random(9);
+    private final FingerprintIndex index = index();
+    private final PredictService service = service();
+
+    /**
+     * 10 个区域各 20 个点位，每个点位扫到全部 12 个信标
+     */
+    private FingerprintIndex index() {
+        Map<String, Map<String, Double>> data = new LinkedHashMap<>();
+        for (int f = 0; f < 200; f++) {
+            Map<String, Double> fingerprint = new LinkedHashMap<>();
+            for (int b = 0; b < BEACONS; b++) {
+                fingerprint.put(UUID + "_" + b + "_1", -45.0 - random.nextInt(40));
+            }
+            data.put((f % 10 + 1) + "_" + f, fingerprint);
+        }
+        return FingerprintIndex.build(1, data, BeaconDictionary.EMPTY);
+    }
+
+    private PredictService service() {
+        FingerprintIndexService indexService = mock(FingerprintIndexService.class);
+        when(indexService.current()).thenReturn(index);
+        TuningService tuningService = mock(TuningService.class);
+        when(tuningService.current()).thenReturn(
+                new TuningService.Settings(5, SimilarityMetric.COSINE, -100, 0, FingerprintIndex.MIN_COMMON, 5));
+        return new PredictService(indexService, mock(RegionTrackingService.class), mock(FingerprintShardService.class),
+                tuningService, new PipelineMetrics(new SimpleMeterRegistry()), 0);
+    }
+
+    @AfterEach
+    void shutdown() {
+        service.shutdown();
+    }
+
+    private ScanBuffer scan() {
+        ScanBuffer scan = ScanBuffer.create(index.getDictionary());
+        for (int b = 0; b < 8; b++) {
+            scan.add(index.getDictionary().idOf(UUID + "_" + b + "_1"), -45 - random.nextInt(40));
+        }
+        scan.seal();
+        return scan;
+    }
+
+    @Test
+    void budgetNotExhaustedMatchesUnbudgetedResult() {
+        for (int q = 0; q < 20; q++) {
+            ScanBuffer scan = scan();
+
+            PredictResponse unbudgeted = service.predict(scan, null);
+            PredictResponse budgeted = service.predict(scan, null, null, 60_000);
+
+            assertEquals(unbudgeted.getRegionTop1(), budgeted.getRegionTop1());
+            assertEquals(unbudgeted.getRegionTop3(), budgeted.getRegionTop3());
+            assertNull(unbudgeted.getTruncated());
+            assertFalse(budgeted.getTruncated());
+            assertEquals(index.size(), budgeted.getEvaluated());
+        }
+    }
+
+    @Test
+    void budgetExhaustedDuringOverlapPassStillScoresCandidates() {
+        ScanBuffer scan = scan();
+        long begin = System.nanoTime();
+
+        // 截止时间在数完第一个信标的倒排表时已过：计数只有 0 / 1，均不足 minCommon
+        PredictResponse response = service.predict(scan, null, null, begin, begin + 1);
+
+        assertTrue(response.getTruncated());
+        assertTrue(response.getEvaluated() > 0);
+        assertTrue(response.getEvaluated() < index.size());
+        assertNotNull(response.getRegionTop1());
+        assertFalse(response.getRegionTop3().isEmpty());
+    }
+
+    @Test
+    void noBudgetLeavesTruncationUnset() {
+        PredictResponse response = service.predict(scan(), null, null, 0);
+
+        assertNull(response.getTruncated());
+        assertNull(response.getEvaluated());
+        assertNotNull(response.getRegionTop1());
+    }
+}
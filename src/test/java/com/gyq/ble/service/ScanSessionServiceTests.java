@@ -0,0 +1,169 @@
+package com.gyq.ble.service;
+
+import com.gyq.ble.index.BeaconDictionary;
+import com.gyq.ble.index.FingerprintIndex;
+import com.gyq.ble.index.ScanBuffer;
+import com.gyq.ble.index.SimilarityMetric;
+import com.gyq.ble.model.BeaconReading;
+import com.gyq.ble.model.PredictResponse;
+import com.gyq.ble.model.ScanDelta;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ScanSessionServiceTests {
+
+    private static final String UUID = "FDA50693-A4E2-4FB1-AFCF-C6EB07647825";
+    private static final int BEACONS = 24;
+
+    private final Random random = new Random(7);
+    private final FingerprintIndex index = index();
+    private final List<double[]> captured = new ArrayList<>();
+    private final List<ScanSessionService> services = new ArrayList<>();
+
+    @AfterEach
+    void shutdown() {
+        services.forEach(ScanSessionService::shutdown);
+    }
+
+    /**
+     * 60 个指纹，每个随机包含 6~16 个信标
+     */
+    private FingerprintIndex index() {
+        Map<String, Map<String, Double>> data = new LinkedHashMap<>();
+        for (int f = 0; f < 60; f++) {
+            Map<String, Double> fingerprint = new LinkedHashMap<>();
+            int size = 6 + random.nextInt(11);
+            while (fingerprint.size() < size) {
+                fingerprint.put(key(random.nextInt(BEACONS)), -40.0 - random.nextInt(45));
+            }
+            data.put((f % 6 + 1) + "_" + f, fingerprint);
+        }
+        return FingerprintIndex.build(1, data, BeaconDictionary.EMPTY);
+    }
+
+    private static String key(int minor) {
+        return UUID + "_" + minor + "_10835";
+    }
+
+    private ScanSessionService service(TuningService.Settings settings, int refreshEvery) {
+        FingerprintIndexService indexService = mock(FingerprintIndexService.class);
+        when(indexService.current()).thenReturn(index);
+        TuningService tuningService = mock(TuningService.class);
+        when(tuningService.current()).thenReturn(settings);
+        PredictService predictService = mock(PredictService.class);
+        when(predictService.predict(any(FingerprintIndex.class), any(double[].class), anyString())).thenAnswer(call -> {
+            captured.add(((double[]) call.getArgument(1)).clone());
+            return new PredictResponse();
+        });
+
+        ScanSessionService service = new ScanSessionService(300, 100, 256, refreshEvery, indexService, predictService,
+                tuningService, new PipelineMetrics(new SimpleMeterRegistry()));
+        services.add(service);
+        return service;
+    }
+
+    private static BeaconReading reading(int minor, Integer rssi) {
+        return new BeaconReading(UUID, 10835, minor, rssi);
+    }
+
+    /**
+     * 随机增量：若干信标消失，若干信标新增或变化（偶尔落在过滤区间外）；model 按服务端相同的顺序（先删后增）记录当前原始扫描
+     */
+    private ScanDelta delta(Map<Integer, Integer> model) {
+        ScanDelta delta = new ScanDelta();
+        for (int n = random.nextInt(3); n > 0 && !model.isEmpty(); n--) {
+            int minor = new ArrayList<>(model.keySet()).get(random.nextInt(model.size()));
+            delta.getRemove().add(reading(minor, null));
+            model.remove(minor);
+        }
+        for (int n = random.nextInt(4); n >= 0; n--) {
+            int minor = random.nextInt(BEACONS);
+            int rssi = random.nextInt(10) == 0 ? -95 : -40 - random.nextInt(45);
+            delta.getUpsert().add(reading(minor, rssi));
+            model.put(minor, rssi);
+        }
+        return delta;
+    }
+
+    /**
+     * 对 model 表示的完整扫描逐个指纹从头打分
+     */
+    private double[] fullScores(Map<Integer, Integer> model, TuningService.Settings settings) {
+        ScanBuffer scan = ScanBuffer.create(index.getDictionary());
+        model.forEach((minor, rssi) -> {
+            int id = index.getDictionary().idOf(key(minor));
+            if (id >= 0 && settings.accepts(rssi)) {
+                scan.add(id, rssi);
+            }
+        });
+        scan.seal();
+        double[] scores = new double[index.size()];
+        for (int f = 0; f < scores.length; f++) {
+            scores[f] = index.score(f, scan, settings.metric(), settings.minCommon());
+        }
+        return scores;
+    }
+
+    private static void assertScores(double[] expected, double[] actual, int step) {
+        assertEquals(expected.length, actual.length);
+        for (int f = 0; f < expected.length; f++) {
+            if (Double.isNaN(expected[f])) {
+                assertTrue(Double.isNaN(actual[f]), "第 " + step + " 次增量，指纹 " + f + " 应为 NaN: " + actual[f]);
+            } else {
+                assertEquals(expected[f], actual[f], 1e-9, "第 " + step + " 次增量，指纹 " + f);
+            }
+        }
+    }
+
+    private void replay(TuningService.Settings settings, int refreshEvery) {
+        ScanSessionService service = service(settings, refreshEvery);
+        Map<Integer, Integer> model = new HashMap<>();
+        ScanDelta first = delta(model);
+        first.setReset(true);
+        assertNotNull(service.apply("phone", first));
+        assertScores(fullScores(model, settings), captured.get(captured.size() - 1), 0);
+
+        for (int step = 1; step <= 300; step++) {
+            assertNotNull(service.apply("phone", delta(model)));
+            assertScores(fullScores(model, settings), captured.get(captured.size() - 1), step);
+        }
+    }
+
+    @Test
+    void incrementalScoresMatchFullRecompute() {
+        replay(new TuningService.Settings(5, SimilarityMetric.COSINE, -85, 0, FingerprintIndex.MIN_COMMON, 5), 1000);
+    }
+
+    @Test
+    void incrementalScoresMatchAcrossPeriodicRefresh() {
+        replay(new TuningService.Settings(5, SimilarityMetric.COSINE, -85, 0, FingerprintIndex.MIN_COMMON, 5), 16);
+    }
+
+    @Test
+    void tunedWindowAndMinCommonAreHonoured() {
+        replay(new TuningService.Settings(5, SimilarityMetric.COSINE, -75, -45, 4, 5), 1000);
+    }
+
+    @Test
+    void nonCosineMetricScoresFullScan() {
+        replay(new TuningService.Settings(5, SimilarityMetric.EUCLIDEAN, -85, 0, FingerprintIndex.MIN_COMMON, 5), 1000);
+    }
+
+    @Test
+    void missingSessionWithoutResetReturnsNull() {
+        ScanSessionService service = service(
+                new TuningService.Settings(5, SimilarityMetric.COSINE, -85, 0, FingerprintIndex.MIN_COMMON, 5), 1000);
+
+        assertNull(service.apply("unknown", delta(new HashMap<>())));
+        assertTrue(captured.isEmpty());
+    }
+}
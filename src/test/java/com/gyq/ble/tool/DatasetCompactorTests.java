@@ -0,0 +1,138 @@
+package com.gyq.ble.tool;
+
+import com.gyq.ble.model.PredictResponse;
+import com.gyq.ble.model.SampleMeta;
+import com.gyq.ble.service.DatasetService;
+import com.gyq.ble.service.KnnService;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatasetCompactorTests {
+
+    private static final int COLUMNS = 6;
+
+    private final Random random = new Random(3);
+
+    /**
+     * 区域 r 的样本在第 r 列最强，其余列为远处信标或未扫到
+     */
+    private double[] sample(int region) {
+        double[] v = new double[COLUMNS];
+        for (int j = 0; j < COLUMNS; j++) {
+            v[j] = j == region ? -45 + 3 * random.nextGaussian()
+                    : j % 2 == 0 ? -85 + 3 * random.nextGaussian() : -100;
+        }
+        return v;
+    }
+
+    private DatasetService.Snapshot raw(int perRegion, int... regions) {
+        List<double[]> X = new ArrayList<>();
+        List<Integer> y = new ArrayList<>();
+        for (int region : regions) {
+            for (int i = 0; i < perRegion; i++) {
+                X.add(sample(region));
+                y.add(region);
+            }
+        }
+        return new DatasetService.Snapshot(1, X, y, Collections.nCopies(X.size(), new SampleMeta("", "", "PIXEL", "AM", "N")),
+                List.of("b0", "b1", "b2", "b3", "b4", "b5"), Collections.nCopies(X.size(), 1.0));
+    }
+
+    private static Map<Integer, Double> weightByRegion(DatasetService.Snapshot data) {
+        Map<Integer, Double> total = new HashMap<>();
+        for (int i = 0; i < data.labels().size(); i++) {
+            total.merge(data.labels().get(i), data.weight(i), Double::sum);
+        }
+        return total;
+    }
+
+    private static Map<Integer, Integer> rowsByRegion(DatasetService.Snapshot data) {
+        Map<Integer, Integer> rows = new HashMap<>();
+        for (int label : data.labels()) {
+            rows.merge(label, 1, Integer::sum);
+        }
+        return rows;
+    }
+
+    @Test
+    void representativesCarryTheWeightOfTheirCluster() {
+        DatasetService.Snapshot raw = raw(30, 1, 2, 3);
+
+        for (String method : List.of("medoid", "centroid")) {
+            DatasetService.Snapshot compacted = DatasetCompactor.compact(raw, 4, method, 20, 1);
+
+            assertEquals(Map.of(1, 30.0, 2, 30.0, 3, 30.0), weightByRegion(compacted), method);
+            rowsByRegion(compacted).values().forEach(rows -> assertTrue(rows <= 4, method));
+            assertEquals(raw.version(), compacted.version());
+            assertEquals(raw.beaconColumns(), compacted.beaconColumns());
+        }
+    }
+
+    @Test
+    void medoidsAreRawSamples() {
+        DatasetService.Snapshot raw = raw(30, 1, 2);
+        DatasetService.Snapshot compacted = DatasetCompactor.compact(raw, 4, "medoid", 20, 1);
+
+        for (double[] representative : compacted.vectors()) {
+            assertTrue(raw.vectors().stream().anyMatch(v -> Arrays.equals(v, representative)));
+        }
+    }
+
+    @Test
+    void smallRegionsAreKeptAsIs() {
+        DatasetService.Snapshot raw = raw(3, 1, 2);
+
+        DatasetService.Snapshot compacted = DatasetCompactor.compact(raw, 4, "medoid", 20, 1);
+
+        assertEquals(raw.labels(), compacted.labels());
+        assertEquals(raw.weights(), compacted.weights());
+    }
+
+    @Test
+    void recompactionConservesExistingWeights() {
+        DatasetService.Snapshot once = DatasetCompactor.compact(raw(40, 1, 2), 8, "medoid", 20, 1);
+
+        DatasetService.Snapshot twice = DatasetCompactor.compact(once, 3, "medoid", 20, 2);
+
+        assertEquals(Map.of(1, 40.0, 2, 40.0), weightByRegion(twice));
+        rowsByRegion(twice).values().forEach(rows -> assertTrue(rows <= 3));
+    }
+
+    @Test
+    void votingSumsNeighbourWeights() {
+        // 区域 1 的一个代表（权重 5）比区域 2 的两个原始样本稍远
+        List<double[]> X = List.of(new double[]{-50, -69.5}, new double[]{-50.6, -70.5}, new double[]{-49.4, -70.5});
+        List<Integer> y = List.of(1, 2, 2);
+        double[] input = {-50, -70.5};
+
+        PredictResponse unweighted = KnnService.classify(X, y, input, 3, null);
+        PredictResponse weighted = KnnService.classify(X, y, List.of(5.0, 1.0, 1.0), input, 3, null, null);
+
+        assertEquals(2, unweighted.getRegionTop1());
+        assertEquals(1, weighted.getRegionTop1());
+        assertEquals(1, weighted.getRegionTop3().get(0).getRegionId());
+        assertEquals(5 / (1 + 1e-6), weighted.getRegionTop3().get(0).getScore(), 1e-9);
+        assertEquals(2, weighted.getRegionTop3().get(1).getRegionId());
+        assertEquals(2 / (0.6 + 1e-6), weighted.getRegionTop3().get(1).getScore(), 1e-9);
+    }
+
+    @Test
+    void compactedSetClassifiesLikeRawSet() {
+        DatasetService.Snapshot raw = raw(30, 1, 2, 3);
+        DatasetService.Snapshot compacted = DatasetCompactor.compact(raw, 4, "medoid", 20, 1);
+
+        for (int q = 0; q < 60; q++) {
+            int region = 1 + q % 3;
+            double[] input = sample(region);
+            PredictResponse expected = KnnService.classify(raw.vectors(), raw.labels(), raw.weights(), input, 5, null, null);
+            PredictResponse actual = KnnService.classify(compacted.vectors(), compacted.labels(), compacted.weights(),
+                    input, 5, null, null);
+
+            assertEquals(region, expected.getRegionTop1());
+            assertEquals(expected.getRegionTop1(), actual.getRegionTop1());
+        }
+    }
+}